@@ -51,6 +51,7 @@ import io.jpom.service.manage.JdkInfoService;
 import io.jpom.service.manage.ProjectInfoService;
 import io.jpom.system.AgentExtConfigBean;
 import io.jpom.system.JpomRuntimeException;
+import io.jpom.system.ProcessTableManager;
 import io.jpom.util.CommandUtil;
 import io.jpom.util.FileUtils;
 import io.jpom.util.JvmUtil;
@@ -273,6 +274,7 @@ public abstract class AbstractProjectCommander {
             // 端口号缓存
             PID_PORT.remove(pid);
         }
+        ProcessTableManager.invalidate();
         this.asyncWebHooks(nodeProjectInfoModel, javaCopyItem, "stop", "result", result);
         return new Tuple(StrUtil.emptyToDefault(beforeStop, StrUtil.EMPTY), result);
     }
@@ -487,6 +489,11 @@ public abstract class AbstractProjectCommander {
      * @return 查询结果
      */
     protected String status(String tag) {
+        if (ProcessTableManager.isEnabled()) {
+            // 进程表已经包含 ps -ef 能查询到的进程
+            Integer pid = ProcessTableManager.get().getPidByTag(tag);
+            return this.formatStatus(pid);
+        }
         String jpsStatus = this.getJpsStatus(tag);
         if (StrUtil.equals(AbstractProjectCommander.STOP_TAG, jpsStatus) && SystemUtil.getOsInfo().isLinux()) {
             return getLinuxPsStatus(tag);
@@ -502,6 +509,16 @@ public abstract class AbstractProjectCommander {
      */
     private String getJpsStatus(String tag) {
         Integer pid = JvmUtil.getPidByTag(tag);
+        return this.formatStatus(pid);
+    }
+
+    /**
+     * 格式化运行状态
+     *
+     * @param pid 进程id
+     * @return 运行标识
+     */
+    private String formatStatus(Integer pid) {
         if (pid == null || pid <= 0) {
             return AbstractProjectCommander.STOP_TAG;
         }
@@ -606,7 +623,7 @@ public abstract class AbstractProjectCommander {
         if (name != null) {
             return name;
         }
-        String virtualMachine = JvmUtil.getPidJpsInfoInfo(pid);
+        String virtualMachine = ProcessTableManager.isEnabled() ? ProcessTableManager.get().getJavaCommandLine(pid) : JvmUtil.getPidJpsInfoInfo(pid);
         if (virtualMachine == null) {
             return StrUtil.DASHED;
         }
@@ -638,7 +655,7 @@ public abstract class AbstractProjectCommander {
         int parsePid = ProjectCommanderUtil.parsePid(result);
         if (parsePid > 0) {
             PID_JPOM_NAME.put(parsePid, nodeProjectInfoModel.getName());
-        } else {
+        } else if (!ProcessTableManager.isEnabled()) {
             Assert.state(JvmUtil.jpsNormal, JvmUtil.JPS_ERROR_MSG);
         }
         return parsePid;
@@ -699,6 +716,8 @@ public abstract class AbstractProjectCommander {
         int loopCount = (int) (TimeUnit.SECONDS.toMillis(stopWaitTime) / 500);
         int count = 0;
         do {
+            // 需要实时的进程状态
+            ProcessTableManager.invalidate();
             if (this.isRun(nodeProjectInfoModel, javaCopyItem) == status) {
                 return status;
             }
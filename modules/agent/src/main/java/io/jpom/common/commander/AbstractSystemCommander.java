@@ -24,10 +24,12 @@ package io.jpom.common.commander;
 
 import cn.hutool.system.SystemUtil;
 import com.alibaba.fastjson.JSONObject;
+import io.jpom.common.commander.impl.LinuxProcSystemCommander;
 import io.jpom.common.commander.impl.LinuxSystemCommander;
 import io.jpom.common.commander.impl.MacOsSystemCommander;
 import io.jpom.common.commander.impl.WindowsSystemCommander;
 import io.jpom.model.system.ProcessModel;
+import io.jpom.system.AgentExtConfigBean;
 import io.jpom.system.JpomRuntimeException;
 import io.jpom.util.CommandUtil;
 
@@ -50,7 +52,12 @@ public abstract class AbstractSystemCommander {
 		}
 		if (SystemUtil.getOsInfo().isLinux()) {
 			// Linux系统
-			abstractSystemCommander = new LinuxSystemCommander();
+			if (AgentExtConfigBean.getInstance().isProcMonitor() && LinuxProcSystemCommander.isSupported()) {
+				// 直接读取 /proc，读取失败时回退到 top 命令
+				abstractSystemCommander = new LinuxProcSystemCommander();
+			} else {
+				abstractSystemCommander = new LinuxSystemCommander();
+			}
 		} else if (SystemUtil.getOsInfo().isWindows()) {
 			// Windows系统
 			abstractSystemCommander = new WindowsSystemCommander();
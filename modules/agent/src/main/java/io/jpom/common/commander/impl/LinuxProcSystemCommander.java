@@ -0,0 +1,374 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.common.commander.impl;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.StrUtil;
+import com.alibaba.fastjson.JSONObject;
+import io.jpom.model.system.ProcessModel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 直接读取 /proc 获取监控信息，不再每次 fork top 命令
+ * <p>
+ * cpu 占用按两次采样的差值计算，首次采样使用开机（进程启动）以来的平均值，和 top 第一帧一致。
+ * 读取 /proc 失败时回退到 {@link LinuxSystemCommander} 的 top 命令实现
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/13
+ */
+@Slf4j
+public class LinuxProcSystemCommander extends LinuxSystemCommander {
+
+    private static final String PROC = "/proc";
+    private static final Path PROC_STAT = Paths.get(PROC, "stat");
+    private static final Path PROC_MEMINFO = Paths.get(PROC, "meminfo");
+    private static final Path PROC_UPTIME = Paths.get(PROC, "uptime");
+    /**
+     * USER_HZ，linux 上基本固定为 100
+     */
+    private static final int CLOCK_TICKS = 100;
+    /**
+     * 进程上一次的 cpu 采样 [进程 ticks, 系统总 ticks]
+     */
+    private static final LRUCache<Integer, long[]> PID_CPU_SAMPLE = CacheUtil.newLRUCache(1024);
+
+    /**
+     * 上一次系统 cpu 采样 [user, total]
+     */
+    private volatile long[] lastCpuSample;
+    private final int cpuCount;
+    private volatile long memTotal;
+
+    public LinuxProcSystemCommander() {
+        this.cpuCount = readCpuCount();
+    }
+
+    /**
+     * 当前系统是否可以直接读取 /proc
+     *
+     * @return true 支持
+     */
+    public static boolean isSupported() {
+        return Files.isReadable(PROC_STAT) && Files.isReadable(PROC_MEMINFO);
+    }
+
+    @Override
+    public JSONObject getAllMonitor() {
+        try {
+            long[] cpuTicks = readCpuTicks();
+            long[] memInfo = readMemInfo();
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put("cpu", this.computeCpu(cpuTicks));
+            long total = memInfo[0];
+            if (total > 0) {
+                // 和 top 保持一致：memory 为 total - free，memoryUsed 为除去 buff/cache 的实际使用
+                jsonObject.put("memory", String.format("%.2f", (total - memInfo[1]) * 100D / total));
+                jsonObject.put("memoryUsed", String.format("%.2f", (total - memInfo[2]) * 100D / total));
+            }
+            jsonObject.put("disk", getHardDisk());
+            return jsonObject;
+        } catch (Exception e) {
+            log.warn("读取 /proc 监控信息失败,使用 top 命令获取：{}", e.getMessage());
+            return super.getAllMonitor();
+        }
+    }
+
+    @Override
+    public List<ProcessModel> getProcessList(String processName) {
+        try {
+            File[] files = FileUtil.ls(PROC);
+            long[] cpuTicks = readCpuTicks();
+            double uptime = readUptime();
+            List<ProcessModel> list = new ArrayList<>();
+            for (File file : files) {
+                int pid = parsePid(file.getName());
+                if (pid <= 0) {
+                    continue;
+                }
+                try {
+                    String stat = readFirstLine(Paths.get(PROC, file.getName(), "stat"));
+                    String comm = parseComm(stat);
+                    if (!StrUtil.contains(comm, processName)) {
+                        continue;
+                    }
+                    list.add(this.buildProcess(pid, stat, cpuTicks[1], uptime));
+                } catch (NoSuchFileException ignored) {
+                    // 进程已经结束
+                }
+            }
+            return list;
+        } catch (Exception e) {
+            log.warn("读取 /proc 进程列表失败,使用 top 命令获取：{}", e.getMessage());
+            return super.getProcessList(processName);
+        }
+    }
+
+    @Override
+    public ProcessModel getPidInfo(int pid) {
+        Path statPath = Paths.get(PROC, String.valueOf(pid), "stat");
+        try {
+            String stat = readFirstLine(statPath);
+            long[] cpuTicks = readCpuTicks();
+            return this.buildProcess(pid, stat, cpuTicks[1], readUptime());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (Exception e) {
+            log.warn("读取 /proc 进程信息失败,使用 top 命令获取：{}", e.getMessage());
+            return super.getPidInfo(pid);
+        }
+    }
+
+    /**
+     * 根据 /proc/[pid]/stat、/proc/[pid]/status 构建进程信息，字段含义和 top 保持一致
+     *
+     * @param pid        进程id
+     * @param stat       stat 文件内容
+     * @param totalTicks 当前系统总 cpu ticks
+     * @param uptime     系统运行时长（秒）
+     * @return 进程信息
+     * @throws IOException io
+     */
+    private ProcessModel buildProcess(int pid, String stat, long totalTicks, double uptime) throws IOException {
+        int commEnd = stat.lastIndexOf(')');
+        // 从 state 字段（第 3 个）开始
+        String[] fields = StrUtil.splitToArray(stat.substring(commEnd + 2), ' ');
+        long processTicks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+        //
+        long[] status = readPidStatus(pid);
+        ProcessModel processModel = new ProcessModel();
+        processModel.setPid(pid);
+        processModel.setUser(readOwner(pid));
+        processModel.setPr(fields[15]);
+        processModel.setNi(fields[16]);
+        processModel.setVirt(formSize(String.valueOf(status[0])));
+        processModel.setRes(formSize(String.valueOf(status[1])));
+        processModel.setShr(formSize(String.valueOf(status[2])));
+        processModel.setStatus(formStatus(fields[0]));
+        //
+        double cpu;
+        long[] last = PID_CPU_SAMPLE.get(pid);
+        if (last != null && totalTicks > last[1] && processTicks >= last[0]) {
+            cpu = (processTicks - last[0]) * 100D * cpuCount / (totalTicks - last[1]);
+        } else {
+            // 首次采样，取进程启动以来的平均值
+            double runSeconds = uptime - Long.parseLong(fields[19]) / (double) CLOCK_TICKS;
+            cpu = runSeconds <= 0 ? 0 : processTicks * 100D / CLOCK_TICKS / runSeconds;
+        }
+        PID_CPU_SAMPLE.put(pid, new long[]{processTicks, totalTicks});
+        processModel.setCpu(String.format("%.1f", cpu) + "%");
+        long total = this.getMemTotal();
+        processModel.setMem(String.format("%.1f", total <= 0 ? 0 : status[1] * 100D / total) + "%");
+        //
+        long hundredths = processTicks * 100 / CLOCK_TICKS;
+        processModel.setTime(String.format("%d:%02d.%02d", hundredths / 6000, hundredths / 100 % 60, hundredths % 100));
+        processModel.setCommand(parseComm(stat));
+        return processModel;
+    }
+
+    /**
+     * 按差值计算用户态 cpu 占比（和 top 的 us 一致）
+     *
+     * @param cpuTicks [user, total]
+     * @return 占比
+     */
+    private String computeCpu(long[] cpuTicks) {
+        long[] last = this.lastCpuSample;
+        this.lastCpuSample = cpuTicks;
+        long user = cpuTicks[0], total = cpuTicks[1];
+        if (last != null && total > last[1]) {
+            user -= last[0];
+            total -= last[1];
+        }
+        if (total <= 0) {
+            return null;
+        }
+        return String.format("%.2f", user * 100D / total);
+    }
+
+    private long getMemTotal() throws IOException {
+        if (memTotal <= 0) {
+            memTotal = readMemInfo()[0];
+        }
+        return memTotal;
+    }
+
+    /**
+     * 读取 /proc/stat 第一行
+     *
+     * @return [user, total]
+     * @throws IOException io
+     */
+    private static long[] readCpuTicks() throws IOException {
+        String line = readFirstLine(PROC_STAT);
+        List<String> split = StrUtil.split(line, ' ', -1, true, true);
+        // cpu user nice system idle iowait irq softirq steal （guest 已经计入 user）
+        long total = 0;
+        for (int i = 1; i < Math.min(split.size(), 9); i++) {
+            total += Long.parseLong(split.get(i));
+        }
+        return new long[]{Long.parseLong(split.get(1)), total};
+    }
+
+    /**
+     * 读取 /proc/meminfo
+     *
+     * @return [total, free, available] 单位 kB
+     * @throws IOException io
+     */
+    private static long[] readMemInfo() throws IOException {
+        long total = 0, free = 0, available = -1, buffers = 0, cached = 0, reclaimable = 0;
+        try (BufferedReader reader = Files.newBufferedReader(PROC_MEMINFO, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("MemTotal:")) {
+                    total = parseKb(line);
+                } else if (line.startsWith("MemFree:")) {
+                    free = parseKb(line);
+                } else if (line.startsWith("MemAvailable:")) {
+                    available = parseKb(line);
+                } else if (line.startsWith("Buffers:")) {
+                    buffers = parseKb(line);
+                } else if (line.startsWith("Cached:")) {
+                    cached = parseKb(line);
+                } else if (line.startsWith("SReclaimable:")) {
+                    reclaimable = parseKb(line);
+                }
+            }
+        }
+        if (available < 0) {
+            // 低版本内核没有 MemAvailable
+            available = free + buffers + cached + reclaimable;
+        }
+        return new long[]{total, free, available};
+    }
+
+    /**
+     * 读取 /proc/[pid]/status
+     *
+     * @param pid 进程id
+     * @return [virt, res, shr] 单位 kB
+     * @throws IOException io
+     */
+    private static long[] readPidStatus(int pid) throws IOException {
+        long virt = 0, res = 0, shr = 0;
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(PROC, String.valueOf(pid), "status"), StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmSize:")) {
+                    virt = parseKb(line);
+                } else if (line.startsWith("VmRSS:")) {
+                    res = parseKb(line);
+                } else if (line.startsWith("RssFile:") || line.startsWith("RssShmem:")) {
+                    shr += parseKb(line);
+                }
+            }
+        }
+        return new long[]{virt, res, shr};
+    }
+
+    private static String readOwner(int pid) {
+        try {
+            return Files.getOwner(Paths.get(PROC, String.valueOf(pid))).getName();
+        } catch (IOException e) {
+            return StrUtil.DASHED;
+        }
+    }
+
+    private static double readUptime() throws IOException {
+        String line = readFirstLine(PROC_UPTIME);
+        return Double.parseDouble(StrUtil.subBefore(line, StrUtil.SPACE, false));
+    }
+
+    private static int readCpuCount() {
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(PROC_STAT, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("cpu") && line.length() > 3 && Character.isDigit(line.charAt(3))) {
+                    count++;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("读取 cpu 核数失败：{}", e.getMessage());
+        }
+        return count > 0 ? count : Runtime.getRuntime().availableProcessors();
+    }
+
+    private static String readFirstLine(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.US_ASCII)) {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new IOException("empty " + path);
+            }
+            return line;
+        }
+    }
+
+    private static String parseComm(String stat) {
+        int start = stat.indexOf('(');
+        int end = stat.lastIndexOf(')');
+        if (start < 0 || end < start) {
+            return StrUtil.EMPTY;
+        }
+        return stat.substring(start + 1, end);
+    }
+
+    private static long parseKb(String line) {
+        long value = 0;
+        for (int i = line.indexOf(':') + 1, len = line.length(); i < len; i++) {
+            char c = line.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+            } else if (value > 0) {
+                break;
+            }
+        }
+        return value;
+    }
+
+    private static int parsePid(String name) {
+        int pid = 0;
+        for (int i = 0, len = name.length(); i < len; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            pid = pid * 10 + (c - '0');
+        }
+        return pid;
+    }
+}
@@ -136,7 +136,7 @@ public class LinuxSystemCommander extends AbstractSystemCommander {
     }
 
 
-    private static String formStatus(String val) {
+    protected static String formStatus(String val) {
         String value = "未知";
         if ("S".equalsIgnoreCase(val)) {
             value = "睡眠";
@@ -154,7 +154,7 @@ public class LinuxSystemCommander extends AbstractSystemCommander {
         return value;
     }
 
-    private static String formSize(String val) {
+    protected static String formSize(String val) {
         if (StrUtil.endWithIgnoreCase(val, "g")) {
             String newVal = val.substring(0, val.length() - 1);
             return String.format("%.2f MB", Convert.toDouble(newVal, 0D) * 1024);
@@ -36,6 +36,7 @@ import io.jpom.model.data.NodeScriptModel;
 import io.jpom.plugin.PluginFactory;
 import io.jpom.service.manage.ProjectInfoService;
 import io.jpom.service.script.NodeScriptServer;
+import io.jpom.system.ProcessTableManager;
 import io.jpom.util.JvmUtil;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -91,7 +92,8 @@ public class IndexController extends BaseAgentController {
 		List<NodeProjectInfoModel> nodeProjectInfoModels = projectInfoService.list();
 		List<NodeScriptModel> list = nodeScriptServer.list();
 		JSONObject jsonObject = new JSONObject();
-		jsonObject.put("javaVirtualCount", JvmUtil.getJavaVirtualCount());
+		int javaVirtualCount = ProcessTableManager.isEnabled() ? ProcessTableManager.get().getJavaCount() : JvmUtil.getJavaVirtualCount();
+		jsonObject.put("javaVirtualCount", javaVirtualCount);
 		JpomManifest instance = JpomManifest.getInstance();
 		jsonObject.put("osName", instance.getOsName());
 		jsonObject.put("jpomVersion", instance.getVersion());
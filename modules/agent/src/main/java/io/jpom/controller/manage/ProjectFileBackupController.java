@@ -131,7 +131,7 @@ public class ProjectFileBackupController extends BaseAgentController {
                 ServletUtil.write(response, "暂不支持下载文件夹", MediaType.TEXT_HTML_VALUE);
                 return;
             }
-            ServletUtil.write(response, file);
+            this.writeFile(file);
         } catch (Exception e) {
             log.error("下载文件异常", e);
             ServletUtil.write(response, "下载文件异常:" + e.getMessage(), MediaType.TEXT_HTML_VALUE);
@@ -194,6 +194,7 @@ public class ProjectFileBackupController extends BaseAgentController {
             projectFile = FileUtil.file(projectPath, StrUtil.emptyToDefault(levelName, FileUtil.FILE_SEPARATOR), filename);
             FileUtil.copy(backupFile, projectFile, true);
         }
+        ProjectFileBackupUtil.invalidateManifest(projectInfoModel.getId(), projectPath, projectFile);
         return JsonMessage.getString(200, "还原成功");
     }
 
@@ -29,13 +29,13 @@ import cn.hutool.core.io.FileUtil;
 import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.ArrayUtil;
 import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.IdUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.crypto.SecureUtil;
-import cn.hutool.extra.servlet.ServletUtil;
 import cn.hutool.http.HttpUtil;
 import cn.jiangzeyin.common.JsonMessage;
 import cn.jiangzeyin.common.validator.ValidatorItem;
 import cn.jiangzeyin.controller.multipart.MultipartFileBuilder;
+import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import io.jpom.common.BaseAgentController;
 import io.jpom.common.commander.AbstractProjectCommander;
@@ -122,25 +122,19 @@ public class ProjectFileControl extends BaseAgentController {
         //
         List<DiffFileVo.DiffItem> data = diffFileVo.getData();
         Assert.notEmpty(data, "没有要对比的数据");
-        // 扫描项目目录下面的所有文件
+        // 旧版本服务端没有传签名方式
+        String hashType = diffFileVo.getHashType();
+        boolean compact = StrUtil.isNotEmpty(hashType);
+        hashType = StrUtil.emptyToDefault(hashType, FileHashManifest.HASH_SHA1);
+        Assert.state(FileHashManifest.support(hashType), "不支持的签名方式：" + hashType);
+        // 扫描项目目录下面的所有文件，只对有变化的文件重新签名
         String path = projectInfoModel.allLib();
-        List<File> files = FileUtil.loopFiles(path);
-        // 将所有的文件信息组装并签名
-        List<JSONObject> collect = files.stream().map(file -> {
-            //
-            JSONObject item = new JSONObject();
-            item.put("name", StringUtil.delStartPath(file, path, true));
-            item.put("sha1", SecureUtil.sha1(file));
-            return item;
-        }).collect(Collectors.toList());
-        // 得到 当前下面文件夹下面所有的文件信息 map
-        Map<String, String> nowMap = CollStreamUtil.toMap(collect,
-            jsonObject12 -> jsonObject12.getString("name"),
-            jsonObject1 -> jsonObject1.getString("sha1"));
+        File manifestFile = ProjectFileBackupUtil.manifestFile(projectInfoModel.getId());
+        Map<String, String> nowMap = FileHashManifest.hash(FileUtil.file(path), path, manifestFile, hashType);
         // 将需要对应的信息转为 map
         Map<String, String> tryMap = CollStreamUtil.toMap(data, DiffFileVo.DiffItem::getName, DiffFileVo.DiffItem::getSha1);
         // 对应需要 当前项目文件夹下没有的和文件内容有变化的
-        List<JSONObject> canSync = tryMap.entrySet()
+        List<String> canSync = tryMap.entrySet()
             .stream()
             .filter(stringStringEntry -> {
                 String nowSha1 = nowMap.get(stringStringEntry.getKey());
@@ -151,40 +145,46 @@ public class ProjectFileControl extends BaseAgentController {
                 // 如果 文件信息一致 则过滤
                 return !StrUtil.equals(stringStringEntry.getValue(), nowSha1);
             })
-            .map(stringStringEntry -> {
-                //
-                JSONObject item = new JSONObject();
-                item.put("name", stringStringEntry.getKey());
-                item.put("sha1", stringStringEntry.getValue());
-                return item;
-            })
+            .map(Map.Entry::getKey)
             .collect(Collectors.toList());
         // 对比项目文件夹下有对，但是需要对应对信息里面没有对。此类文件需要删除
-        List<JSONObject> delArray = nowMap.entrySet()
+        List<String> delArray = nowMap.keySet()
             .stream()
-            .filter(stringStringEntry -> !tryMap.containsKey(stringStringEntry.getKey()))
-            .map(stringStringEntry -> {
-                //
-                JSONObject item = new JSONObject();
-                item.put("name", stringStringEntry.getKey());
-                item.put("sha1", stringStringEntry.getValue());
-                return item;
-            })
+            .filter(name -> !tryMap.containsKey(name))
             .collect(Collectors.toList());
         //
         JSONObject result = new JSONObject();
-        result.put("diff", canSync);
-        result.put("del", delArray);
+        if (compact) {
+            // 只返回文件名
+            result.put("hashType", hashType);
+            result.put("diff", canSync);
+            result.put("del", delArray);
+        } else {
+            result.put("diff", this.toDiffItems(canSync, tryMap));
+            result.put("del", this.toDiffItems(delArray, nowMap));
+        }
         return JsonMessage.getString(200, "", result);
     }
 
 
+    private List<JSONObject> toDiffItems(List<String> names, Map<String, String> hashMap) {
+        return names.stream().map(name -> {
+            //
+            JSONObject item = new JSONObject();
+            item.put("name", name);
+            item.put("sha1", hashMap.get(name));
+            return item;
+        }).collect(Collectors.toList());
+    }
+
+
     @RequestMapping(value = "upload", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
     public String upload() throws Exception {
         NodeProjectInfoModel pim = getProjectInfoModel();
-        MultipartFileBuilder multipartFileBuilder = createMultipart()
-            .addFieldName("file")
-            .setUseOriginalFilename(true);
+        // 中继分发的文件已经在节点上，不需要再上传
+        String relayId = getParameter("relayId");
+        File relayFile = StrUtil.isEmpty(relayId) ? null : FileRelayManager.getInstance().getFile(relayId);
+        MultipartFileBuilder multipartFileBuilder = relayFile == null ? this.createUploadMultipart() : null;
         // 压缩文件
         String type = getParameter("type");
         // 是否清空
@@ -197,8 +197,17 @@ public class ProjectFileControl extends BaseAgentController {
             // 判断是否需要清空
             if ("clear".equalsIgnoreCase(clearType)) {
                 CommandUtil.systemFastDel(lib);
+                ProjectFileBackupUtil.invalidateManifest(pim.getId(), pim.allLib(), lib);
             }
-            if ("unzip".equals(type)) {
+            if (relayFile != null) {
+                if ("unzip".equals(type)) {
+                    CompressionFileUtil.unCompress(relayFile, lib);
+                    ProjectFileBackupUtil.invalidateManifest(pim.getId(), pim.allLib(), lib);
+                } else {
+                    File file = FileUtil.copy(relayFile, FileUtil.file(lib, relayFile.getName()), true);
+                    ProjectFileBackupUtil.invalidateManifest(pim.getId(), pim.allLib(), file);
+                }
+            } else if ("unzip".equals(type)) {
                 multipartFileBuilder.setFileExt(StringUtil.PACKAGE_EXT);
                 multipartFileBuilder.setSavePath(AgentConfigBean.getInstance().getTempPathName());
                 String path = multipartFileBuilder.save();
@@ -206,6 +215,7 @@ public class ProjectFileControl extends BaseAgentController {
                 File file = new File(path);
                 try {
                     CompressionFileUtil.unCompress(file, lib);
+                    ProjectFileBackupUtil.invalidateManifest(pim.getId(), pim.allLib(), lib);
                 } finally {
                     if (!FileUtil.del(file)) {
                         log.error("删除文件失败：" + file.getPath());
@@ -214,49 +224,15 @@ public class ProjectFileControl extends BaseAgentController {
             } else {
                 multipartFileBuilder.setSavePath(FileUtil.getAbsolutePath(lib));
                 // 保存
-                multipartFileBuilder.save();
+                String path = multipartFileBuilder.save();
+                ProjectFileBackupUtil.invalidateManifest(pim.getId(), pim.allLib(), FileUtil.file(path));
             }
             // 修改使用状态
             projectInfoService.updateItem(pim);
             //
-            String after = getParameter("after");
-            if (StrUtil.isNotEmpty(after)) {
-                //
-                List<NodeProjectInfoModel.JavaCopyItem> javaCopyItemList = pim.getJavaCopyItemList();
-                //
-                AfterOpt afterOpt = BaseEnum.getEnum(AfterOpt.class, Convert.toInt(after, AfterOpt.No.getCode()));
-                if ("restart".equalsIgnoreCase(after) || afterOpt == AfterOpt.Restart) {
-                    String result = consoleService.execCommand(ConsoleCommandOp.restart, pim, null);
-                    // 自动处理副本集
-                    if (javaCopyItemList != null) {
-                        ThreadUtil.execute(() -> javaCopyItemList.forEach(javaCopyItem -> {
-                            try {
-                                consoleService.execCommand(ConsoleCommandOp.restart, pim, javaCopyItem);
-                            } catch (Exception e) {
-                                log.error("重启副本集失败", e);
-                            }
-                        }));
-                    }
-                    return JsonMessage.getString(200, "上传成功并重启：" + result);
-                }
-                if (afterOpt == AfterOpt.Order_Restart || afterOpt == AfterOpt.Order_Must_Restart) {
-                    boolean restart = this.restart(pim, null, afterOpt);
-                    if (javaCopyItemList != null) {
-                        ThreadUtil.execute(() -> {
-                            // 副本
-                            for (NodeProjectInfoModel.JavaCopyItem javaCopyItem : javaCopyItemList) {
-                                if (!this.restart(pim, javaCopyItem, afterOpt)) {
-                                    return;
-                                }
-                                // 休眠30秒 等待之前项目正常启动
-                                try {
-                                    TimeUnit.SECONDS.sleep(30);
-                                } catch (InterruptedException ignored) {
-                                }
-                            }
-                        });
-                    }
-                }
+            String result = this.afterUpload(pim, getParameter("after"));
+            if (result != null) {
+                return JsonMessage.getString(200, result);
             }
         } finally {
             ProjectFileBackupUtil.checkDiff(pim.getId(), pim.allLib(), backupId, pim.dslConfig());
@@ -265,6 +241,101 @@ public class ProjectFileControl extends BaseAgentController {
     }
 
 
+    private MultipartFileBuilder createUploadMultipart() {
+        return createMultipart()
+            .addFieldName("file")
+            .setUseOriginalFilename(true);
+    }
+
+    /**
+     * 上传完成后执行的操作
+     *
+     * @param pim   项目
+     * @param after 操作
+     * @return 需要返回的消息，为 null 则返回默认消息
+     */
+    private String afterUpload(NodeProjectInfoModel pim, String after) throws Exception {
+        if (StrUtil.isEmpty(after)) {
+            return null;
+        }
+        //
+        List<NodeProjectInfoModel.JavaCopyItem> javaCopyItemList = pim.getJavaCopyItemList();
+        //
+        AfterOpt afterOpt = BaseEnum.getEnum(AfterOpt.class, Convert.toInt(after, AfterOpt.No.getCode()));
+        if ("restart".equalsIgnoreCase(after) || afterOpt == AfterOpt.Restart) {
+            String result = consoleService.execCommand(ConsoleCommandOp.restart, pim, null);
+            // 自动处理副本集
+            if (javaCopyItemList != null) {
+                ThreadUtil.execute(() -> javaCopyItemList.forEach(javaCopyItem -> {
+                    try {
+                        consoleService.execCommand(ConsoleCommandOp.restart, pim, javaCopyItem);
+                    } catch (Exception e) {
+                        log.error("重启副本集失败", e);
+                    }
+                }));
+            }
+            return "上传成功并重启：" + result;
+        }
+        if (afterOpt == AfterOpt.Order_Restart || afterOpt == AfterOpt.Order_Must_Restart) {
+            boolean restart = this.restart(pim, null, afterOpt);
+            if (javaCopyItemList != null) {
+                ThreadUtil.execute(() -> {
+                    // 副本
+                    for (NodeProjectInfoModel.JavaCopyItem javaCopyItem : javaCopyItemList) {
+                        if (!this.restart(pim, javaCopyItem, afterOpt)) {
+                            return;
+                        }
+                        // 休眠30秒 等待之前项目正常启动
+                        try {
+                            TimeUnit.SECONDS.sleep(30);
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                });
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 差异发布，上传有变化的文件的压缩包并删除多余的文件
+     * <p>
+     * 压缩包先完整解压到临时目录，再统一替换、删除项目文件，失败时还原
+     *
+     * @return json
+     */
+    @PostMapping(value = "diff_upload", produces = MediaType.APPLICATION_JSON_VALUE)
+    public String diffUpload() throws Exception {
+        NodeProjectInfoModel pim = getProjectInfoModel();
+        String del = getParameter("del");
+        List<String> delNames = StrUtil.isEmpty(del) ? Collections.emptyList() : JSONArray.parseArray(del, String.class);
+        String path = createMultipart()
+            .addFieldName("file")
+            .setUseOriginalFilename(true)
+            .setFileExt("zip")
+            .setSavePath(AgentConfigBean.getInstance().getTempPathName())
+            .save();
+        File archive = new File(path);
+        File workDir = FileUtil.file(AgentConfigBean.getInstance().getTempPath(), "diff_upload", IdUtil.fastSimpleUUID());
+        String allLib = pim.allLib();
+        // 备份文件
+        String backupId = ProjectFileBackupUtil.backup(pim.getId(), allLib);
+        try {
+            List<File> changeFiles = DiffSyncArchiveUtil.apply(archive, FileUtil.file(allLib), delNames, workDir);
+            ProjectFileBackupUtil.invalidateManifest(pim.getId(), allLib, changeFiles);
+            // 修改使用状态
+            projectInfoService.updateItem(pim);
+            //
+            String result = this.afterUpload(pim, getParameter("after"));
+            return JsonMessage.getString(200, StrUtil.emptyToDefault(result, "上传成功"));
+        } finally {
+            if (!FileUtil.del(archive)) {
+                log.error("删除文件失败：" + archive.getPath());
+            }
+            ProjectFileBackupUtil.checkDiff(pim.getId(), allLib, backupId, pim.dslConfig());
+        }
+    }
+
     private boolean restart(NodeProjectInfoModel nodeProjectInfoModel, NodeProjectInfoModel.JavaCopyItem javaCopyItem, AfterOpt afterOpt) {
         try {
             String result = consoleService.execCommand(ConsoleCommandOp.restart, nodeProjectInfoModel, javaCopyItem);
@@ -295,6 +366,7 @@ public class ProjectFileControl extends BaseAgentController {
         try {
             if ("clear".equalsIgnoreCase(type)) {
                 // 清空文件
+                ProjectFileBackupUtil.invalidateManifest(pim.getId(), pim.allLib(), file);
                 if (FileUtil.clean(file)) {
                     return JsonMessage.getString(200, "清除成功");
                 }
@@ -307,6 +379,7 @@ public class ProjectFileControl extends BaseAgentController {
                 file = FileUtil.file(file, filename);
 
                 if (file.exists()) {
+                    ProjectFileBackupUtil.invalidateManifest(pim.getId(), pim.allLib(), file);
                     if (FileUtil.del(file)) {
                         return JsonMessage.getString(200, "删除成功");
                     }
@@ -335,6 +408,7 @@ public class ProjectFileControl extends BaseAgentController {
             String path = projectInfoModel.allLib();
             for (DiffFileVo.DiffItem datum : data) {
                 File file = FileUtil.file(path, datum.getName());
+                ProjectFileBackupUtil.invalidateManifest(projectInfoModel.getId(), path, file);
                 if (FileUtil.del(file)) {
                     continue;
                 }
@@ -384,7 +458,9 @@ public class ProjectFileControl extends BaseAgentController {
         // 备份文件
         String backupId = ProjectFileBackupUtil.backup(pim.getId(), pim.allLib());
         try {
-            FileUtil.writeString(fileText, FileUtil.file(pim.allLib(), filePath, filename), charset);
+            File file = FileUtil.file(pim.allLib(), filePath, filename);
+            FileUtil.writeString(fileText, file, charset);
+            ProjectFileBackupUtil.invalidateManifest(pim.getId(), pim.allLib(), file);
             return JsonMessage.getString(200, "文件写入成功");
         } finally {
             ProjectFileBackupUtil.checkDiff(pim.getId(), pim.allLib(), backupId, pim.dslConfig());
@@ -413,7 +489,7 @@ public class ProjectFileControl extends BaseAgentController {
             if (file.isDirectory()) {
                 return "暂不支持下载文件夹";
             }
-            ServletUtil.write(getResponse(), file);
+            this.writeFile(file);
         } catch (Exception e) {
             log.error("下载文件异常", e);
         }
@@ -443,10 +519,12 @@ public class ProjectFileControl extends BaseAgentController {
         try {
             File file = FileUtil.file(pim.allLib(), StrUtil.emptyToDefault(levelName, FileUtil.FILE_SEPARATOR));
             File downloadFile = HttpUtil.downloadFileFromUrl(url, file);
+            ProjectFileBackupUtil.invalidateManifest(pim.getId(), pim.allLib(), downloadFile);
             if (BooleanUtil.toBoolean(unzip)) {
                 // 需要解压文件
                 try {
                     CompressionFileUtil.unCompress(downloadFile, file);
+                    ProjectFileBackupUtil.invalidateManifest(pim.getId(), pim.allLib(), file);
                 } finally {
                     if (!FileUtil.del(downloadFile)) {
                         log.error("删除文件失败：" + file.getPath());
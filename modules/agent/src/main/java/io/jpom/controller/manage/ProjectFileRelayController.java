@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.controller.manage;
+
+import cn.hutool.extra.servlet.ServletUtil;
+import cn.jiangzeyin.common.JsonMessage;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import io.jpom.common.BaseAgentController;
+import io.jpom.common.interceptor.NotAuthorize;
+import io.jpom.util.FileRelayManager;
+import io.jpom.util.FileRelayUtil;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * 项目文件中继分发
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+@RestController
+@RequestMapping(value = "/manage/file/")
+public class ProjectFileRelayController extends BaseAgentController {
+
+    /**
+     * 准备中继，由服务端调用
+     *
+     * @param relayId  中继ID
+     * @param token    中继令牌
+     * @param manifest 分块清单
+     * @param peers    下级节点的接收地址
+     * @return json
+     */
+    @PostMapping(value = "relay_prepare", produces = MediaType.APPLICATION_JSON_VALUE)
+    public String relayPrepare(String relayId, String token, String manifest, String peers) {
+        List<String> peerList = JSONArray.parseArray(peers, String.class);
+        FileRelayManager.getInstance().prepare(relayId, token, JSONObject.parseObject(manifest), peerList);
+        return JsonMessage.getString(200, "准备成功");
+    }
+
+    /**
+     * 接收分块，由服务端或者上级节点调用，使用中继令牌校验
+     *
+     * @param relayId 中继ID
+     * @param index   分块序号
+     * @return json
+     * @throws IOException io
+     */
+    @PostMapping(value = "relay_chunk", produces = MediaType.APPLICATION_JSON_VALUE)
+    @NotAuthorize
+    public String relayChunk(String relayId, int index) throws IOException {
+        HttpServletRequest request = getRequest();
+        String token = ServletUtil.getHeaderIgnoreCase(request, FileRelayUtil.TOKEN_HEADER);
+        // 中继、令牌和分块大小校验通过后才读取请求体
+        try (InputStream inputStream = request.getInputStream()) {
+            FileRelayManager.getInstance().receive(relayId, token, index, request.getContentLengthLong(), inputStream);
+        }
+        return JsonMessage.getString(200, "接收成功");
+    }
+
+    /**
+     * 中继状态
+     *
+     * @param relayId 中继ID
+     * @return json
+     */
+    @PostMapping(value = "relay_status", produces = MediaType.APPLICATION_JSON_VALUE)
+    public String relayStatus(String relayId) {
+        return JsonMessage.getString(200, "", FileRelayManager.getInstance().status(relayId));
+    }
+
+    /**
+     * 删除中继文件
+     *
+     * @param relayId 中继ID
+     * @return json
+     */
+    @PostMapping(value = "relay_clean", produces = MediaType.APPLICATION_JSON_VALUE)
+    public String relayClean(String relayId) {
+        FileRelayManager.getInstance().remove(relayId);
+        return JsonMessage.getString(200, "删除成功");
+    }
+}
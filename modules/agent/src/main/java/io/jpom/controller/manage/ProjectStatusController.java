@@ -22,6 +22,7 @@
  */
 package io.jpom.controller.manage;
 
+import cn.hutool.core.date.SystemClock;
 import cn.hutool.core.util.StrUtil;
 import cn.jiangzeyin.common.JsonMessage;
 import cn.jiangzeyin.common.validator.ValidatorItem;
@@ -33,6 +34,7 @@ import io.jpom.common.commander.AbstractProjectCommander;
 import io.jpom.model.data.NodeProjectInfoModel;
 import io.jpom.service.manage.ConsoleService;
 import io.jpom.socket.ConsoleCommandOp;
+import io.jpom.system.ProcessTableManager;
 import io.jpom.util.CommandUtil;
 import io.jpom.util.JvmUtil;
 import lombok.extern.slf4j.Slf4j;
@@ -74,6 +76,7 @@ public class ProjectStatusController extends BaseAgentController {
         JSONObject jsonObject = new JSONObject();
         try {
             CommandUtil.openCache();
+            ProcessTableManager.openCache();
             int pid = 0;
             try {
                 pid = AbstractProjectCommander.getInstance().getPid(nodeProjectInfoModel, null);
@@ -97,6 +100,51 @@ public class ProjectStatusController extends BaseAgentController {
                 jsonObject.put("copys", copys);
             }
         } finally {
+            ProcessTableManager.closeCache();
+            CommandUtil.closeCache();
+        }
+        return JsonMessage.getString(200, "", jsonObject);
+    }
+
+    /**
+     * 批量获取项目的运行状态（进程id、端口、运行时长、副本状态），所有项目使用同一份进程快照
+     *
+     * @param ids     项目 ids ["aa","ss"]
+     * @param getCopy 是否获取副本状态
+     * @return obj
+     */
+    @RequestMapping(value = "getProjectStatusList", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
+    public String getProjectStatusList(String ids, String getCopy) {
+        Assert.hasText(ids, "没有要获取的信息");
+        JSONArray jsonArray = JSONArray.parseArray(ids);
+        JSONObject jsonObject = new JSONObject();
+        try {
+            CommandUtil.openCache();
+            ProcessTableManager.openCache();
+            for (Object object : jsonArray) {
+                String item = object.toString();
+                NodeProjectInfoModel nodeProjectInfoModel = projectInfoService.getItem(item);
+                if (nodeProjectInfoModel == null) {
+                    continue;
+                }
+                JSONObject itemObj = this.buildStatus(nodeProjectInfoModel, null);
+                if (StrUtil.isNotEmpty(getCopy)) {
+                    List<NodeProjectInfoModel.JavaCopyItem> javaCopyItemList = nodeProjectInfoModel.getJavaCopyItemList();
+                    JSONArray copys = new JSONArray();
+                    if (javaCopyItemList != null) {
+                        for (NodeProjectInfoModel.JavaCopyItem javaCopyItem : javaCopyItemList) {
+                            JSONObject copyObj = this.buildStatus(nodeProjectInfoModel, javaCopyItem);
+                            copyObj.put("copyId", javaCopyItem.getId());
+                            copyObj.put("status", copyObj.getIntValue("pid") > 0);
+                            copys.add(copyObj);
+                        }
+                    }
+                    itemObj.put("copys", copys);
+                }
+                jsonObject.put(item, itemObj);
+            }
+        } finally {
+            ProcessTableManager.closeCache();
             CommandUtil.closeCache();
         }
         return JsonMessage.getString(200, "", jsonObject);
@@ -115,23 +163,14 @@ public class ProjectStatusController extends BaseAgentController {
         JSONObject jsonObject = new JSONObject();
         try {
             CommandUtil.openCache();
+            ProcessTableManager.openCache();
             for (Object object : jsonArray) {
                 String item = object.toString();
-                int pid = 0;
-                JSONObject itemObj = new JSONObject();
-                try {
-                    NodeProjectInfoModel projectInfoServiceItem = projectInfoService.getItem(item);
-                    pid = AbstractProjectCommander.getInstance().getPid(projectInfoServiceItem, null);
-                } catch (Exception e) {
-                    log.error("获取端口错误", e);
-                    itemObj.put("error", e.getMessage());
-                }
-                String port = AbstractProjectCommander.getInstance().getMainPort(pid);
-                itemObj.put("port", port);
-                itemObj.put("pid", pid);
-                jsonObject.put(item, itemObj);
+                NodeProjectInfoModel projectInfoServiceItem = projectInfoService.getItem(item);
+                jsonObject.put(item, this.buildStatus(projectInfoServiceItem, null));
             }
         } finally {
+            ProcessTableManager.closeCache();
             CommandUtil.closeCache();
         }
         return JsonMessage.getString(200, "", jsonObject);
@@ -157,29 +196,47 @@ public class ProjectStatusController extends BaseAgentController {
 
         try {
             CommandUtil.openCache();
+            ProcessTableManager.openCache();
             for (Object object : jsonArray) {
                 String item = object.toString();
                 NodeProjectInfoModel.JavaCopyItem copyItem = nodeProjectInfoModel.findCopyItem(item);
-                int pid = 0;
-                JSONObject itemObj = new JSONObject();
-                try {
-                    pid = AbstractProjectCommander.getInstance().getPid(nodeProjectInfoModel, copyItem);
-                } catch (Exception e) {
-                    log.error("获取端口错误", e);
-                    itemObj.put("error", e.getMessage());
-                }
-                String port = AbstractProjectCommander.getInstance().getMainPort(pid);
-                itemObj.put("port", port);
-                itemObj.put("pid", pid);
-
-                jsonObject.put(item, itemObj);
+                jsonObject.put(item, this.buildStatus(nodeProjectInfoModel, copyItem));
             }
         } finally {
+            ProcessTableManager.closeCache();
             CommandUtil.closeCache();
         }
         return JsonMessage.getString(200, "", jsonObject);
     }
 
+    /**
+     * 查询项目（副本）的进程id、端口、运行时长
+     *
+     * @param nodeProjectInfoModel 项目
+     * @param copyItem             副本
+     * @return json
+     */
+    private JSONObject buildStatus(NodeProjectInfoModel nodeProjectInfoModel, NodeProjectInfoModel.JavaCopyItem copyItem) {
+        int pid = 0;
+        JSONObject itemObj = new JSONObject();
+        try {
+            pid = AbstractProjectCommander.getInstance().getPid(nodeProjectInfoModel, copyItem);
+        } catch (Exception e) {
+            log.error("获取端口错误", e);
+            itemObj.put("error", e.getMessage());
+        }
+        String port = AbstractProjectCommander.getInstance().getMainPort(pid);
+        itemObj.put("port", port);
+        itemObj.put("pid", pid);
+        if (pid > 0 && ProcessTableManager.isEnabled()) {
+            Long startTime = ProcessTableManager.get().getStartTime(pid);
+            if (startTime != null) {
+                itemObj.put("upTime", SystemClock.now() - startTime);
+            }
+        }
+        return itemObj;
+    }
+
     @RequestMapping(value = "restart", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
     public String restart(@ValidatorItem(value = ValidatorRule.NOT_BLANK, msg = "项目id 不正确") String id, String copyId) {
         NodeProjectInfoModel item = projectInfoService.getItem(id);
@@ -23,7 +23,6 @@
 package io.jpom.controller.manage.log;
 
 import cn.hutool.core.io.FileUtil;
-import cn.hutool.extra.servlet.ServletUtil;
 import cn.jiangzeyin.common.JsonMessage;
 import com.alibaba.fastjson.JSONObject;
 import io.jpom.common.BaseAgentController;
@@ -38,7 +37,6 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
 
-import javax.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.util.List;
 
@@ -109,7 +107,7 @@ public class LogBackController extends BaseAgentController {
             File logBack = copyItem == null ? pim.getLogBack() : pim.getLogBack(copyItem);
             if (logBack.exists() && logBack.isDirectory()) {
                 logBack = FileUtil.file(logBack, key);
-                ServletUtil.write(getResponse(), logBack);
+                this.writeFile(logBack);
             } else {
                 return "没有对应文件";
             }
@@ -149,8 +147,7 @@ public class LogBackController extends BaseAgentController {
         if (!file.exists()) {
             return JsonMessage.getString(400, "没有日志文件:" + file.getPath());
         }
-        HttpServletResponse response = getResponse();
-        ServletUtil.write(response, file);
+        this.writeFile(file);
         return JsonMessage.getString(200, "");
     }
 }
@@ -32,6 +32,12 @@ public class DiffFileVo {
 
 	private String id;
 	private List<DiffItem> data;
+	/**
+	 * 签名方式，为空表示 sha1
+	 *
+	 * @see io.jpom.util.FileHashManifest
+	 */
+	private String hashType;
 
 	public String getId() {
 		return id;
@@ -41,6 +47,14 @@ public class DiffFileVo {
 		this.id = id;
 	}
 
+	public String getHashType() {
+		return hashType;
+	}
+
+	public void setHashType(String hashType) {
+		this.hashType = hashType;
+	}
+
 	public List<DiffItem> getData() {
 		return data;
 	}
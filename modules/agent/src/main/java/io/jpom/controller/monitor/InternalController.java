@@ -24,7 +24,6 @@ package io.jpom.controller.monitor;
 
 import cn.hutool.core.io.FileUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.extra.servlet.ServletUtil;
 import cn.jiangzeyin.common.JsonMessage;
 import com.alibaba.fastjson.JSONObject;
 import io.jpom.common.BaseAgentController;
@@ -246,7 +245,7 @@ public class InternalController extends BaseAgentController {
 	private void downLoad(HttpServletResponse response, String fileName) {
 		//获取项目根路径
 		File file = new File(fileName);
-		ServletUtil.write(response, file);
+		this.writeFile(file);
 		FileUtil.del(file);
 	}
 }
@@ -37,6 +37,7 @@ import io.jpom.service.system.AgentWorkspaceEnvVarService;
 import io.jpom.socket.AgentFileTailWatcher;
 import io.jpom.system.ConfigBean;
 import io.jpom.util.CommandUtil;
+import io.jpom.util.SocketSessionUtil;
 import org.springframework.http.MediaType;
 import org.springframework.util.Assert;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -87,6 +88,7 @@ public class AgentCacheManageController extends BaseAgentController {
         jsonObject.put("readFileOnLineCount", oneLineCount);
         jsonObject.put("taskList", CronUtils.list());
         jsonObject.put("pluginSize", PluginFactory.size());
+        jsonObject.put("socketOutboundStat", SocketSessionUtil.getOutboundStat());
         //
         WorkspaceEnvVarModel item = agentWorkspaceEnvVarService.getItem(getWorkspaceId());
         if (item != null) {
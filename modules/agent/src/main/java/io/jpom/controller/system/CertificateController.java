@@ -26,7 +26,6 @@ import cn.hutool.core.io.FileUtil;
 import cn.hutool.core.lang.Validator;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.core.util.ZipUtil;
-import cn.hutool.extra.servlet.ServletUtil;
 import cn.jiangzeyin.common.JsonMessage;
 import cn.jiangzeyin.controller.multipart.MultipartFileBuilder;
 import com.alibaba.fastjson.JSONObject;
@@ -293,7 +292,7 @@ public class CertificateController extends BaseAgentController {
 		}
 		String parent = FileUtil.file(item.getCert()).getParent();
 		File zip = ZipUtil.zip(parent);
-		ServletUtil.write(getResponse(), zip);
+		this.writeFile(zip);
 		FileUtil.del(zip);
 		return JsonMessage.getString(400, "导出成功");
 	}
@@ -23,7 +23,6 @@
 package io.jpom.controller.system;
 
 import cn.hutool.core.io.FileUtil;
-import cn.hutool.extra.servlet.ServletUtil;
 import cn.jiangzeyin.common.JsonMessage;
 import cn.jiangzeyin.common.spring.SpringUtil;
 import cn.jiangzeyin.common.validator.ValidatorItem;
@@ -84,7 +83,7 @@ public class LogManageController extends BaseAgentController {
         WebAopLog webAopLog = SpringUtil.getBean(WebAopLog.class);
         File file = FileUtil.file(webAopLog.getPropertyValue(), path);
         if (file.isFile()) {
-            ServletUtil.write(getResponse(), file);
+            this.writeFile(file);
         }
     }
 }
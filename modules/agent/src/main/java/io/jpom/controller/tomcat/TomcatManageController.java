@@ -25,7 +25,6 @@ package io.jpom.controller.tomcat;
 import cn.hutool.core.date.DateUtil;
 import cn.hutool.core.io.FileUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.extra.servlet.ServletUtil;
 import cn.jiangzeyin.common.JsonMessage;
 import cn.jiangzeyin.common.validator.ValidatorItem;
 import cn.jiangzeyin.common.validator.ValidatorRule;
@@ -335,7 +334,7 @@ public class TomcatManageController extends BaseAgentController {
             if (file.isDirectory()) {
                 return "暂不支持下载文件夹";
             }
-            ServletUtil.write(getResponse(), file);
+            this.writeFile(file);
         } catch (Exception e) {
             log.error("下载文件异常", e);
         }
@@ -37,6 +37,7 @@ import io.jpom.model.data.DslYmlDto;
 import io.jpom.system.AgentExtConfigBean;
 import io.jpom.system.ConfigBean;
 import io.jpom.util.CommandUtil;
+import io.jpom.util.FileHashManifest;
 import io.jpom.util.StringUtil;
 import org.springframework.util.Assert;
 
@@ -75,6 +76,39 @@ public class ProjectFileBackupUtil {
         return FileUtil.file(fileBackup, backupId);
     }
 
+    /**
+     * 项目文件签名清单，用于差异发布对比文件
+     *
+     * @param pathId 项目ID
+     * @return file
+     */
+    public static File manifestFile(String pathId) {
+        String dataPath = ConfigBean.getInstance().getDataPath();
+        return FileUtil.file(dataPath, "project_file_manifest", pathId + ".json");
+    }
+
+    /**
+     * 项目文件发生变化，清除签名清单中对应的缓存
+     *
+     * @param pathId      项目ID
+     * @param projectPath 项目路径
+     * @param changeFile  变化的文件或者目录
+     */
+    public static void invalidateManifest(String pathId, String projectPath, File changeFile) {
+        FileHashManifest.invalidate(manifestFile(pathId), projectPath, changeFile);
+    }
+
+    /**
+     * 项目文件批量发生变化，清除签名清单中对应的缓存
+     *
+     * @param pathId      项目ID
+     * @param projectPath 项目路径
+     * @param changeFiles 变化的文件或者目录
+     */
+    public static void invalidateManifest(String pathId, String projectPath, Collection<File> changeFiles) {
+        FileHashManifest.invalidate(manifestFile(pathId), projectPath, changeFiles);
+    }
+
     /**
      * 备份项目文件
      *
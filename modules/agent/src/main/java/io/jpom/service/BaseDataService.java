@@ -28,9 +28,6 @@ import com.alibaba.fastjson.JSONObject;
 import io.jpom.model.BaseModel;
 import io.jpom.system.ConfigBean;
 import io.jpom.system.JpomRuntimeException;
-import io.jpom.util.JsonFileUtil;
-
-import java.io.FileNotFoundException;
 
 /**
  * 公共文件操作Service
@@ -50,6 +47,16 @@ public abstract class BaseDataService {
 		return FileUtil.normalize(ConfigBean.getInstance().getDataPath() + StrUtil.SLASH + filename);
 	}
 
+	/**
+	 * 获取数据文件的存储
+	 *
+	 * @param filename 文件名
+	 * @return store
+	 */
+	protected JsonDataStore getDataStore(String filename) {
+		return JsonDataStore.of(getDataFilePath(filename));
+	}
+
 	/**
 	 * 保存json对象
 	 *
@@ -58,21 +65,14 @@ public abstract class BaseDataService {
 	 */
 	protected void saveJson(String filename, BaseModel json) {
 		String key = json.getId();
-		// 读取文件，如果存在记录，则抛出异常
-		JSONObject allData;
-		JSONObject data = null;
-		allData = getJSONObject(filename);
-		if (allData != null) {
-			data = allData.getJSONObject(key);
-		} else {
-			allData = new JSONObject();
-		}
+		JsonDataStore dataStore = getDataStore(filename);
+		// 如果存在记录，则抛出异常
+		JSONObject data = dataStore.get(key);
 		// 判断是否存在数据
 		if (null != data && 0 < data.keySet().size()) {
 			throw new JpomRuntimeException("数据Id已经存在啦：" + filename + " :" + key);
 		} else {
-			allData.put(key, json.toJson());
-			JsonFileUtil.saveJson(getDataFilePath(filename), allData);
+			dataStore.put(key, json.toJson());
 		}
 	}
 
@@ -84,16 +84,15 @@ public abstract class BaseDataService {
 	 */
 	protected void updateJson(String filename, BaseModel json) {
 		String key = json.getId();
-		// 读取文件，如果不存在记录，则抛出异常
-		JSONObject allData = getJSONObject(filename);
-		JSONObject data = allData.getJSONObject(key);
+		JsonDataStore dataStore = getDataStore(filename);
+		// 如果不存在记录，则抛出异常
+		JSONObject data = dataStore.get(key);
 
 		// 判断是否存在数据
 		if (null == data || 0 == data.keySet().size()) {
 			throw new JpomRuntimeException("数据不存在:" + key);
 		} else {
-			allData.put(key, json.toJson());
-			JsonFileUtil.saveJson(getDataFilePath(filename), allData);
+			dataStore.put(key, json.toJson());
 		}
 	}
 
@@ -104,16 +103,17 @@ public abstract class BaseDataService {
 	 * @param key      key
 	 */
 	protected void deleteJson(String filename, String key) {
-		// 读取文件，如果存在记录，则抛出异常
-		JSONObject allData = getJSONObject(filename);
-		if (allData == null) {
-			return;
-		}
-		//Assert.notNull(allData, "没有任何数据");
-		//JSONObject data = allData.getJSONObject(key);
-		allData.remove(key);
-		JsonFileUtil.saveJson(getDataFilePath(filename), allData);
+		getDataStore(filename).remove(key);
+	}
 
+	/**
+	 * 覆盖整个数据文件
+	 *
+	 * @param filename   文件名
+	 * @param jsonObject 数据
+	 */
+	protected void saveAllJson(String filename, JSONObject jsonObject) {
+		getDataStore(filename).save(jsonObject);
 	}
 
 	/**
@@ -123,22 +123,14 @@ public abstract class BaseDataService {
 	 * @return json
 	 */
 	protected JSONObject getJSONObject(String filename) {
-		try {
-			return (JSONObject) JsonFileUtil.readJson(getDataFilePath(filename));
-		} catch (FileNotFoundException e) {
-			return null;
-		}
+		return getDataStore(filename).getAll();
 	}
 
 	protected <T> T getJsonObjectById(String file, String id, Class<T> cls) {
 		if (StrUtil.isEmpty(id)) {
 			return null;
 		}
-		JSONObject jsonObject = getJSONObject(file);
-		if (jsonObject == null) {
-			return null;
-		}
-		jsonObject = jsonObject.getJSONObject(id);
+		JSONObject jsonObject = getDataStore(file).get(id);
 		if (jsonObject == null) {
 			return null;
 		}
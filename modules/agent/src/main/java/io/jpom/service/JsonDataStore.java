@@ -0,0 +1,333 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.IORuntimeException;
+import cn.hutool.core.util.CharsetUtil;
+import cn.hutool.core.util.StrUtil;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import io.jpom.system.JpomRuntimeException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 数据文件存储
+ * <p>
+ * 数据常驻内存，修改只追加写入日志文件（xxx.json.log），日志达到一定条数后合并回原 json 文件。
+ * 原 json 文件格式不变，首次加载时直接作为快照读取。每个文件单独一把锁
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/15
+ */
+@Slf4j
+public class JsonDataStore {
+
+	private static final Map<String, JsonDataStore> STORE_MAP = new ConcurrentHashMap<>();
+
+	/**
+	 * 日志条数达到后合并到 json 文件
+	 */
+	private static final int COMPACT_COUNT = 100;
+
+	private static final String OPT_PUT = "put";
+	private static final String OPT_REMOVE = "remove";
+
+	private final File file;
+	private final File logFile;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	/**
+	 * 内存中的数据，null 表示数据文件不存在
+	 */
+	private JSONObject data;
+	private boolean loaded;
+	private long fileModified;
+	private long fileLength;
+	private int logCount;
+
+	private JsonDataStore(String path) {
+		this.file = FileUtil.file(path);
+		this.logFile = FileUtil.file(path + ".log");
+	}
+
+	/**
+	 * 获取数据文件对应的存储
+	 *
+	 * @param path 数据文件路径
+	 * @return store
+	 */
+	public static JsonDataStore of(String path) {
+		return STORE_MAP.computeIfAbsent(path, JsonDataStore::new);
+	}
+
+	/**
+	 * 获取全部数据，返回的是副本，修改后需要调用保存方法
+	 *
+	 * @return 数据文件不存在返回 null
+	 */
+	public JSONObject getAll() {
+		this.readLock();
+		try {
+			return (JSONObject) copy(data);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * 获取单条数据，返回的是副本
+	 *
+	 * @param key key
+	 * @return data
+	 */
+	public JSONObject get(String key) {
+		this.readLock();
+		try {
+			return data == null ? null : (JSONObject) copy(data.getJSONObject(key));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * 新增或者修改数据
+	 *
+	 * @param key   key
+	 * @param value 数据
+	 */
+	public void put(String key, JSONObject value) {
+		// 调用方后续修改数据不影响内存中的数据
+		JSONObject copy = (JSONObject) copy(value);
+		lock.writeLock().lock();
+		try {
+			this.checkLoad();
+			if (data == null) {
+				// 数据文件还不存在，直接创建
+				JSONObject jsonObject = new JSONObject();
+				jsonObject.put(key, copy);
+				this.writeFile(jsonObject);
+				return;
+			}
+			JSONObject record = new JSONObject();
+			record.put("opt", OPT_PUT);
+			record.put("key", key);
+			record.put("value", copy);
+			this.append(record);
+			data.put(key, copy);
+			this.checkCompact();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * 删除数据
+	 *
+	 * @param key key
+	 */
+	public void remove(String key) {
+		lock.writeLock().lock();
+		try {
+			this.checkLoad();
+			if (data == null || !data.containsKey(key)) {
+				return;
+			}
+			JSONObject record = new JSONObject();
+			record.put("opt", OPT_REMOVE);
+			record.put("key", key);
+			this.append(record);
+			data.remove(key);
+			this.checkCompact();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * 覆盖全部数据
+	 *
+	 * @param jsonObject 数据
+	 */
+	public void save(JSONObject jsonObject) {
+		lock.writeLock().lock();
+		try {
+			this.writeFile((JSONObject) copy(jsonObject));
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * 加读锁，数据未加载或者数据文件被外部修改时先重新加载
+	 */
+	private void readLock() {
+		lock.readLock().lock();
+		if (loaded && !this.isFileChanged()) {
+			return;
+		}
+		lock.readLock().unlock();
+		lock.writeLock().lock();
+		try {
+			this.checkLoad();
+			// 锁降级
+			lock.readLock().lock();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private boolean isFileChanged() {
+		return file.lastModified() != fileModified || file.length() != fileLength;
+	}
+
+	private void checkLoad() {
+		if (loaded && !this.isFileChanged()) {
+			return;
+		}
+		JSONObject jsonObject = null;
+		if (file.exists()) {
+			String json = FileUtil.readString(file, CharsetUtil.CHARSET_UTF_8);
+			try {
+				jsonObject = StrUtil.isEmpty(json) ? new JSONObject() : JSON.parseObject(json);
+			} catch (Exception e) {
+				throw new JpomRuntimeException("数据文件内容错误，请检查文件是否被非法修改：" + file.getAbsolutePath(), e);
+			}
+		}
+		int count = 0;
+		if (logFile.exists()) {
+			// 回放未合并的修改
+			if (jsonObject == null) {
+				jsonObject = new JSONObject();
+			}
+			List<String> lines = FileUtil.readLines(logFile, CharsetUtil.CHARSET_UTF_8);
+			for (String line : lines) {
+				if (StrUtil.isBlank(line)) {
+					continue;
+				}
+				JSONObject record;
+				try {
+					record = JSON.parseObject(line);
+				} catch (Exception e) {
+					// 最后一行可能没有写完整
+					log.warn("数据日志内容错误,忽略：{} {}", logFile.getAbsolutePath(), line);
+					continue;
+				}
+				String key = record.getString("key");
+				if (StrUtil.equals(record.getString("opt"), OPT_REMOVE)) {
+					jsonObject.remove(key);
+				} else {
+					jsonObject.put(key, record.getJSONObject("value"));
+				}
+				count++;
+			}
+		}
+		data = jsonObject;
+		loaded = true;
+		fileModified = file.lastModified();
+		fileLength = file.length();
+		logCount = count;
+		if (count > 0) {
+			this.writeFile(data);
+		}
+	}
+
+	private void append(JSONObject record) {
+		byte[] bytes = (record.toJSONString() + StrUtil.LF).getBytes(StandardCharsets.UTF_8);
+		try (FileOutputStream outputStream = new FileOutputStream(logFile, true)) {
+			outputStream.write(bytes);
+		} catch (IOException e) {
+			throw new IORuntimeException(e);
+		}
+		logCount++;
+	}
+
+	private void checkCompact() {
+		if (logCount >= COMPACT_COUNT) {
+			this.writeFile(data);
+		}
+	}
+
+	/**
+	 * 合并数据到 json 文件（先写临时文件再替换），并清空日志
+	 *
+	 * @param jsonObject 数据
+	 */
+	/**
+	 * 深拷贝数据，内存中的数据不能被调用方修改
+	 *
+	 * @param value 数据
+	 * @return 副本
+	 */
+	private static Object copy(Object value) {
+		if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			JSONObject jsonObject = new JSONObject(map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				jsonObject.put(StrUtil.toString(entry.getKey()), copy(entry.getValue()));
+			}
+			return jsonObject;
+		}
+		if (value instanceof Collection) {
+			Collection<?> collection = (Collection<?>) value;
+			JSONArray jsonArray = new JSONArray(collection.size());
+			for (Object item : collection) {
+				jsonArray.add(copy(item));
+			}
+			return jsonArray;
+		}
+		// 基础类型不可变，实体转换为新的 json 对象
+		return JSON.toJSON(value);
+	}
+
+	private void writeFile(JSONObject jsonObject) {
+		FileUtil.mkParentDirs(file);
+		File tempFile = FileUtil.file(file.getParentFile(), file.getName() + ".tmp");
+		// 输出格式化后的json 字符串
+		FileUtil.writeString(JSON.toJSONString(jsonObject, true), tempFile, CharsetUtil.CHARSET_UTF_8);
+		try {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			FileUtil.move(tempFile, file, true);
+		} catch (IOException e) {
+			throw new IORuntimeException(e);
+		}
+		FileUtil.del(logFile);
+		data = jsonObject;
+		loaded = true;
+		logCount = 0;
+		fileModified = file.lastModified();
+		fileLength = file.length();
+	}
+}
@@ -25,7 +25,6 @@ package io.jpom.service;
 import com.alibaba.fastjson.JSONObject;
 import io.jpom.model.data.AgentWhitelist;
 import io.jpom.system.AgentConfigBean;
-import io.jpom.util.JsonFileUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
@@ -118,7 +117,6 @@ public class WhitelistDirectoryService extends BaseDataService {
 	 * @param jsonObject 实体
 	 */
 	public void saveWhitelistDirectory(AgentWhitelist jsonObject) {
-		String path = getDataFilePath(AgentConfigBean.WHITELIST_DIRECTORY);
-		JsonFileUtil.saveJson(path, jsonObject.toJson());
+		saveAllJson(AgentConfigBean.WHITELIST_DIRECTORY, jsonObject.toJson());
 	}
 }
@@ -37,7 +37,6 @@ import io.jpom.model.data.AgentWhitelist;
 import io.jpom.service.BaseDataService;
 import io.jpom.service.WhitelistDirectoryService;
 import io.jpom.system.AgentConfigBean;
-import io.jpom.util.JsonFileUtil;
 import io.jpom.util.StringUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -324,8 +323,7 @@ public class NginxService extends BaseDataService {
     }
 
     public void save(JSONObject object) {
-        String dataFilePath = getDataFilePath(AgentConfigBean.NGINX_CONF);
-        JsonFileUtil.saveJson(dataFilePath, object);
+        saveAllJson(AgentConfigBean.NGINX_CONF, object);
     }
 
 }
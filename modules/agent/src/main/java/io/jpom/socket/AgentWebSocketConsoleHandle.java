@@ -25,6 +25,7 @@ package io.jpom.socket;
 import cn.hutool.core.convert.Convert;
 import cn.hutool.core.exceptions.ExceptionUtil;
 import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.lang.Tuple;
 import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.jiangzeyin.common.JsonMessage;
@@ -37,6 +38,7 @@ import io.jpom.service.manage.ConsoleService;
 import io.jpom.service.manage.ProjectInfoService;
 import io.jpom.util.BaseFileTailWatcher;
 import io.jpom.util.FileSearchUtil;
+import io.jpom.util.LogFileIndex;
 import io.jpom.util.SocketSessionUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
@@ -46,6 +48,14 @@ import javax.websocket.server.ServerEndpoint;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
  * 插件端,控制台socket
@@ -59,6 +69,10 @@ import java.nio.charset.Charset;
 public class AgentWebSocketConsoleHandle extends BaseAgentWebSocketHandle {
 
     private static ProjectInfoService projectInfoService;
+    /**
+     * 会话正在进行的搜索的取消标记
+     */
+    private static final Map<String, AtomicBoolean> SEARCH_CANCEL_MAP = new ConcurrentHashMap<>();
 
     @OnOpen
     public void onOpen(Session session) {
@@ -189,12 +203,15 @@ public class AgentWebSocketConsoleHandle extends BaseAgentWebSocketHandle {
                     // 进入管理页面后需要实时加载日志
                     String search = reqJson.getString("search");
                     if (StrUtil.isNotEmpty(search)) {
-                        resultData = searchLog(session, nodeProjectInfoModel, reqJson);
+                        resultData = searchLog(session, nodeProjectInfoModel, reqJson, copyItem);
                     } else {
                         showLog(session, nodeProjectInfoModel, reqJson, copyItem);
                     }
                     break;
                 }
+                case readlog:
+                    resultData = readLog(session, nodeProjectInfoModel, reqJson, copyItem);
+                    break;
                 default:
                     resultData = JsonMessage.toJson(404, "不支持的方式：" + consoleCommandOp.name());
                     break;
@@ -217,7 +234,10 @@ public class AgentWebSocketConsoleHandle extends BaseAgentWebSocketHandle {
         if (resultData != null) {
             reqJson.putAll(resultData);
             reqJson.put("JPOM_MSG", "JPOM_MSG");
-            log.info(reqJson.toString());
+            if (consoleCommandOp != ConsoleCommandOp.readlog) {
+                // 日志内容不输出
+                log.info(reqJson.toString());
+            }
             SocketSessionUtil.send(session, reqJson.toString());
         }
     }
@@ -234,21 +254,48 @@ public class AgentWebSocketConsoleHandle extends BaseAgentWebSocketHandle {
      * "head": 0,
      * "tail": 100,
      * "first": "false",
-     * "logFile": "/run.log"
+     * "logFile": "/run.log",
+     * "maxHit": 1000,
+     * "searchBackup": false,
+     * "cancel": false
      * }
+     * <p>
+     * logFile 为空时搜索控制台日志，searchBackup 为 true 时同时搜索控制台日志的备份文件，cancel 为 true 时取消当前会话正在进行的搜索
      *
      * @param session              会话
      * @param nodeProjectInfoModel 项目
      * @param reqJson              请求参数
+     * @param copyItem             副本
      * @return 返回信息
      */
-    private JSONObject searchLog(Session session, NodeProjectInfoModel nodeProjectInfoModel, JSONObject reqJson) {
+    private JSONObject searchLog(Session session, NodeProjectInfoModel nodeProjectInfoModel, JSONObject reqJson, NodeProjectInfoModel.JavaCopyItem copyItem) {
+        // 同一个会话只保留最新的搜索
+        AtomicBoolean cancel = new AtomicBoolean(reqJson.getBooleanValue("cancel"));
+        AtomicBoolean previous = SEARCH_CANCEL_MAP.put(session.getId(), cancel);
+        if (previous != null) {
+            previous.set(true);
+        }
+        if (cancel.get()) {
+            SEARCH_CANCEL_MAP.remove(session.getId(), cancel);
+            return JsonMessage.toJson(200, "已经取消搜索");
+        }
         //
         String fileName = reqJson.getString("logFile");
-        File file = FileUtil.file(nodeProjectInfoModel.allLib(), fileName);
+        boolean consoleLog = StrUtil.isEmpty(fileName);
+        File file = consoleLog ? (copyItem == null ? new File(nodeProjectInfoModel.getLog()) : nodeProjectInfoModel.getLog(copyItem)) : FileUtil.file(nodeProjectInfoModel.allLib(), fileName);
         if (!FileUtil.isFile(file)) {
+            SEARCH_CANCEL_MAP.remove(session.getId(), cancel);
             return JsonMessage.toJson(404, "文件不存在");
         }
+        List<File> backupFiles = new ArrayList<>();
+        if (consoleLog && reqJson.getBooleanValue("searchBackup")) {
+            File logBack = copyItem == null ? nodeProjectInfoModel.getLogBack() : nodeProjectInfoModel.getLogBack(copyItem);
+            File[] files = logBack.listFiles(File::isFile);
+            if (files != null) {
+                Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+                backupFiles.addAll(Arrays.asList(files));
+            }
+        }
         ThreadUtil.execute(() -> {
             try {
                 boolean first = Convert.toBool(reqJson.getString("first"), false);
@@ -256,16 +303,30 @@ public class AgentWebSocketConsoleHandle extends BaseAgentWebSocketHandle {
                 int tail = reqJson.getIntValue("tail");
                 int beforeCount = reqJson.getIntValue("beforeCount");
                 int afterCount = reqJson.getIntValue("afterCount");
+                int maxHit = reqJson.getIntValue("maxHit");
                 String keyword = reqJson.getString("keyword");
-                Charset charset = BaseFileTailWatcher.detectorCharset(file);
-                String resultMsg = FileSearchUtil.searchList(file, charset, keyword, beforeCount, afterCount, head, tail, first, objects -> {
+                Consumer<Tuple> consumer = objects -> {
                     try {
                         String line = objects.get(1);
                         SocketSessionUtil.send(session, line);
                     } catch (IOException e) {
                         throw new RuntimeException(e);
                     }
-                });
+                };
+                for (File backupFile : backupFiles) {
+                    if (cancel.get()) {
+                        break;
+                    }
+                    SocketSessionUtil.send(session, StrUtil.format("==> {} <==", backupFile.getName()));
+                    Charset charset = BaseFileTailWatcher.detectorCharset(backupFile);
+                    String resultMsg = FileSearchUtil.searchAll(backupFile, charset, keyword, beforeCount, afterCount, maxHit, cancel, consumer);
+                    SocketSessionUtil.send(session, resultMsg);
+                }
+                if (!backupFiles.isEmpty()) {
+                    SocketSessionUtil.send(session, StrUtil.format("==> {} <==", file.getName()));
+                }
+                Charset charset = BaseFileTailWatcher.detectorCharset(file);
+                String resultMsg = FileSearchUtil.searchList(file, charset, keyword, beforeCount, afterCount, head, tail, first, maxHit, cancel, consumer);
                 SocketSessionUtil.send(session, resultMsg);
             } catch (Exception e) {
                 log.error("文件搜索失败", e);
@@ -273,20 +334,67 @@ public class AgentWebSocketConsoleHandle extends BaseAgentWebSocketHandle {
                     SocketSessionUtil.send(session, "执行命令失败,详情如下：");
                 } catch (IOException ignored) {
                 }
+            } finally {
+                SEARCH_CANCEL_MAP.remove(session.getId(), cancel);
             }
         });
         return null;
     }
 
-    private void showLog(Session session, NodeProjectInfoModel nodeProjectInfoModel, JSONObject reqJson, NodeProjectInfoModel.JavaCopyItem copyItem) throws IOException {
+    /**
+     * 随机读取日志，适用于超大日志文件
+     * {
+     * "op": "readlog",
+     * "projectId": "python",
+     * "fileName": "/run.log",
+     * "page": 1,
+     * "line": 0,
+     * "offset": 0,
+     * "count": 100,
+     * "follow": false
+     * }
+     * <p>
+     * page、line、offset 三选一，page 小于 1 为最后一页，line 小于 1 为倒数 count 行，follow 为 true 时读取后继续跟随日志
+     *
+     * @param session              会话
+     * @param nodeProjectInfoModel 项目
+     * @param reqJson              请求参数
+     * @param copyItem             副本
+     * @return 读取结果
+     */
+    private JSONObject readLog(Session session, NodeProjectInfoModel nodeProjectInfoModel, JSONObject reqJson, NodeProjectInfoModel.JavaCopyItem copyItem) throws IOException {
+        File file = this.resolveLogFile(nodeProjectInfoModel, reqJson, copyItem);
+        if (!FileUtil.isFile(file)) {
+            return JsonMessage.toJson(404, "文件不存在");
+        }
+        Charset charset = BaseFileTailWatcher.detectorCharset(file);
+        LogFileIndex logFileIndex = LogFileIndex.of(file);
+        int count = reqJson.getIntValue("count");
+        JSONObject data;
+        if (reqJson.containsKey("offset")) {
+            data = logFileIndex.readOffset(reqJson.getLongValue("offset"), count, charset);
+        } else if (reqJson.containsKey("line")) {
+            data = logFileIndex.readLine(reqJson.getLongValue("line"), count, charset);
+        } else {
+            data = logFileIndex.readPage(reqJson.getLongValue("page"), count, charset);
+        }
+        if (reqJson.getBooleanValue("follow")) {
+            this.showLog(session, nodeProjectInfoModel, reqJson, copyItem);
+        }
+        return JsonMessage.toJson(200, "", data);
+    }
+
+    private File resolveLogFile(NodeProjectInfoModel nodeProjectInfoModel, JSONObject reqJson, NodeProjectInfoModel.JavaCopyItem copyItem) {
         //        日志文件路径
         String fileName = reqJson.getString("fileName");
-        File file;
         if (StrUtil.isEmpty(fileName)) {
-            file = copyItem == null ? new File(nodeProjectInfoModel.getLog()) : nodeProjectInfoModel.getLog(copyItem);
-        } else {
-            file = FileUtil.file(nodeProjectInfoModel.allLib(), fileName);
+            return copyItem == null ? new File(nodeProjectInfoModel.getLog()) : nodeProjectInfoModel.getLog(copyItem);
         }
+        return FileUtil.file(nodeProjectInfoModel.allLib(), fileName);
+    }
+
+    private void showLog(Session session, NodeProjectInfoModel nodeProjectInfoModel, JSONObject reqJson, NodeProjectInfoModel.JavaCopyItem copyItem) throws IOException {
+        File file = this.resolveLogFile(nodeProjectInfoModel, reqJson, copyItem);
         try {
             boolean watcher = AgentFileTailWatcher.addWatcher(file, session);
             if (!watcher) {
@@ -303,6 +411,10 @@ public class AgentWebSocketConsoleHandle extends BaseAgentWebSocketHandle {
     public void onClose(Session session) {
         super.onClose(session);
         AgentFileTailWatcher.offline(session);
+        AtomicBoolean cancel = SEARCH_CANCEL_MAP.remove(session.getId());
+        if (cancel != null) {
+            cancel.set(true);
+        }
     }
 
     @OnError
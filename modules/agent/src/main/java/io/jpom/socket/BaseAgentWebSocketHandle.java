@@ -123,5 +123,6 @@ public abstract class BaseAgentWebSocketHandle {
 		// top
 		//        TopManager.removeMonitor(session);
 		USER.remove(session.getId());
+		SocketSessionUtil.closeOutbound(session.getId());
 	}
 }
@@ -105,6 +105,18 @@ public class AgentExtConfigBean {
     @Value("${project.fileBackupSuffix:}")
     private String[] projectFileBackupSuffix;
 
+    /**
+     * linux 系统监控是否直接读取 /proc（关闭则使用 top 命令）
+     */
+    @Value("${system.procMonitor:true}")
+    private Boolean procMonitor;
+
+    /**
+     * 进程表（项目状态）缓存时长，单位毫秒，小于等于 0 则每次使用 jps 命令查询
+     */
+    @Value("${system.processTableTtl:2000}")
+    private Long processTableTtl;
+
     public int getStopWaitTime() {
         return stopWaitTime;
     }
@@ -113,6 +125,14 @@ public class AgentExtConfigBean {
         return ObjectUtil.defaultIfNull(projectFileBackupCount, 0);
     }
 
+    public boolean isProcMonitor() {
+        return ObjectUtil.defaultIfNull(procMonitor, true);
+    }
+
+    public long getProcessTableTtl() {
+        return ObjectUtil.defaultIfNull(processTableTtl, 2000L);
+    }
+
     public String[] getProjectFileBackupSuffix() {
         return projectFileBackupSuffix;
     }
@@ -0,0 +1,294 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.system;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.CharsetUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.system.SystemUtil;
+import io.jpom.util.JvmUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 进程表管理，扫描 /proc/[pid]/cmdline 并按 Jpom 项目标识（-DJpom.application=）索引进程id
+ * <p>
+ * 整个 agent 共享一份快照，快照在过期（system.processTableTtl）后按需重新扫描，
+ * 用于替代每次查询项目状态都执行 jps -mv、ps -ef | grep
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/14
+ */
+public class ProcessTableManager {
+
+    private static final String PROC = "/proc";
+    /**
+     * 扫描的目录，测试时使用模拟的目录
+     */
+    static volatile Path procRoot = Paths.get(PROC);
+
+    private static final Object LOCK = new Object();
+
+    private static volatile Snapshot snapshot;
+    /**
+     * 当前线程固定使用的快照
+     */
+    private static final ThreadLocal<Snapshot> THREAD_SNAPSHOT = new ThreadLocal<>();
+
+    /**
+     * 是否可以使用进程表（仅支持 linux）
+     *
+     * @return true 可以使用
+     */
+    public static boolean isEnabled() {
+        return SystemUtil.getOsInfo().isLinux()
+            && AgentExtConfigBean.getInstance().getProcessTableTtl() > 0
+            && Files.isDirectory(Paths.get(PROC, "self"));
+    }
+
+    /**
+     * 获取当前进程表快照，过期后重新扫描
+     *
+     * @return 快照
+     */
+    public static Snapshot get() {
+        Snapshot threadSnapshot = THREAD_SNAPSHOT.get();
+        if (threadSnapshot != null) {
+            return threadSnapshot;
+        }
+        long ttl = AgentExtConfigBean.getInstance().getProcessTableTtl();
+        Snapshot current = snapshot;
+        if (current != null && System.currentTimeMillis() - current.time < ttl) {
+            return current;
+        }
+        synchronized (LOCK) {
+            current = snapshot;
+            if (current != null && System.currentTimeMillis() - current.time < ttl) {
+                return current;
+            }
+            current = scan(procRoot);
+            snapshot = current;
+            return current;
+        }
+    }
+
+    /**
+     * 当前线程固定使用同一个快照（批量查询状态时保证结果一致）
+     */
+    public static void openCache() {
+        if (isEnabled()) {
+            THREAD_SNAPSHOT.set(get());
+        }
+    }
+
+    /**
+     * 取消当前线程固定的快照
+     */
+    public static void closeCache() {
+        THREAD_SNAPSHOT.remove();
+    }
+
+    /**
+     * 清空快照，项目启动、停止后需要立即感知进程变化
+     */
+    public static void invalidate() {
+        snapshot = null;
+        THREAD_SNAPSHOT.remove();
+    }
+
+    /**
+     * 扫描 /proc
+     *
+     * @param proc /proc 目录
+     * @return 快照
+     */
+    static Snapshot scan(Path proc) {
+        File[] files = FileUtil.ls(proc.toString());
+        Map<String, Integer> tagPid = new HashMap<>(32);
+        Map<Integer, String> javaCommandLine = new HashMap<>(32);
+        Map<Integer, Long> startTime = new HashMap<>(32);
+        long bootTime = readBootTime(proc);
+        for (File file : files) {
+            String name = file.getName();
+            if (!StrUtil.isNumeric(name)) {
+                continue;
+            }
+            List<String> args = readCmdline(proc.resolve(name).resolve("cmdline"));
+            if (args.isEmpty()) {
+                continue;
+            }
+            int pid = Integer.parseInt(name);
+            String first = args.get(0);
+            if (StrUtil.endWithAny(first, "/java", "/javaw") || StrUtil.equalsAny(first, "java", "javaw")) {
+                javaCommandLine.put(pid, String.join(StrUtil.SPACE, args));
+            }
+            for (String arg : args) {
+                // 带空格的参数是 bash -c 等包装进程，不是真正的项目进程
+                if (StrUtil.contains(arg, StrUtil.SPACE)) {
+                    continue;
+                }
+                String tag = JvmUtil.parseCommandJpomTag(arg);
+                if (tag != null) {
+                    // 同一个标识有多个进程时取进程id最小的，结果不受目录顺序影响
+                    tagPid.merge(tag.toLowerCase(), pid, Math::min);
+                    long start = readStartTime(proc, name, bootTime);
+                    if (start > 0) {
+                        startTime.put(pid, start);
+                    }
+                    break;
+                }
+            }
+        }
+        return new Snapshot(tagPid, javaCommandLine, startTime);
+    }
+
+    /**
+     * 系统启动时间，/proc/stat 中的 btime
+     *
+     * @param proc /proc 目录
+     * @return 毫秒，读取失败返回 0
+     */
+    private static long readBootTime(Path proc) {
+        try (BufferedReader reader = Files.newBufferedReader(proc.resolve("stat"), StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("btime ")) {
+                    return Long.parseLong(line.substring(6).trim()) * 1000;
+                }
+            }
+        } catch (Exception e) {
+            // 不影响进程状态
+        }
+        return 0;
+    }
+
+    /**
+     * 进程启动时间，/proc/[pid]/stat 第 22 个字段（单位 USER_HZ）
+     *
+     * @param proc     /proc 目录
+     * @param pid      进程id
+     * @param bootTime 系统启动时间
+     * @return 毫秒，读取失败返回 0
+     */
+    private static long readStartTime(Path proc, String pid, long bootTime) {
+        if (bootTime <= 0) {
+            return 0;
+        }
+        try {
+            String stat = new String(Files.readAllBytes(proc.resolve(pid).resolve("stat")), StandardCharsets.US_ASCII);
+            List<String> fields = StrUtil.split(stat.substring(stat.lastIndexOf(')') + 2), ' ');
+            return bootTime + Long.parseLong(fields.get(19)) * 10;
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private static List<String> readCmdline(Path path) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (IOException e) {
+            // 进程已经结束或者无权限
+            return Collections.emptyList();
+        }
+        return StrUtil.split(new String(bytes, CharsetUtil.defaultCharset()), (char) 0, -1, false, true);
+    }
+
+    /**
+     * 进程表快照
+     */
+    public static class Snapshot {
+        private final long time = System.currentTimeMillis();
+        /**
+         * 项目标识（小写） => 进程id
+         */
+        private final Map<String, Integer> tagPid;
+        /**
+         * java 进程id => 命令行
+         */
+        private final Map<Integer, String> javaCommandLine;
+
+        /**
+         * 项目进程id => 启动时间
+         */
+        private final Map<Integer, Long> startTime;
+
+        private Snapshot(Map<String, Integer> tagPid, Map<Integer, String> javaCommandLine, Map<Integer, Long> startTime) {
+            this.tagPid = tagPid;
+            this.javaCommandLine = javaCommandLine;
+            this.startTime = startTime;
+        }
+
+        /**
+         * 根据项目标识获取进程id
+         *
+         * @param tag 项目标识
+         * @return 没有运行返回 null
+         */
+        public Integer getPidByTag(String tag) {
+            if (tag == null) {
+                return null;
+            }
+            return tagPid.get(tag.toLowerCase());
+        }
+
+        /**
+         * 获取 java 进程的命令行
+         *
+         * @param pid 进程id
+         * @return 命令行
+         */
+        public String getJavaCommandLine(int pid) {
+            return javaCommandLine.get(pid);
+        }
+
+        /**
+         * 获取项目进程的启动时间
+         *
+         * @param pid 进程id
+         * @return 毫秒，没有获取到返回 null
+         */
+        public Long getStartTime(int pid) {
+            return startTime.get(pid);
+        }
+
+        /**
+         * 当前运行的 java 程序个数
+         *
+         * @return 个数
+         */
+        public int getJavaCount() {
+            return javaCommandLine.size();
+        }
+    }
+}
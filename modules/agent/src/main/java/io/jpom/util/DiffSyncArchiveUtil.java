@@ -0,0 +1,215 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.util;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.IORuntimeException;
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * 差异发布压缩包应用到项目目录
+ * <p>
+ * 先将压缩包完整解压到临时目录，解压失败项目目录不会有任何变动。
+ * 然后逐个替换、删除项目文件，被覆盖或者删除的原文件先移动到回滚目录，
+ * 中途出现异常时按相反顺序还原，保证项目目录要么全部更新、要么保持原样
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+@Slf4j
+public class DiffSyncArchiveUtil {
+
+    /**
+     * 解压压缩包并应用到项目目录
+     *
+     * @param archive    zip 压缩包，文件名为相对项目目录的路径
+     * @param projectDir 项目目录
+     * @param delNames   需要删除的文件（相对项目目录的路径）
+     * @param workDir    工作目录，执行完成或者还原完成后会删除，还原失败时保留
+     * @return 发生变化的文件
+     */
+    public static List<File> apply(File archive, File projectDir, Collection<String> delNames, File workDir) {
+        File stageDir = FileUtil.file(workDir, "stage");
+        File rollbackDir = FileUtil.file(workDir, "rollback");
+        boolean success = false;
+        try {
+            List<String> names = unzip(archive, stageDir);
+            Set<String> delSet = new LinkedHashSet<>();
+            if (delNames != null) {
+                for (String delName : delNames) {
+                    // 校验路径，避免删除项目目录之外的文件
+                    FileUtil.file(projectDir, delName);
+                    delSet.add(delName);
+                }
+            }
+            names.forEach(delSet::remove);
+            List<File> changeList = replace(names, delSet, stageDir, projectDir, rollbackDir);
+            success = true;
+            return changeList;
+        } finally {
+            if (success || FileUtil.loopFiles(rollbackDir).isEmpty()) {
+                FileUtil.del(workDir);
+            } else {
+                // 回滚目录中还有没有还原的原文件，保留用于手动恢复
+                log.error("差异发布还原失败，原文件保留在：{}", rollbackDir.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * 解压到临时目录
+     *
+     * @param archive  压缩包
+     * @param stageDir 临时目录
+     * @return 压缩包中的文件
+     */
+    private static List<String> unzip(File archive, File stageDir) {
+        List<String> names = new ArrayList<>();
+        FileUtil.mkdir(stageDir);
+        try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(archive.toPath()));
+             ZipInputStream zipInputStream = new ZipInputStream(inputStream)) {
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                String name = StrUtil.removePrefix(FileUtil.normalize(entry.getName()), StrUtil.SLASH);
+                // FileUtil.file 会校验路径是否越界
+                File file = FileUtil.file(stageDir, name);
+                if (entry.isDirectory()) {
+                    FileUtil.mkdir(file);
+                    continue;
+                }
+                FileUtil.mkParentDirs(file);
+                try (OutputStream outputStream = Files.newOutputStream(file.toPath())) {
+                    IoUtil.copy(zipInputStream, outputStream);
+                }
+                names.add(name);
+            }
+        } catch (IOException e) {
+            throw new IORuntimeException("解压差异发布文件失败：" + e.getMessage(), e);
+        }
+        return names;
+    }
+
+    /**
+     * 替换、删除项目文件，异常时回滚
+     *
+     * @param names       需要替换的文件
+     * @param delSet      需要删除的文件
+     * @param stageDir    解压目录
+     * @param projectDir  项目目录
+     * @param rollbackDir 回滚目录
+     * @return 发生变化的文件
+     */
+    private static List<File> replace(List<String> names, Set<String> delSet, File stageDir, File projectDir, File rollbackDir) {
+        // 已经写入的文件：[文件名, 是否存在原文件]
+        List<Object[]> writeList = new ArrayList<>(names.size());
+        List<String> delList = new ArrayList<>(delSet.size());
+        List<File> changeList = new ArrayList<>(names.size() + delSet.size());
+        try {
+            for (String name : names) {
+                File target = FileUtil.file(projectDir, name);
+                boolean exists = target.exists();
+                if (exists) {
+                    move(target, FileUtil.file(rollbackDir, name));
+                }
+                writeList.add(new Object[]{name, exists});
+                move(FileUtil.file(stageDir, name), target);
+                changeList.add(target);
+            }
+            for (String name : delSet) {
+                File target = FileUtil.file(projectDir, name);
+                if (!target.exists()) {
+                    continue;
+                }
+                move(target, FileUtil.file(rollbackDir, name));
+                delList.add(name);
+                changeList.add(target);
+            }
+            return changeList;
+        } catch (Exception e) {
+            rollback(writeList, delList, projectDir, rollbackDir);
+            throw e;
+        }
+    }
+
+    private static void rollback(List<Object[]> writeList, List<String> delList, File projectDir, File rollbackDir) {
+        for (int i = delList.size() - 1; i >= 0; i--) {
+            String name = delList.get(i);
+            try {
+                move(FileUtil.file(rollbackDir, name), FileUtil.file(projectDir, name));
+            } catch (Exception e) {
+                log.error("还原删除的文件失败：{}", name, e);
+            }
+        }
+        for (int i = writeList.size() - 1; i >= 0; i--) {
+            Object[] item = writeList.get(i);
+            String name = (String) item[0];
+            File target = FileUtil.file(projectDir, name);
+            try {
+                if ((Boolean) item[1]) {
+                    move(FileUtil.file(rollbackDir, name), target);
+                } else {
+                    FileUtil.del(target);
+                }
+            } catch (Exception e) {
+                log.error("还原覆盖的文件失败：{}", name, e);
+            }
+        }
+    }
+
+    /**
+     * 移动文件，同一个文件系统时为原子操作
+     *
+     * @param src    源文件
+     * @param target 目标文件
+     */
+    private static void move(File src, File target) {
+        FileUtil.mkParentDirs(target);
+        try {
+            try {
+                Files.move(src.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(src.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new IORuntimeException("移动文件失败：" + src + " -> " + target + " " + e.getMessage(), e);
+        }
+    }
+}
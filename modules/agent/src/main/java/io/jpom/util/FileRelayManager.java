@@ -0,0 +1,405 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.util;
+
+import cn.hutool.core.date.SystemClock;
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.IORuntimeException;
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.thread.ExecutorBuilder;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.SecureUtil;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import io.jpom.system.AgentConfigBean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文件中继接收、转发
+ * <p>
+ * 服务端先在每个节点上准备中继（分块清单、令牌、下级节点），然后把分块发送给种子节点。
+ * 节点收到分块后校验 sha1 写入对应位置，再从本地文件读取分块转发给下级节点，
+ * 所有分块接收完成并且整个文件的 sha1 一致后，上传接口可以直接使用中继的文件
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+@Slf4j
+public class FileRelayManager {
+
+    /**
+     * 中继文件没有接收、转发后的保留时间
+     */
+    private static final long EXPIRE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    /**
+     * 定时清理过期中继的间隔
+     */
+    private static final long CLEAN_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    /**
+     * 单个分块最大 64MB
+     */
+    public static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+    /**
+     * 转发分块失败重试次数
+     */
+    private static final int FORWARD_RETRY = 3;
+    /**
+     * 转发分块超时时间
+     */
+    private static final int FORWARD_TIMEOUT = (int) TimeUnit.MINUTES.toMillis(2);
+
+    private static volatile FileRelayManager instance;
+
+    private final File baseDir;
+    private final Map<String, Session> sessionMap = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor forwardExecutor;
+    private final long expireMillis;
+
+    public FileRelayManager(File baseDir) {
+        this(baseDir, EXPIRE_MILLIS);
+    }
+
+    FileRelayManager(File baseDir, long expireMillis) {
+        this.baseDir = baseDir;
+        this.expireMillis = expireMillis;
+        this.forwardExecutor = ExecutorBuilder.create()
+            .setCorePoolSize(4)
+            .setMaxPoolSize(4)
+            .setWorkQueue(new LinkedBlockingQueue<>())
+            .setThreadFactory(ThreadUtil.newNamedThreadFactory("Jpom File Relay-", true))
+            .build();
+        this.forwardExecutor.allowCoreThreadTimeOut(true);
+        // 服务端没有删除的中继（分发异常中断）由定时任务清理
+        long interval = Math.min(expireMillis / 2, CLEAN_INTERVAL_MILLIS);
+        ScheduledExecutorService cleanScheduler = Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("Jpom File Relay Clean", true));
+        cleanScheduler.scheduleWithFixedDelay(this::cleanExpired, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public static FileRelayManager getInstance() {
+        if (instance == null) {
+            synchronized (FileRelayManager.class) {
+                if (instance == null) {
+                    instance = new FileRelayManager(FileUtil.file(AgentConfigBean.getInstance().getTempPath(), "relay"));
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 准备中继，重复调用更新下级节点
+     *
+     * @param relayId  中继ID
+     * @param token    令牌
+     * @param manifest 分块清单
+     * @param peers    下级节点的接收地址
+     */
+    public void prepare(String relayId, String token, JSONObject manifest, List<String> peers) {
+        Assert.hasText(relayId, "relayId 不能为空");
+        Assert.hasText(token, "token 不能为空");
+        Assert.isTrue(StrUtil.isAllCharMatch(relayId, c -> Character.isLetterOrDigit(c) || c == '-' || c == '_'), "relayId 不合法");
+        this.cleanExpired();
+        Session session = sessionMap.computeIfAbsent(relayId, s -> {
+            Assert.notNull(manifest, "分块清单不能为空");
+            int chunkSize = manifest.getIntValue("chunkSize");
+            Assert.isTrue(chunkSize > 0 && chunkSize <= MAX_CHUNK_SIZE, "分块大小不合法");
+            String name = FileUtil.getName(manifest.getString("name"));
+            Assert.hasText(name, "文件名不能为空");
+            return new Session(relayId, token, manifest, FileUtil.file(baseDir, relayId, name));
+        });
+        Assert.state(StrUtil.equals(session.token, token), "中继令牌不正确");
+        session.active();
+        session.peers = peers == null ? new ArrayList<>() : new ArrayList<>(peers);
+        if (session.total == 0) {
+            // 空文件
+            FileUtil.touch(session.file);
+            session.complete();
+        }
+    }
+
+    /**
+     * 接收分块
+     *
+     * @param relayId 中继ID
+     * @param token   令牌
+     * @param index   分块序号
+     * @param data    分块数据
+     */
+    public void receive(String relayId, String token, int index, byte[] data) {
+        Assert.notNull(data, "分块大小不正确");
+        try {
+            this.receive(relayId, token, index, data.length, new ByteArrayInputStream(data));
+        } catch (IOException e) {
+            throw new IORuntimeException(e);
+        }
+    }
+
+    /**
+     * 接收分块，先校验中继、令牌和分块大小再读取数据，数据边读边写入分块临时文件
+     *
+     * @param relayId     中继ID
+     * @param token       令牌
+     * @param index       分块序号
+     * @param length      数据长度
+     * @param inputStream 分块数据
+     * @throws IOException io
+     */
+    public void receive(String relayId, String token, int index, long length, InputStream inputStream) throws IOException {
+        Session session = sessionMap.get(relayId);
+        Assert.notNull(session, "中继不存在或者已经过期");
+        Assert.state(StrUtil.equals(session.token, token), "中继令牌不正确");
+        Assert.isTrue(index >= 0 && index < session.total, "分块序号不正确");
+        Assert.isTrue(length == FileRelayUtil.chunkLength(session.manifest, index), "分块大小不正确");
+        session.active();
+        if (session.isReceived(index)) {
+            // 重复的分块
+            return;
+        }
+        File partFile = FileUtil.file(session.file.getParentFile(), StrUtil.format("{}.{}.{}.part", session.file.getName(), index, IdUtil.fastSimpleUUID()));
+        try {
+            MessageDigest digest = SecureUtil.sha1().getDigest();
+            byte[] buffer = new byte[IoUtil.DEFAULT_BUFFER_SIZE];
+            long remaining = length;
+            try (OutputStream outputStream = new FileOutputStream(partFile)) {
+                while (remaining > 0) {
+                    int len = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (len < 0) {
+                        break;
+                    }
+                    digest.update(buffer, 0, len);
+                    outputStream.write(buffer, 0, len);
+                    remaining -= len;
+                }
+            }
+            Assert.isTrue(remaining == 0, "分块大小不正确");
+            Assert.state(StrUtil.equals(HexUtil.encodeHexStr(digest.digest()), session.chunks.getString(index)), "分块签名不一致");
+            if (!session.write(index, partFile)) {
+                // 重复的分块
+                return;
+            }
+            session.active();
+        } finally {
+            FileUtil.del(partFile);
+        }
+        for (String peer : session.peers) {
+            forwardExecutor.execute(() -> this.forward(session, peer, index));
+        }
+    }
+
+    private void forward(Session session, String peer, int index) {
+        if (session.forwardError.containsKey(peer) || session.removed) {
+            return;
+        }
+        Exception exception = null;
+        for (int i = 0; i < FORWARD_RETRY; i++) {
+            try {
+                byte[] bytes = FileRelayUtil.readChunk(session.file, session.manifest, index);
+                FileRelayUtil.sendChunk(peer, session.relayId, session.token, index, bytes, FORWARD_TIMEOUT);
+                session.active();
+                return;
+            } catch (Exception e) {
+                exception = e;
+            }
+        }
+        log.warn("转发分块失败：{} {} {}", peer, index, exception.getMessage());
+        // 下级节点由服务端直接上传
+        session.forwardError.put(peer, StrUtil.maxLength(exception.getMessage(), 200));
+    }
+
+    /**
+     * 中继状态
+     *
+     * @param relayId 中继ID
+     * @return json
+     */
+    public JSONObject status(String relayId) {
+        Session session = sessionMap.get(relayId);
+        JSONObject jsonObject = new JSONObject();
+        if (session == null) {
+            jsonObject.put("exists", false);
+            return jsonObject;
+        }
+        jsonObject.put("exists", true);
+        jsonObject.put("total", session.total);
+        jsonObject.put("received", session.receivedCount());
+        jsonObject.put("complete", session.complete);
+        jsonObject.put("error", session.error);
+        jsonObject.put("forwardError", session.forwardError);
+        return jsonObject;
+    }
+
+    /**
+     * 获取接收完成的文件
+     *
+     * @param relayId 中继ID
+     * @return 文件
+     */
+    public File getFile(String relayId) {
+        Session session = sessionMap.get(relayId);
+        Assert.notNull(session, "中继不存在或者已经过期");
+        Assert.state(session.complete, "中继文件还没有接收完成");
+        session.active();
+        return session.file;
+    }
+
+    /**
+     * 删除中继
+     *
+     * @param relayId 中继ID
+     */
+    public void remove(String relayId) {
+        Session session = sessionMap.remove(relayId);
+        if (session != null) {
+            session.removed = true;
+            FileUtil.del(session.file.getParentFile());
+        }
+    }
+
+    /**
+     * 清理超过保留时间没有接收、转发分块的中继
+     */
+    private void cleanExpired() {
+        long now = SystemClock.now();
+        Iterator<Map.Entry<String, Session>> iterator = sessionMap.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Session session = iterator.next().getValue();
+            if (now - session.lastActiveTime > expireMillis) {
+                iterator.remove();
+                session.removed = true;
+                try {
+                    FileUtil.del(session.file.getParentFile());
+                } catch (Exception e) {
+                    log.warn("清理中继文件失败：{} {}", session.relayId, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static class Session {
+        private final String relayId;
+        private final String token;
+        private final JSONObject manifest;
+        private final JSONArray chunks;
+        private final int total;
+        private final File file;
+        private final BitSet received;
+        private final Map<String, String> forwardError = new ConcurrentHashMap<>();
+        private volatile List<String> peers = new ArrayList<>();
+        private volatile boolean complete;
+        private volatile boolean removed;
+        private volatile String error;
+        /**
+         * 最后一次接收、转发分块的时间
+         */
+        private volatile long lastActiveTime = SystemClock.now();
+
+        private Session(String relayId, String token, JSONObject manifest, File file) {
+            this.relayId = relayId;
+            this.token = token;
+            this.manifest = manifest;
+            this.chunks = manifest.getJSONArray("chunks");
+            this.total = chunks == null ? 0 : chunks.size();
+            this.file = file;
+            this.received = new BitSet(total);
+            FileUtil.mkParentDirs(file);
+        }
+
+        /**
+         * 写入分块
+         *
+         * @param index    序号
+         * @param partFile 分块临时文件
+         * @return false 已经接收过
+         */
+        private synchronized boolean write(int index, File partFile) {
+            if (received.get(index)) {
+                return false;
+            }
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+                 FileChannel source = FileChannel.open(partFile.toPath(), StandardOpenOption.READ)) {
+                FileChannel target = randomAccessFile.getChannel();
+                target.position((long) index * manifest.getIntValue("chunkSize"));
+                long size = source.size();
+                long count = 0;
+                while (count < size) {
+                    count += source.transferTo(count, size - count, target);
+                }
+            } catch (IOException e) {
+                throw new IORuntimeException(e);
+            }
+            received.set(index);
+            if (received.cardinality() == total) {
+                // 校验整个文件
+                String sha1 = SecureUtil.sha1(file);
+                if (StrUtil.equals(sha1, manifest.getString("sha1"))) {
+                    this.complete();
+                } else {
+                    this.error = "文件签名不一致";
+                }
+            }
+            return true;
+        }
+
+        private synchronized boolean isReceived(int index) {
+            return received.get(index);
+        }
+
+        private synchronized int receivedCount() {
+            return received.cardinality();
+        }
+
+        private void complete() {
+            this.complete = true;
+        }
+
+        private void active() {
+            this.lastActiveTime = SystemClock.now();
+        }
+    }
+}
@@ -22,31 +22,57 @@
  */
 package io.jpom.util;
 
-import cn.hutool.core.collection.CollUtil;
-import cn.hutool.core.io.FileUtil;
 import cn.hutool.core.lang.Tuple;
-import cn.hutool.core.util.ReUtil;
+import cn.hutool.core.thread.ExecutorBuilder;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.ArrayUtil;
 import cn.hutool.core.util.StrUtil;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.LineNumberReader;
 import java.nio.charset.Charset;
-import java.util.Collection;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * 文件搜索工具
+ * <p>
+ * 借助 {@link LogFileIndex} 把搜索区间按行首切分为多个分段，分段在线程池中并行扫描（内存映射），只记录命中的行号，
+ * 然后按分段顺序输出命中行及上下文，内存占用只和命中数量有关，与文件大小无关
  *
  * @author bwcx_jzy
  * @since 2022/5/15
  */
 public class FileSearchUtil {
 
+    /**
+     * 默认最多命中行数
+     */
+    public static final int DEFAULT_MAX_HIT = 1000;
+    /**
+     * 分段最小字节数
+     */
+    private static final long SEGMENT_BYTES = 16 * 1024 * 1024;
+    /**
+     * 单行最多匹配的字节数
+     */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final char[] REGEX_CHARS = "\\^$.|?*+()[]{}".toCharArray();
+
+    private static volatile ThreadPoolExecutor searchExecutor;
+
     /**
      * @param file             文件
      * @param charset          编码格式
@@ -65,88 +91,183 @@ public class FileSearchUtil {
                                     int cacheBeforeCount, int afterCount,
                                     int head, int tailCount,
                                     boolean first, Consumer<Tuple> consumer) throws IOException {
+        return searchList(file, charset, searchKey, cacheBeforeCount, afterCount, head, tailCount, first, DEFAULT_MAX_HIT, new AtomicBoolean(), consumer);
+    }
 
+    /**
+     * @param file             文件
+     * @param charset          编码格式
+     * @param searchKey        搜索关键词
+     * @param cacheBeforeCount 关键词前多少行
+     * @param afterCount       关键词后多少行
+     * @param head             搜索文件头多少行
+     * @param tailCount        文件后多少行
+     * @param first            是否从头开始读取
+     * @param maxHit           最多命中行数
+     * @param cancel           取消标记，设置为 true 后停止搜索
+     * @param consumer         回调
+     * @return 结果描述
+     * @throws IOException io
+     */
+    public static String searchList(File file, Charset charset,
+                                    String searchKey,
+                                    int cacheBeforeCount, int afterCount,
+                                    int head, int tailCount,
+                                    boolean first, int maxHit,
+                                    AtomicBoolean cancel, Consumer<Tuple> consumer) throws IOException {
+        LogFileIndex logFileIndex = LogFileIndex.of(file);
+        long totalLine = logFileIndex.getTotalLine();
         int[] calculate = FileSearchUtil.calculate(head, tailCount, first);
-        Collection<Tuple> strings;
+        long startLine;
+        long endLine;
         if (calculate.length == 1) {
-            strings = FileSearchUtil.readLastLine(file, charset, calculate[0]);
+            startLine = Math.max(totalLine - calculate[0], 0);
+            endLine = totalLine;
         } else {
-            strings = FileSearchUtil.readRangeLine(file, charset, calculate);
+            startLine = Math.max(calculate[0] - 1, 0);
+            endLine = Math.min(calculate[1], totalLine);
         }
-        int showLine = searchList(strings, searchKey, cacheBeforeCount, afterCount, consumer);
-        return StrUtil.format("在 {} 行中搜索到并显示 {} 行", CollUtil.size(strings), showLine);
+        return search(logFileIndex, charset, searchKey, cacheBeforeCount, afterCount, startLine, endLine, maxHit, cancel, consumer);
     }
 
-    private static int searchList(Collection<Tuple> strings, String searchKey, int beforeCount, int afterCount, Consumer<Tuple> consumer) {
-        AtomicInteger hitIndex = new AtomicInteger(0);
-        LimitQueue<Tuple> beforeQueue = new LimitQueue<>(beforeCount);
-        List<Integer> cacheLineNum = new LinkedList<>();
-        strings.forEach(tuple -> {
-            String s = tuple.get(1);
-            Integer index = tuple.get(0);
-            // System.out.println(s);
-            if (StrUtil.isEmpty(searchKey) || StrUtil.containsIgnoreCase(s, searchKey) || ReUtil.isMatch(searchKey, s)) {
-                // 先输出之前的
-                for (Tuple before : beforeQueue) {
-                    checkEchoCache(cacheLineNum, before, consumer);
+    /**
+     * 搜索整个文件，用于搜索日志备份文件
+     *
+     * @param file        文件
+     * @param charset     编码格式
+     * @param searchKey   搜索关键词
+     * @param beforeCount 关键词前多少行
+     * @param afterCount  关键词后多少行
+     * @param maxHit      最多命中行数
+     * @param cancel      取消标记
+     * @param consumer    回调
+     * @return 结果描述
+     * @throws IOException io
+     */
+    public static String searchAll(File file, Charset charset, String searchKey,
+                                   int beforeCount, int afterCount, int maxHit,
+                                   AtomicBoolean cancel, Consumer<Tuple> consumer) throws IOException {
+        LogFileIndex logFileIndex = LogFileIndex.of(file);
+        return search(logFileIndex, charset, searchKey, beforeCount, afterCount, 0, Long.MAX_VALUE, maxHit, cancel, consumer);
+    }
+
+    private static String search(LogFileIndex logFileIndex, Charset charset,
+                                 String searchKey,
+                                 int beforeCount, int afterCount,
+                                 long startLine, long endLine,
+                                 int maxHit, AtomicBoolean cancel,
+                                 Consumer<Tuple> consumer) throws IOException {
+        List<long[]> segments = logFileIndex.segments(startLine, endLine, SEGMENT_BYTES);
+        if (segments.isEmpty()) {
+            return "在 0 行中搜索到并显示 0 行";
+        }
+        endLine = segments.get(segments.size() - 1)[2];
+        LineMatcher lineMatcher = new LineMatcher(searchKey, charset);
+        int hitLimit = maxHit <= 0 ? DEFAULT_MAX_HIT : maxHit;
+        // 命中数量达到上限后停止还未完成的分段
+        AtomicBoolean stop = new AtomicBoolean();
+        ThreadPoolExecutor executor = getSearchExecutor();
+        List<Future<long[]>> futures = new ArrayList<>(segments.size());
+        for (long[] segment : segments) {
+            futures.add(executor.submit(() -> searchSegment(logFileIndex, segment, lineMatcher, hitLimit, stop, cancel)));
+        }
+        int hitCount = 0;
+        long showLine = 0;
+        // 已经输出的最后一行（从 0 开始）
+        long echoLine = startLine - 1;
+        try {
+            for (Future<long[]> future : futures) {
+                long[] hits = future.get();
+                for (long hit : hits) {
+                    if (hitCount >= hitLimit || cancel.get()) {
+                        break;
+                    }
+                    hitCount++;
+                    long from = Math.max(Math.max(hit - beforeCount, startLine), echoLine + 1);
+                    long to = Math.min(hit + afterCount, endLine - 1);
+                    if (from <= to) {
+                        showLine += echo(logFileIndex, charset, from, to, consumer);
+                        echoLine = to;
+                    }
+                }
+                if (hitCount >= hitLimit || cancel.get()) {
+                    break;
                 }
-                checkEchoCache(cacheLineNum, tuple, consumer);
-                hitIndex.set(index);
-            }
-            // 是否需要输出后面的内容
-            int i = hitIndex.get();
-            if (i > 0 && index > i && index <= i + afterCount) {
-                checkEchoCache(cacheLineNum, tuple, consumer);
-            }
-            if (beforeCount > 0) {
-                //
-                beforeQueue.offerFirst(tuple);
             }
-        });
-        return CollUtil.size(cacheLineNum);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("搜索被中断", e);
+        } catch (ExecutionException e) {
+            throw new IOException("搜索文件失败", e.getCause());
+        } finally {
+            stop.set(true);
+            futures.forEach(future -> future.cancel(false));
+        }
+        String msg = StrUtil.format("在 {} 行中搜索到并显示 {} 行", endLine - startLine, showLine);
+        if (cancel.get()) {
+            return msg + "（搜索已取消）";
+        }
+        if (hitCount >= hitLimit) {
+            return StrUtil.format("{}（命中行数达到上限 {}）", msg, hitLimit);
+        }
+        return msg;
     }
 
-    private static void checkEchoCache(List<Integer> cacheLineNum, Tuple tuple, Consumer<Tuple> consumer) {
-        int index = tuple.get(0);
-        if (cacheLineNum.contains(index)) {
-            return;
+    /**
+     * 扫描一个分段，返回命中的行号
+     */
+    private static long[] searchSegment(LogFileIndex logFileIndex, long[] segment, LineMatcher lineMatcher,
+                                        int hitLimit, AtomicBoolean stop, AtomicBoolean cancel) {
+        SegmentScanner scanner = new SegmentScanner(segment[0], lineMatcher, hitLimit, stop, cancel);
+        logFileIndex.scan(segment[1], segment[3], scanner);
+        if (scanner.lineNum < segment[2] && scanner.hitSize < hitLimit) {
+            // 最后一行没有换行符
+            scanner.endLine();
         }
-        consumer.accept(tuple);
-        cacheLineNum.add(index);
+        return Arrays.copyOf(scanner.hits, scanner.hitSize);
     }
 
-    public static Collection<Tuple> readLastLine(File file, Charset charset, int line) throws IOException {
-        BufferedReader reader = FileUtil.getReader(file, charset);
-        LineNumberReader lineNumberReader = new LineNumberReader(reader);
-        LimitQueue<Tuple> limitQueue = new LimitQueue<>(line);
-        while (true) {
-            String readLine = lineNumberReader.readLine();
-            if (readLine == null) {
+    /**
+     * 输出指定行区间
+     *
+     * @return 输出的行数
+     */
+    private static long echo(LogFileIndex logFileIndex, Charset charset, long from, long to, Consumer<Tuple> consumer) {
+        long count = 0;
+        while (from <= to) {
+            int size = (int) Math.min(to - from + 1, LogFileIndex.MAX_PAGE_SIZE);
+            JSONObject data = logFileIndex.readLine(from + 1, size, charset);
+            JSONArray lines = data.getJSONArray("lines");
+            if (lines.isEmpty()) {
                 break;
             }
-            limitQueue.add(new Tuple(lineNumberReader.getLineNumber(), readLine));
+            for (int i = 0; i < lines.size(); i++) {
+                consumer.accept(new Tuple((int) (from + i + 1), lines.getString(i)));
+            }
+            from += lines.size();
+            count += lines.size();
         }
-        return limitQueue;
+        return count;
     }
 
-    public static Collection<Tuple> readRangeLine(File file, Charset charset, int[] range) throws IOException {
-        BufferedReader reader = FileUtil.getReader(file, charset);
-        LineNumberReader lineNumberReader = new LineNumberReader(reader);
-        List<Tuple> list = new LinkedList<>();
-        while (true) {
-            String readLine = lineNumberReader.readLine();
-            if (readLine == null) {
-                break;
-            }
-            int lineNumber = lineNumberReader.getLineNumber();
-            if (lineNumber >= range[0] && lineNumber <= range[1]) {
-                list.add(new Tuple(lineNumber, readLine));
-            }
-            if (lineNumber > range[1]) {
-                break;
+    private static ThreadPoolExecutor getSearchExecutor() {
+        if (searchExecutor == null) {
+            synchronized (FileSearchUtil.class) {
+                if (searchExecutor == null) {
+                    int poolSize = Math.max(Runtime.getRuntime().availableProcessors(), 2);
+                    ThreadPoolExecutor executor = ExecutorBuilder.create()
+                        .setCorePoolSize(poolSize)
+                        .setMaxPoolSize(poolSize)
+                        .setWorkQueue(new LinkedBlockingQueue<>())
+                        .setThreadFactory(ThreadUtil.newNamedThreadFactory("Jpom Log Search-", true))
+                        .build();
+                    executor.setKeepAliveTime(1, TimeUnit.MINUTES);
+                    executor.allowCoreThreadTimeOut(true);
+                    searchExecutor = executor;
+                }
             }
         }
-        return list;
+        return searchExecutor;
     }
 
     /**
@@ -164,4 +285,130 @@ public class FileSearchUtil {
         return first ? new int[]{tailLine, Integer.MAX_VALUE} : new int[]{tailLine};
     }
 
+    /**
+     * 分段扫描，逐行匹配并记录命中行号
+     */
+    private static class SegmentScanner implements LogFileIndex.ByteHandler {
+
+        private final LineMatcher lineMatcher;
+        private final int hitLimit;
+        private final AtomicBoolean stop;
+        private final AtomicBoolean cancel;
+        private long lineNum;
+        private byte[] lineBytes = new byte[1024];
+        private int lineLength;
+        private long[] hits = new long[16];
+        private int hitSize;
+
+        private SegmentScanner(long lineNum, LineMatcher lineMatcher, int hitLimit, AtomicBoolean stop, AtomicBoolean cancel) {
+            this.lineNum = lineNum;
+            this.lineMatcher = lineMatcher;
+            this.hitLimit = hitLimit;
+            this.stop = stop;
+            this.cancel = cancel;
+        }
+
+        @Override
+        public boolean handle(long position, byte b) {
+            if (b != '\n') {
+                if (lineLength < MAX_LINE_LENGTH) {
+                    if (lineLength == lineBytes.length) {
+                        lineBytes = Arrays.copyOf(lineBytes, lineLength << 1);
+                    }
+                    lineBytes[lineLength++] = b;
+                }
+                return true;
+            }
+            this.endLine();
+            if ((lineNum & 0xFF) == 0 && (stop.get() || cancel.get())) {
+                return false;
+            }
+            return hitSize < hitLimit;
+        }
+
+        private void endLine() {
+            if (lineMatcher.match(lineBytes, lineLength)) {
+                if (hitSize == hits.length) {
+                    hits = Arrays.copyOf(hits, hitSize << 1);
+                }
+                hits[hitSize++] = lineNum;
+            }
+            lineNum++;
+            lineLength = 0;
+        }
+    }
+
+    /**
+     * 行匹配：包含关键词（忽略大小写）或者完整匹配正则
+     * <p>
+     * 关键词是 ASCII 普通字符时直接在字节上匹配，不需要解码
+     */
+    private static class LineMatcher {
+
+        private final String searchKey;
+        private final Charset charset;
+        private final byte[] asciiKey;
+        private final Pattern pattern;
+
+        private LineMatcher(String searchKey, Charset charset) {
+            this.searchKey = searchKey;
+            this.charset = charset;
+            if (StrUtil.isEmpty(searchKey)) {
+                this.asciiKey = null;
+                this.pattern = null;
+                return;
+            }
+            boolean literal = searchKey.chars().allMatch(value -> value < 128 && !ArrayUtil.contains(REGEX_CHARS, (char) value));
+            if (literal) {
+                // 普通字符的正则完整匹配必然包含关键词，只需要匹配关键词
+                this.asciiKey = searchKey.toLowerCase().getBytes(charset);
+                this.pattern = null;
+                return;
+            }
+            this.asciiKey = null;
+            Pattern compile;
+            try {
+                compile = Pattern.compile(searchKey);
+            } catch (PatternSyntaxException e) {
+                compile = null;
+            }
+            this.pattern = compile;
+        }
+
+        private boolean match(byte[] bytes, int length) {
+            if (StrUtil.isEmpty(searchKey)) {
+                return true;
+            }
+            if (length > 0 && bytes[length - 1] == '\r') {
+                length--;
+            }
+            if (asciiKey != null) {
+                return indexOfIgnoreCase(bytes, length, asciiKey);
+            }
+            String line = new String(bytes, 0, length, charset);
+            return StrUtil.containsIgnoreCase(line, searchKey) || (pattern != null && pattern.matcher(line).matches());
+        }
+
+        private static boolean indexOfIgnoreCase(byte[] bytes, int length, byte[] key) {
+            int max = length - key.length;
+            byte first = key[0];
+            for (int i = 0; i <= max; i++) {
+                if (toLower(bytes[i]) != first) {
+                    continue;
+                }
+                int j = 1;
+                while (j < key.length && toLower(bytes[i + j]) == key[j]) {
+                    j++;
+                }
+                if (j == key.length) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static byte toLower(byte b) {
+            return b >= 'A' && b <= 'Z' ? (byte) (b + 32) : b;
+        }
+    }
 }
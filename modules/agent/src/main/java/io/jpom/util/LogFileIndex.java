@@ -0,0 +1,455 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.util;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.IORuntimeException;
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.system.SystemUtil;
+import com.alibaba.fastjson.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大日志文件随机读取索引
+ * <p>
+ * 通过内存映射分段扫描文件，每隔 {@link #INDEX_INTERVAL} 行记录一次行首偏移量（稀疏索引），文件增长时只扫描新增部分。
+ * 按行号定位时直接取索引槽位，按字节偏移定位时二分查找索引，然后最多向后扫描 {@link #INDEX_INTERVAL} 行。
+ * <p>
+ * 以 '\n' 作为换行符，仅适用于兼容 ASCII 的编码（UTF-8、GBK 等）。
+ * windows 下文件被映射后无法删除或清空，所以 windows 使用普通读取代替内存映射
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/18
+ */
+public class LogFileIndex {
+
+    /**
+     * 索引间隔行数
+     */
+    private static final int INDEX_INTERVAL = 1000;
+    /**
+     * 单次映射的最大字节数
+     */
+    private static final int MAP_CHUNK_SIZE = 32 * 1024 * 1024;
+    /**
+     * 不使用内存映射时单次读取的字节数
+     */
+    private static final int READ_CHUNK_SIZE = 1024 * 1024;
+    /**
+     * 单行最多读取的字节数，超出部分丢弃
+     */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    /**
+     * 单次最多读取的行数
+     */
+    public static final int MAX_PAGE_SIZE = 2000;
+    /**
+     * 索引未访问多久后释放
+     */
+    private static final long EXPIRE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final boolean USE_MAPPED = !SystemUtil.getOsInfo().isWindows();
+
+    private static final Map<String, LogFileIndex> INDEX_MAP = new ConcurrentHashMap<>();
+
+    private final File file;
+    /**
+     * offsets[k] 为第 k * INDEX_INTERVAL 行（从 0 开始）的行首偏移量
+     */
+    private long[] offsets = new long[16];
+    private int offsetSize;
+    /**
+     * 已经扫描的字节数
+     */
+    private long indexedLength;
+    /**
+     * 已经扫描到的换行符数量
+     */
+    private long lineCount;
+    /**
+     * 最后一行的行首偏移量
+     */
+    private long lastLineStart;
+    private volatile long lastAccess;
+
+    private LogFileIndex(File file) {
+        this.file = file;
+        this.reset();
+    }
+
+    /**
+     * 获取文件对应的索引，索引会被缓存复用
+     *
+     * @param file 文件
+     * @return 索引
+     */
+    public static LogFileIndex of(File file) {
+        long now = System.currentTimeMillis();
+        Iterator<LogFileIndex> iterator = INDEX_MAP.values().iterator();
+        while (iterator.hasNext()) {
+            LogFileIndex index = iterator.next();
+            if (now - index.lastAccess > EXPIRE_MILLIS || !FileUtil.isFile(index.file)) {
+                iterator.remove();
+            }
+        }
+        LogFileIndex logFileIndex = INDEX_MAP.computeIfAbsent(FileUtil.getAbsolutePath(file), s -> new LogFileIndex(file));
+        logFileIndex.lastAccess = now;
+        return logFileIndex;
+    }
+
+    /**
+     * 释放文件对应的索引
+     *
+     * @param file 文件
+     */
+    public static void remove(File file) {
+        INDEX_MAP.remove(FileUtil.getAbsolutePath(file));
+    }
+
+    /**
+     * 按页读取
+     *
+     * @param page     页码，从 1 开始，小于 1 表示最后一页
+     * @param pageSize 每页行数
+     * @param charset  编码格式
+     * @return 读取结果
+     */
+    public synchronized JSONObject readPage(long page, int pageSize, Charset charset) {
+        this.refresh();
+        pageSize = this.fixCount(pageSize);
+        long totalLine = this.totalLine();
+        long totalPage = Math.max((totalLine + pageSize - 1) / pageSize, 1);
+        page = page < 1 ? totalPage : Math.min(page, totalPage);
+        JSONObject jsonObject = this.read((page - 1) * pageSize, pageSize, charset);
+        jsonObject.put("page", page);
+        jsonObject.put("totalPage", totalPage);
+        return jsonObject;
+    }
+
+    /**
+     * 按行号读取
+     *
+     * @param line    开始行号，从 1 开始，小于 1 表示从倒数 count 行开始
+     * @param count   读取行数
+     * @param charset 编码格式
+     * @return 读取结果
+     */
+    public synchronized JSONObject readLine(long line, int count, Charset charset) {
+        this.refresh();
+        count = this.fixCount(count);
+        long startLine = line < 1 ? Math.max(this.totalLine() - count, 0) : line - 1;
+        return this.read(startLine, count, charset);
+    }
+
+    /**
+     * 按字节偏移量读取，会对齐到偏移量所在行的行首
+     *
+     * @param offset  字节偏移量
+     * @param count   读取行数
+     * @param charset 编码格式
+     * @return 读取结果
+     */
+    public synchronized JSONObject readOffset(long offset, int count, Charset charset) {
+        this.refresh();
+        count = this.fixCount(count);
+        long[] lineOf = this.lineOf(Math.max(offset, 0));
+        return this.read(lineOf[0], lineOf[1], count, charset);
+    }
+
+    /**
+     * 获取文件总行数
+     *
+     * @return 行数
+     */
+    public synchronized long getTotalLine() {
+        this.refresh();
+        return this.totalLine();
+    }
+
+    /**
+     * 按索引把行区间切分为多个分段，分段边界对齐到行首，用于并行扫描
+     *
+     * @param startLine    开始行号（从 0 开始）
+     * @param endLine      结束行号（从 0 开始，不包含）
+     * @param segmentBytes 分段最小字节数
+     * @return [开始行号, 开始偏移量, 结束行号, 结束偏移量]
+     */
+    public synchronized List<long[]> segments(long startLine, long endLine, long segmentBytes) {
+        this.refresh();
+        long totalLine = this.totalLine();
+        endLine = Math.min(endLine, totalLine);
+        List<long[]> list = new ArrayList<>();
+        if (startLine >= endLine) {
+            return list;
+        }
+        long endOffset = endLine >= totalLine ? indexedLength : this.lineStart(endLine);
+        long line = startLine;
+        long offset = this.lineStart(startLine);
+        int slot = (int) (startLine / INDEX_INTERVAL) + 1;
+        while (line < endLine) {
+            long nextLine = endLine;
+            long nextOffset = endOffset;
+            for (; slot < offsetSize; slot++) {
+                long slotLine = (long) slot * INDEX_INTERVAL;
+                if (slotLine >= endLine) {
+                    break;
+                }
+                if (offsets[slot] - offset >= segmentBytes) {
+                    nextLine = slotLine;
+                    nextOffset = offsets[slot++];
+                    break;
+                }
+            }
+            list.add(new long[]{line, offset, nextLine, nextOffset});
+            line = nextLine;
+            offset = nextOffset;
+        }
+        return list;
+    }
+
+    private int fixCount(int count) {
+        if (count <= 0) {
+            return 100;
+        }
+        return Math.min(count, MAX_PAGE_SIZE);
+    }
+
+    private long totalLine() {
+        return lastLineStart < indexedLength ? lineCount + 1 : lineCount;
+    }
+
+    private void reset() {
+        Arrays.fill(offsets, 0);
+        offsetSize = 1;
+        indexedLength = 0;
+        lineCount = 0;
+        lastLineStart = 0;
+    }
+
+    /**
+     * 扫描文件新增部分，文件变小（被清空或者轮转）时重建索引
+     */
+    private void refresh() {
+        long length = file.length();
+        if (length < indexedLength) {
+            this.reset();
+        }
+        if (length == indexedLength) {
+            return;
+        }
+        this.scan(indexedLength, length, (position, b) -> {
+            if (b == '\n') {
+                lineCount++;
+                lastLineStart = position + 1;
+                if (lineCount % INDEX_INTERVAL == 0) {
+                    if (offsetSize == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, offsetSize << 1);
+                    }
+                    offsets[offsetSize++] = lastLineStart;
+                }
+            }
+            return true;
+        });
+        indexedLength = length;
+    }
+
+    /**
+     * 查找偏移量所在的行
+     *
+     * @param offset 偏移量
+     * @return [行号(从 0 开始), 行首偏移量]
+     */
+    private long[] lineOf(long offset) {
+        if (offset >= lastLineStart) {
+            return new long[]{lineCount, lastLineStart};
+        }
+        int low = 0, high = offsetSize - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        long[] result = new long[]{(long) low * INDEX_INTERVAL, offsets[low]};
+        this.scan(offsets[low], offset, (position, b) -> {
+            if (b == '\n') {
+                result[0]++;
+                result[1] = position + 1;
+            }
+            return true;
+        });
+        return result;
+    }
+
+    /**
+     * 查找行首偏移量
+     *
+     * @param line 行号(从 0 开始)
+     * @return 偏移量
+     */
+    private long lineStart(long line) {
+        if (line >= lineCount) {
+            return lastLineStart;
+        }
+        int slot = (int) (line / INDEX_INTERVAL);
+        long[] result = new long[]{line - (long) slot * INDEX_INTERVAL, offsets[slot]};
+        if (result[0] == 0) {
+            return result[1];
+        }
+        this.scan(offsets[slot], lastLineStart, (position, b) -> {
+            if (b == '\n' && --result[0] == 0) {
+                result[1] = position + 1;
+                return false;
+            }
+            return true;
+        });
+        return result[1];
+    }
+
+    private JSONObject read(long startLine, int count, Charset charset) {
+        startLine = Math.min(startLine, this.totalLine());
+        return this.read(startLine, this.lineStart(startLine), count, charset);
+    }
+
+    private JSONObject read(long startLine, long startOffset, int count, Charset charset) {
+        List<String> lines = new ArrayList<>(Math.min(count, 128));
+        ByteArrayOutputStream lineBytes = new ByteArrayOutputStream(256);
+        long[] endOffset = new long[]{startOffset};
+        this.scan(startOffset, indexedLength, (position, b) -> {
+            if (b == '\n') {
+                lines.add(this.decodeLine(lineBytes, charset));
+                endOffset[0] = position + 1;
+                return lines.size() < count;
+            }
+            if (lineBytes.size() < MAX_LINE_LENGTH) {
+                lineBytes.write(b);
+            }
+            return true;
+        });
+        if (lines.size() < count && endOffset[0] < indexedLength) {
+            // 最后一行没有换行符
+            lines.add(this.decodeLine(lineBytes, charset));
+            endOffset[0] = indexedLength;
+        }
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("lines", lines);
+        // 行号从 1 开始
+        jsonObject.put("startLine", startLine + 1);
+        jsonObject.put("endLine", startLine + lines.size());
+        jsonObject.put("startOffset", startOffset);
+        jsonObject.put("endOffset", endOffset[0]);
+        jsonObject.put("totalLine", this.totalLine());
+        jsonObject.put("fileSize", indexedLength);
+        return jsonObject;
+    }
+
+    private String decodeLine(ByteArrayOutputStream lineBytes, Charset charset) {
+        byte[] bytes = lineBytes.toByteArray();
+        lineBytes.reset();
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, 0, length, charset);
+    }
+
+    /**
+     * 逐字节扫描文件区间，不修改索引，可以多线程同时调用
+     *
+     * @param start   开始位置
+     * @param end     结束位置（不包含）
+     * @param handler 处理器，返回 false 结束扫描
+     */
+    public void scan(long start, long end, ByteHandler handler) {
+        if (start >= end) {
+            return;
+        }
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            end = Math.min(end, channel.size());
+            long position = start;
+            ByteBuffer readBuffer = USE_MAPPED ? null : ByteBuffer.allocate(READ_CHUNK_SIZE);
+            while (position < end) {
+                int size = (int) Math.min(USE_MAPPED ? MAP_CHUNK_SIZE : READ_CHUNK_SIZE, end - position);
+                ByteBuffer buffer;
+                if (USE_MAPPED) {
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                } else {
+                    readBuffer.clear();
+                    readBuffer.limit(size);
+                    while (readBuffer.hasRemaining()) {
+                        if (channel.read(readBuffer, position + readBuffer.position()) < 0) {
+                            break;
+                        }
+                    }
+                    readBuffer.flip();
+                    buffer = readBuffer;
+                    size = buffer.limit();
+                    if (size == 0) {
+                        return;
+                    }
+                }
+                for (int i = 0; i < size; i++) {
+                    if (!handler.handle(position + i, buffer.get(i))) {
+                        return;
+                    }
+                }
+                position += size;
+            }
+        } catch (IOException e) {
+            throw new IORuntimeException(StrUtil.format("读取文件失败：{}", file.getName()), e);
+        } finally {
+            IoUtil.close(channel);
+        }
+    }
+
+    @FunctionalInterface
+    public interface ByteHandler {
+        /**
+         * 处理字节
+         *
+         * @param position 字节位置
+         * @param b        字节
+         * @return false 结束扫描
+         */
+        boolean handle(long position, byte b);
+    }
+}
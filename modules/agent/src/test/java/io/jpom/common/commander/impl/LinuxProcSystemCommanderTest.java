@@ -0,0 +1,79 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.common.commander.impl;
+
+import cn.hutool.system.SystemUtil;
+import io.jpom.common.commander.AbstractSystemCommander;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * 对比 /proc 和 top 命令获取监控信息的单次耗时、内存分配
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/13
+ */
+@Slf4j
+public class LinuxProcSystemCommanderTest {
+
+    private static final int COUNT = 50;
+
+    @Before
+    public void before() {
+        Assume.assumeTrue(SystemUtil.getOsInfo().isLinux() && LinuxProcSystemCommander.isSupported());
+    }
+
+    @Test
+    public void testGetAllMonitor() {
+        LinuxProcSystemCommander procSystemCommander = new LinuxProcSystemCommander();
+        log.info("proc {}", procSystemCommander.getAllMonitor());
+        log.info("top {}", new LinuxSystemCommander().getAllMonitor());
+    }
+
+    @Test
+    public void benchmarkGetAllMonitor() {
+        this.benchmark("top", new LinuxSystemCommander());
+        this.benchmark("proc", new LinuxProcSystemCommander());
+    }
+
+    private void benchmark(String name, AbstractSystemCommander commander) {
+        // 预热
+        for (int i = 0; i < 5; i++) {
+            commander.getAllMonitor();
+        }
+        com.sun.management.ThreadMXBean threadMxBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated = threadMxBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < COUNT; i++) {
+            commander.getAllMonitor();
+        }
+        long time = System.nanoTime() - start;
+        allocated = threadMxBean.getThreadAllocatedBytes(threadId) - allocated;
+        log.info("{} 单次耗时：{} us，单次分配：{} bytes", name, time / COUNT / 1000, allocated / COUNT);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.CharsetUtil;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * 数据文件存储：旧 json 文件迁移、日志回放、合并
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/15
+ */
+public class JsonDataStoreTest {
+
+    private File dir;
+
+    @Before
+    public void before() {
+        dir = FileUtil.mkdir(FileUtil.file(FileUtil.getTmpDir(), "jpom-data-store-" + System.nanoTime()));
+    }
+
+    @After
+    public void after() {
+        FileUtil.del(dir);
+    }
+
+    @Test
+    public void testMigrateAndReplay() {
+        File file = FileUtil.file(dir, "project.json");
+        // 旧版本格式的数据文件
+        FileUtil.writeString("{\"a\":{\"id\":\"a\",\"name\":\"A\"}}", file, CharsetUtil.CHARSET_UTF_8);
+        String path = file.getAbsolutePath();
+        JsonDataStore store = JsonDataStore.of(path);
+        Assert.assertEquals("A", store.get("a").getString("name"));
+
+        store.put("b", JSON.parseObject("{\"id\":\"b\",\"name\":\"B\"}"));
+        store.remove("a");
+        // 修改只写入日志，json 文件保持不变
+        File logFile = FileUtil.file(path + ".log");
+        Assert.assertTrue(logFile.exists());
+        Assert.assertTrue(FileUtil.readUtf8String(file).contains("\"a\""));
+
+        // 模拟重启：从 json 文件 + 日志恢复，并合并日志
+        JSONObject jsonObject = replay(path);
+        Assert.assertNull(jsonObject.get("a"));
+        Assert.assertEquals("B", jsonObject.getJSONObject("b").getString("name"));
+        Assert.assertFalse(logFile.exists());
+        Assert.assertEquals(jsonObject, JSON.parseObject(FileUtil.readUtf8String(file)));
+    }
+
+    @Test
+    public void testCompact() {
+        File file = FileUtil.file(dir, "script.json");
+        JsonDataStore store = JsonDataStore.of(file.getAbsolutePath());
+        for (int i = 0; i < 250; i++) {
+            store.put("id" + (i % 10), JSON.parseObject("{\"index\":" + i + "}"));
+        }
+        File logFile = FileUtil.file(file.getAbsolutePath() + ".log");
+        Assert.assertTrue(FileUtil.readUtf8Lines(logFile).size() < 100);
+        JSONObject jsonObject = replay(file.getAbsolutePath());
+        Assert.assertEquals(10, jsonObject.size());
+        Assert.assertEquals(249, jsonObject.getJSONObject("id9").getIntValue("index"));
+    }
+
+    @Test
+    public void testExternalModify() throws InterruptedException {
+        File file = FileUtil.file(dir, "nginx_conf.json");
+        JsonDataStore store = JsonDataStore.of(file.getAbsolutePath());
+        Assert.assertNull(store.getAll());
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("name", "nginx");
+        store.save(jsonObject);
+        Thread.sleep(10);
+        FileUtil.writeString("{\"name\":\"nginx2\"}", file, CharsetUtil.CHARSET_UTF_8);
+        Assert.assertEquals("nginx2", store.getAll().getString("name"));
+    }
+
+    @Test
+    public void testCopy() {
+        File file = FileUtil.file(dir, "project_copy.json");
+        JsonDataStore store = JsonDataStore.of(file.getAbsolutePath());
+        JSONObject value = JSON.parseObject("{\"id\":\"a\",\"name\":\"A\",\"tags\":[\"t1\"],\"ext\":{\"port\":1}}");
+        store.put("a", value);
+        // 保存后修改传入的数据
+        value.put("name", "A1");
+        Assert.assertEquals("A", store.get("a").getString("name"));
+        // 修改读取到的数据，包括嵌套的数据
+        JSONObject item = store.get("a");
+        item.put("name", "A2");
+        item.getJSONArray("tags").add("t2");
+        item.getJSONObject("ext").put("port", 2);
+        JSONObject all = store.getAll();
+        all.getJSONObject("a").put("name", "A3");
+        all.getJSONObject("a").getJSONObject("ext").put("port", 3);
+        all.put("b", new JSONObject());
+        //
+        JSONObject read = store.get("a");
+        Assert.assertEquals("A", read.getString("name"));
+        Assert.assertEquals(1, read.getJSONArray("tags").size());
+        Assert.assertEquals(1, read.getJSONObject("ext").getIntValue("port"));
+        Assert.assertNull(store.get("b"));
+        Assert.assertEquals(1, store.getAll().size());
+        Assert.assertEquals(store.getAll(), replay(file.getAbsolutePath()));
+    }
+
+    /**
+     * 使用新的实例读取（不复用内存中的数据）
+     */
+    private JSONObject replay(String path) {
+        try {
+            java.lang.reflect.Constructor<JsonDataStore> constructor = JsonDataStore.class.getDeclaredConstructor(String.class);
+            constructor.setAccessible(true);
+            return constructor.newInstance(path).getAll();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.system;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.ReflectUtil;
+import cn.hutool.core.util.StrUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+/**
+ * 进程表：解析模拟的 /proc 目录，以及快照的过期和清空
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class ProcessTableManagerTest {
+
+    private File proc;
+
+    @Before
+    public void before() {
+        proc = FileUtil.mkdir(FileUtil.file(FileUtil.getTmpDir(), "jpom-proc-" + System.nanoTime()));
+        FileUtil.writeUtf8String("cpu  1 2 3\nbtime 1000\nprocesses 10\n", FileUtil.file(proc, "stat"));
+        FileUtil.mkdir(FileUtil.file(proc, "self"));
+        ProcessTableManager.procRoot = proc.toPath();
+        ProcessTableManager.invalidate();
+    }
+
+    @After
+    public void after() {
+        ProcessTableManager.procRoot = Paths.get("/proc");
+        ProcessTableManager.invalidate();
+        ReflectUtil.setFieldValue(AgentExtConfigBean.class, "agentExtConfigBean", null);
+        FileUtil.del(proc);
+    }
+
+    /**
+     * 模拟进程，参数使用 NUL 分隔
+     */
+    private void addProcess(int pid, String... args) {
+        File dir = FileUtil.mkdir(FileUtil.file(proc, String.valueOf(pid)));
+        String cmdline = args.length == 0 ? StrUtil.EMPTY : String.join("\0", args) + "\0";
+        FileUtil.writeBytes(cmdline.getBytes(StandardCharsets.UTF_8), FileUtil.file(dir, "cmdline"));
+        // 第 22 个字段为启动时间
+        StringBuilder stat = new StringBuilder().append(pid).append(" (java app) S");
+        for (int i = 0; i < 18; i++) {
+            stat.append(" 0");
+        }
+        stat.append(" ").append(pid).append(" 0 0\n");
+        FileUtil.writeUtf8String(stat.toString(), FileUtil.file(dir, "stat"));
+    }
+
+    private void setTtl(long ttl) {
+        AgentExtConfigBean agentExtConfigBean = new AgentExtConfigBean();
+        ReflectUtil.setFieldValue(agentExtConfigBean, "processTableTtl", ttl);
+        ReflectUtil.setFieldValue(AgentExtConfigBean.class, "agentExtConfigBean", agentExtConfigBean);
+    }
+
+    @Test
+    public void testParseTag() {
+        this.addProcess(100, "/usr/bin/java", "-Xmx1g", "-DJpom.application=App1", "-jar", "app.jar");
+        // 包装进程的参数带空格
+        this.addProcess(99, "bash", "-c", "java -DJpom.application=App1 -jar app.jar");
+        // 一个进程多个标识，使用第一个
+        this.addProcess(103, "java", "-DJpom.application=App3", "-Dapplication=Other");
+        // 没有标识
+        this.addProcess(104, "/opt/jdk/bin/java", "-jar", "x.jar");
+        this.addProcess(105, "nginx: master process", "-g", "daemon off;");
+        // 内核线程
+        this.addProcess(106);
+        // 其他标识写法
+        this.addProcess(107, "python3", "-Jpom.application=App7");
+        ProcessTableManager.Snapshot snapshot = ProcessTableManager.scan(proc.toPath());
+        Assert.assertEquals(Integer.valueOf(100), snapshot.getPidByTag("App1"));
+        // 标识不区分大小写
+        Assert.assertEquals(Integer.valueOf(100), snapshot.getPidByTag("app1"));
+        Assert.assertEquals(Integer.valueOf(103), snapshot.getPidByTag("App3"));
+        Assert.assertNull(snapshot.getPidByTag("Other"));
+        Assert.assertEquals(Integer.valueOf(107), snapshot.getPidByTag("App7"));
+        Assert.assertNull(snapshot.getPidByTag("none"));
+        Assert.assertNull(snapshot.getPidByTag(null));
+        // java 进程
+        Assert.assertEquals(3, snapshot.getJavaCount());
+        Assert.assertEquals("/usr/bin/java -Xmx1g -DJpom.application=App1 -jar app.jar", snapshot.getJavaCommandLine(100));
+        Assert.assertEquals("/opt/jdk/bin/java -jar x.jar", snapshot.getJavaCommandLine(104));
+        Assert.assertNull(snapshot.getJavaCommandLine(107));
+        // 启动时间：btime + starttime * 10ms
+        Assert.assertEquals(Long.valueOf(1000 * 1000 + 100 * 10), snapshot.getStartTime(100));
+        Assert.assertNull(snapshot.getStartTime(104));
+    }
+
+    @Test
+    public void testDuplicateTag() {
+        this.addProcess(205, "java", "-DJpom.application=App2");
+        this.addProcess(102, "java", "-DJpom.application=app2");
+        this.addProcess(310, "java", "-DJpom.application=APP2");
+        ProcessTableManager.Snapshot snapshot = ProcessTableManager.scan(proc.toPath());
+        // 多个进程使用同一个标识时取进程id最小的
+        Assert.assertEquals(Integer.valueOf(102), snapshot.getPidByTag("App2"));
+        Assert.assertEquals(3, snapshot.getJavaCount());
+    }
+
+    @Test
+    public void testCmdlineWithoutTrailingNul() {
+        File dir = FileUtil.mkdir(FileUtil.file(proc, "120"));
+        FileUtil.writeBytes("java\0-DJpom.application=App12".getBytes(StandardCharsets.UTF_8), FileUtil.file(dir, "cmdline"));
+        // 没有 stat 文件
+        ProcessTableManager.Snapshot snapshot = ProcessTableManager.scan(proc.toPath());
+        Assert.assertEquals(Integer.valueOf(120), snapshot.getPidByTag("App12"));
+        Assert.assertNull(snapshot.getStartTime(120));
+    }
+
+    @Test
+    public void testTtlReuse() {
+        this.setTtl(60_000);
+        this.addProcess(100, "java", "-DJpom.application=App1");
+        ProcessTableManager.Snapshot snapshot = ProcessTableManager.get();
+        Assert.assertEquals(Integer.valueOf(100), snapshot.getPidByTag("App1"));
+        // 过期前复用快照，不感知新的进程
+        this.addProcess(101, "java", "-DJpom.application=App2");
+        Assert.assertSame(snapshot, ProcessTableManager.get());
+        Assert.assertNull(ProcessTableManager.get().getPidByTag("App2"));
+        // 清空后重新扫描
+        ProcessTableManager.invalidate();
+        ProcessTableManager.Snapshot snapshot2 = ProcessTableManager.get();
+        Assert.assertNotSame(snapshot, snapshot2);
+        Assert.assertEquals(Integer.valueOf(101), snapshot2.getPidByTag("App2"));
+        Assert.assertSame(snapshot2, ProcessTableManager.get());
+    }
+
+    @Test
+    public void testTtlExpire() {
+        this.setTtl(50);
+        this.addProcess(100, "java", "-DJpom.application=App1");
+        ProcessTableManager.Snapshot snapshot = ProcessTableManager.get();
+        FileUtil.del(FileUtil.file(proc, "100"));
+        ThreadUtil.sleep(100);
+        // 过期后重新扫描
+        ProcessTableManager.Snapshot snapshot2 = ProcessTableManager.get();
+        Assert.assertNotSame(snapshot, snapshot2);
+        Assert.assertNull(snapshot2.getPidByTag("App1"));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.util;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.CharsetUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 差异发布压缩包：替换、新增、删除以及失败回滚
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class DiffSyncArchiveUtilTest {
+
+    private File root;
+    private File projectDir;
+
+    @Before
+    public void before() {
+        root = FileUtil.file(FileUtil.getTmpDir(), "jpom-diff-archive-" + System.nanoTime());
+        projectDir = FileUtil.file(root, "project");
+        FileUtil.writeUtf8String("old-a", FileUtil.file(projectDir, "a.txt"));
+        FileUtil.writeUtf8String("old-b", FileUtil.file(projectDir, "lib/b.txt"));
+        FileUtil.writeUtf8String("del", FileUtil.file(projectDir, "lib/del.txt"));
+    }
+
+    @After
+    public void after() {
+        FileUtil.del(root);
+    }
+
+    @Test
+    public void testApply() throws IOException {
+        File archive = this.zip(new String[]{"a.txt", "new-a"}, new String[]{"lib/c.txt", "new-c"});
+        File workDir = FileUtil.file(root, "work");
+        List<File> files = DiffSyncArchiveUtil.apply(archive, projectDir, Collections.singletonList("lib/del.txt"), workDir);
+        Assert.assertEquals(3, files.size());
+        Assert.assertEquals("new-a", FileUtil.readUtf8String(FileUtil.file(projectDir, "a.txt")));
+        Assert.assertEquals("old-b", FileUtil.readUtf8String(FileUtil.file(projectDir, "lib/b.txt")));
+        Assert.assertEquals("new-c", FileUtil.readUtf8String(FileUtil.file(projectDir, "lib/c.txt")));
+        Assert.assertFalse(FileUtil.exist(FileUtil.file(projectDir, "lib/del.txt")));
+        Assert.assertFalse(FileUtil.exist(workDir));
+    }
+
+    @Test
+    public void testRollback() throws IOException {
+        // lib/b.txt 是文件，无法写入 lib/b.txt/d.txt，前面已经替换的文件需要还原
+        File archive = this.zip(new String[]{"a.txt", "new-a"}, new String[]{"new.txt", "new"}, new String[]{"lib/b.txt/d.txt", "new-d"});
+        File workDir = FileUtil.file(root, "work");
+        try {
+            DiffSyncArchiveUtil.apply(archive, projectDir, Collections.singletonList("lib/del.txt"), workDir);
+            Assert.fail();
+        } catch (Exception ignored) {
+        }
+        // 还原完成后删除工作目录
+        Assert.assertFalse(FileUtil.exist(workDir));
+        Assert.assertEquals("old-a", FileUtil.readUtf8String(FileUtil.file(projectDir, "a.txt")));
+        Assert.assertEquals("old-b", FileUtil.readUtf8String(FileUtil.file(projectDir, "lib/b.txt")));
+        Assert.assertEquals("del", FileUtil.readUtf8String(FileUtil.file(projectDir, "lib/del.txt")));
+        Assert.assertFalse(FileUtil.exist(FileUtil.file(projectDir, "new.txt")));
+    }
+
+    @Test
+    public void testOutside() throws IOException {
+        File archive = this.zip(new String[]{"a.txt", "new-a"});
+        try {
+            DiffSyncArchiveUtil.apply(archive, projectDir, Arrays.asList("lib/del.txt", "../outside.txt"), FileUtil.file(root, "work"));
+            Assert.fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+        Assert.assertEquals("old-a", FileUtil.readUtf8String(FileUtil.file(projectDir, "a.txt")));
+        Assert.assertTrue(FileUtil.exist(FileUtil.file(projectDir, "lib/del.txt")));
+    }
+
+    private File zip(String[]... items) throws IOException {
+        File archive = FileUtil.file(root, "diff.zip");
+        FileUtil.mkParentDirs(archive);
+        try (OutputStream outputStream = Files.newOutputStream(archive.toPath());
+             ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
+            for (String[] item : items) {
+                zipOutputStream.putNextEntry(new ZipEntry(item[0]));
+                zipOutputStream.write(item[1].getBytes(CharsetUtil.CHARSET_UTF_8));
+                zipOutputStream.closeEntry();
+            }
+        }
+        return archive;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.util;
+
+import cn.hutool.core.date.SystemClock;
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.RandomUtil;
+import cn.hutool.http.ContentType;
+import cn.hutool.http.HttpUtil;
+import cn.hutool.http.server.SimpleServer;
+import cn.jiangzeyin.common.JsonMessage;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * 中继分发：分块接收、逐级转发以及校验
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class FileRelayManagerTest {
+
+    private File root;
+    private SimpleServer server;
+    private String baseUrl;
+    private FileRelayManager seed;
+    private FileRelayManager peer1;
+    private FileRelayManager peer2;
+
+    @Before
+    public void before() {
+        root = FileUtil.file(FileUtil.getTmpDir(), "jpom-relay-" + System.nanoTime());
+        seed = new FileRelayManager(FileUtil.file(root, "seed"));
+        peer1 = new FileRelayManager(FileUtil.file(root, "peer1"));
+        peer2 = new FileRelayManager(FileUtil.file(root, "peer2"));
+        int port = RandomUtil.randomInt(20000, 40000);
+        server = HttpUtil.createServer(port);
+        this.addAction("/peer1", peer1);
+        this.addAction("/peer2", peer2);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + port;
+    }
+
+    @After
+    public void after() {
+        server.getRawServer().stop(0);
+        FileUtil.del(root);
+    }
+
+    private void addAction(String path, FileRelayManager manager) {
+        server.addAction(path, (request, response) -> {
+            String message;
+            try {
+                manager.receive(request.getParam("relayId"), request.getHeader(FileRelayUtil.TOKEN_HEADER),
+                    Integer.parseInt(request.getParam("index")), request.getBodyBytes());
+                message = JsonMessage.getString(200, "接收成功");
+            } catch (Exception e) {
+                message = JsonMessage.getString(400, e.getMessage());
+            }
+            response.write(message, ContentType.JSON.getValue());
+        });
+    }
+
+    @Test
+    public void testRelay() throws InterruptedException {
+        File file = FileUtil.file(root, "app.jar");
+        FileUtil.writeBytes(RandomUtil.randomBytes(10 * 1024 + 123), file);
+        JSONObject manifest = FileRelayUtil.manifest(file, 1024);
+        Assert.assertEquals(11, manifest.getJSONArray("chunks").size());
+
+        peer1.prepare("r1", "token", manifest, Collections.emptyList());
+        peer2.prepare("r1", "token", manifest, Collections.emptyList());
+        seed.prepare("r1", "token", manifest, Arrays.asList(baseUrl + "/peer1", baseUrl + "/peer2"));
+        for (int i = 0; i < 11; i++) {
+            seed.receive("r1", "token", i, FileRelayUtil.readChunk(file, manifest, i));
+        }
+        this.waitComplete(peer1, "r1");
+        this.waitComplete(peer2, "r1");
+        for (FileRelayManager manager : new FileRelayManager[]{seed, peer1, peer2}) {
+            Assert.assertTrue(manager.status("r1").getBooleanValue("complete"));
+            File relayFile = manager.getFile("r1");
+            Assert.assertEquals("app.jar", relayFile.getName());
+            Assert.assertArrayEquals(FileUtil.readBytes(file), FileUtil.readBytes(relayFile));
+        }
+        Assert.assertTrue(seed.status("r1").getJSONObject("forwardError").isEmpty());
+        seed.remove("r1");
+        Assert.assertFalse(seed.status("r1").getBooleanValue("exists"));
+    }
+
+    @Test
+    public void testReject() {
+        File file = FileUtil.file(root, "app.jar");
+        FileUtil.writeBytes(RandomUtil.randomBytes(2048), file);
+        JSONObject manifest = FileRelayUtil.manifest(file, 1024);
+        seed.prepare("r2", "token", manifest, Collections.emptyList());
+        byte[] chunk = FileRelayUtil.readChunk(file, manifest, 0);
+        Assert.assertThrows(IllegalStateException.class, () -> seed.receive("r2", "other", 0, chunk));
+        Assert.assertThrows(IllegalStateException.class, () -> seed.receive("r2", "token", 1, chunk));
+        Assert.assertThrows(IllegalArgumentException.class, () -> seed.receive("r2", "token", 2, chunk));
+        Assert.assertFalse(seed.status("r2").getBooleanValue("complete"));
+        Assert.assertThrows(IllegalStateException.class, () -> seed.getFile("r2"));
+    }
+
+    @Test
+    public void testRejectBeforeRead() throws IOException {
+        File file = FileUtil.file(root, "app.jar");
+        FileUtil.writeBytes(RandomUtil.randomBytes(2048), file);
+        JSONObject manifest = FileRelayUtil.manifest(file, 1024);
+        seed.prepare("r3", "token", manifest, Collections.emptyList());
+        // 校验不通过时不读取请求体
+        InputStream unread = new InputStream() {
+            @Override
+            public int read() {
+                throw new AssertionError("body should not be read");
+            }
+        };
+        Assert.assertThrows(IllegalArgumentException.class, () -> seed.receive("none", "token", 0, 1024, unread));
+        Assert.assertThrows(IllegalStateException.class, () -> seed.receive("r3", "other", 0, 1024, unread));
+        Assert.assertThrows(IllegalArgumentException.class, () -> seed.receive("r3", "token", 0, FileRelayManager.MAX_CHUNK_SIZE, unread));
+        // 请求体比声明的短
+        byte[] chunk = FileRelayUtil.readChunk(file, manifest, 0);
+        Assert.assertThrows(IllegalArgumentException.class, () -> seed.receive("r3", "token", 0, 1024, new ByteArrayInputStream(chunk, 0, 512)));
+        for (int i = 0; i < 2; i++) {
+            byte[] bytes = FileRelayUtil.readChunk(file, manifest, i);
+            seed.receive("r3", "token", i, bytes.length, new ByteArrayInputStream(bytes));
+        }
+        Assert.assertArrayEquals(FileUtil.readBytes(file), FileUtil.readBytes(seed.getFile("r3")));
+        // 只保留中继文件，分块临时文件已经删除
+        Assert.assertEquals(1, FileUtil.ls(seed.getFile("r3").getParent()).length);
+    }
+
+    @Test
+    public void testExpireByActivity() {
+        File file = FileUtil.file(root, "app.jar");
+        FileUtil.writeBytes(RandomUtil.randomBytes(8 * 1024), file);
+        JSONObject manifest = FileRelayUtil.manifest(file, 1024);
+        FileRelayManager manager = new FileRelayManager(FileUtil.file(root, "expire"), 400);
+        manager.prepare("r4", "token", manifest, Collections.emptyList());
+        // 持续接收分块的中继超过保留时间也不清理
+        for (int i = 0; i < 8; i++) {
+            ThreadUtil.sleep(100);
+            manager.receive("r4", "token", i, FileRelayUtil.readChunk(file, manifest, i));
+        }
+        Assert.assertTrue(manager.status("r4").getBooleanValue("complete"));
+        File relayFile = manager.getFile("r4");
+        // 不再有新的请求，由定时任务清理
+        long endTime = SystemClock.now() + 5_000;
+        while (manager.status("r4").getBooleanValue("exists") && SystemClock.now() < endTime) {
+            ThreadUtil.sleep(50);
+        }
+        Assert.assertFalse(manager.status("r4").getBooleanValue("exists"));
+        Assert.assertFalse(FileUtil.exist(relayFile.getParentFile()));
+    }
+
+    private void waitComplete(FileRelayManager manager, String relayId) throws InterruptedException {
+        long endTime = SystemClock.now() + 10_000;
+        while (!manager.status(relayId).getBooleanValue("complete") && SystemClock.now() < endTime) {
+            ThreadUtil.sleep(50);
+        }
+    }
+}
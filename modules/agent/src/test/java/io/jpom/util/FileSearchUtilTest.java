@@ -0,0 +1,104 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.util;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.lang.Tuple;
+import cn.hutool.core.util.CharsetUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 文件搜索：多分段并行搜索、上下文去重、命中上限
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/18
+ */
+public class FileSearchUtilTest {
+
+    private static final int LINES = 600000;
+
+    private File file;
+
+    @Before
+    public void before() throws IOException {
+        file = FileUtil.file(FileUtil.getTmpDir(), "jpom-log-search-" + System.nanoTime() + ".log");
+        // 约 30MB，会被切分为多个分段
+        try (BufferedWriter writer = FileUtil.getWriter(file, CharsetUtil.CHARSET_UTF_8, false)) {
+            for (int i = 1; i <= LINES; i++) {
+                writer.write(String.format("2022-09-18 12:00:00 INFO line %07d %s", i, i % 100000 == 0 ? "Target" : "other"));
+                writer.newLine();
+            }
+        }
+    }
+
+    @After
+    public void after() {
+        LogFileIndex.remove(file);
+        FileUtil.del(file);
+    }
+
+    @Test
+    public void testSearchAll() throws IOException {
+        List<Tuple> list = new ArrayList<>();
+        String msg = FileSearchUtil.searchList(file, CharsetUtil.CHARSET_UTF_8, "target", 1, 1, 0, 0, true, list::add);
+        // 最后一行命中，没有后面的上下文
+        Assert.assertEquals(17, list.size());
+        Assert.assertEquals(99999, (int) list.get(0).get(0));
+        Assert.assertEquals(100000, (int) list.get(1).get(0));
+        Assert.assertEquals(600000, (int) list.get(list.size() - 1).get(0));
+        Assert.assertTrue(msg, msg.startsWith("在 600000 行中搜索到并显示 17 行"));
+    }
+
+    @Test
+    public void testRegexAndContext() throws IOException {
+        List<Tuple> list = new ArrayList<>();
+        // 上下文重叠时不重复输出
+        FileSearchUtil.searchList(file, CharsetUtil.CHARSET_UTF_8, ".*line (0300000|0300002) .*", 2, 2, 0, 0, true, list::add);
+        Assert.assertEquals(7, list.size());
+        Assert.assertEquals(299998, (int) list.get(0).get(0));
+        Assert.assertEquals(300004, (int) list.get(6).get(0));
+    }
+
+    @Test
+    public void testTailAndLimit() throws IOException {
+        List<Tuple> list = new ArrayList<>();
+        FileSearchUtil.searchList(file, CharsetUtil.CHARSET_UTF_8, "Target", 0, 0, 0, 250000, false, list::add);
+        Assert.assertEquals(3, list.size());
+        Assert.assertEquals(400000, (int) list.get(0).get(0));
+
+        list.clear();
+        String msg = FileSearchUtil.searchList(file, CharsetUtil.CHARSET_UTF_8, "INFO", 0, 0, 0, 0, true, 10, new AtomicBoolean(), list::add);
+        Assert.assertEquals(10, list.size());
+        Assert.assertTrue(msg, msg.contains("上限"));
+    }
+}
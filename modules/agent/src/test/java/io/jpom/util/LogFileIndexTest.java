@@ -0,0 +1,106 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.util;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.CharsetUtil;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * 日志索引：按行、按偏移量、按页读取以及文件增长、清空
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/18
+ */
+public class LogFileIndexTest {
+
+    private File file;
+
+    @Before
+    public void before() {
+        file = FileUtil.file(FileUtil.getTmpDir(), "jpom-log-index-" + System.nanoTime() + ".log");
+        StringBuilder builder = new StringBuilder();
+        for (int i = 1; i <= 2500; i++) {
+            builder.append("line-").append(i).append("\r\n");
+        }
+        // 最后一行没有换行符
+        builder.append("line-2501");
+        FileUtil.writeString(builder.toString(), file, CharsetUtil.CHARSET_UTF_8);
+    }
+
+    @After
+    public void after() {
+        LogFileIndex.remove(file);
+        FileUtil.del(file);
+    }
+
+    @Test
+    public void testRead() {
+        LogFileIndex index = LogFileIndex.of(file);
+        Assert.assertEquals(2501, index.getTotalLine());
+
+        JSONObject data = index.readLine(1001, 3, CharsetUtil.CHARSET_UTF_8);
+        List<?> lines = data.getJSONArray("lines");
+        Assert.assertEquals("line-1001", lines.get(0));
+        Assert.assertEquals("line-1003", lines.get(2));
+        Assert.assertEquals(1003, data.getLongValue("endLine"));
+
+        // 偏移量对齐到所在行
+        long offset = data.getLongValue("startOffset") + 3;
+        data = index.readOffset(offset, 1, CharsetUtil.CHARSET_UTF_8);
+        Assert.assertEquals(1001, data.getLongValue("startLine"));
+        Assert.assertEquals("line-1001", data.getJSONArray("lines").get(0));
+
+        data = index.readPage(0, 100, CharsetUtil.CHARSET_UTF_8);
+        Assert.assertEquals(26, data.getLongValue("page"));
+        lines = data.getJSONArray("lines");
+        Assert.assertEquals(1, lines.size());
+        Assert.assertEquals("line-2501", lines.get(0));
+
+        data = index.readLine(0, 2, CharsetUtil.CHARSET_UTF_8);
+        Assert.assertEquals("line-2500", data.getJSONArray("lines").get(0));
+    }
+
+    @Test
+    public void testGrowAndTruncate() {
+        LogFileIndex index = LogFileIndex.of(file);
+        Assert.assertEquals(2501, index.getTotalLine());
+        FileUtil.appendUtf8String("-end\nline-2502\n", file);
+        Assert.assertEquals(2502, index.getTotalLine());
+        JSONObject data = index.readLine(2501, 5, CharsetUtil.CHARSET_UTF_8);
+        Assert.assertEquals("line-2501-end", data.getJSONArray("lines").get(0));
+        Assert.assertEquals(2, data.getJSONArray("lines").size());
+
+        FileUtil.writeUtf8String("a\nb\n", file);
+        Assert.assertEquals(2, index.getTotalLine());
+        data = index.readPage(1, 10, CharsetUtil.CHARSET_UTF_8);
+        Assert.assertEquals("b", data.getJSONArray("lines").get(1));
+    }
+}
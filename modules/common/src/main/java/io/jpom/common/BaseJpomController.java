@@ -23,9 +23,20 @@
 package io.jpom.common;
 
 import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.IORuntimeException;
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.util.CharsetUtil;
+import cn.hutool.core.util.ObjectUtil;
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.core.util.URLUtil;
 import cn.jiangzeyin.controller.base.AbstractController;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
 /**
  * controller
  *
@@ -49,6 +60,97 @@ public abstract class BaseJpomController extends AbstractController {
         return FileUtil.normalize(newPath);
     }
 
+    /**
+     * 下载文件，支持 Range 请求（断点续传）
+     *
+     * @param file 文件
+     */
+    protected void writeFile(File file) {
+        HttpServletRequest request = getRequest();
+        HttpServletResponse response = getResponse();
+        long length = file.length();
+        long lastModified = file.lastModified();
+        String fileName = file.getName();
+        String charset = ObjectUtil.defaultIfNull(response.getCharacterEncoding(), CharsetUtil.UTF_8);
+        response.setHeader("Content-Disposition", StrUtil.format("attachment;filename=\"{}\"", URLUtil.encode(fileName, CharsetUtil.charset(charset))));
+        response.setContentType(ObjectUtil.defaultIfNull(FileUtil.getMimeType(fileName), "application/octet-stream"));
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setDateHeader("Last-Modified", lastModified);
+        long start = 0;
+        long count = length;
+        long[] range = parseRange(request, length, lastModified);
+        if (range != null) {
+            if (range.length == 0) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader("Content-Range", "bytes */" + length);
+                return;
+            }
+            start = range[0];
+            count = range[1] - range[0] + 1;
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", StrUtil.format("bytes {}-{}/{}", range[0], range[1], length));
+        }
+        response.setContentLengthLong(count);
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            inputStream.getChannel().position(start);
+            IoUtil.copy(inputStream, response.getOutputStream(), IoUtil.DEFAULT_LARGE_BUFFER_SIZE, count, null);
+        } catch (IOException e) {
+            throw new IORuntimeException(e);
+        }
+    }
+
+    /**
+     * 解析 Range 请求头，只支持单个区间，多个区间返回整个文件
+     *
+     * @param request      请求
+     * @param length       文件大小
+     * @param lastModified 文件修改时间
+     * @return null 返回整个文件，空数组表示区间不合法
+     */
+    private static long[] parseRange(HttpServletRequest request, long length, long lastModified) {
+        String range = request.getHeader("Range");
+        if (!StrUtil.startWith(range, "bytes=")) {
+            return null;
+        }
+        // 文件已经变更，返回整个文件
+        try {
+            long ifRange = request.getDateHeader("If-Range");
+            if (ifRange != -1 && ifRange / 1000 != lastModified / 1000) {
+                return null;
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        String spec = StrUtil.subAfter(range, "=", false).trim();
+        if (StrUtil.contains(spec, StrUtil.C_COMMA) || !StrUtil.contains(spec, '-')) {
+            return null;
+        }
+        String startStr = StrUtil.subBefore(spec, "-", false).trim();
+        String endStr = StrUtil.subAfter(spec, "-", false).trim();
+        long start;
+        long end;
+        try {
+            if (StrUtil.isEmpty(startStr)) {
+                // bytes=-500 最后 500 个字节
+                long suffix = Long.parseLong(endStr);
+                if (suffix <= 0) {
+                    return new long[0];
+                }
+                start = Math.max(length - suffix, 0);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(startStr);
+                end = StrUtil.isEmpty(endStr) ? length - 1 : Math.min(Long.parseLong(endStr), length - 1);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (start >= length || start > end) {
+            return new long[0];
+        }
+        return new long[]{start, end};
+    }
+
     protected boolean checkPathSafe(String path) {
         if (path == null) {
             return false;
@@ -72,5 +72,6 @@ public abstract class BaseRunScript implements AutoCloseable {
             IoUtil.close(inputStream);
             this.process.destroy();
         }
+        logRecorder.close();
     }
 }
@@ -40,6 +40,10 @@ public enum ConsoleCommandOp {
      * 运行日志
      */
     showlog,
+    /**
+     * 按页、行号或者字节偏移量随机读取日志
+     */
+    readlog,
     /**
      * 查看内存信息
      */
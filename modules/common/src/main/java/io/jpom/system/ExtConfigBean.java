@@ -75,6 +75,16 @@ public class ExtConfigBean {
      */
     @Value("${log.intiReadLine:10}")
     private int logInitReadLine;
+    /**
+     * 推送日志时每个 socket 会话的待发送队列大小（行），队列满后丢弃新的日志行
+     */
+    @Value("${log.socketQueueSize:2000}")
+    private int socketQueueSize;
+    /**
+     * socket 会话持续丢弃日志多少秒后断开连接，小于等于 0 不断开
+     */
+    @Value("${log.socketSlowCloseSeconds:0}")
+    private int socketSlowCloseSeconds;
     /**
      * 控制台编码格式
      */
@@ -106,6 +116,14 @@ public class ExtConfigBean {
         return Math.max(logInitReadLine, 10);
     }
 
+    public int getSocketQueueSize() {
+        return Math.max(socketQueueSize, 100);
+    }
+
+    public int getSocketSlowCloseSeconds() {
+        return socketSlowCloseSeconds;
+    }
+
     public Charset getLogFileCharset() {
         // 读取配置的编码格式
         if (logFileCharset == null && StrUtil.isNotBlank(logFileCharsetStr)) {
@@ -35,7 +35,6 @@ import org.springframework.web.socket.WebSocketSession;
 
 import javax.websocket.Session;
 import java.io.File;
-import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
@@ -88,16 +87,20 @@ public abstract class BaseFileTailWatcher<T> {
         return detSet;
     }
 
-    protected void send(T session, String msg) {
-        try {
-            if (session instanceof Session) {
-                SocketSessionUtil.send((Session) session, msg);
-            } else if (session instanceof WebSocketSession) {
-                SocketSessionUtil.send((WebSocketSession) session, msg);
-            } else {
-                throw new JpomRuntimeException("没有对应类型");
-            }
-        } catch (IOException ignored) {
+    /**
+     * 发送消息，消息进入会话的发送队列后立即返回，避免一个接收慢的会话阻塞文件读取
+     *
+     * @param session 会话
+     * @param msg     消息
+     * @return false 会话已经关闭
+     */
+    protected boolean send(T session, String msg) {
+        if (session instanceof Session) {
+            return SocketSessionUtil.sendAsync((Session) session, msg);
+        } else if (session instanceof WebSocketSession) {
+            return SocketSessionUtil.sendAsync((WebSocketSession) session, msg);
+        } else {
+            throw new JpomRuntimeException("没有对应类型");
         }
     }
 
@@ -111,7 +114,9 @@ public abstract class BaseFileTailWatcher<T> {
         while (iterator.hasNext()) {
             T socketSession = iterator.next();
             try {
-                this.send(socketSession, msg);
+                if (!this.send(socketSession, msg)) {
+                    iterator.remove();
+                }
             } catch (Exception e) {
                 log.error("发送消息失败", e);
                 iterator.remove();
@@ -0,0 +1,301 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.util;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.IORuntimeException;
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.thread.ExecutorBuilder;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.CharsetUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.SecureUtil;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 文件签名清单
+ * <p>
+ * 按相对路径缓存文件的大小、修改时间和签名到清单文件，再次计算时只对大小或者修改时间有变化的文件重新签名，
+ * 需要签名的文件在线程池中并行计算。清单只记录相对路径，根目录变化（如每次构建的产物目录）时仍然可以复用
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+@Slf4j
+public class FileHashManifest {
+
+    /**
+     * sha1 签名，兼容旧版本
+     */
+    public static final String HASH_SHA1 = "sha1";
+    /**
+     * crc32 + 文件大小，非加密签名，速度快
+     */
+    public static final String HASH_CRC32 = "crc32";
+
+    private static final KeyLock<String> KEY_LOCK = new KeyLock<>();
+
+    private static volatile ThreadPoolExecutor hashExecutor;
+
+    /**
+     * 判断是否支持的签名方式
+     *
+     * @param hashType 签名方式
+     * @return true 支持
+     */
+    public static boolean support(String hashType) {
+        return StrUtil.equalsAny(hashType, HASH_SHA1, HASH_CRC32);
+    }
+
+    /**
+     * 计算目录（或者文件）下所有文件的签名
+     *
+     * @param path         要计算的目录或者文件
+     * @param basePath     相对路径的根目录
+     * @param manifestFile 清单文件
+     * @param hashType     签名方式
+     * @return key 相对路径，value 签名
+     */
+    public static Map<String, String> hash(File path, String basePath, File manifestFile, String hashType) {
+        String lockKey = FileUtil.getAbsolutePath(manifestFile);
+        KEY_LOCK.lock(lockKey);
+        try {
+            JSONObject cacheFiles = load(manifestFile, hashType);
+            List<File> files = FileUtil.loopFiles(path);
+            Map<String, String> result = new LinkedHashMap<>(files.size());
+            JSONObject newFiles = new JSONObject(files.size());
+            List<File> hashFiles = new ArrayList<>();
+            List<String> hashNames = new ArrayList<>();
+            for (File file : files) {
+                String name = StringUtil.delStartPath(file, basePath, true);
+                long size = file.length();
+                long modified = file.lastModified();
+                JSONArray cache = cacheFiles.getJSONArray(name);
+                if (cache != null && cache.size() == 3 && cache.getLongValue(0) == size && cache.getLongValue(1) == modified) {
+                    result.put(name, cache.getString(2));
+                    newFiles.put(name, cache);
+                } else {
+                    // 先占位，保持文件顺序
+                    result.put(name, null);
+                    hashFiles.add(file);
+                    hashNames.add(name);
+                }
+            }
+            if (!hashFiles.isEmpty()) {
+                List<Future<String>> futures = new ArrayList<>(hashFiles.size());
+                ThreadPoolExecutor executor = getHashExecutor();
+                for (File file : hashFiles) {
+                    futures.add(executor.submit(() -> hashFile(file, hashType)));
+                }
+                for (int i = 0; i < futures.size(); i++) {
+                    File file = hashFiles.get(i);
+                    String name = hashNames.get(i);
+                    String hash = getFuture(futures.get(i));
+                    result.put(name, hash);
+                    JSONArray cache = new JSONArray();
+                    cache.add(file.length());
+                    cache.add(file.lastModified());
+                    cache.add(hash);
+                    newFiles.put(name, cache);
+                }
+            }
+            log.debug("计算文件签名 {} 个，复用缓存 {} 个：{}", hashFiles.size(), files.size() - hashFiles.size(), basePath);
+            if (!hashFiles.isEmpty() || newFiles.size() != cacheFiles.size()) {
+                save(manifestFile, hashType, newFiles);
+            }
+            return result;
+        } finally {
+            KEY_LOCK.unlock(lockKey);
+        }
+    }
+
+    /**
+     * 文件发生变化，从清单中移除对应的缓存
+     *
+     * @param manifestFile 清单文件
+     * @param basePath     相对路径的根目录
+     * @param changeFile   变化的文件或者目录，为根目录时清空清单
+     */
+    public static void invalidate(File manifestFile, String basePath, File changeFile) {
+        invalidate(manifestFile, basePath, Collections.singletonList(changeFile));
+    }
+
+    /**
+     * 批量文件发生变化，从清单中移除对应的缓存（只读写一次清单）
+     *
+     * @param manifestFile 清单文件
+     * @param basePath     相对路径的根目录
+     * @param changeFiles  变化的文件或者目录，包含根目录时清空清单
+     */
+    public static void invalidate(File manifestFile, String basePath, Collection<File> changeFiles) {
+        if (!FileUtil.isFile(manifestFile) || CollUtil.isEmpty(changeFiles)) {
+            return;
+        }
+        String lockKey = FileUtil.getAbsolutePath(manifestFile);
+        KEY_LOCK.lock(lockKey);
+        try {
+            List<String> names = new ArrayList<>(changeFiles.size());
+            for (File changeFile : changeFiles) {
+                String name = StringUtil.delStartPath(changeFile, basePath, true);
+                if (StrUtil.isEmpty(name)) {
+                    FileUtil.del(manifestFile);
+                    return;
+                }
+                names.add(name);
+            }
+            JSONObject manifest = JSONObject.parseObject(FileUtil.readUtf8String(manifestFile));
+            JSONObject files = manifest.getJSONObject("files");
+            if (files == null) {
+                return;
+            }
+            boolean remove = false;
+            for (String name : names) {
+                String prefix = name + StrUtil.SLASH;
+                remove |= files.keySet().removeIf(key -> StrUtil.equals(key, name) || StrUtil.startWith(key, prefix));
+            }
+            if (remove) {
+                save(manifestFile, manifest.getString("type"), files);
+            }
+        } catch (Exception e) {
+            log.warn("更新文件签名清单失败，删除清单：{} {}", manifestFile, e.getMessage());
+            FileUtil.del(manifestFile);
+        } finally {
+            KEY_LOCK.unlock(lockKey);
+        }
+    }
+
+    /**
+     * 计算单个文件签名
+     *
+     * @param file     文件
+     * @param hashType 签名方式
+     * @return 签名
+     */
+    public static String hashFile(File file, String hashType) {
+        if (StrUtil.equals(hashType, HASH_CRC32)) {
+            CRC32 crc32 = new CRC32();
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+                int len;
+                while ((len = inputStream.read(buffer)) != IoUtil.EOF) {
+                    crc32.update(buffer, 0, len);
+                }
+            } catch (IOException e) {
+                throw new IORuntimeException(e);
+            }
+            return Long.toHexString(crc32.getValue()) + StrUtil.DASHED + Long.toHexString(file.length());
+        }
+        return SecureUtil.sha1(file);
+    }
+
+    private static JSONObject load(File manifestFile, String hashType) {
+        if (!FileUtil.isFile(manifestFile)) {
+            return new JSONObject();
+        }
+        try {
+            JSONObject manifest = JSONObject.parseObject(FileUtil.readUtf8String(manifestFile));
+            if (manifest == null || !StrUtil.equals(manifest.getString("type"), hashType)) {
+                return new JSONObject();
+            }
+            JSONObject files = manifest.getJSONObject("files");
+            return files == null ? new JSONObject() : files;
+        } catch (Exception e) {
+            log.warn("读取文件签名清单失败：{} {}", manifestFile, e.getMessage());
+            return new JSONObject();
+        }
+    }
+
+    private static void save(File manifestFile, String hashType, JSONObject files) {
+        JSONObject manifest = new JSONObject();
+        manifest.put("type", hashType);
+        manifest.put("files", files);
+        FileUtil.mkParentDirs(manifestFile);
+        File tempFile = FileUtil.file(manifestFile.getParentFile(), manifestFile.getName() + ".tmp");
+        FileUtil.writeString(JSON.toJSONString(manifest), tempFile, CharsetUtil.CHARSET_UTF_8);
+        try {
+            Files.move(tempFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            FileUtil.move(tempFile, manifestFile, true);
+        } catch (IOException e) {
+            throw new IORuntimeException(e);
+        }
+    }
+
+    private static String getFuture(Future<String> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IORuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IORuntimeException(cause);
+        }
+    }
+
+    private static ThreadPoolExecutor getHashExecutor() {
+        if (hashExecutor == null) {
+            synchronized (FileHashManifest.class) {
+                if (hashExecutor == null) {
+                    int poolSize = Math.max(Runtime.getRuntime().availableProcessors(), 2);
+                    ThreadPoolExecutor executor = ExecutorBuilder.create()
+                        .setCorePoolSize(poolSize)
+                        .setMaxPoolSize(poolSize)
+                        .setWorkQueue(new LinkedBlockingQueue<>())
+                        .setThreadFactory(ThreadUtil.newNamedThreadFactory("Jpom File Hash-", true))
+                        .build();
+                    executor.setKeepAliveTime(1, TimeUnit.MINUTES);
+                    executor.allowCoreThreadTimeOut(true);
+                    hashExecutor = executor;
+                }
+            }
+        }
+        return hashExecutor;
+    }
+}
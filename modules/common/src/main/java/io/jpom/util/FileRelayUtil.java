@@ -0,0 +1,181 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.util;
+
+import cn.hutool.core.io.IORuntimeException;
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.core.util.URLUtil;
+import cn.hutool.crypto.SecureUtil;
+import cn.hutool.http.HttpRequest;
+import cn.hutool.http.HttpResponse;
+import cn.hutool.http.HttpStatus;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+
+/**
+ * 文件中继分发工具
+ * <p>
+ * 文件按固定大小分块并记录每一块的 sha1，服务端只把分块发送给少量的种子节点，
+ * 节点收到并校验分块后再转发给下级节点，所有分块校验通过后组装为完整文件
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class FileRelayUtil {
+
+    /**
+     * 中继令牌请求头
+     */
+    public static final String TOKEN_HEADER = "Jpom-Relay-Token";
+
+    /**
+     * 生成文件分块清单
+     *
+     * @param file      文件
+     * @param chunkSize 分块大小
+     * @return {name, size, chunkSize, sha1, chunks}
+     */
+    public static JSONObject manifest(File file, int chunkSize) {
+        MessageDigest fileDigest = SecureUtil.sha1().getDigest();
+        JSONArray chunks = new JSONArray();
+        byte[] buffer = new byte[chunkSize];
+        try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+            while (true) {
+                int len = readFully(inputStream, buffer);
+                if (len <= 0) {
+                    break;
+                }
+                fileDigest.update(buffer, 0, len);
+                chunks.add(sha1(buffer, len));
+                if (len < chunkSize) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new IORuntimeException(e);
+        }
+        JSONObject manifest = new JSONObject();
+        manifest.put("name", file.getName());
+        manifest.put("size", file.length());
+        manifest.put("chunkSize", chunkSize);
+        manifest.put("sha1", HexUtil.encodeHexStr(fileDigest.digest()));
+        manifest.put("chunks", chunks);
+        return manifest;
+    }
+
+    /**
+     * 分块的长度
+     *
+     * @param manifest 清单
+     * @param index    分块序号
+     * @return 长度
+     */
+    public static int chunkLength(JSONObject manifest, int index) {
+        long size = manifest.getLongValue("size");
+        int chunkSize = manifest.getIntValue("chunkSize");
+        long start = (long) index * chunkSize;
+        return (int) Math.min(chunkSize, size - start);
+    }
+
+    /**
+     * 读取文件分块
+     *
+     * @param file     文件
+     * @param manifest 清单
+     * @param index    分块序号
+     * @return 分块数据
+     */
+    public static byte[] readChunk(File file, JSONObject manifest, int index) {
+        int chunkSize = manifest.getIntValue("chunkSize");
+        byte[] bytes = new byte[chunkLength(manifest, index)];
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            randomAccessFile.seek((long) index * chunkSize);
+            randomAccessFile.readFully(bytes);
+        } catch (IOException e) {
+            throw new IORuntimeException(e);
+        }
+        return bytes;
+    }
+
+    /**
+     * 计算分块签名
+     *
+     * @param bytes 数据
+     * @param len   长度
+     * @return sha1
+     */
+    public static String sha1(byte[] bytes, int len) {
+        MessageDigest digest = SecureUtil.sha1().getDigest();
+        digest.update(bytes, 0, len);
+        return HexUtil.encodeHexStr(digest.digest());
+    }
+
+    /**
+     * 发送分块到节点
+     *
+     * @param url     节点中继接收地址
+     * @param relayId 中继ID
+     * @param token   中继令牌
+     * @param index   分块序号
+     * @param data    分块数据
+     * @param timeout 超时时间（毫秒）
+     */
+    public static void sendChunk(String url, String relayId, String token, int index, byte[] data, int timeout) {
+        String fullUrl = StrUtil.format("{}?relayId={}&index={}", url, URLUtil.encodeAll(relayId), index);
+        try (HttpResponse response = HttpRequest.post(fullUrl)
+            .header(TOKEN_HEADER, token)
+            .contentType("application/octet-stream")
+            .body(data)
+            .timeout(timeout)
+            .execute()) {
+            String body = response.body();
+            if (response.getStatus() != HttpStatus.HTTP_OK) {
+                throw new IllegalStateException(StrUtil.format("发送分块失败：{} {} {}", url, response.getStatus(), body));
+            }
+            JSONObject jsonObject = JSONObject.parseObject(body);
+            if (jsonObject.getIntValue("code") != HttpStatus.HTTP_OK) {
+                throw new IllegalStateException(StrUtil.format("发送分块失败：{} {}", url, body));
+            }
+        }
+    }
+
+    private static int readFully(InputStream inputStream, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int len = inputStream.read(buffer, total, buffer.length - total);
+            if (len < 0) {
+                break;
+            }
+            total += len;
+        }
+        return total;
+    }
+}
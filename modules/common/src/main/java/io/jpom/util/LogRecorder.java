@@ -22,21 +22,38 @@
  */
 package io.jpom.util;
 
-import cn.hutool.core.collection.CollectionUtil;
 import cn.hutool.core.exceptions.ExceptionUtil;
 import cn.hutool.core.io.FileUtil;
-import cn.hutool.core.io.file.FileWriter;
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.CharsetUtil;
 import cn.hutool.core.util.StrUtil;
 import lombok.Builder;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 日志记录
+ * <p>
+ * 同一个文件的所有记录器共用一个写入器：日志先进入无锁队列，由后台线程定时批量写入（文件通道保持打开），
+ * 积压超过阈值时由写日志的线程直接写入。调用 {@link #close()} 立即写入并关闭文件，之后再记录日志会重新打开文件，
+ * 长时间没有写入的文件也会被自动关闭
  *
  * @author bwcx_jzy
  * @since 2022/1/26
@@ -44,6 +61,28 @@ import java.nio.charset.Charset;
 @Builder
 @Slf4j
 public class LogRecorder implements AutoCloseable {
+
+	/**
+	 * 后台写入间隔
+	 */
+	private static final long FLUSH_INTERVAL_MILLIS = 200;
+	/**
+	 * 积压多少字节后尝试立即写入
+	 */
+	private static final int FLUSH_BYTES = 64 * 1024;
+	/**
+	 * 积压多少字节后必须等待写入完成
+	 */
+	private static final int MAX_PENDING_BYTES = 4 * 1024 * 1024;
+	/**
+	 * 多久没有写入关闭文件
+	 */
+	private static final long IDLE_CLOSE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+	private static final Map<String, Appender> APPENDER_MAP = new ConcurrentHashMap<>();
+
+	private static volatile ScheduledExecutorService flushScheduler;
+
 	/**
 	 * 文件
 	 */
@@ -79,9 +118,8 @@ public class LogRecorder implements AutoCloseable {
 	 */
 	public void error(String title, Throwable throwable) {
 		log.error(title, throwable);
-		FileUtil.appendLines(CollectionUtil.toList(title), this.getFile(), this.getCharset());
 		String s = ExceptionUtil.stacktraceToString(throwable);
-		FileUtil.appendLines(CollectionUtil.toList(s), this.getFile(), this.getCharset());
+		this.write(title + FileUtil.getLineSeparator() + s + FileUtil.getLineSeparator());
 	}
 
 	/**
@@ -91,7 +129,7 @@ public class LogRecorder implements AutoCloseable {
 	 */
 	public void info(String info, Object... vals) {
 		String format = StrUtil.format(info, vals);
-		FileUtil.appendLines(CollectionUtil.toList(format), this.getFile(), this.getCharset());
+		this.write(format + FileUtil.getLineSeparator());
 	}
 
 	/**
@@ -101,20 +139,201 @@ public class LogRecorder implements AutoCloseable {
 	 */
 	public void append(String info, Object... vals) {
 		String format = StrUtil.format(info, vals);
-		FileUtil.appendString(format, this.getFile(), this.getCharset());
+		this.write(format);
 	}
 
 	/**
-	 * 获取 文件输出流
+	 * 获取 文件输出流，和记录器写入同一个队列，保证日志顺序
 	 *
 	 * @return Writer
 	 */
 	public PrintWriter getPrintWriter() {
-		return FileWriter.create(this.getFile(), this.getCharset()).getPrintWriter(true);
+		return new PrintWriter(new Writer() {
+			@Override
+			public void write(char[] cbuf, int off, int len) {
+				LogRecorder.this.write(new String(cbuf, off, len));
+			}
+
+			@Override
+			public void flush() {
+				// 由后台线程写入
+			}
+
+			@Override
+			public void close() {
+			}
+		}, true);
 	}
 
+	/**
+	 * 立即把缓存的日志写入文件
+	 */
+	public void flush() {
+		Appender appender = APPENDER_MAP.get(this.appenderKey());
+		if (appender != null) {
+			appender.flush(true);
+		}
+	}
+
+	/**
+	 * 写入缓存的日志并关闭文件
+	 */
 	@Override
-	public void close() throws Exception {
+	public void close() {
+		Appender appender = APPENDER_MAP.remove(this.appenderKey());
+		if (appender != null) {
+			appender.retire();
+		}
+	}
+
+	private String appenderKey() {
+		return FileUtil.getAbsolutePath(this.getFile());
+	}
+
+	private void write(String msg) {
+		byte[] bytes = msg.getBytes(this.getCharset());
+		Appender appender = APPENDER_MAP.computeIfAbsent(this.appenderKey(), s -> new Appender(this.getFile()));
+		checkFlushScheduler();
+		appender.offer(bytes);
+	}
 
+	private static void checkFlushScheduler() {
+		if (flushScheduler != null) {
+			return;
+		}
+		synchronized (LogRecorder.class) {
+			if (flushScheduler == null) {
+				ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("Jpom Log Recorder", true));
+				scheduler.scheduleWithFixedDelay(LogRecorder::flushAll, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+				flushScheduler = scheduler;
+			}
+		}
+	}
+
+	private static void flushAll() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, Appender> entry : APPENDER_MAP.entrySet()) {
+			Appender appender = entry.getValue();
+			try {
+				appender.flush(false);
+				if (now - appender.lastWrite > IDLE_CLOSE_MILLIS && APPENDER_MAP.remove(entry.getKey(), appender)) {
+					appender.retire();
+				}
+			} catch (Exception e) {
+				log.error("写入日志文件失败：{}", appender.file, e);
+			}
+		}
+	}
+
+	/**
+	 * 单个文件的写入器
+	 */
+	private static class Appender {
+
+		private final File file;
+		private final ConcurrentLinkedQueue<byte[]> queue = new ConcurrentLinkedQueue<>();
+		private final AtomicLong pendingBytes = new AtomicLong();
+		private final ReentrantLock lock = new ReentrantLock();
+		private final ByteBuffer buffer = ByteBuffer.allocate(FLUSH_BYTES);
+		private FileChannel channel;
+		private volatile long lastWrite = System.currentTimeMillis();
+		/**
+		 * 已经从缓存中移除，后台线程不再处理，需要写日志的线程自己写入
+		 */
+		private volatile boolean retired;
+
+		private Appender(File file) {
+			this.file = file;
+		}
+
+		private void offer(byte[] bytes) {
+			queue.offer(bytes);
+			lastWrite = System.currentTimeMillis();
+			long pending = pendingBytes.addAndGet(bytes.length);
+			if (retired || pending >= MAX_PENDING_BYTES) {
+				this.flush(true);
+			} else if (pending >= FLUSH_BYTES) {
+				this.flush(false);
+			}
+		}
+
+		/**
+		 * 写入队列中的日志
+		 *
+		 * @param wait 是否等待其他线程写入完成
+		 */
+		private void flush(boolean wait) {
+			if (wait) {
+				lock.lock();
+			} else if (!lock.tryLock()) {
+				return;
+			}
+			try {
+				if (queue.isEmpty()) {
+					if (retired) {
+						this.closeChannel();
+					}
+					return;
+				}
+				this.checkChannel();
+				byte[] bytes;
+				while ((bytes = queue.poll()) != null) {
+					pendingBytes.addAndGet(-bytes.length);
+					if (bytes.length > buffer.remaining()) {
+						this.writeBuffer();
+					}
+					if (bytes.length > buffer.capacity()) {
+						this.writeFully(ByteBuffer.wrap(bytes));
+					} else {
+						buffer.put(bytes);
+					}
+				}
+				this.writeBuffer();
+				if (retired) {
+					this.closeChannel();
+				}
+			} catch (IOException e) {
+				log.error("写入日志文件失败：{}", file, e);
+				this.closeChannel();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void retire() {
+			retired = true;
+			this.flush(true);
+		}
+
+		private void checkChannel() throws IOException {
+			if (channel != null && !file.exists()) {
+				// 文件被删除，重新创建
+				this.closeChannel();
+			}
+			if (channel == null) {
+				FileUtil.mkParentDirs(file);
+				channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			}
+		}
+
+		private void writeBuffer() throws IOException {
+			buffer.flip();
+			try {
+				this.writeFully(buffer);
+			} finally {
+				buffer.clear();
+			}
+		}
+
+		private void writeFully(ByteBuffer byteBuffer) throws IOException {
+			while (byteBuffer.hasRemaining()) {
+				channel.write(byteBuffer);
+			}
+		}
+
+		private void closeChannel() {
+			IoUtil.close(channel);
+			channel = null;
+		}
 	}
 }
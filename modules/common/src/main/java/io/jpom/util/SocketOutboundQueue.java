@@ -0,0 +1,245 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.util;
+
+import cn.hutool.core.date.SystemClock;
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * socket 会话的异步发送队列
+ * <p>
+ * 生产者只往有界队列里放消息，由线程池中的发送任务写网络，同一会话同一时间最多只有一个发送任务。
+ * 连续的多行消息会合并为一帧发送（以换行分隔），队列满时丢弃新消息并在丢弃位置补一条提示，
+ * 持续丢弃超过指定时长则断开该会话
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+@Slf4j
+class SocketOutboundQueue implements Runnable {
+
+	/**
+	 * 单帧最大字符数
+	 */
+	static final int MAX_FRAME_LENGTH = 32 * 1024;
+	/**
+	 * 单帧最大行数
+	 */
+	static final int MAX_FRAME_LINES = 500;
+
+	static final String DROP_MARKER = "...... 网络较慢，已丢弃 {} 行消息 ......";
+
+	static final LongAdder SEND_FRAME_COUNT = new LongAdder();
+	static final LongAdder SEND_LINE_COUNT = new LongAdder();
+	static final LongAdder DROP_COUNT = new LongAdder();
+	static final LongAdder SLOW_CLOSE_COUNT = new LongAdder();
+
+	private final String id;
+	private final Transport transport;
+	private final Executor executor;
+	private final LinkedBlockingQueue<Object> queue;
+	/**
+	 * 持续丢弃多久后断开会话，小于等于 0 不断开
+	 */
+	private final long slowCloseMillis;
+	/**
+	 * 队列关闭后的回调（移除缓存）
+	 */
+	private final Runnable onClose;
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private volatile boolean closed;
+	/**
+	 * 待补充提示的丢弃条数
+	 */
+	private long pendingDrop;
+	/**
+	 * 本轮开始丢弃的时间
+	 */
+	private long overflowStart;
+
+	SocketOutboundQueue(String id, int capacity, long slowCloseMillis, Executor executor, Transport transport, Runnable onClose) {
+		this.id = id;
+		this.queue = new LinkedBlockingQueue<>(Math.max(capacity, 1));
+		this.slowCloseMillis = slowCloseMillis;
+		this.executor = executor;
+		this.transport = transport;
+		this.onClose = onClose;
+	}
+
+	/**
+	 * 添加消息，不会阻塞
+	 *
+	 * @param msg      消息
+	 * @param coalesce 是否允许和相邻的消息合并为一帧
+	 * @return false 队列已经关闭
+	 */
+	boolean offer(String msg, boolean coalesce) {
+		if (closed) {
+			return false;
+		}
+		Object item = coalesce ? msg : new Alone(msg);
+		boolean slow = false;
+		synchronized (this) {
+			if (pendingDrop > 0 && queue.offer(StrUtil.format(DROP_MARKER, pendingDrop))) {
+				// 提示放在被丢弃消息的位置
+				pendingDrop = 0;
+			}
+			if (pendingDrop == 0 && queue.offer(item)) {
+				overflowStart = 0;
+			} else {
+				pendingDrop++;
+				DROP_COUNT.increment();
+				long now = SystemClock.now();
+				if (overflowStart == 0) {
+					overflowStart = now;
+				} else if (slowCloseMillis > 0 && now - overflowStart > slowCloseMillis) {
+					slow = true;
+				}
+			}
+		}
+		if (slow) {
+			log.warn("会话 {} 持续 {} 毫秒无法及时接收消息，断开连接", id, slowCloseMillis);
+			SLOW_CLOSE_COUNT.increment();
+			this.close();
+			executor.execute(() -> {
+				try {
+					transport.close();
+				} catch (Exception e) {
+					log.warn("关闭会话异常 {} {}", id, e.getMessage());
+				}
+			});
+			return false;
+		}
+		this.schedule();
+		return true;
+	}
+
+	/**
+	 * 关闭队列，丢弃未发送的消息
+	 */
+	void close() {
+		closed = true;
+		queue.clear();
+		onClose.run();
+	}
+
+	int size() {
+		return queue.size();
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			executor.execute(this);
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			if (closed) {
+				return;
+			}
+			String frame = this.pollFrame();
+			if (frame == null) {
+				return;
+			}
+			if (!transport.isOpen()) {
+				this.close();
+				return;
+			}
+			transport.send(frame);
+			SEND_FRAME_COUNT.increment();
+		} catch (Exception e) {
+			log.warn("发送消息失败 {} {}", id, e.getMessage());
+			this.close();
+			return;
+		} finally {
+			scheduled.set(false);
+		}
+		// 每次只发送一帧，剩余的重新排队，避免一个会话长期占用发送线程
+		if (!queue.isEmpty()) {
+			this.schedule();
+		}
+	}
+
+	/**
+	 * 取出一帧，连续的可合并消息以换行拼接
+	 *
+	 * @return null 队列为空
+	 */
+	private String pollFrame() {
+		Object first = queue.poll();
+		if (first == null) {
+			return null;
+		}
+		if (first instanceof Alone) {
+			SEND_LINE_COUNT.increment();
+			return ((Alone) first).msg;
+		}
+		StringBuilder builder = new StringBuilder((String) first);
+		int lines = 1;
+		Object next;
+		while (lines < MAX_FRAME_LINES && (next = queue.peek()) instanceof String) {
+			String line = (String) next;
+			if (builder.length() + line.length() + 1 > MAX_FRAME_LENGTH) {
+				break;
+			}
+			// 只有一个发送任务在消费，peek 到的就是 poll 出来的
+			queue.poll();
+			builder.append(StrUtil.C_LF).append(line);
+			lines++;
+		}
+		SEND_LINE_COUNT.add(lines);
+		return builder.toString();
+	}
+
+	/**
+	 * 不参与合并的消息
+	 */
+	private static class Alone {
+		private final String msg;
+
+		private Alone(String msg) {
+			this.msg = msg;
+		}
+	}
+
+	/**
+	 * 会话的实际网络操作
+	 */
+	interface Transport {
+
+		boolean isOpen();
+
+		void send(String msg) throws IOException;
+
+		void close() throws IOException;
+	}
+}
@@ -22,14 +22,24 @@
  */
 package io.jpom.util;
 
+import cn.hutool.core.thread.ExecutorBuilder;
+import cn.hutool.core.thread.ThreadFactoryBuilder;
 import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.RuntimeUtil;
 import cn.hutool.core.util.StrUtil;
+import com.alibaba.fastjson.JSONObject;
+import io.jpom.system.ExtConfigBean;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
 import javax.websocket.Session;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * socket 会话对象
@@ -47,6 +57,26 @@ public class SocketSessionUtil {
 	 * 错误尝试次数
 	 */
 	private static final int ERROR_TRY_COUNT = 10;
+	/**
+	 * 异步发送队列
+	 */
+	private static final Map<String, SocketOutboundQueue> OUTBOUND_QUEUE = new ConcurrentHashMap<>();
+	/**
+	 * 异步发送线程池，每个会话同一时间最多占用一个线程
+	 */
+	private static final ExecutorService OUTBOUND_EXECUTOR;
+
+	static {
+		int poolSize = Math.max(RuntimeUtil.getProcessorCount() * 2, 4);
+		OUTBOUND_EXECUTOR = ExecutorBuilder.create()
+			.setCorePoolSize(poolSize)
+			.setMaxPoolSize(poolSize)
+			.setKeepAliveTime(60, TimeUnit.SECONDS)
+			.setAllowCoreThreadTimeOut(true)
+			.setWorkQueue(new LinkedBlockingQueue<>())
+			.setThreadFactory(ThreadFactoryBuilder.create().setNamePrefix("jpom-socket-send-").setDaemon(true).build())
+			.build();
+	}
 
 	/**
 	 * 发送消息
@@ -122,4 +152,148 @@ public class SocketSessionUtil {
 			LOCK.unlock(session.getId());
 		}
 	}
+
+	/**
+	 * 异步发送消息，消息进入会话的有界队列后立即返回，不会因为网络阻塞调用线程
+	 * <p>
+	 * 连续的消息会以换行合并为一帧发送，适用于日志行的推送
+	 *
+	 * @param session 会话对象
+	 * @param msg     消息
+	 * @return false 会话已经关闭
+	 */
+	public static boolean sendAsync(final Session session, String msg) {
+		return sendAsync(session, msg, true);
+	}
+
+	/**
+	 * 异步发送消息
+	 *
+	 * @param session  会话对象
+	 * @param msg      消息
+	 * @param coalesce 是否允许和相邻的消息合并为一帧，json 等需要完整解析的消息传 false
+	 * @return false 会话已经关闭
+	 */
+	public static boolean sendAsync(final Session session, String msg, boolean coalesce) {
+		String id = session.getId();
+		if (!session.isOpen()) {
+			closeOutbound(id);
+			return false;
+		}
+		if (StrUtil.isEmpty(msg)) {
+			return true;
+		}
+		SocketOutboundQueue queue = OUTBOUND_QUEUE.computeIfAbsent(id, key -> createOutbound(key, new SocketOutboundQueue.Transport() {
+			@Override
+			public boolean isOpen() {
+				return session.isOpen();
+			}
+
+			@Override
+			public void send(String text) throws IOException {
+				try {
+					LOCK.lock(key);
+					session.getBasicRemote().sendText(text);
+				} finally {
+					LOCK.unlock(key);
+				}
+			}
+
+			@Override
+			public void close() throws IOException {
+				session.close();
+			}
+		}));
+		return queue.offer(msg, coalesce);
+	}
+
+	/**
+	 * 异步发送消息，消息进入会话的有界队列后立即返回，不会因为网络阻塞调用线程
+	 *
+	 * @param session 会话对象
+	 * @param msg     消息
+	 * @return false 会话已经关闭
+	 */
+	public static boolean sendAsync(final WebSocketSession session, String msg) {
+		return sendAsync(session, msg, true);
+	}
+
+	/**
+	 * 异步发送消息
+	 *
+	 * @param session  会话对象
+	 * @param msg      消息
+	 * @param coalesce 是否允许和相邻的消息合并为一帧，json 等需要完整解析的消息传 false
+	 * @return false 会话已经关闭
+	 */
+	public static boolean sendAsync(final WebSocketSession session, String msg, boolean coalesce) {
+		String id = session.getId();
+		if (!session.isOpen()) {
+			closeOutbound(id);
+			return false;
+		}
+		if (StrUtil.isEmpty(msg)) {
+			return true;
+		}
+		SocketOutboundQueue queue = OUTBOUND_QUEUE.computeIfAbsent(id, key -> createOutbound(key, new SocketOutboundQueue.Transport() {
+			@Override
+			public boolean isOpen() {
+				return session.isOpen();
+			}
+
+			@Override
+			public void send(String text) throws IOException {
+				try {
+					LOCK.lock(key);
+					session.sendMessage(new TextMessage(text));
+				} finally {
+					LOCK.unlock(key);
+				}
+			}
+
+			@Override
+			public void close() throws IOException {
+				session.close();
+			}
+		}));
+		return queue.offer(msg, coalesce);
+	}
+
+	private static SocketOutboundQueue createOutbound(String id, SocketOutboundQueue.Transport transport) {
+		ExtConfigBean config = ExtConfigBean.getInstance();
+		long slowCloseMillis = TimeUnit.SECONDS.toMillis(config.getSocketSlowCloseSeconds());
+		return new SocketOutboundQueue(id, config.getSocketQueueSize(), slowCloseMillis, OUTBOUND_EXECUTOR, transport, () -> OUTBOUND_QUEUE.remove(id));
+	}
+
+	/**
+	 * 会话关闭，丢弃还未发送的消息
+	 *
+	 * @param sessionId 会话id
+	 */
+	public static void closeOutbound(String sessionId) {
+		SocketOutboundQueue queue = OUTBOUND_QUEUE.remove(sessionId);
+		if (queue != null) {
+			queue.close();
+		}
+	}
+
+	/**
+	 * 异步发送的统计
+	 *
+	 * @return json
+	 */
+	public static JSONObject getOutboundStat() {
+		JSONObject jsonObject = new JSONObject();
+		int queueSize = 0;
+		for (SocketOutboundQueue queue : OUTBOUND_QUEUE.values()) {
+			queueSize += queue.size();
+		}
+		jsonObject.put("sessionCount", OUTBOUND_QUEUE.size());
+		jsonObject.put("queueSize", queueSize);
+		jsonObject.put("frameCount", SocketOutboundQueue.SEND_FRAME_COUNT.sum());
+		jsonObject.put("lineCount", SocketOutboundQueue.SEND_LINE_COUNT.sum());
+		jsonObject.put("dropCount", SocketOutboundQueue.DROP_COUNT.sum());
+		jsonObject.put("slowCloseCount", SocketOutboundQueue.SLOW_CLOSE_COUNT.sum());
+		return jsonObject;
+	}
 }
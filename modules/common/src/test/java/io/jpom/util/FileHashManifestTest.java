@@ -0,0 +1,88 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.util;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.crypto.SecureUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * 文件签名清单：缓存复用、失效
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class FileHashManifestTest {
+
+    private File dir;
+    private File manifestFile;
+
+    @Before
+    public void before() {
+        dir = FileUtil.mkdir(FileUtil.file(FileUtil.getTmpDir(), "jpom-hash-manifest-" + System.nanoTime()));
+        manifestFile = FileUtil.file(dir, "manifest.json");
+    }
+
+    @After
+    public void after() {
+        FileUtil.del(dir);
+    }
+
+    @Test
+    public void testCacheAndInvalidate() {
+        File project = FileUtil.file(dir, "project");
+        File jar = FileUtil.file(project, "lib", "a.jar");
+        File conf = FileUtil.file(project, "conf.yml");
+        FileUtil.writeUtf8String("aaaa", jar);
+        FileUtil.writeUtf8String("bbbb", conf);
+        String path = FileUtil.getAbsolutePath(project);
+
+        Map<String, String> sha1 = FileHashManifest.hash(project, path, manifestFile, FileHashManifest.HASH_SHA1);
+        Assert.assertEquals(2, sha1.size());
+        Assert.assertEquals(SecureUtil.sha1(jar), sha1.get("lib/a.jar"));
+
+        // 大小和修改时间不变时使用缓存
+        long modified = jar.lastModified();
+        FileUtil.writeUtf8String("cccc", jar);
+        Assert.assertTrue(jar.setLastModified(modified));
+        Map<String, String> cache = FileHashManifest.hash(project, path, manifestFile, FileHashManifest.HASH_SHA1);
+        Assert.assertEquals(sha1.get("lib/a.jar"), cache.get("lib/a.jar"));
+
+        // 失效后重新计算
+        FileHashManifest.invalidate(manifestFile, path, FileUtil.file(project, "lib"));
+        Map<String, String> rehash = FileHashManifest.hash(project, path, manifestFile, FileHashManifest.HASH_SHA1);
+        Assert.assertEquals(SecureUtil.sha1(jar), rehash.get("lib/a.jar"));
+        Assert.assertEquals(sha1.get("conf.yml"), rehash.get("conf.yml"));
+
+        // 切换签名方式不使用旧的缓存
+        Map<String, String> crc32 = FileHashManifest.hash(project, path, manifestFile, FileHashManifest.HASH_CRC32);
+        Assert.assertEquals(FileHashManifest.hashFile(conf, FileHashManifest.HASH_CRC32), crc32.get("conf.yml"));
+        Assert.assertNotEquals(rehash.get("conf.yml"), crc32.get("conf.yml"));
+    }
+}
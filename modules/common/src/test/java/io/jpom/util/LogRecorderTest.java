@@ -0,0 +1,139 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.util;
+
+import cn.hutool.core.collection.CollectionUtil;
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.CharsetUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 日志记录：多线程写入、关闭后写入、文件删除后写入，以及和逐行打开文件写入的耗时对比
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+@Slf4j
+public class LogRecorderTest {
+
+    private File dir;
+
+    @Before
+    public void before() {
+        dir = FileUtil.mkdir(FileUtil.file(FileUtil.getTmpDir(), "jpom-log-recorder-" + System.nanoTime()));
+    }
+
+    @After
+    public void after() {
+        FileUtil.del(dir);
+    }
+
+    @Test
+    public void testConcurrentWrite() throws InterruptedException {
+        File file = FileUtil.file(dir, "build.log");
+        LogRecorder logRecorder = LogRecorder.builder().file(file).build();
+        int threads = 4;
+        int lines = 5000;
+        CountDownLatch countDownLatch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int finalT = t;
+            ThreadUtil.execute(() -> {
+                // 同一个文件的不同记录器共用写入器
+                LogRecorder recorder = LogRecorder.builder().filePath(file.getAbsolutePath()).build();
+                for (int i = 0; i < lines; i++) {
+                    recorder.info("{}-{}", finalT, i);
+                }
+                countDownLatch.countDown();
+            });
+        }
+        countDownLatch.await();
+        logRecorder.close();
+        List<String> list = FileUtil.readLines(file, CharsetUtil.CHARSET_UTF_8);
+        Assert.assertEquals(threads * lines, list.size());
+        // 单个线程内的顺序不变
+        int[] last = new int[threads];
+        for (String line : list) {
+            String[] split = line.split("-");
+            int t = Integer.parseInt(split[0]);
+            int i = Integer.parseInt(split[1]);
+            Assert.assertEquals(last[t], i);
+            last[t]++;
+        }
+    }
+
+    @Test
+    public void testCloseAndReopen() {
+        File file = FileUtil.file(dir, "script.log");
+        LogRecorder logRecorder = LogRecorder.builder().file(file).build();
+        PrintWriter printWriter = logRecorder.getPrintWriter();
+        logRecorder.info("a");
+        printWriter.println("b");
+        logRecorder.append("c");
+        logRecorder.close();
+        Assert.assertEquals(CollectionUtil.newArrayList("a", "b", "c"), FileUtil.readLines(file, CharsetUtil.CHARSET_UTF_8));
+        // 关闭后继续写入
+        logRecorder.info("d");
+        logRecorder.flush();
+        Assert.assertEquals("cd", CollectionUtil.getLast(FileUtil.readLines(file, CharsetUtil.CHARSET_UTF_8)));
+        // 文件被删除后重新创建
+        FileUtil.del(file);
+        logRecorder.info("e");
+        logRecorder.close();
+        Assert.assertEquals(CollectionUtil.newArrayList("e"), FileUtil.readLines(file, CharsetUtil.CHARSET_UTF_8));
+    }
+
+    @Test
+    @Ignore("性能对比，需要时手动运行")
+    public void testCompare() {
+        int lines = 20000;
+        String line = "[INFO] Downloaded from central: https://repo.maven.apache.org/maven2/org/apache/maven/maven-core/3.8.1/maven-core-3.8.1.jar";
+        File appendFile = FileUtil.file(dir, "append.log");
+        long start = System.nanoTime();
+        for (int i = 0; i < lines; i++) {
+            FileUtil.appendLines(CollectionUtil.toList(line), appendFile, CharsetUtil.CHARSET_UTF_8);
+        }
+        long appendTime = System.nanoTime() - start;
+
+        File recorderFile = FileUtil.file(dir, "recorder.log");
+        start = System.nanoTime();
+        try (LogRecorder logRecorder = LogRecorder.builder().file(recorderFile).build()) {
+            for (int i = 0; i < lines; i++) {
+                logRecorder.info(line);
+            }
+        }
+        long recorderTime = System.nanoTime() - start;
+        log.info("写入 {} 行，逐行打开文件：{} ms，LogRecorder：{} ms", lines, appendTime / 1000000, recorderTime / 1000000);
+        Assert.assertEquals(FileUtil.readLines(appendFile, CharsetUtil.CHARSET_UTF_8), FileUtil.readLines(recorderFile, CharsetUtil.CHARSET_UTF_8));
+    }
+}
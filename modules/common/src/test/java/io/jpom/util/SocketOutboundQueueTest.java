@@ -0,0 +1,168 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.util;
+
+import cn.hutool.core.util.StrUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * socket 异步发送队列：合并发送、队列满丢弃提示、慢速会话断开
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class SocketOutboundQueueTest {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+	@After
+	public void after() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testCoalesce() throws Exception {
+		BlockTransport transport = new BlockTransport();
+		SocketOutboundQueue queue = new SocketOutboundQueue("coalesce", 2000, 0, executor, transport, () -> {
+		});
+		for (int i = 0; i < 1000; i++) {
+			Assert.assertTrue(queue.offer("line-" + i, true));
+		}
+		Assert.assertTrue(queue.offer("{\"code\":200}", false));
+		Assert.assertTrue(queue.offer("last", true));
+		transport.release.countDown();
+		List<String> lines = transport.await(1002);
+		// 生产线程没有被阻塞，并且多行合并成了少量的帧
+		Assert.assertTrue(transport.frames.size() < 10);
+		Assert.assertEquals(1002, lines.size());
+		for (int i = 0; i < 1000; i++) {
+			Assert.assertEquals("line-" + i, lines.get(i));
+		}
+		Assert.assertTrue(transport.frames.contains("{\"code\":200}"));
+		Assert.assertEquals("last", lines.get(1001));
+	}
+
+	@Test
+	public void testDropMarker() throws Exception {
+		BlockTransport transport = new BlockTransport();
+		SocketOutboundQueue queue = new SocketOutboundQueue("drop", 100, 0, executor, transport, () -> {
+		});
+		long dropCount = SocketOutboundQueue.DROP_COUNT.sum();
+		Assert.assertTrue(queue.offer("first", true));
+		// 等待发送线程取走第一帧并阻塞在网络上
+		Assert.assertTrue(transport.sending.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 150; i++) {
+			Assert.assertTrue(queue.offer("line-" + i, true));
+		}
+		Assert.assertEquals(50, SocketOutboundQueue.DROP_COUNT.sum() - dropCount);
+		transport.release.countDown();
+		Assert.assertEquals(101, transport.await(101).size());
+		// 有空间后补充丢弃提示
+		Assert.assertTrue(queue.offer("after", true));
+		List<String> lines = transport.await(103);
+		Assert.assertEquals("line-99", lines.get(100));
+		Assert.assertEquals(StrUtil.format(SocketOutboundQueue.DROP_MARKER, 50), lines.get(101));
+		Assert.assertEquals("after", lines.get(102));
+	}
+
+	@Test
+	public void testSlowClose() throws Exception {
+		BlockTransport transport = new BlockTransport();
+		CountDownLatch removed = new CountDownLatch(1);
+		SocketOutboundQueue queue = new SocketOutboundQueue("slow", 100, 50, executor, transport, removed::countDown);
+		queue.offer("first", true);
+		Assert.assertTrue(transport.sending.await(5, TimeUnit.SECONDS));
+		boolean open = true;
+		long end = System.currentTimeMillis() + 5000;
+		while (open && System.currentTimeMillis() < end) {
+			open = queue.offer("line", true);
+			Thread.sleep(1);
+		}
+		Assert.assertFalse(open);
+		Assert.assertTrue(removed.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(transport.closed.await(5, TimeUnit.SECONDS));
+		Assert.assertFalse(queue.offer("closed", true));
+		transport.release.countDown();
+	}
+
+	/**
+	 * 第一次发送阻塞到手动放行，模拟网络慢的会话
+	 */
+	private static class BlockTransport implements SocketOutboundQueue.Transport {
+		private final CountDownLatch sending = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+		private final CountDownLatch closed = new CountDownLatch(1);
+		private final List<String> frames = new ArrayList<>();
+
+		@Override
+		public boolean isOpen() {
+			return closed.getCount() > 0;
+		}
+
+		@Override
+		public void send(String msg) throws IOException {
+			sending.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			synchronized (frames) {
+				frames.add(msg);
+				frames.notifyAll();
+			}
+		}
+
+		@Override
+		public void close() {
+			closed.countDown();
+		}
+
+		private List<String> await(int lineCount) throws InterruptedException {
+			long end = System.currentTimeMillis() + 5000;
+			synchronized (frames) {
+				while (true) {
+					List<String> lines = new ArrayList<>();
+					for (String frame : frames) {
+						lines.addAll(StrUtil.split(frame, StrUtil.C_LF));
+					}
+					long wait = end - System.currentTimeMillis();
+					if (lines.size() >= lineCount || wait <= 0) {
+						return lines;
+					}
+					frames.wait(wait);
+				}
+			}
+		}
+	}
+}
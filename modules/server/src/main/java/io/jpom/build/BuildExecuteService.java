@@ -389,6 +389,7 @@ public class BuildExecuteService {
             int queueSize = threadPoolExecutor.getQueue().size();
             logRecorder.info("当前构建中任务数：{},队列中任务数：{} 构建任务等待超时或者超出最大等待数量,取消执行当前构建", BUILD_MANAGE_MAP.size(), queueSize);
             this.cancelTask();
+            logRecorder.close();
         }
 
         /**
@@ -775,6 +776,8 @@ public class BuildExecuteService {
                 BUILD_MANAGE_MAP.remove(taskData.buildInfoModel.getId());
                 this.asyncWebHooks("done");
                 BaseServerController.removeAll();
+                // 构建结束，写入剩余日志并关闭文件
+                logRecorder.close();
             }
 //            return false;
         }
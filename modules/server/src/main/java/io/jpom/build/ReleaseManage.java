@@ -33,16 +33,14 @@ import cn.hutool.core.io.LineHandler;
 import cn.hutool.core.io.resource.ResourceUtil;
 import cn.hutool.core.text.CharPool;
 import cn.hutool.core.util.ArrayUtil;
+import cn.hutool.core.util.IdUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.crypto.SecureUtil;
-import cn.hutool.extra.ssh.JschUtil;
 import cn.hutool.extra.ssh.Sftp;
 import cn.hutool.http.HttpStatus;
 import cn.jiangzeyin.common.JsonMessage;
 import cn.jiangzeyin.common.spring.SpringUtil;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
-import com.jcraft.jsch.Session;
 import io.jpom.common.forward.NodeForward;
 import io.jpom.common.forward.NodeUrl;
 import io.jpom.model.AfterOpt;
@@ -60,23 +58,36 @@ import io.jpom.service.docker.DockerInfoService;
 import io.jpom.service.docker.DockerSwarmInfoService;
 import io.jpom.service.node.NodeService;
 import io.jpom.service.node.ssh.SshService;
+import io.jpom.service.node.ssh.SshSessionPool;
+import io.jpom.service.node.ssh.SshTransfer;
 import io.jpom.service.system.WorkspaceEnvVarService;
 import io.jpom.system.ConfigBean;
 import io.jpom.system.JpomRuntimeException;
+import io.jpom.system.extconf.BuildExtConfig;
 import io.jpom.util.CommandUtil;
+import io.jpom.util.FileHashManifest;
 import io.jpom.util.FileUtils;
 import io.jpom.util.LogRecorder;
 import io.jpom.util.StringUtil;
 import lombok.Builder;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * 发布管理
@@ -428,34 +439,31 @@ public class ReleaseManage implements Runnable {
     }
 
     private void doSsh(SshModel item, SshService sshService) {
-        Session session = SshService.getSessionByModel(item);
-        try {
-            String releasePath = this.buildExtraModule.getReleasePath();
-            if (StrUtil.isEmpty(releasePath)) {
-                logRecorder.info("发布目录为空");
-            } else {
-                logRecorder.info("{} {} start ftp upload", DateUtil.now(), item.getName());
-                try (Sftp sftp = new Sftp(session, item.charset(), item.timeout())) {
-                    String prefix = "";
-                    if (!StrUtil.startWith(releasePath, StrUtil.SLASH)) {
-                        prefix = sftp.pwd();
-                    }
-                    String normalizePath = FileUtil.normalize(prefix + StrUtil.SLASH + releasePath);
-                    if (this.buildExtraModule.isClearOld()) {
-                        try {
-                            sftp.delDir(normalizePath);
-                        } catch (Exception e) {
-                            if (!StrUtil.startWithIgnoreCase(e.getMessage(), "No such file")) {
-                                this.pubLog("清除构建产物失败", e);
-                            }
+        String releasePath = this.buildExtraModule.getReleasePath();
+        if (StrUtil.isEmpty(releasePath)) {
+            logRecorder.info("发布目录为空");
+        } else {
+            logRecorder.info("{} {} start ftp upload", DateUtil.now(), item.getName());
+            String normalizePath;
+            try (SshSessionPool.Lease lease = SshSessionPool.borrow(item);
+                 Sftp sftp = lease.sftp(item)) {
+                String prefix = "";
+                if (!StrUtil.startWith(releasePath, StrUtil.SLASH)) {
+                    prefix = sftp.pwd();
+                }
+                normalizePath = FileUtil.normalize(prefix + StrUtil.SLASH + releasePath);
+                if (this.buildExtraModule.isClearOld()) {
+                    try {
+                        sftp.delDir(normalizePath);
+                    } catch (Exception e) {
+                        if (!StrUtil.startWithIgnoreCase(e.getMessage(), "No such file")) {
+                            this.pubLog("清除构建产物失败", e);
                         }
                     }
-                    sftp.syncUpload(this.resultFile, normalizePath);
-                    logRecorder.info("{} ftp upload done", item.getName());
                 }
             }
-        } finally {
-            JschUtil.close(session);
+            SshTransfer.Result result = sshService.uploadDir(item, normalizePath, this.resultFile);
+            logRecorder.info("{} ftp upload done {}", item.getName(), result);
         }
         logRecorder.info("");
         // 执行命令
@@ -487,45 +495,55 @@ public class ReleaseManage implements Runnable {
         File resultFile = this.resultFile;
         String resultFileParent = resultFile.isFile() ?
             FileUtil.getAbsolutePath(resultFile.getParent()) : FileUtil.getAbsolutePath(this.resultFile);
-        //
-        List<File> files = FileUtil.loopFiles(resultFile);
-        List<JSONObject> collect = files.stream().map(file -> {
-            //
-            JSONObject jsonObject = new JSONObject();
-            jsonObject.put("name", StringUtil.delStartPath(file, resultFileParent, true));
-            jsonObject.put("sha1", SecureUtil.sha1(file));
-            return jsonObject;
-        }).collect(Collectors.toList());
-        //
+        // 只对有变化的文件重新签名
+        File buildDataFile = BuildUtil.getBuildDataFile(buildExtraModule.getId());
+        String hashType = SpringUtil.getBean(BuildExtConfig.class).getDiffSyncHashType();
+        hashType = FileHashManifest.support(hashType) ? hashType : FileHashManifest.HASH_SHA1;
+        File manifestFile = FileUtil.file(buildDataFile, "diff_sync_manifest_" + hashType + ".json");
+        Map<String, String> hashMap = FileHashManifest.hash(resultFile, resultFileParent, manifestFile, hashType);
         JSONObject jsonObject = new JSONObject();
         jsonObject.put("id", projectId);
-        jsonObject.put("data", collect);
-        JsonMessage<JSONObject> requestBody = NodeForward.requestBody(nodeModel, NodeUrl.MANAGE_FILE_DIFF_FILE, this.userModel, jsonObject);
-        if (requestBody.getCode() != HttpStatus.HTTP_OK) {
-            throw new JpomRuntimeException("对比项目文件失败：" + requestBody);
+        JSONObject data = this.diffFile(nodeModel, jsonObject, hashMap, hashType);
+        if (!StrUtil.equals(data.getString("hashType"), hashType) && !StrUtil.equals(hashType, FileHashManifest.HASH_SHA1)) {
+            // 旧版本插件端只支持 sha1
+            logRecorder.info(StrUtil.format("插件端不支持 {} 签名，使用 sha1 重新对比", hashType));
+            manifestFile = FileUtil.file(buildDataFile, "diff_sync_manifest_" + FileHashManifest.HASH_SHA1 + ".json");
+            hashMap = FileHashManifest.hash(resultFile, resultFileParent, manifestFile, FileHashManifest.HASH_SHA1);
+            data = this.diffFile(nodeModel, jsonObject, hashMap, FileHashManifest.HASH_SHA1);
         }
-        JSONObject data = requestBody.getData();
-        JSONArray diff = data.getJSONArray("diff");
-        JSONArray del = data.getJSONArray("del");
+        List<String> diff = this.diffNames(data.getJSONArray("diff"));
+        List<String> del = this.diffNames(data.getJSONArray("del"));
         int delSize = CollUtil.size(del);
         int diffSize = CollUtil.size(diff);
         if (clearOld) {
-            logRecorder.info(StrUtil.format("对比文件结果,产物文件 {} 个、需要上传 {} 个、需要删除 {} 个", CollUtil.size(collect), CollUtil.size(diff), delSize));
+            logRecorder.info(StrUtil.format("对比文件结果,产物文件 {} 个、需要上传 {} 个、需要删除 {} 个", hashMap.size(), diffSize, delSize));
         } else {
-            logRecorder.info(StrUtil.format("对比文件结果,产物文件 {} 个、需要上传 {} 个", CollUtil.size(collect), CollUtil.size(diff)));
+            logRecorder.info(StrUtil.format("对比文件结果,产物文件 {} 个、需要上传 {} 个", hashMap.size(), diffSize));
+        }
+        if (data.containsKey("hashType")) {
+            // 新版本插件端支持将变化的文件打包一次上传，并在同一次请求中删除多余的文件
+            List<String> delNames = clearOld ? del : Collections.emptyList();
+            if (diffSize > 0 || !delNames.isEmpty()) {
+                this.diffSyncArchive(nodeModel, projectId, afterOpt, resultFileParent, diff, delNames);
+            }
+            return;
         }
         // 清空发布才先执行删除
         if (delSize > 0 && clearOld) {
-            jsonObject.put("data", del);
-            requestBody = NodeForward.requestBody(nodeModel, NodeUrl.MANAGE_FILE_BATCH_DELETE, this.userModel, jsonObject);
+            List<JSONObject> delData = del.stream().map(name -> {
+                JSONObject item = new JSONObject();
+                item.put("name", name);
+                return item;
+            }).collect(Collectors.toList());
+            jsonObject.put("data", delData);
+            JsonMessage<JSONObject> requestBody = NodeForward.requestBody(nodeModel, NodeUrl.MANAGE_FILE_BATCH_DELETE, this.userModel, jsonObject);
             if (requestBody.getCode() != HttpStatus.HTTP_OK) {
                 throw new JpomRuntimeException("删除项目文件失败：" + requestBody);
             }
         }
         for (int i = 0; i < diffSize; i++) {
             boolean last = (i == diffSize - 1);
-            JSONObject diffData = (JSONObject) diff.get(i);
-            String name = diffData.getString("name");
+            String name = diff.get(i);
             File file = FileUtil.file(resultFileParent, name);
             //
             String startPath = StringUtil.delStartPath(file, resultFileParent, false);
@@ -542,6 +560,111 @@ public class ReleaseManage implements Runnable {
         }
     }
 
+    /**
+     * 将有变化的文件打包为一个压缩包上传到节点，节点解压完成后统一替换项目文件
+     *
+     * @param nodeModel        节点
+     * @param projectId        项目ID
+     * @param afterOpt         发布后的操作
+     * @param resultFileParent 产物目录
+     * @param diff             需要上传的文件
+     * @param del              需要删除的文件
+     */
+    private void diffSyncArchive(NodeModel nodeModel, String projectId, AfterOpt afterOpt, String resultFileParent, List<String> diff, List<String> del) {
+        File archive = FileUtil.file(ConfigBean.getInstance().getTempPath(), "diff_sync", IdUtil.fastSimpleUUID() + ".zip");
+        try {
+            boolean compress = SpringUtil.getBean(BuildExtConfig.class).isDiffSyncCompress();
+            this.packArchive(archive, resultFileParent, diff, compress);
+            logRecorder.info(StrUtil.format("打包 {} 个文件完成,压缩包大小 {}", diff.size(), FileUtil.readableFileSize(archive)));
+            JSONObject data = new JSONObject();
+            data.put("file", archive);
+            data.put("id", projectId);
+            data.put("del", JSONArray.toJSONString(del));
+            if (afterOpt != AfterOpt.No) {
+                data.put("after", afterOpt.getCode());
+            }
+            JsonMessage<String> jsonMessage = NodeForward.request(nodeModel, NodeUrl.MANAGE_FILE_DIFF_UPLOAD, this.userModel, data);
+            if (jsonMessage.getCode() != HttpStatus.HTTP_OK) {
+                throw new JpomRuntimeException("同步项目文件失败：" + jsonMessage);
+            }
+            logRecorder.info("发布项目包成功：" + jsonMessage);
+        } finally {
+            FileUtil.del(archive);
+        }
+    }
+
+    /**
+     * 打包文件，压缩包中的文件名为相对产物目录的路径
+     *
+     * @param archive  压缩包
+     * @param basePath 产物目录
+     * @param names    文件名
+     * @param compress 是否压缩
+     */
+    private void packArchive(File archive, String basePath, List<String> names, boolean compress) {
+        FileUtil.mkParentDirs(archive);
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(archive.toPath())), StandardCharsets.UTF_8)) {
+            zipOutputStream.setLevel(Deflater.BEST_SPEED);
+            for (String name : names) {
+                File file = FileUtil.file(basePath, name);
+                ZipEntry zipEntry = new ZipEntry(name);
+                if (!compress) {
+                    // 不压缩时使用 STORED，需要提前写入大小和 crc
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(file.length());
+                    zipEntry.setCompressedSize(file.length());
+                    zipEntry.setCrc(FileUtil.checksumCRC32(file));
+                }
+                zipOutputStream.putNextEntry(zipEntry);
+                Files.copy(file.toPath(), zipOutputStream);
+                zipOutputStream.closeEntry();
+            }
+        } catch (IOException e) {
+            throw new JpomRuntimeException("打包差异文件失败：" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 请求节点对比文件
+     *
+     * @param nodeModel  节点
+     * @param jsonObject 请求参数
+     * @param hashMap    产物文件签名
+     * @param hashType   签名方式
+     * @return 对比结果
+     */
+    private JSONObject diffFile(NodeModel nodeModel, JSONObject jsonObject, Map<String, String> hashMap, String hashType) {
+        List<JSONObject> collect = hashMap.entrySet().stream().map(entry -> {
+            //
+            JSONObject item = new JSONObject();
+            item.put("name", entry.getKey());
+            item.put("sha1", entry.getValue());
+            return item;
+        }).collect(Collectors.toList());
+        jsonObject.put("data", collect);
+        jsonObject.put("hashType", hashType);
+        JsonMessage<JSONObject> requestBody = NodeForward.requestBody(nodeModel, NodeUrl.MANAGE_FILE_DIFF_FILE, this.userModel, jsonObject);
+        if (requestBody.getCode() != HttpStatus.HTTP_OK) {
+            throw new JpomRuntimeException("对比项目文件失败：" + requestBody);
+        }
+        return requestBody.getData();
+    }
+
+    /**
+     * 解析对比结果中的文件名，新版本插件端只返回文件名
+     *
+     * @param array 对比结果
+     * @return 文件名
+     */
+    private List<String> diffNames(JSONArray array) {
+        if (array == null) {
+            return new ArrayList<>();
+        }
+        return array.stream()
+            .map(item -> item instanceof JSONObject ? ((JSONObject) item).getString("name") : StrUtil.toString(item))
+            .collect(Collectors.toList());
+    }
+
     /**
      * 发布项目
      */
@@ -610,6 +733,11 @@ public class ReleaseManage implements Runnable {
 
     @Override
     public void run() {
-        this.start();
+        try {
+            this.start();
+        } finally {
+            // 单独发布（回滚）结束后关闭日志文件
+            Optional.ofNullable(logRecorder).ifPresent(LogRecorder::close);
+        }
     }
 }
@@ -0,0 +1,105 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.common.forward;
+
+import io.jpom.system.ServerExtConfigBean;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上传带宽限制
+ * <p>
+ * 所有上传到节点的文件共用一个令牌桶，每写出一段数据预约对应的发送时间，超出速率时在锁外休眠等待
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class BandwidthLimiter {
+
+    /**
+     * 允许的突发时间，空闲后最多累积 200 毫秒的额度
+     */
+    private static final long MAX_BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private static volatile BandwidthLimiter nodeUpload;
+
+    private final long bytesPerSecond;
+    /**
+     * 下一次可以发送的时间
+     */
+    private long nextFreeNanos;
+
+    public BandwidthLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.nextFreeNanos = System.nanoTime();
+    }
+
+    /**
+     * 上传文件到节点的带宽限制
+     *
+     * @return 未配置时返回 null
+     */
+    public static BandwidthLimiter nodeUpload() {
+        long bandwidth = ServerExtConfigBean.getInstance().getNodeUploadMaxBandwidth();
+        if (bandwidth <= 0) {
+            return null;
+        }
+        BandwidthLimiter limiter = nodeUpload;
+        if (limiter == null || limiter.bytesPerSecond != bandwidth) {
+            synchronized (BandwidthLimiter.class) {
+                limiter = nodeUpload;
+                if (limiter == null || limiter.bytesPerSecond != bandwidth) {
+                    limiter = new BandwidthLimiter(bandwidth);
+                    nodeUpload = limiter;
+                }
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * 获取发送指定字节数的额度，不够时阻塞等待
+     *
+     * @param bytes 字节数
+     * @throws InterruptedIOException 等待被中断
+     */
+    public void acquire(int bytes) throws InterruptedIOException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            this.nextFreeNanos = Math.max(this.nextFreeNanos, now - MAX_BURST_NANOS);
+            this.nextFreeNanos += bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+            waitNanos = this.nextFreeNanos - now;
+        }
+        if (waitNanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("上传限速等待被中断");
+        }
+    }
+}
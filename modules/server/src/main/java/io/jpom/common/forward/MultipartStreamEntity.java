@@ -0,0 +1,173 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.common.forward;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.util.CharsetUtil;
+import cn.hutool.core.util.ObjectUtil;
+import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * multipart 流式请求体
+ * <p>
+ * 文件内容在发送时才读取，通过固定大小的缓冲区边读边写，不会把整个文件读入内存
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/15
+ */
+public class MultipartStreamEntity extends AbstractHttpEntity {
+
+    private static final byte[] CRLF = StrUtil.CRLF.getBytes(CharsetUtil.CHARSET_UTF_8);
+
+    private final String boundary;
+    private final List<Part> parts = new ArrayList<>();
+
+    public MultipartStreamEntity() {
+        this.boundary = "--------------------Jpom_" + RandomUtil.randomString(16);
+        this.setContentType("multipart/form-data; boundary=" + boundary);
+    }
+
+    /**
+     * 添加表单字段
+     *
+     * @param form 表单
+     * @return this
+     */
+    public MultipartStreamEntity addText(Map<String, Object> form) {
+        form.forEach((name, value) -> {
+            String header = StrUtil.format("--{}\r\nContent-Disposition: form-data; name=\"{}\"\r\n\r\n", boundary, name);
+            byte[] bytes = StrUtil.utf8Bytes(StrUtil.toStringOrNull(value));
+            parts.add(new Part(header, bytes.length, () -> new ByteArrayInputStream(bytes)));
+        });
+        return this;
+    }
+
+    /**
+     * 添加上传的文件
+     *
+     * @param name          字段名
+     * @param multipartFile 文件
+     * @return this
+     */
+    public MultipartStreamEntity addFile(String name, MultipartFile multipartFile) {
+        String contentType = ObjectUtil.defaultIfNull(multipartFile.getContentType(), "application/octet-stream");
+        parts.add(new Part(this.fileHeader(name, multipartFile.getOriginalFilename(), contentType), multipartFile.getSize(), multipartFile::getInputStream));
+        return this;
+    }
+
+    /**
+     * 添加本地文件
+     *
+     * @param name 字段名
+     * @param file 文件
+     * @return this
+     */
+    public MultipartStreamEntity addFile(String name, File file) {
+        String contentType = ObjectUtil.defaultIfNull(FileUtil.getMimeType(file.getName()), "application/octet-stream");
+        parts.add(new Part(this.fileHeader(name, file.getName(), contentType), file.length(), () -> FileUtil.getInputStream(file)));
+        return this;
+    }
+
+    private String fileHeader(String name, String fileName, String contentType) {
+        return StrUtil.format("--{}\r\nContent-Disposition: form-data; name=\"{}\"; filename=\"{}\"\r\nContent-Type: {}\r\n\r\n",
+            boundary, name, fileName, contentType);
+    }
+
+    private byte[] endBytes() {
+        return StrUtil.utf8Bytes(StrUtil.format("--{}--\r\n", boundary));
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    @Override
+    public long getContentLength() {
+        long length = endBytes().length;
+        for (Part part : parts) {
+            length += part.header.length + part.size + CRLF.length;
+        }
+        return length;
+    }
+
+    @Override
+    public InputStream getContent() {
+        throw new UnsupportedOperationException("multipart 流式请求体不支持读取");
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        BandwidthLimiter limiter = BandwidthLimiter.nodeUpload();
+        for (Part part : parts) {
+            outStream.write(part.header);
+            try (InputStream inputStream = part.supplier.get()) {
+                if (limiter == null) {
+                    IoUtil.copy(inputStream, outStream, IoUtil.DEFAULT_LARGE_BUFFER_SIZE);
+                } else {
+                    // 限速发送
+                    byte[] buffer = new byte[IoUtil.DEFAULT_LARGE_BUFFER_SIZE];
+                    int len;
+                    while ((len = inputStream.read(buffer)) > -1) {
+                        limiter.acquire(len);
+                        outStream.write(buffer, 0, len);
+                    }
+                }
+            }
+            outStream.write(CRLF);
+        }
+        outStream.write(endBytes());
+        outStream.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    @FunctionalInterface
+    private interface StreamSupplier {
+        InputStream get() throws IOException;
+    }
+
+    private static class Part {
+        private final byte[] header;
+        private final long size;
+        private final StreamSupplier supplier;
+
+        private Part(String header, long size, StreamSupplier supplier) {
+            this.header = StrUtil.utf8Bytes(header);
+            this.size = size;
+            this.supplier = supplier;
+        }
+    }
+}
@@ -22,10 +22,14 @@
  */
 package io.jpom.common.forward;
 
+import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.convert.Convert;
 import cn.hutool.core.io.IORuntimeException;
+import cn.hutool.core.io.IoUtil;
 import cn.hutool.core.net.url.UrlQuery;
 import cn.hutool.core.util.ArrayUtil;
+import cn.hutool.core.util.CharsetUtil;
+import cn.hutool.core.util.ObjectUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.core.util.URLUtil;
 import cn.hutool.extra.servlet.ServletUtil;
@@ -45,6 +49,13 @@ import io.jpom.system.AuthorizeException;
 import io.jpom.system.ConfigBean;
 import io.jpom.system.ServerExtConfigBean;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.multipart.MultipartHttpServletRequest;
 
@@ -52,7 +63,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
-import java.net.Proxy;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -65,6 +78,16 @@ import java.util.Set;
 @Slf4j
 public class NodeForward {
 
+    /**
+     * 下载时转发到节点的请求头
+     */
+    private static final String[] DOWNLOAD_REQUEST_HEADERS = new String[]{"Range", "If-Range"};
+
+    /**
+     * 下载时节点返回给浏览器的响应头
+     */
+    private static final String[] DOWNLOAD_RESPONSE_HEADERS = new String[]{"Content-Disposition", "Content-Type", "Content-Length", "Content-Range", "Accept-Ranges", "Last-Modified", "ETag"};
+
     /**
      * 普通消息转发
      *
@@ -120,19 +143,13 @@ public class NodeForward {
                                                  UserModel userModel,
                                                  JSONObject jsonData) {
         String url = nodeModel.getRealUrl(nodeUrl);
-        HttpRequest httpRequest = HttpUtil.createPost(url);
+        HttpPost httpPost = new HttpPost(url);
 
-        addUser(httpRequest, nodeModel, nodeUrl, userModel);
+        int timeOut = addUser(httpPost, nodeModel, nodeUrl, userModel);
 
-        httpRequest.body(jsonData.toString(), ContentType.JSON.getValue());
-
-        try (HttpResponse response = httpRequest.execute()) {
-            //
-            return parseBody(httpRequest, response, nodeModel);
-        } catch (Exception e) {
-            throw NodeForward.responseException(e, nodeModel);
-        }
+        httpPost.setEntity(new StringEntity(jsonData.toString(), org.apache.http.entity.ContentType.create(ContentType.JSON.getValue(), CharsetUtil.CHARSET_UTF_8)));
 
+        return execute(nodeModel, httpPost, timeOut, jsonData);
     }
 
     /**
@@ -161,7 +178,7 @@ public class NodeForward {
                                               Object pVal,
                                               Object... val) {
         String url = nodeModel.getRealUrl(nodeUrl);
-        HttpRequest httpRequest = HttpUtil.createPost(url);
+        HttpPost httpPost = new HttpPost(url);
         //
         if (mustUser) {
             if (userModel == null) {
@@ -169,7 +186,7 @@ public class NodeForward {
             }
         }
         //
-        addUser(httpRequest, nodeModel, nodeUrl, userModel);
+        int timeOut = addUser(httpPost, nodeModel, nodeUrl, userModel);
         Map params = null;
         if (request != null) {
             params = request.getParameterMap();
@@ -184,8 +201,10 @@ public class NodeForward {
                 }
             }
         }
-        httpRequest.form(pName, pVal, val);
-        //
+        Map<String, Object> form = new LinkedHashMap<>();
+        putForm(form, pName, pVal, val);
+        // 文件参数，和 hutool HttpRequest#form 一致使用 multipart 上传
+        Map<String, File> fileMap = new LinkedHashMap<>();
         if (jsonData != null) {
             JSONObject clone = jsonData.clone();
             // 参数 URL 编码，避免 特殊符号 不生效
@@ -196,12 +215,80 @@ public class NodeForward {
                     entry.setValue(URLUtil.encodeAll((String) value));
                 }
             }
-            httpRequest.form(clone);
+            clone.forEach((key, value) -> {
+                if (value instanceof File) {
+                    fileMap.put(key, (File) value);
+                } else {
+                    putForm(form, key, value);
+                }
+            });
         }
-        httpRequest.form(params);
-        try (HttpResponse response = httpRequest.execute()) {
-            //
-            return parseBody(httpRequest, response, nodeModel);
+        if (params != null) {
+            params.forEach((key, value) -> putForm(form, (String) key, value));
+        }
+        if (fileMap.isEmpty()) {
+            httpPost.setEntity(createFormEntity(form));
+        } else {
+            MultipartStreamEntity entity = new MultipartStreamEntity().addText(form);
+            fileMap.forEach(entity::addFile);
+            httpPost.setEntity(entity);
+        }
+        return execute(nodeModel, httpPost, timeOut, form);
+    }
+
+    /**
+     * 添加表单参数，和 hutool HttpRequest#form 规则保持一致
+     *
+     * @param form       表单
+     * @param name       参数名
+     * @param value      值
+     * @param parameters 其他参数
+     */
+    private static void putForm(Map<String, Object> form, String name, Object value, Object... parameters) {
+        putForm(form, name, value);
+        if (ArrayUtil.isNotEmpty(parameters)) {
+            for (int i = 0; i < parameters.length; i += 2) {
+                putForm(form, parameters[i].toString(), parameters[i + 1]);
+            }
+        }
+    }
+
+    private static void putForm(Map<String, Object> form, String name, Object value) {
+        if (StrUtil.isBlank(name) || ObjectUtil.isNull(value)) {
+            return;
+        }
+        String strValue;
+        if (value instanceof Iterable) {
+            strValue = CollUtil.join((Iterable<?>) value, StrUtil.COMMA);
+        } else if (ArrayUtil.isArray(value)) {
+            strValue = ArrayUtil.join(value, StrUtil.COMMA);
+        } else {
+            strValue = Convert.toStr(value, null);
+        }
+        if (strValue != null) {
+            form.put(name, strValue);
+        }
+    }
+
+    private static StringEntity createFormEntity(Map<String, Object> form) {
+        String body = UrlQuery.of(form, true).build(CharsetUtil.CHARSET_UTF_8);
+        return new StringEntity(body, org.apache.http.entity.ContentType.create(ContentType.FORM_URLENCODED.getValue(), CharsetUtil.CHARSET_UTF_8));
+    }
+
+    /**
+     * 通过节点连接池发送请求
+     *
+     * @param nodeModel 节点
+     * @param request   请求
+     * @param timeOut   超时时间
+     * @param params    请求参数（调试日志）
+     * @param <T>       泛型
+     * @return json
+     */
+    private static <T> JsonMessage<T> execute(NodeModel nodeModel, HttpRequestBase request, int timeOut, Object params) {
+        NodeHttpClientManager.NodeHttpClient httpClient = NodeHttpClientManager.get(nodeModel);
+        try {
+            return httpClient.execute(request, timeOut, response -> NodeForward.parseBody(request, params, response, nodeModel));
         } catch (Exception e) {
             throw NodeForward.responseException(e, nodeModel);
         }
@@ -230,6 +317,10 @@ public class NodeForward {
             if (cause instanceof IOException && StrUtil.containsIgnoreCase(message, "Error writing to server")) {
                 return new AgentException(nodeModel.getName() + "节点上传失败,请优先检查限制上传大小配置是否合理。" + message);
             }
+        } else if (exception instanceof java.net.ConnectException || exception instanceof java.io.InterruptedIOException) {
+            return new AgentException(nodeModel.getName() + "节点网络连接异常或超时,请优先检查插件端运行状态再检查 IP 地址、" +
+                "端口号是否配置正确,防火墙规则," +
+                "云服务器的安全组配置等网络相关问题排查定位。" + message);
         }
         return new AgentException(nodeModel.getName() + "节点异常：" + message);
     }
@@ -264,24 +355,21 @@ public class NodeForward {
     public static <T> T requestData(NodeModel nodeModel, NodeUrl nodeUrl, Class<T> tClass, String name, Object value, Object... parameters) {
         String url = nodeModel.getRealUrl(nodeUrl);
         //
-        HttpRequest httpRequest = HttpUtil.createPost(url);
+        HttpPost httpPost = new HttpPost(url);
+        Map<String, Object> form = new LinkedHashMap<>();
         if (name != null && value != null) {
-            httpRequest.form(name, value, parameters);
+            putForm(form, name, value, parameters);
         }
+        httpPost.setEntity(createFormEntity(form));
         //
-        addUser(httpRequest, nodeModel, nodeUrl);
-        try (HttpResponse response = httpRequest.execute();) {
-            //
-            JsonMessage<T> jsonMessage = parseBody(httpRequest, response, nodeModel);
-            return jsonMessage.getData(tClass);
-        } catch (Exception e) {
-            throw NodeForward.responseException(e, nodeModel);
-        }
+        int timeOut = addUser(httpPost, nodeModel, nodeUrl, BaseServerController.getUserModel());
+        JsonMessage<T> jsonMessage = execute(nodeModel, httpPost, timeOut, form);
+        return jsonMessage.getData(tClass);
     }
 
 
     /**
-     * 上传文件消息转发
+     * 上传文件消息转发,文件内容边读边发送到节点，不在内存中缓存整个文件
      *
      * @param nodeModel 节点
      * @param request   请求
@@ -291,28 +379,19 @@ public class NodeForward {
     @SuppressWarnings({"unchecked", "rawtypes"})
     public static JsonMessage<String> requestMultipart(NodeModel nodeModel, MultipartHttpServletRequest request, NodeUrl nodeUrl) {
         String url = nodeModel.getRealUrl(nodeUrl);
-        HttpRequest httpRequest = HttpUtil.createPost(url);
-        addUser(httpRequest, nodeModel, nodeUrl);
+        HttpPost httpPost = new HttpPost(url);
+        addUser(httpPost, nodeModel, nodeUrl, BaseServerController.getUserModel());
         //
         Map params = ServletUtil.getParams(request);
-        httpRequest.form(params);
+        Map<String, Object> form = new LinkedHashMap<>();
+        params.forEach((key, value) -> putForm(form, (String) key, value));
+        MultipartStreamEntity entity = new MultipartStreamEntity().addText(form);
         //
         Map<String, MultipartFile> fileMap = request.getFileMap();
-        fileMap.forEach((s, multipartFile) -> {
-            try {
-                httpRequest.form(s, multipartFile.getBytes(), multipartFile.getOriginalFilename());
-            } catch (IOException e) {
-                log.error("转发文件异常", e);
-            }
-        });
+        fileMap.forEach(entity::addFile);
+        httpPost.setEntity(entity);
         // @author jzy add  timeout
-        httpRequest.timeout(ServerExtConfigBean.getInstance().getUploadFileTimeOut());
-        try (HttpResponse response = httpRequest.execute()) {
-            return parseBody(httpRequest, response, nodeModel);
-        } catch (Exception e) {
-            throw NodeForward.responseException(e, nodeModel);
-        }
-
+        return execute(nodeModel, httpPost, ServerExtConfigBean.getInstance().getUploadFileTimeOut(), form);
     }
 
     /**
@@ -326,22 +405,18 @@ public class NodeForward {
      */
     public static JsonMessage<String> requestMultipart(NodeModel nodeModel, String fileName, File file, NodeUrl nodeUrl) {
         String url = nodeModel.getRealUrl(nodeUrl);
-        HttpRequest httpRequest = HttpUtil.createPost(url);
-        addUser(httpRequest, nodeModel, nodeUrl);
+        HttpPost httpPost = new HttpPost(url);
+        addUser(httpPost, nodeModel, nodeUrl, BaseServerController.getUserModel());
         //
-        httpRequest.form(fileName, file);
+        httpPost.setEntity(new MultipartStreamEntity().addFile(fileName, file));
         // @author jzy add  timeout
-        httpRequest.timeout(ServerExtConfigBean.getInstance().getUploadFileTimeOut());
-        try (HttpResponse response = httpRequest.execute()) {
-            return parseBody(httpRequest, response, nodeModel);
-        } catch (Exception e) {
-            throw NodeForward.responseException(e, nodeModel);
-        }
-
+        return execute(nodeModel, httpPost, ServerExtConfigBean.getInstance().getUploadFileTimeOut(), fileName);
     }
 
     /**
      * 下载文件消息转发
+     * <p>
+     * 节点响应直接写入到浏览器，支持 Range 断点续传
      *
      * @param nodeModel 节点
      * @param request   请求
@@ -350,45 +425,71 @@ public class NodeForward {
      */
     @SuppressWarnings({"unchecked", "rawtypes"})
     public static void requestDownload(NodeModel nodeModel, HttpServletRequest request, HttpServletResponse response, NodeUrl nodeUrl) {
-        String url = nodeModel.getRealUrl(nodeUrl);
-        HttpRequest httpRequest = HttpUtil.createGet(url, true);
-        addUser(httpRequest, nodeModel, nodeUrl);
-        //
         Map params = ServletUtil.getParams(request);
-        httpRequest.form(params);
-        // @author jzy add  timeout
-        httpRequest.timeout(ServerExtConfigBean.getInstance().getUploadFileTimeOut());
-        //
-        try (HttpResponse response1 = httpRequest.execute()) {
-            String contentDisposition = response1.header("Content-Disposition");
-            response.setHeader("Content-Disposition", contentDisposition);
-            String contentType = response1.header("Content-Type");
-            response.setContentType(contentType);
-            ServletUtil.write(response, response1.bodyStream());
+        Map<String, Object> form = new LinkedHashMap<>();
+        params.forEach((key, value) -> putForm(form, (String) key, value));
+        String url = HttpUtil.urlWithForm(nodeModel.getRealUrl(nodeUrl), form, CharsetUtil.CHARSET_UTF_8, true);
+        HttpGet httpGet = new HttpGet(url);
+        addUser(httpGet, nodeModel, nodeUrl, BaseServerController.getUserModel());
+        for (String name : DOWNLOAD_REQUEST_HEADERS) {
+            String value = request.getHeader(name);
+            if (value != null) {
+                httpGet.setHeader(name, value);
+            }
+        }
+        NodeHttpClientManager.NodeHttpClient httpClient = NodeHttpClientManager.get(nodeModel);
+        try {
+            // @author jzy add  timeout
+            httpClient.execute(httpGet, ServerExtConfigBean.getInstance().getUploadFileTimeOut(), response1 -> {
+                response.setStatus(response1.getStatusLine().getStatusCode());
+                for (String name : DOWNLOAD_RESPONSE_HEADERS) {
+                    Header header = response1.getFirstHeader(name);
+                    if (header != null) {
+                        response.setHeader(name, header.getValue());
+                    }
+                }
+                HttpEntity entity = response1.getEntity();
+                if (entity != null) {
+                    try (InputStream inputStream = entity.getContent()) {
+                        IoUtil.copy(inputStream, response.getOutputStream(), IoUtil.DEFAULT_LARGE_BUFFER_SIZE);
+                    }
+                }
+                return null;
+            });
         } catch (Exception e) {
             throw NodeForward.responseException(e, nodeModel);
         }
     }
 
-    private static void addUser(HttpRequest httpRequest, NodeModel nodeModel, NodeUrl nodeUrl) {
-        UserModel userModel = BaseServerController.getUserModel();
-        addUser(httpRequest, nodeModel, nodeUrl, userModel);
-    }
-
     /**
-     * 添加agent 授权信息header
+     * 添加agent 授权信息header,代理由连接池处理
      *
      * @param httpRequest request
      * @param nodeModel   节点
+     * @param nodeUrl     节点的url
      * @param userModel   用户
+     * @return 超时时间 毫秒
      */
-    private static void addUser(HttpRequest httpRequest, NodeModel nodeModel, NodeUrl nodeUrl, UserModel userModel) {
+    private static int addUser(HttpRequestBase httpRequest, NodeModel nodeModel, NodeUrl nodeUrl, UserModel userModel) {
+        createHeaders(nodeModel, userModel).forEach(httpRequest::setHeader);
+        return getTimeOut(nodeModel, nodeUrl);
+    }
+
+    /**
+     * 创建 agent 授权信息header
+     *
+     * @param nodeModel 节点
+     * @param userModel 用户
+     * @return header
+     */
+    private static Map<String, String> createHeaders(NodeModel nodeModel, UserModel userModel) {
         // 判断开启状态
         if (!nodeModel.isOpenStatus()) {
             throw new AgentException(nodeModel.getName() + "节点未启用");
         }
+        Map<String, String> headers = new LinkedHashMap<>(4);
         if (userModel != null) {
-            httpRequest.header(ConfigBean.JPOM_SERVER_USER_NAME, URLUtil.encode(userModel.getId()));
+            headers.put(ConfigBean.JPOM_SERVER_USER_NAME, URLUtil.encode(userModel.getId()));
 //            httpRequest.header(ConfigBean.JPOM_SERVER_SYSTEM_USER_ROLE, userModel.getUserRole(nodeModel).name());
         }
         if (StrUtil.isEmpty(nodeModel.getLoginPwd())) {
@@ -397,18 +498,37 @@ public class NodeForward {
             nodeModel.setLoginPwd(model.getLoginPwd());
             nodeModel.setLoginName(model.getLoginName());
         }
-        httpRequest.header(ConfigBean.JPOM_AGENT_AUTHORIZE, nodeModel.toAuthorize());
-        httpRequest.header(Const.WORKSPACEID_REQ_HEADER, nodeModel.getWorkspaceId());
-        //
+        headers.put(ConfigBean.JPOM_AGENT_AUTHORIZE, nodeModel.toAuthorize());
+        String workspaceId = nodeModel.getWorkspaceId();
+        if (workspaceId != null) {
+            headers.put(Const.WORKSPACEID_REQ_HEADER, workspaceId);
+        }
+        return headers;
+    }
+
+    /**
+     * 获取请求超时时间
+     *
+     * @param nodeModel 节点
+     * @param nodeUrl   节点的url
+     * @return 毫秒，0 不限制
+     */
+    private static int getTimeOut(NodeModel nodeModel, NodeUrl nodeUrl) {
+        int urlTimeOut = nodeUrl.getTimeOut();
+        if (urlTimeOut == -1) {
+            return 0;
+        }
+        if (urlTimeOut > 0) {
+            // url 单独配置的超时时间
+            return urlTimeOut * 1000;
+        }
         int timeOut = nodeModel.getTimeOut();
-        if (nodeUrl.getTimeOut() != -1 && timeOut > 0) {
+        if (timeOut > 0) {
             //
             timeOut = Math.max(timeOut, 2);
-            httpRequest.timeout(timeOut * 1000);
+            return timeOut * 1000;
         }
-        // 添加 http proxy
-        Proxy proxy = nodeModel.proxy();
-        httpRequest.setProxy(proxy);
+        return 0;
     }
 
     /**
@@ -453,22 +573,36 @@ public class NodeForward {
     }
 
     /**
-     * 解析结果
+     * 解析结果，直接从响应流解析，不转换为字符串
      *
+     * @param request  请求
+     * @param params   请求参数
      * @param response 响应
      * @return json
      */
-    private static <T> JsonMessage<T> parseBody(HttpRequest httpRequest, HttpResponse response, NodeModel nodeModel) {
-        int status = response.getStatus();
-        String body = response.body();
-        if (log.isDebugEnabled()) {
-            log.debug("{} -> {} {} {} {}", nodeModel.getName(), httpRequest.getUrl(), httpRequest.getMethod(), httpRequest.form(), body);
-        }
+    private static <T> JsonMessage<T> parseBody(HttpRequestBase request, Object params, org.apache.http.HttpResponse response, NodeModel nodeModel) throws IOException {
+        int status = response.getStatusLine().getStatusCode();
+        HttpEntity entity = response.getEntity();
         if (status != HttpStatus.HTTP_OK) {
+            String body = entity == null ? null : EntityUtils.toString(entity, CharsetUtil.CHARSET_UTF_8);
             log.warn("{} 响应异常 状态码错误：{} {}", nodeModel.getName(), status, body);
             throw new AgentException(nodeModel.getName() + " 节点响应异常,状态码错误：" + status);
         }
-        return toJsonMessage(body);
+        if (log.isDebugEnabled()) {
+            String body = entity == null ? null : EntityUtils.toString(entity, CharsetUtil.CHARSET_UTF_8);
+            log.debug("{} -> {} {} {} {}", nodeModel.getName(), request.getURI(), request.getMethod(), params, body);
+            return toJsonMessage(body);
+        }
+        if (entity == null) {
+            throw new AgentException("agent 端响应内容为空");
+        }
+        Charset charset = ObjectUtil.defaultIfNull(org.apache.http.entity.ContentType.getOrDefault(entity).getCharset(), CharsetUtil.CHARSET_UTF_8);
+        JsonMessage<T> jsonMessage;
+        try (InputStream inputStream = entity.getContent()) {
+            jsonMessage = JSON.parseObject(inputStream, charset, new TypeReference<JsonMessage<T>>() {
+            }.getType());
+        }
+        return checkJsonMessage(jsonMessage);
     }
 
     private static <T> JsonMessage<T> toJsonMessage(String body) {
@@ -477,6 +611,13 @@ public class NodeForward {
         }
         JsonMessage<T> jsonMessage = JSON.parseObject(body, new TypeReference<JsonMessage<T>>() {
         });
+        return checkJsonMessage(jsonMessage);
+    }
+
+    private static <T> JsonMessage<T> checkJsonMessage(JsonMessage<T> jsonMessage) {
+        if (jsonMessage == null) {
+            throw new AgentException("agent 端响应内容为空");
+        }
         if (jsonMessage.getCode() == ConfigBean.AUTHORIZE_ERROR) {
             throw new AuthorizeException(jsonMessage, jsonMessage.getMsg());
         }
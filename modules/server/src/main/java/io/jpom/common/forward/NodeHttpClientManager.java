@@ -0,0 +1,369 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.common.forward;
+
+import cn.hutool.core.date.SystemClock;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.http.ssl.DefaultSSLInfo;
+import com.alibaba.fastjson.JSONObject;
+import io.jpom.model.data.NodeModel;
+import io.jpom.system.ServerExtConfigBean;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.DefaultRoutePlanner;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.*;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 节点请求连接池
+ * <p>
+ * 每个节点独立一个 keep-alive 连接池，避免每次请求都重新建立 TCP（TLS）连接
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/14
+ */
+@Slf4j
+public class NodeHttpClientManager {
+
+    /**
+     * 当前请求的完整地址，用于代理选择
+     */
+    private static final String REQUEST_URI = "jpom.node.request.uri";
+
+    private static final Map<String, NodeHttpClient> CLIENT_MAP = new ConcurrentHashMap<>();
+
+    private static volatile ScheduledExecutorService evictExecutor;
+
+    /**
+     * 获取节点的连接池,节点地址或者代理配置变更后会重新创建
+     *
+     * @param nodeModel 节点
+     * @return client
+     */
+    public static NodeHttpClient get(NodeModel nodeModel) {
+        String key = StrUtil.emptyToDefault(nodeModel.getId(), nodeModel.getUrl());
+        String signature = StrUtil.join(StrUtil.COMMA, nodeModel.getProtocol(), nodeModel.getUrl(), nodeModel.getHttpProxyType(), nodeModel.getHttpProxy());
+        NodeHttpClient httpClient = CLIENT_MAP.compute(key, (s, old) -> {
+            if (old != null) {
+                if (StrUtil.equals(old.signature, signature)) {
+                    return old;
+                }
+                old.close();
+            }
+            return new NodeHttpClient(nodeModel, signature);
+        });
+        startEvict();
+        return httpClient;
+    }
+
+    /**
+     * 移除节点连接池
+     *
+     * @param nodeId 节点ID
+     */
+    public static void remove(String nodeId) {
+        NodeHttpClient httpClient = CLIENT_MAP.remove(nodeId);
+        if (httpClient != null) {
+            httpClient.close();
+        }
+    }
+
+    /**
+     * 连接池统计
+     *
+     * @return list
+     */
+    public static List<JSONObject> stat() {
+        return CLIENT_MAP.values().stream().map(NodeHttpClient::stat).collect(Collectors.toList());
+    }
+
+    private static void startEvict() {
+        if (evictExecutor != null) {
+            return;
+        }
+        synchronized (NodeHttpClientManager.class) {
+            if (evictExecutor != null) {
+                return;
+            }
+            int idleTime = ServerExtConfigBean.getInstance().getNodeConnectionIdleTime();
+            // 检查频率不超过 30 秒
+            long period = Math.min(idleTime, 30);
+            ScheduledExecutorService executorService = new ScheduledThreadPoolExecutor(1, ThreadUtil.newNamedThreadFactory("Jpom Node Http Evict-", true));
+            executorService.scheduleWithFixedDelay(() -> NodeHttpClientManager.evict(idleTime), period, period, TimeUnit.SECONDS);
+            evictExecutor = executorService;
+        }
+    }
+
+    /**
+     * 关闭空闲的连接，长时间没有使用的节点关闭整个连接池（节点可能已经删除）
+     *
+     * @param idleTime 空闲时间
+     */
+    private static void evict(int idleTime) {
+        long now = SystemClock.now();
+        long removeTime = TimeUnit.SECONDS.toMillis(idleTime) * 10;
+        CLIENT_MAP.forEach((key, httpClient) -> {
+            try {
+                if (now - httpClient.lastUseTime > removeTime && httpClient.connectionManager.getTotalStats().getLeased() == 0) {
+                    if (CLIENT_MAP.remove(key, httpClient)) {
+                        httpClient.close();
+                    }
+                    return;
+                }
+                httpClient.connectionManager.closeExpiredConnections();
+                httpClient.connectionManager.closeIdleConnections(idleTime, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                log.warn("关闭节点空闲连接异常 {}", httpClient.name, e);
+            }
+        });
+    }
+
+    /**
+     * 单个节点的连接池
+     */
+    public static class NodeHttpClient {
+
+        private final String name;
+        private final String url;
+        private final String signature;
+        private final Proxy proxy;
+        private final PoolingHttpClientConnectionManager connectionManager;
+        private final CloseableHttpClient httpClient;
+        /**
+         * 请求次数
+         */
+        private final LongAdder requestCount = new LongAdder();
+        /**
+         * 新建连接次数（未命中连接池）
+         */
+        private final LongAdder connectCount = new LongAdder();
+        /**
+         * 网络异常次数
+         */
+        private final LongAdder errorCount = new LongAdder();
+        /**
+         * 请求总耗时
+         */
+        private final LongAdder totalTime = new LongAdder();
+        private final AtomicLong maxTime = new AtomicLong();
+        private volatile long lastUseTime = SystemClock.now();
+
+        private NodeHttpClient(NodeModel nodeModel, String signature) {
+            this.name = nodeModel.getName();
+            this.url = nodeModel.getUrl();
+            this.signature = signature;
+            this.proxy = nodeModel.proxy();
+            Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", new PlainSocketFactory())
+                .register("https", new SslSocketFactory())
+                .build();
+            int maxConnections = ServerExtConfigBean.getInstance().getNodeMaxConnections();
+            this.connectionManager = new PoolingHttpClientConnectionManager(registry);
+            this.connectionManager.setMaxTotal(maxConnections);
+            this.connectionManager.setDefaultMaxPerRoute(maxConnections);
+            // 空闲超过 2 秒的连接在复用前检查是否可用（插件端可能已经关闭连接）
+            this.connectionManager.setValidateAfterInactivity(2000);
+            this.httpClient = HttpClients.custom()
+                .setConnectionManager(this.connectionManager)
+                .setRoutePlanner(new NodeRoutePlanner())
+                .disableRedirectHandling()
+                .disableCookieManagement()
+                .disableAutomaticRetries()
+                .build();
+        }
+
+        /**
+         * 执行请求，响应在 handler 中处理完成后连接归还连接池
+         *
+         * @param request 请求
+         * @param timeout 超时时间 毫秒，小于等于 0 不限制
+         * @param handler 响应处理
+         * @param <T>     泛型
+         * @return 处理结果
+         * @throws IOException io
+         */
+        public <T> T execute(HttpRequestBase request, int timeout, ResponseHandler<T> handler) throws IOException {
+            int value = timeout > 0 ? timeout : -1;
+            request.setConfig(RequestConfig.custom()
+                .setConnectTimeout(value)
+                .setSocketTimeout(value)
+                .setConnectionRequestTimeout(value)
+                .build());
+            HttpClientContext context = HttpClientContext.create();
+            context.setAttribute(REQUEST_URI, request.getURI());
+            long start = SystemClock.now();
+            lastUseTime = start;
+            requestCount.increment();
+            try {
+                return httpClient.execute(request, handler, context);
+            } catch (IOException e) {
+                errorCount.increment();
+                throw e;
+            } finally {
+                long time = SystemClock.now() - start;
+                totalTime.add(time);
+                maxTime.accumulateAndGet(time, Math::max);
+            }
+        }
+
+        private JSONObject stat() {
+            long request = requestCount.sum();
+            long connect = connectCount.sum();
+            PoolStats totalStats = connectionManager.getTotalStats();
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put("name", name);
+            jsonObject.put("url", url);
+            jsonObject.put("requestCount", request);
+            jsonObject.put("hitCount", Math.max(request - connect, 0));
+            jsonObject.put("missCount", connect);
+            jsonObject.put("errorCount", errorCount.sum());
+            jsonObject.put("avgTime", request == 0 ? 0 : totalTime.sum() / request);
+            jsonObject.put("maxTime", maxTime.get());
+            jsonObject.put("leased", totalStats.getLeased());
+            jsonObject.put("available", totalStats.getAvailable());
+            jsonObject.put("pending", totalStats.getPending());
+            jsonObject.put("max", totalStats.getMax());
+            return jsonObject;
+        }
+
+        private void close() {
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                log.warn("关闭节点连接池异常 {}", name, e);
+            }
+        }
+
+        /**
+         * 选择代理，节点未配置代理使用全局代理
+         *
+         * @param context 请求上下文
+         * @return proxy
+         */
+        private Proxy selectProxy(HttpContext context) {
+            if (proxy != null) {
+                return proxy;
+            }
+            ProxySelector proxySelector = ProxySelector.getDefault();
+            Object uri = context.getAttribute(REQUEST_URI);
+            if (proxySelector == null || !(uri instanceof URI)) {
+                return Proxy.NO_PROXY;
+            }
+            List<Proxy> proxies = proxySelector.select((URI) uri);
+            return proxies == null || proxies.isEmpty() ? Proxy.NO_PROXY : proxies.get(0);
+        }
+
+        private Socket createSocket(HttpContext context) {
+            Proxy select = this.selectProxy(context);
+            if (select.type() == Proxy.Type.SOCKS) {
+                return new Socket(select);
+            }
+            return new Socket();
+        }
+
+        /**
+         * http 代理通过路由处理
+         */
+        private class NodeRoutePlanner extends DefaultRoutePlanner {
+
+            NodeRoutePlanner() {
+                super(null);
+            }
+
+            @Override
+            protected HttpHost determineProxy(HttpHost target, HttpRequest request, HttpContext context) throws HttpException {
+                Proxy select = selectProxy(context);
+                if (select.type() == Proxy.Type.HTTP && select.address() instanceof InetSocketAddress) {
+                    InetSocketAddress address = (InetSocketAddress) select.address();
+                    return new HttpHost(address.getHostString(), address.getPort());
+                }
+                return null;
+            }
+        }
+
+        /**
+         * socks 代理在创建 socket 时处理
+         */
+        private class PlainSocketFactory extends PlainConnectionSocketFactory {
+
+            @Override
+            public Socket createSocket(HttpContext context) {
+                return NodeHttpClient.this.createSocket(context);
+            }
+
+            @Override
+            public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress, InetSocketAddress localAddress, HttpContext context) throws IOException {
+                connectCount.increment();
+                return super.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+            }
+        }
+
+        /**
+         * 和 hutool 默认一致，信任所有证书
+         */
+        private class SslSocketFactory extends SSLConnectionSocketFactory {
+
+            SslSocketFactory() {
+                super(DefaultSSLInfo.DEFAULT_SSF, DefaultSSLInfo.TRUST_ANY_HOSTNAME_VERIFIER);
+            }
+
+            @Override
+            public Socket createSocket(HttpContext context) {
+                return NodeHttpClient.this.createSocket(context);
+            }
+
+            @Override
+            public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress, InetSocketAddress localAddress, HttpContext context) throws IOException {
+                connectCount.increment();
+                return super.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+            }
+        }
+    }
+}
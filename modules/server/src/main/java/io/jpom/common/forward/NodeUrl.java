@@ -82,6 +82,8 @@ public enum NodeUrl {
 
     Manage_GetProjectStatus("/manage/getProjectStatus"),
 
+    Manage_GetProjectStatusList("/manage/getProjectStatusList"),
+
     Manage_Restart("/manage/restart"),
 
     Manage_Start("/manage/start"),
@@ -106,7 +108,7 @@ public enum NodeUrl {
     /**
      * jzy add  timeout
      */
-    Manage_File_Upload("/manage/file/upload", ServerExtConfigBean.getInstance().getUploadFileTimeOut()),
+    Manage_File_Upload("/manage/file/upload", uploadFileTimeOut()),
 
     Manage_File_DeleteFile("/manage/file/deleteFile"),
     /**
@@ -117,6 +119,26 @@ public enum NodeUrl {
      * 批量删除文件
      */
     MANAGE_FILE_BATCH_DELETE("/manage/file/batch_delete"),
+    /**
+     * 差异发布上传压缩包
+     */
+    MANAGE_FILE_DIFF_UPLOAD("/manage/file/diff_upload", uploadFileTimeOut()),
+    /**
+     * 中继分发准备
+     */
+    MANAGE_FILE_RELAY_PREPARE("/manage/file/relay_prepare"),
+    /**
+     * 中继分发接收分块
+     */
+    MANAGE_FILE_RELAY_CHUNK("/manage/file/relay_chunk"),
+    /**
+     * 中继分发状态
+     */
+    MANAGE_FILE_RELAY_STATUS("/manage/file/relay_status"),
+    /**
+     * 中继分发删除文件
+     */
+    MANAGE_FILE_RELAY_CLEAN("/manage/file/relay_clean"),
 
     Manage_File_UpdateConfigFile("/manage/file/update_config_file"),
 
@@ -249,6 +271,9 @@ public enum NodeUrl {
      * 相对请求地址
      */
     private final String url;
+    /**
+     * 请求超时时间 单位秒，0 使用节点配置的超时时间，-1 不限制超时时间
+     */
     private int timeOut;
 
     public String getUrl() {
@@ -267,4 +292,13 @@ public enum NodeUrl {
     NodeUrl(String url) {
         this.url = url;
     }
+
+    /**
+     * 上传文件的超时时间
+     *
+     * @return 秒
+     */
+    private static int uploadFileTimeOut() {
+        return ServerExtConfigBean.getInstance().getUploadFileTimeOut() / 1000;
+    }
 }
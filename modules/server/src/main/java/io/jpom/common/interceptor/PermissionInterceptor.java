@@ -23,15 +23,12 @@
 package io.jpom.common.interceptor;
 
 import cn.hutool.core.util.ArrayUtil;
-import cn.hutool.core.util.CharsetUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.extra.servlet.ServletUtil;
 import cn.jiangzeyin.common.JsonMessage;
 import cn.jiangzeyin.common.interceptor.InterceptorPattens;
 import cn.jiangzeyin.common.spring.SpringUtil;
 import io.jpom.common.BaseServerController;
-import io.jpom.common.Const;
-import io.jpom.model.BaseNodeModel;
 import io.jpom.model.data.NodeModel;
 import io.jpom.model.user.UserBindWorkspaceModel;
 import io.jpom.model.user.UserModel;
@@ -43,9 +40,13 @@ import io.jpom.service.user.UserBindWorkspaceService;
 import io.jpom.system.AgentException;
 import org.springframework.http.MediaType;
 import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 权限拦截器
@@ -67,6 +68,10 @@ public class PermissionInterceptor extends BaseJpomInterceptor {
         MethodFeature.UPLOAD,
         MethodFeature.REMOTE_DOWNLOAD,
         MethodFeature.EXECUTE};
+    /**
+     * 处理方法上的权限注解，每个方法只解析一次
+     */
+    private static final Map<Method, HandlerPermission> HANDLER_PERMISSION = new ConcurrentHashMap<>();
 
 
     private void init() {
@@ -75,23 +80,14 @@ public class PermissionInterceptor extends BaseJpomInterceptor {
         }
         if (userBindWorkspaceService == null) {
             userBindWorkspaceService = SpringUtil.getBean(UserBindWorkspaceService.class);
+            // 预先解析所有接口的权限注解
+            SpringUtil.getApplicationContext().getBeansOfType(RequestMappingHandlerMapping.class).values()
+                .forEach(handlerMapping -> handlerMapping.getHandlerMethods().values().forEach(this::getHandlerPermission));
         }
     }
 
-    private SystemPermission getSystemPermission(HandlerMethod handlerMethod) {
-        SystemPermission systemPermission = handlerMethod.getMethodAnnotation(SystemPermission.class);
-        if (systemPermission == null) {
-            systemPermission = handlerMethod.getBeanType().getAnnotation(SystemPermission.class);
-        }
-        return systemPermission;
-    }
-
-    private NodeDataPermission getNodeDataPermission(HandlerMethod handlerMethod) {
-        NodeDataPermission nodeDataPermission = handlerMethod.getMethodAnnotation(NodeDataPermission.class);
-        if (nodeDataPermission == null) {
-            nodeDataPermission = handlerMethod.getBeanType().getAnnotation(NodeDataPermission.class);
-        }
-        return nodeDataPermission;
+    private HandlerPermission getHandlerPermission(HandlerMethod handlerMethod) {
+        return HANDLER_PERMISSION.computeIfAbsent(handlerMethod.getMethod(), method -> new HandlerPermission(handlerMethod));
     }
 
     @Override
@@ -103,37 +99,30 @@ public class PermissionInterceptor extends BaseJpomInterceptor {
             // 没有登录、或者超级管理直接放过
             return true;
         }
+        HandlerPermission handlerPermission = this.getHandlerPermission(handlerMethod);
         //
-        boolean permission = this.checkSystemPermission(userModel, request, response, handlerMethod);
+        boolean permission = this.checkSystemPermission(userModel, request, response, handlerPermission);
         if (!permission) {
             return false;
         }
-        permission = this.checkNodeDataPermission(userModel, request, response, handlerMethod);
+        permission = this.checkNodeDataPermission(userModel, request, response, handlerPermission);
         if (!permission) {
             return false;
         }
-        Feature feature = handlerMethod.getMethodAnnotation(Feature.class);
-        if (feature == null) {
+        MethodFeature method = handlerPermission.method;
+        if (method == null) {
             return true;
         }
-        MethodFeature method = feature.method();
-        if (ArrayUtil.contains(DEMO, method) && userModel.isDemoUser()) {
+        if (handlerPermission.demoLimit && userModel.isDemoUser()) {
             this.errorMsg(response, DEMO_TIP);
             return false;
         }
-        ClassFeature classFeature = feature.cls();
-        if (classFeature == ClassFeature.NULL) {
-            Feature feature1 = handlerMethod.getBeanType().getAnnotation(Feature.class);
-            if (feature1 != null && feature1.cls() != ClassFeature.NULL) {
-                classFeature = feature1.cls();
-            }
-        }
         // 判断功能权限
         if (method != MethodFeature.LIST) {
             String workspaceId = BaseWorkspaceService.getWorkspaceId(request);
-            UserBindWorkspaceModel.PermissionResult permissionResult = userBindWorkspaceService.checkPermission(userModel, workspaceId + StrUtil.DASHED + method.name());
+            UserBindWorkspaceModel.PermissionResult permissionResult = userBindWorkspaceService.checkPermission(userModel, workspaceId, method);
             if (!permissionResult.isSuccess()) {
-                this.errorMsg(response, permissionResult.errorMsg("对应功能【" + classFeature.getName() + StrUtil.DASHED + method.getName() + "】"));
+                this.errorMsg(response, permissionResult.errorMsg("对应功能【" + handlerPermission.classFeature.getName() + StrUtil.DASHED + method.getName() + "】"));
                 return false;
             }
         }
@@ -143,13 +132,13 @@ public class PermissionInterceptor extends BaseJpomInterceptor {
     /**
      * 检查管理员权限
      *
-     * @param userModel     用户
-     * @param response      响应
-     * @param handlerMethod 拦截到到方法
+     * @param userModel         用户
+     * @param response          响应
+     * @param handlerPermission 拦截到到方法的权限
      * @return true 有权限
      */
-    private boolean checkNodeDataPermission(UserModel userModel, HttpServletRequest request, HttpServletResponse response, HandlerMethod handlerMethod) {
-        NodeDataPermission nodeDataPermission = this.getNodeDataPermission(handlerMethod);
+    private boolean checkNodeDataPermission(UserModel userModel, HttpServletRequest request, HttpServletResponse response, HandlerPermission handlerPermission) {
+        NodeDataPermission nodeDataPermission = handlerPermission.nodeDataPermission;
         if (nodeDataPermission == null || userModel.isSuperSystemUser()) {
             return true;
         }
@@ -159,9 +148,9 @@ public class PermissionInterceptor extends BaseJpomInterceptor {
             BaseNodeService<?> baseNodeService = SpringUtil.getBean(nodeDataPermission.cls());
             String dataId = request.getParameter(parameterName);
             if (StrUtil.isNotEmpty(dataId)) {
-                BaseNodeModel data = baseNodeService.getData(node.getId(), dataId);
-                if (data != null) {
-                    UserBindWorkspaceModel.PermissionResult permissionResult = userBindWorkspaceService.checkPermission(userModel, data.getWorkspaceId());
+                String dataWorkspaceId = baseNodeService.getDataWorkspaceId(node.getId(), dataId);
+                if (dataWorkspaceId != null) {
+                    UserBindWorkspaceModel.PermissionResult permissionResult = userBindWorkspaceService.checkPermission(userModel, dataWorkspaceId);
 
                     if (!permissionResult.isSuccess()) {
                         this.errorMsg(response, permissionResult.errorMsg());
@@ -176,13 +165,13 @@ public class PermissionInterceptor extends BaseJpomInterceptor {
     /**
      * 检查管理员权限
      *
-     * @param userModel     用户
-     * @param response      响应
-     * @param handlerMethod 拦截到到方法
+     * @param userModel         用户
+     * @param response          响应
+     * @param handlerPermission 拦截到到方法的权限
      * @return true 有权限
      */
-    private boolean checkSystemPermission(UserModel userModel, HttpServletRequest request, HttpServletResponse response, HandlerMethod handlerMethod) {
-        SystemPermission systemPermission = this.getSystemPermission(handlerMethod);
+    private boolean checkSystemPermission(UserModel userModel, HttpServletRequest request, HttpServletResponse response, HandlerPermission handlerPermission) {
+        SystemPermission systemPermission = handlerPermission.systemPermission;
         if (systemPermission == null) {
             return true;
         }
@@ -225,4 +214,46 @@ public class PermissionInterceptor extends BaseJpomInterceptor {
         JsonMessage<String> jsonMessage = new JsonMessage<>(302, msg);
         ServletUtil.write(response, jsonMessage.toString(), MediaType.APPLICATION_JSON_VALUE);
     }
+
+    /**
+     * 处理方法的权限注解（方法上优先，没有再取类上的）
+     */
+    private static class HandlerPermission {
+        private final SystemPermission systemPermission;
+        private final NodeDataPermission nodeDataPermission;
+        /**
+         * 功能方法，没有配置为 null
+         */
+        private final MethodFeature method;
+        private final ClassFeature classFeature;
+        /**
+         * demo 账号不能使用
+         */
+        private final boolean demoLimit;
+
+        private HandlerPermission(HandlerMethod handlerMethod) {
+            Class<?> beanType = handlerMethod.getBeanType();
+            SystemPermission systemPermission = handlerMethod.getMethodAnnotation(SystemPermission.class);
+            this.systemPermission = systemPermission == null ? beanType.getAnnotation(SystemPermission.class) : systemPermission;
+            NodeDataPermission nodeDataPermission = handlerMethod.getMethodAnnotation(NodeDataPermission.class);
+            this.nodeDataPermission = nodeDataPermission == null ? beanType.getAnnotation(NodeDataPermission.class) : nodeDataPermission;
+            Feature feature = handlerMethod.getMethodAnnotation(Feature.class);
+            if (feature == null) {
+                this.method = null;
+                this.classFeature = ClassFeature.NULL;
+                this.demoLimit = false;
+                return;
+            }
+            this.method = feature.method();
+            this.demoLimit = ArrayUtil.contains(DEMO, method);
+            ClassFeature classFeature = feature.cls();
+            if (classFeature == ClassFeature.NULL) {
+                Feature feature1 = beanType.getAnnotation(Feature.class);
+                if (feature1 != null && feature1.cls() != ClassFeature.NULL) {
+                    classFeature = feature1.cls();
+                }
+            }
+            this.classFeature = classFeature;
+        }
+    }
 }
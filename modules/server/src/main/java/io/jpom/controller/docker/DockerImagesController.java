@@ -134,6 +134,7 @@ public class DockerImagesController extends BaseServerController {
 				logRecorder.error("拉取异常", e);
 			}
 			logRecorder.info("pull end");
+			logRecorder.close();
 		});
 		return JsonMessage.getString(200, "开始拉取", uuid);
 	}
@@ -147,6 +147,7 @@ public class DockerSwarmServiceController extends BaseServerController {
 				logRecorder.error("拉取日志异常", e);
 			}
 			logRecorder.info("pull end");
+			logRecorder.close();
 		});
 		return JsonMessage.getString(200, "开始拉取", uuid);
 	}
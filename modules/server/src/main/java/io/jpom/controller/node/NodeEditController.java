@@ -30,6 +30,7 @@ import com.alibaba.fastjson.JSONObject;
 import io.jpom.common.BaseServerController;
 import io.jpom.common.ServerConst;
 import io.jpom.common.forward.NodeForward;
+import io.jpom.common.forward.NodeHttpClientManager;
 import io.jpom.common.forward.NodeUrl;
 import io.jpom.model.PageResultDto;
 import io.jpom.model.data.NodeModel;
@@ -206,6 +207,8 @@ public class NodeEditController extends BaseServerController {
             nodeStatService.delByKey(id);
             //
             nodeScriptExecuteLogServer.delCache(id, request);
+            // 关闭节点连接池
+            NodeHttpClientManager.remove(id);
         }
     }
 
@@ -25,16 +25,12 @@ package io.jpom.controller.node;
 import cn.hutool.core.date.DateTime;
 import cn.hutool.core.date.DateUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.db.Entity;
-import cn.hutool.db.Page;
-import cn.hutool.db.sql.Direction;
-import cn.hutool.db.sql.Order;
 import cn.jiangzeyin.common.JsonMessage;
+import com.alibaba.fastjson.JSONObject;
 import io.jpom.common.BaseServerController;
 import io.jpom.common.forward.NodeForward;
 import io.jpom.common.forward.NodeUrl;
 import io.jpom.model.data.NodeModel;
-import io.jpom.model.log.SystemMonitorLog;
 import io.jpom.permission.SystemPermission;
 import io.jpom.service.dblog.DbSystemMonitorLogService;
 import org.springframework.http.MediaType;
@@ -63,19 +59,17 @@ public class NodeWelcomeController extends BaseServerController {
 
 	@PostMapping(value = "node_monitor_data.json", produces = MediaType.APPLICATION_JSON_VALUE)
 	public String nodeMonitorJson() {
-		List<SystemMonitorLog> list = this.getList();
+		List<JSONObject> list = this.getList();
 		Assert.notEmpty(list, "没有查询到任何数据");
 		return JsonMessage.getString(200, "ok", list);
 	}
 
-	private List<SystemMonitorLog> getList() {
+	private List<JSONObject> getList() {
 		NodeModel node = getNode();
 		String startDateStr = getParameter("time[0]");
 		String endDateStr = getParameter("time[1]");
 		if (StrUtil.hasEmpty(startDateStr, endDateStr)) {
-			SystemMonitorLog systemMonitorLog = new SystemMonitorLog();
-			systemMonitorLog.setNodeId(node.getId());
-			return dbSystemMonitorLogService.queryList(systemMonitorLog, 500, new Order("monitorTime", Direction.DESC));
+			return dbSystemMonitorLogService.listLatest(node.getId(), 500);
 		}
 		//  处理时间
 		DateTime startDate = DateUtil.parse(startDateStr);
@@ -86,15 +80,8 @@ public class NodeWelcomeController extends BaseServerController {
 			endDate = DateUtil.endOfDay(endDate);
 		}
 		long endTime = endDate.getTime();
-
-		// 开启了节点信息采集
-		Page pageObj = new Page(1, 5000);
-		pageObj.addOrder(new Order("monitorTime", Direction.DESC));
-		Entity entity = Entity.create();
-		entity.set("nodeId", node.getId());
-		entity.set(" MONITORTIME", ">= " + startTime);
-		entity.set("MONITORTIME", "<= " + endTime);
-		return dbSystemMonitorLogService.listPageOnlyResult(entity, pageObj);
+		// 根据时间范围选择数据精度
+		return dbSystemMonitorLogService.listData(node.getId(), startTime, endTime);
 	}
 
 //	private JSONObject getData() {
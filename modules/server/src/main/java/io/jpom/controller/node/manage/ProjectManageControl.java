@@ -104,6 +104,16 @@ public class ProjectManageControl extends BaseServerController {
         return NodeForward.request(getNode(), getRequest(), NodeUrl.Manage_GetProjectPort).toString();
     }
 
+    /**
+     * 批量获取项目的运行状态（端口、进程id、运行时长、副本状态）
+     *
+     * @return json
+     */
+    @RequestMapping(value = "getProjectStatusList", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
+    public String getProjectStatusList() {
+        return NodeForward.request(getNode(), getRequest(), NodeUrl.Manage_GetProjectStatusList).toString();
+    }
+
     /**
      * 获取正在运行的项目的端口和进程id
      *
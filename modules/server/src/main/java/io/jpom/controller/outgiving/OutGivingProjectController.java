@@ -26,6 +26,7 @@ import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.convert.Convert;
 import cn.hutool.core.io.FileUtil;
 import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.ObjectUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.http.HttpUtil;
 import cn.jiangzeyin.common.JsonMessage;
@@ -136,10 +137,12 @@ public class OutGivingProjectController extends BaseServerController {
             } else {
                 jsonObject.put("projectStatus", false);
             }
+            // 分发中的节点优先使用内存中的实时状态
+            OutGivingNodeProject runStatus = ObjectUtil.defaultIfNull(OutGivingRun.getRunStatus(id, outGivingNodeProject), outGivingNodeProject);
             // BaseEnum.getDescByCode(Status.class, getStatus())
-            jsonObject.put("outGivingStatus", BaseEnum.getDescByCode(OutGivingNodeProject.Status.class, outGivingNodeProject.getStatus()));
-            jsonObject.put("outGivingResult", outGivingNodeProject.getResult());
-            jsonObject.put("lastTime", outGivingNodeProject.getLastOutGivingTime());
+            jsonObject.put("outGivingStatus", BaseEnum.getDescByCode(OutGivingNodeProject.Status.class, runStatus.getStatus()));
+            jsonObject.put("outGivingResult", runStatus.getResult());
+            jsonObject.put("lastTime", runStatus.getLastOutGivingTime());
             return jsonObject;
         }).collect(Collectors.toList());
         return JsonMessage.getString(200, "", collect);
@@ -106,6 +106,8 @@ public class CommandInfoController extends BaseServerController {
      * @apiBody {String} autoExecCron   定时构建表达式
      * @apiBody {String} id             命令主键 ID
      * @apiBody {String} [sshIds]       SSH 节点
+     * @apiBody {Number} [timeout]      单台 ssh 执行超时时间 单位秒
+     * @apiBody {Number} [minSuccessRate] 批量执行的最低成功率（0-100）
      */
     @RequestMapping(value = "edit", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
     @Feature(method = MethodFeature.EDIT)
@@ -124,6 +126,12 @@ public class CommandInfoController extends BaseServerController {
         commandModel.setCommand(command);
         commandModel.setDesc(desc);
         commandModel.setSshIds(data.getString("sshIds"));
+        Integer timeout = data.getInteger("timeout");
+        Assert.state(timeout == null || timeout >= 0, "超时时间不能小于 0");
+        commandModel.setTimeout(timeout);
+        Integer minSuccessRate = data.getInteger("minSuccessRate");
+        Assert.state(minSuccessRate == null || (minSuccessRate >= 0 && minSuccessRate <= 100), "最低成功率需要在 0-100 之间");
+        commandModel.setMinSuccessRate(minSuccessRate);
         if (StrUtil.isNotEmpty(autoExecCron)) {
             try {
                 new CronPattern(autoExecCron);
@@ -35,6 +35,7 @@ import io.jpom.permission.ClassFeature;
 import io.jpom.permission.Feature;
 import io.jpom.permission.MethodFeature;
 import io.jpom.service.node.command.CommandExecLogService;
+import io.jpom.service.node.command.CommandService;
 import io.jpom.util.CommandUtil;
 import io.jpom.util.FileUtils;
 import org.springframework.http.MediaType;
@@ -56,9 +57,12 @@ import java.util.List;
 public class CommandLogController extends BaseServerController {
 
 	private final CommandExecLogService commandExecLogService;
+	private final CommandService commandService;
 
-	public CommandLogController(CommandExecLogService commandExecLogService) {
+	public CommandLogController(CommandExecLogService commandExecLogService,
+								CommandService commandService) {
 		this.commandExecLogService = commandExecLogService;
+		this.commandService = commandService;
 	}
 
 	/**
@@ -131,6 +135,38 @@ public class CommandLogController extends BaseServerController {
 		return JsonMessage.getString(200, "", commandExecLogModels);
 	}
 
+	/**
+	 * 批次执行结果汇总
+	 *
+	 * @param commandId 命令ID
+	 * @param batchId   批次ID
+	 * @return result
+     *
+     * @api {GET}  node/ssh_command_log/batch_result 批次执行结果汇总
+     * @apiGroup node/ssh_command_log
+     * @apiUse defResultJson
+     * @apiParam {String} commandId 命令ID
+     * @apiParam {String} batchId 批次ID
+     * @apiSuccess {Number} total ssh 数
+     * @apiSuccess {Number} successCount 成功数（退出码为 0）
+     * @apiSuccess {Number} failCount 失败数
+     * @apiSuccess {Number} cancelCount 取消执行数
+     * @apiSuccess {Boolean} stopped 是否因为失败过多停止执行
+     * @apiSuccess {Boolean} run 是否执行中
+     * @apiSuccess {Object} items 每台 ssh 的状态、退出码、耗时和最后几行输出
+	 */
+	@GetMapping(value = "batch_result", produces = MediaType.APPLICATION_JSON_VALUE)
+	@Feature(method = MethodFeature.LIST)
+	public String batchResult(@ValidatorItem String commandId, @ValidatorItem String batchId) {
+		CommandExecLogModel where = new CommandExecLogModel();
+		where.setCommandId(commandId);
+		where.setBatchId(batchId);
+		where.setWorkspaceId(commandExecLogService.getCheckUserWorkspace(getRequest()));
+		Assert.state(commandExecLogService.exists(where), "没有对应的执行记录");
+		JSONObject jsonObject = commandService.batchResult(commandId, batchId);
+		return JsonMessage.getString(200, "", jsonObject);
+	}
+
 	/**
 	 * 获取日志
 	 *
@@ -160,8 +196,7 @@ public class CommandLogController extends BaseServerController {
 
 		JSONObject data = FileUtils.readLogFile(file, line);
 		// 运行中
-		Integer status = item.getStatus();
-		data.put("run", status != null && status == CommandExecLogModel.Status.ING.getCode());
+		data.put("run", commandService.isRunning(item));
 
 		return JsonMessage.getString(200, "", data);
 	}
@@ -52,6 +52,7 @@ import io.jpom.permission.SystemPermission;
 import io.jpom.service.dblog.BuildInfoService;
 import io.jpom.service.dblog.SshTerminalExecuteLogService;
 import io.jpom.service.node.ssh.SshService;
+import io.jpom.service.node.ssh.SshSessionPool;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.MediaType;
 import org.springframework.util.Assert;
@@ -226,6 +227,8 @@ public class SshController extends BaseServerController {
             sshService.insert(sshModel);
         } else {
             sshService.update(sshModel);
+            // 连接信息可能变更，关闭已经打开的会话
+            SshSessionPool.invalidate(sshModel.getId());
         }
         return JsonMessage.getString(200, "操作成功");
     }
@@ -281,6 +284,7 @@ public class SshController extends BaseServerController {
         Assert.state(CollUtil.isEmpty(nodeBySshId), "当前ssh被节点绑定，不能删除");
 
         sshService.delByKey(id, request);
+        SshSessionPool.invalidate(id);
         //
         int logCount = sshTerminalExecuteLogService.delByWorkspace(request, entity -> entity.set("sshId", id));
         return JsonMessage.getString(200, "操作成功");
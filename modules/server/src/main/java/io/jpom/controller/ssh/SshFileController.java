@@ -39,7 +39,6 @@ import cn.jiangzeyin.controller.multipart.MultipartFileBuilder;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.jcraft.jsch.ChannelSftp;
-import com.jcraft.jsch.Session;
 import com.jcraft.jsch.SftpException;
 import io.jpom.common.BaseServerController;
 import io.jpom.model.data.AgentWhitelist;
@@ -48,6 +47,8 @@ import io.jpom.permission.ClassFeature;
 import io.jpom.permission.Feature;
 import io.jpom.permission.MethodFeature;
 import io.jpom.service.node.ssh.SshService;
+import io.jpom.service.node.ssh.SshSessionPool;
+import io.jpom.service.node.ssh.SshTransfer;
 import io.jpom.system.ServerConfigBean;
 import io.jpom.util.CommandUtil;
 import io.jpom.util.CompressionFileUtil;
@@ -194,17 +195,13 @@ public class SshFileController extends BaseServerController {
      * @param charset  编码格式
      */
     private String readFile(SshModel sshModel, String path, String name, Charset charset) {
-        Sftp sftp = null;
-        try {
-            Session session = SshService.getSessionByModel(sshModel);
-            sftp = new Sftp(session, sshModel.charset(), sshModel.timeout());
+        try (SshSessionPool.Lease lease = SshSessionPool.borrow(sshModel);
+             Sftp sftp = lease.sftp(sshModel)) {
             String normalize = FileUtil.normalize(path + StrUtil.SLASH + name);
             ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
             sftp.download(normalize, byteArrayOutputStream);
             byte[] bytes = byteArrayOutputStream.toByteArray();
             return new String(bytes, charset);
-        } finally {
-            IoUtil.close(sftp);
         }
     }
 
@@ -217,14 +214,10 @@ public class SshFileController extends BaseServerController {
      * @param file     同步上传文件
      */
     private void syncFile(SshModel sshModel, String path, String name, File file) {
-        Sftp sftp = null;
-        try {
-            Session session = SshService.getSessionByModel(sshModel);
-            sftp = new Sftp(session, sshModel.charset(), sshModel.timeout());
+        try (SshSessionPool.Lease lease = SshSessionPool.borrow(sshModel);
+             Sftp sftp = lease.sftp(sshModel)) {
             String normalize = FileUtil.normalize(path + StrUtil.SLASH + name);
             sftp.upload(normalize, file);
-        } finally {
-            IoUtil.close(sftp);
         }
     }
 
@@ -243,17 +236,8 @@ public class SshFileController extends BaseServerController {
         String fileName = FileUtil.getName(name);
         response.setHeader("Content-Disposition", StrUtil.format("attachment;filename={}", URLUtil.encode(fileName, Charset.forName(charset))));
         response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
-        Session session = null;
-        ChannelSftp channel = null;
-        try {
-            session = SshService.getSessionByModel(sshModel);
-            channel = (ChannelSftp) JschUtil.openChannel(session, ChannelType.SFTP);
-            String normalize = FileUtil.normalize(path + StrUtil.SLASH + name);
-            channel.get(normalize, response.getOutputStream());
-        } finally {
-            JschUtil.close(channel);
-            JschUtil.close(session);
-        }
+        String normalize = FileUtil.normalize(path + StrUtil.SLASH + name);
+        new SshTransfer(sshModel).download(normalize, response.getOutputStream());
     }
 
     /**
@@ -267,12 +251,12 @@ public class SshFileController extends BaseServerController {
      */
     @SuppressWarnings("unchecked")
     private JSONArray listDir(SshModel sshModel, String path, String children) throws SftpException {
-        Session session = null;
+        SshSessionPool.Lease lease = null;
         ChannelSftp channel = null;
         List<String> allowEditSuffix = sshModel.allowEditSuffix();
         try {
-            session = SshService.getSessionByModel(sshModel);
-            channel = (ChannelSftp) JschUtil.openChannel(session, ChannelType.SFTP);
+            lease = SshSessionPool.borrow(sshModel);
+            channel = (ChannelSftp) JschUtil.openChannel(lease.getSession(), ChannelType.SFTP);
             Vector<ChannelSftp.LsEntry> vector;
             if (StrUtil.isNotEmpty(children)) {
                 String allPath = StrUtil.format("{}/{}", path, children);
@@ -314,7 +298,7 @@ public class SshFileController extends BaseServerController {
             return jsonArray;
         } finally {
             JschUtil.close(channel);
-            JschUtil.close(session);
+            IoUtil.close(lease);
         }
     }
 
@@ -326,11 +310,11 @@ public class SshFileController extends BaseServerController {
      * @return Array
      */
     private JSONArray listDir(SshModel sshModel, List<String> list) {
-        Session session = null;
+        SshSessionPool.Lease lease = null;
         ChannelSftp channel = null;
         try {
-            session = SshService.getSessionByModel(sshModel);
-            channel = (ChannelSftp) JschUtil.openChannel(session, ChannelType.SFTP);
+            lease = SshSessionPool.borrow(sshModel);
+            channel = (ChannelSftp) JschUtil.openChannel(lease.getSession(), ChannelType.SFTP);
             JSONArray jsonArray = new JSONArray();
             for (String item : list) {
                 JSONObject jsonObject = new JSONObject();
@@ -346,7 +330,7 @@ public class SshFileController extends BaseServerController {
             return jsonArray;
         } finally {
             JschUtil.close(channel);
-            JschUtil.close(session);
+            IoUtil.close(lease);
         }
     }
 
@@ -358,15 +342,15 @@ public class SshFileController extends BaseServerController {
         SshModel sshModel = this.check(id, path, name);
         name = FileUtil.normalize(name);
         Assert.state(!StrUtil.equals(name, StrUtil.SLASH), "不能删除根目录");
-        Session session = null;
+        SshSessionPool.Lease lease = null;
         Sftp sftp = null;
         try {
             // 验证合法性，防止越权
             FileUtil.file(path, name);
             //
             String normalize = FileUtil.normalize(path + StrUtil.SLASH + name);
-            session = SshService.getSessionByModel(sshModel);
-            sftp = new Sftp(session, sshModel.charset(), sshModel.timeout());
+            lease = SshSessionPool.borrow(sshModel);
+            sftp = lease.sftp(sshModel);
             // 尝试删除
             boolean dirOrFile = this.tryDelDirOrFile(sftp, normalize);
             if (dirOrFile) {
@@ -379,7 +363,7 @@ public class SshFileController extends BaseServerController {
             return JsonMessage.getString(400, "删除失败:" + e.getMessage());
         } finally {
             IoUtil.close(sftp);
-            JschUtil.close(session);
+            IoUtil.close(lease);
         }
     }
 
@@ -391,19 +375,19 @@ public class SshFileController extends BaseServerController {
         SshModel sshModel = this.check(id, path, name);
         name = FileUtil.normalize(name);
         FileUtil.file(path, newname);
-        Session session = null;
+        SshSessionPool.Lease lease = null;
         ChannelSftp channel = null;
 
         try {
-            session = SshService.getSessionByModel(sshModel);
-            channel = (ChannelSftp) JschUtil.openChannel(session, ChannelType.SFTP);
+            lease = SshSessionPool.borrow(sshModel);
+            channel = (ChannelSftp) JschUtil.openChannel(lease.getSession(), ChannelType.SFTP);
             channel.rename(FileUtil.normalize(path + StrUtil.SLASH + name), FileUtil.normalize(path + StrUtil.SLASH + newname));
         } catch (Exception e) {
             log.error("ssh重命名失败异常", e);
             return JsonMessage.getString(400, "重命名失败:" + e.getMessage());
         } finally {
             JschUtil.close(channel);
-            JschUtil.close(session);
+            IoUtil.close(lease);
         }
         return JsonMessage.getString(200, "操作成功");
     }
@@ -467,12 +451,12 @@ public class SshFileController extends BaseServerController {
         List<String> fileDirs = sshModel.fileDirs();
         Assert.state(CollUtil.contains(fileDirs, path), "没有配置此文件夹");
         String remotePath = FileUtil.normalize(path + StrUtil.SLASH + name);
-        Session session = null;
+        SshSessionPool.Lease lease = null;
         ChannelSftp channel = null;
         String localPath = null;
         try {
-            session = SshService.getSessionByModel(sshModel);
-            channel = (ChannelSftp) JschUtil.openChannel(session, ChannelType.SFTP);
+            lease = SshSessionPool.borrow(sshModel);
+            channel = (ChannelSftp) JschUtil.openChannel(lease.getSession(), ChannelType.SFTP);
             MultipartFileBuilder multipart = createMultipart();
             // 保存路径
             File tempPath = ServerConfigBean.getInstance().getUserTempPath();
@@ -510,7 +494,7 @@ public class SshFileController extends BaseServerController {
             return JsonMessage.getString(400, "上传失败:" + e.getMessage());
         } finally {
             JschUtil.close(channel);
-            JschUtil.close(session);
+            IoUtil.close(lease);
             FileUtil.del(localPath);
         }
         return JsonMessage.getString(200, "上传成功");
@@ -531,13 +515,13 @@ public class SshFileController extends BaseServerController {
     public String newFileFolder(String id, @ValidatorItem String path, @ValidatorItem String name, String unFolder) throws IOException {
         SshModel sshModel = sshService.getByKey(id, false);
         Assert.notNull(sshModel, "ssh error");
-        Session session = SshService.getSessionByModel(sshModel);
         String normalize = FileUtil.normalize(name);
         Assert.state(!StrUtil.contains(normalize, StrUtil.SLASH), "文件名不能包含/");
         // 验证合法性，防止越权
         FileUtil.file(path, name);
         String remotePath = FileUtil.normalize(path + StrUtil.SLASH + name);
-        try (Sftp sftp = new Sftp(session, sshModel.charset(), sshModel.timeout())) {
+        try (SshSessionPool.Lease lease = SshSessionPool.borrow(sshModel);
+             Sftp sftp = lease.sftp(sshModel)) {
             if (sftp.exist(remotePath)) {
                 return JsonMessage.getString(400, "文件夹或者文件已存在");
             }
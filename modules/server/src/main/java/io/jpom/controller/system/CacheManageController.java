@@ -30,6 +30,7 @@ import io.jpom.build.BuildUtil;
 import io.jpom.common.BaseServerController;
 import io.jpom.common.JpomManifest;
 import io.jpom.common.forward.NodeForward;
+import io.jpom.common.forward.NodeHttpClientManager;
 import io.jpom.common.forward.NodeUrl;
 import io.jpom.controller.LoginControl;
 import io.jpom.cron.CronUtils;
@@ -38,9 +39,15 @@ import io.jpom.permission.Feature;
 import io.jpom.permission.MethodFeature;
 import io.jpom.permission.SystemPermission;
 import io.jpom.plugin.PluginFactory;
+import io.jpom.service.dblog.DbUserOperateLogService;
+import io.jpom.service.h2db.BaseDbCommonService;
+import io.jpom.service.node.command.CommandService;
+import io.jpom.service.node.ssh.SshSessionPool;
+import io.jpom.service.stat.NodeStatService;
 import io.jpom.socket.ServiceFileTailWatcher;
 import io.jpom.system.ConfigBean;
 import io.jpom.util.CommandUtil;
+import io.jpom.util.SocketSessionUtil;
 import org.springframework.http.MediaType;
 import org.springframework.util.Assert;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -64,6 +71,15 @@ import java.util.Map;
 @SystemPermission
 public class CacheManageController extends BaseServerController {
 
+	private final NodeStatService nodeStatService;
+	private final DbUserOperateLogService dbUserOperateLogService;
+
+	public CacheManageController(NodeStatService nodeStatService,
+								 DbUserOperateLogService dbUserOperateLogService) {
+		this.nodeStatService = nodeStatService;
+		this.dbUserOperateLogService = dbUserOperateLogService;
+	}
+
 	/**
 	 * get server's cache data
 	 * 获取 Server 的缓存数据
@@ -91,6 +107,13 @@ public class CacheManageController extends BaseServerController {
 
 		map.put("taskList", CronUtils.list());
 		map.put("pluginSize", PluginFactory.size());
+		map.put("nodeHeartStat", nodeStatService.getHeartStat());
+		map.put("nodeHttpStat", NodeHttpClientManager.stat());
+		map.put("operateLogStat", dbUserOperateLogService.getQueueStat());
+		map.put("dbKeyCacheStat", BaseDbCommonService.keyCacheStat());
+		map.put("socketOutboundStat", SocketSessionUtil.getOutboundStat());
+		map.put("sshPoolStat", SshSessionPool.stat());
+		map.put("sshCommandStat", CommandService.stat());
 
 		return JsonMessage.getString(200, "ok", map);
 	}
@@ -83,6 +83,21 @@ public class CommandExecLogModel extends BaseWorkspaceModel {
      */
     private Integer triggerExecType;
 
+    /**
+     * 命令退出码
+     */
+    private Integer exitCode;
+
+    /**
+     * 执行耗时 单位毫秒
+     */
+    private Long duration;
+
+    /**
+     * 最后几行输出
+     */
+    private String outputTail;
+
     /**
      * 日志文件是否存在
      */
@@ -112,6 +127,8 @@ public class CommandExecLogModel extends BaseWorkspaceModel {
         DONE(1, "执行结束"),
         ERROR(2, "执行错误"),
         SESSION_ERROR(3, "会话异常"),
+        TIMEOUT(4, "执行超时"),
+        CANCEL(5, "取消执行"),
         ;
         private final int code;
         private final String desc;
@@ -73,6 +73,14 @@ public class CommandModel extends BaseWorkspaceModel {
      * 触发器 token
      */
     private String triggerToken;
+    /**
+     * 单台 ssh 执行超时时间 单位秒，为空或者 0 使用配置文件中的默认值
+     */
+    private Integer timeout;
+    /**
+     * 批量执行的最低成功率（0-100），失败数超过允许的数量后不再执行剩余的 ssh。0 全部执行，100 任意一台失败就停止
+     */
+    private Integer minSuccessRate;
 
     public List<CommandParam> params() {
         return params(getDefParams());
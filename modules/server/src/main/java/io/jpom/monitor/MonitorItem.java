@@ -113,16 +113,25 @@ public class MonitorItem implements Task {
         if (projects == null || projects.isEmpty()) {
             return true;
         }
+        // 一次请求查询节点下所有项目的状态
+        JSONObject statusList = this.reqProjectStatusList(nodeModel, projects);
         List<Boolean> collect = projects.stream().map(id -> {
             //
             String title;
             String context;
             try {
                 //查询项目运行状态
-                JsonMessage<JSONObject> jsonMessage = NodeForward.requestBySys(nodeModel, NodeUrl.Manage_GetProjectStatus, "id", id, "getCopy", true);
+                JsonMessage<JSONObject> jsonMessage;
+                if (statusList == null) {
+                    // 插件端版本不支持批量查询
+                    jsonMessage = NodeForward.requestBySys(nodeModel, NodeUrl.Manage_GetProjectStatus, "id", id, "getCopy", true);
+                } else {
+                    JSONObject jsonObject = statusList.getJSONObject(id);
+                    jsonMessage = jsonObject == null ? new JsonMessage<>(HttpStatus.HTTP_NOT_FOUND, "项目不存在") : new JsonMessage<>(HttpStatus.HTTP_OK, StrUtil.EMPTY, jsonObject);
+                }
                 if (jsonMessage.getCode() == HttpStatus.HTTP_OK) {
                     JSONObject jsonObject = jsonMessage.getData();
-                    int pid = jsonObject.getIntValue("pId");
+                    int pid = jsonObject.containsKey("pid") ? jsonObject.getIntValue("pid") : jsonObject.getIntValue("pId");
                     boolean runStatus = this.checkNotify(monitorModel, nodeModel, id, null, pid > 0);
                     // 检查副本
                     List<Boolean> booleanList = null;
@@ -166,6 +175,26 @@ public class MonitorItem implements Task {
         return CollUtil.isEmpty(collect);
     }
 
+    /**
+     * 批量查询节点项目状态
+     *
+     * @param nodeModel 节点
+     * @param projects  项目
+     * @return 项目id => 状态，查询失败返回 null
+     */
+    private JSONObject reqProjectStatusList(NodeModel nodeModel, List<String> projects) {
+        try {
+            JsonMessage<JSONObject> jsonMessage = NodeForward.requestBySys(nodeModel, NodeUrl.Manage_GetProjectStatusList, "ids", JSONArray.toJSONString(projects), "getCopy", true);
+            if (jsonMessage.getCode() == HttpStatus.HTTP_OK) {
+                return jsonMessage.getData();
+            }
+            log.warn("批量查询 {} 节点项目状态失败 {}", nodeModel.getName(), jsonMessage);
+        } catch (Exception e) {
+            log.warn("批量查询 {} 节点项目状态异常 {}", nodeModel.getName(), e.getMessage());
+        }
+        return null;
+    }
+
     /**
      * 检查状态
      *
@@ -22,8 +22,6 @@
  */
 package io.jpom.outgiving;
 
-import cn.hutool.core.collection.CollUtil;
-import cn.hutool.core.date.DateUtil;
 import cn.hutool.core.date.SystemClock;
 import cn.hutool.core.util.EnumUtil;
 import cn.hutool.core.util.IdUtil;
@@ -41,14 +39,10 @@ import io.jpom.model.outgiving.OutGivingModel;
 import io.jpom.model.outgiving.OutGivingNodeProject;
 import io.jpom.service.node.NodeService;
 import io.jpom.service.outgiving.DbOutGivingLogService;
-import io.jpom.service.outgiving.OutGivingServer;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.util.Assert;
 
 import java.io.File;
-import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.stream.Collectors;
 
 /**
  * @author bwcx_jzy
@@ -65,6 +59,10 @@ public class OutGivingItemRun implements Callable<OutGivingNodeProject.Status> {
 	private final UserModel userModel;
 	private final boolean unzip;
 	private final boolean clearOld;
+	/**
+	 * 中继分发ID，节点已经接收到文件时不为空
+	 */
+	private final String relayId;
 	/**
 	 * 数据库记录id
 	 */
@@ -75,7 +73,17 @@ public class OutGivingItemRun implements Callable<OutGivingNodeProject.Status> {
 							File file,
 							UserModel userModel,
 							boolean unzip) {
+		this(item, outGivingNodeProject, file, userModel, unzip, null);
+	}
+
+	public OutGivingItemRun(OutGivingModel item,
+							OutGivingNodeProject outGivingNodeProject,
+							File file,
+							UserModel userModel,
+							boolean unzip,
+							String relayId) {
 		this.outGivingId = item.getId();
+		this.relayId = relayId;
 		this.unzip = unzip;
 		this.clearOld = item.clearOld();
 		this.outGivingNodeProject = outGivingNodeProject;
@@ -96,11 +104,26 @@ public class OutGivingItemRun implements Callable<OutGivingNodeProject.Status> {
 			this.updateStatus(this.outGivingId, this.outGivingNodeProject,
 					OutGivingNodeProject.Status.Ing, "开始分发");
 			//
-			JsonMessage<String> jsonMessage = OutGivingRun.fileUpload(file, null,
-					this.outGivingNodeProject.getProjectId(),
-					unzip,
-					afterOpt,
-					this.nodeModel, this.userModel, this.clearOld);
+			JsonMessage<String> jsonMessage = null;
+			if (StrUtil.isNotEmpty(this.relayId) && OutGivingRelay.isComplete(this.nodeModel, this.relayId)) {
+				jsonMessage = OutGivingRun.relayUpload(this.relayId,
+						this.outGivingNodeProject.getProjectId(),
+						unzip,
+						afterOpt,
+						this.nodeModel, this.userModel, this.clearOld);
+				if (jsonMessage.getCode() != HttpStatus.HTTP_OK && !OutGivingRelay.isComplete(this.nodeModel, this.relayId)) {
+					// 中继文件在上传前过期或者被删除，节点没有使用中继文件
+					log.warn("中继文件已经失效，使用直接上传：{} {}", this.nodeModel.getName(), jsonMessage);
+					jsonMessage = null;
+				}
+			}
+			if (jsonMessage == null) {
+				jsonMessage = OutGivingRun.fileUpload(file, null,
+						this.outGivingNodeProject.getProjectId(),
+						unzip,
+						afterOpt,
+						this.nodeModel, this.userModel, this.clearOld);
+			}
 			if (jsonMessage.getCode() == HttpStatus.HTTP_OK) {
 				result = OutGivingNodeProject.Status.Ok;
 			} else {
@@ -133,6 +156,8 @@ public class OutGivingItemRun implements Callable<OutGivingNodeProject.Status> {
 
 	/**
 	 * 更新状态
+	 * <p>
+	 * 运行中的状态只记录在内存中，由分发调度统一写入分发数据，这里只写入当前节点的分发日志
 	 *
 	 * @param logId                    日志ID
 	 * @param outGivingId              分发id
@@ -146,59 +171,23 @@ public class OutGivingItemRun implements Callable<OutGivingNodeProject.Status> {
 									OutGivingNodeProject.Status status,
 									String msg,
 									String userId) {
-		synchronized (outGivingId.intern()) {
-			OutGivingServer outGivingServer = SpringUtil.getBean(OutGivingServer.class);
-			OutGivingModel outGivingModel = outGivingServer.getByKey(outGivingId);
-
-			List<OutGivingNodeProject> outGivingNodeProjects = outGivingModel.outGivingNodeProjectList();
-			Assert.notEmpty(outGivingNodeProjects, "没有分发项目");
-			OutGivingNodeProject finOutGivingNodeProject = null;
-			//
-			for (OutGivingNodeProject outGivingNodeProject : outGivingNodeProjects) {
-				if (!outGivingNodeProject.getProjectId().equalsIgnoreCase(outGivingNodeProjectItem.getProjectId()) ||
-						!outGivingNodeProject.getNodeId().equalsIgnoreCase(outGivingNodeProjectItem.getNodeId())) {
-					continue;
-				}
-				outGivingNodeProject.setStatus(status.getCode());
-				outGivingNodeProject.setResult(msg);
-				outGivingNodeProject.setLastOutGivingTime(DateUtil.now());
-				//
-				finOutGivingNodeProject = outGivingNodeProject;
-			}
-			{
-				List<OutGivingNodeProject.Status> collect = outGivingNodeProjects
-						.stream()
-						.map(outGivingNodeProject -> EnumUtil.likeValueOf(OutGivingNodeProject.Status.class, outGivingNodeProject.getStatus()))
-						.collect(Collectors.toList());
-				OutGivingModel.Status outGivingStatus = CollUtil.contains(collect, OutGivingNodeProject.Status.Ing)
-						? OutGivingModel.Status.ING : OutGivingModel.Status.DONE;
-				// 更新分发数据
-				OutGivingModel outGivingModel1 = new OutGivingModel();
-				outGivingModel1.setId(outGivingId);
-				outGivingModel1.setStatus(outGivingStatus.getCode());
-				outGivingModel1.outGivingNodeProjectList(outGivingNodeProjects);
-				outGivingServer.update(outGivingModel1);
-			}
-			// 更新日志数据
-			OutGivingLog outGivingLog = new OutGivingLog();
-			outGivingLog.setId(StrUtil.emptyToDefault(logId, IdUtil.fastSimpleUUID()));
-
-			if (finOutGivingNodeProject != null) {
-				outGivingLog.setNodeId(finOutGivingNodeProject.getNodeId());
-				outGivingLog.setProjectId(finOutGivingNodeProject.getProjectId());
-			}
-			outGivingLog.setModifyUser(userId);
-			outGivingLog.setOutGivingId(outGivingId);
-			outGivingLog.setResult(msg);
-			outGivingLog.setStatus(status.getCode());
-			DbOutGivingLogService dbOutGivingLogService = SpringUtil.getBean(DbOutGivingLogService.class);
-			if (status == OutGivingNodeProject.Status.Ing || status == OutGivingNodeProject.Status.Cancel) {
-				// 开始或者 取消都还没有记录
-				dbOutGivingLogService.insert(outGivingLog);
-			} else {
-				outGivingLog.setEndTime(SystemClock.now());
-				dbOutGivingLogService.update(outGivingLog);
-			}
+		OutGivingRun.putStatus(outGivingId, outGivingNodeProjectItem, status, msg);
+		// 更新日志数据
+		OutGivingLog outGivingLog = new OutGivingLog();
+		outGivingLog.setId(StrUtil.emptyToDefault(logId, IdUtil.fastSimpleUUID()));
+		outGivingLog.setNodeId(outGivingNodeProjectItem.getNodeId());
+		outGivingLog.setProjectId(outGivingNodeProjectItem.getProjectId());
+		outGivingLog.setModifyUser(userId);
+		outGivingLog.setOutGivingId(outGivingId);
+		outGivingLog.setResult(msg);
+		outGivingLog.setStatus(status.getCode());
+		DbOutGivingLogService dbOutGivingLogService = SpringUtil.getBean(DbOutGivingLogService.class);
+		if (status == OutGivingNodeProject.Status.Ing || status == OutGivingNodeProject.Status.Cancel) {
+			// 开始或者 取消都还没有记录
+			dbOutGivingLogService.insert(outGivingLog);
+		} else {
+			outGivingLog.setEndTime(SystemClock.now());
+			dbOutGivingLogService.update(outGivingLog);
 		}
 	}
 }
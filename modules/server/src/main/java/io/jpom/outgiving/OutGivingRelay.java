@@ -0,0 +1,316 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.outgiving;
+
+import cn.hutool.core.date.SystemClock;
+import cn.hutool.core.io.unit.DataSize;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.http.HttpStatus;
+import cn.jiangzeyin.common.JsonMessage;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import io.jpom.common.forward.BandwidthLimiter;
+import io.jpom.common.forward.NodeForward;
+import io.jpom.common.forward.NodeUrl;
+import io.jpom.model.data.NodeModel;
+import io.jpom.system.extconf.OutGivingExtConfig;
+import io.jpom.util.FileRelayUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 中继分发
+ * <p>
+ * 服务端把文件分块发送给前几个节点，节点接收分块后再转发给下级节点（按节点顺序组成多叉树），
+ * 服务端的上传流量只和每个节点转发的数量有关，和分发的节点数无关。
+ * 接收完成并校验通过的节点在上传项目文件时只需要携带中继ID，未完成的节点由调用方直接上传
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+@Slf4j
+public class OutGivingRelay {
+
+	/**
+	 * 发送分块失败的重试次数
+	 */
+	private static final int RETRY = 3;
+
+	private final File file;
+	private final OutGivingExtConfig outGivingExtConfig;
+	private final String relayId;
+	private final String token;
+	/**
+	 * 参与中继的节点，顺序即中继树的层序
+	 */
+	private final List<NodeModel> nodes = new ArrayList<>();
+	/**
+	 * 已经准备的节点，需要清理
+	 */
+	private final List<NodeModel> prepared = new ArrayList<>();
+
+	public OutGivingRelay(File file, Collection<NodeModel> nodeModels, OutGivingExtConfig outGivingExtConfig) {
+		this.file = file;
+		this.outGivingExtConfig = outGivingExtConfig;
+		this.relayId = IdUtil.fastSimpleUUID();
+		this.token = IdUtil.fastSimpleUUID();
+		Set<String> ids = new HashSet<>();
+		for (NodeModel nodeModel : nodeModels) {
+			if (nodeModel == null || !ids.add(nodeModel.getId())) {
+				continue;
+			}
+			this.nodes.add(nodeModel);
+		}
+	}
+
+	public String getRelayId() {
+		return relayId;
+	}
+
+	/**
+	 * 执行中继
+	 *
+	 * @return 接收完成的节点ID
+	 */
+	public Set<String> run() {
+		int chunkSize = (int) DataSize.ofMegabytes(outGivingExtConfig.getRelayChunkSize()).toBytes();
+		JSONObject manifest = FileRelayUtil.manifest(file, chunkSize);
+		String manifestStr = manifest.toString();
+		// 先准备所有节点，准备失败的节点不参与中继
+		for (NodeModel nodeModel : nodes) {
+			if (this.prepare(nodeModel, manifestStr, Collections.emptyList())) {
+				prepared.add(nodeModel);
+			}
+		}
+		if (prepared.isEmpty()) {
+			return Collections.emptySet();
+		}
+		int fanOut = outGivingExtConfig.getRelayFanOut();
+		int size = prepared.size();
+		// 不能转发的节点，下级节点不再等待
+		boolean[] broken = new boolean[size];
+		// 从后往前设置下级节点，保证下级节点先准备好再收到分块
+		for (int i = size - 1; i >= 0; i--) {
+			List<String> peers = new ArrayList<>();
+			for (int child = (i + 1) * fanOut; child < Math.min(size, (i + 2) * fanOut); child++) {
+				peers.add(prepared.get(child).getRealUrl(NodeUrl.MANAGE_FILE_RELAY_CHUNK));
+			}
+			if (!peers.isEmpty() && !this.prepare(prepared.get(i), manifestStr, peers)) {
+				broken[i] = true;
+			}
+		}
+		if (!this.push(manifest, Math.min(fanOut, size), broken)) {
+			// 第一层节点全部失败，所有节点都由调用方直接上传
+			log.warn("中继分发第一层节点全部失败，使用直接上传：{}", relayId);
+			return Collections.emptySet();
+		}
+		return this.waitComplete(fanOut, broken);
+	}
+
+	/**
+	 * 发送分块给第一层节点
+	 *
+	 * @param manifest 清单
+	 * @param seedSize 第一层节点数
+	 * @param broken   失败的节点
+	 * @return 是否还有第一层节点接收了全部分块
+	 */
+	private boolean push(JSONObject manifest, int seedSize, boolean[] broken) {
+		JSONArray chunks = manifest.getJSONArray("chunks");
+		BandwidthLimiter limiter = BandwidthLimiter.nodeUpload();
+		int timeout = (int) TimeUnit.SECONDS.toMillis(Math.max(outGivingExtConfig.getRelayTimeout(), 10));
+		for (int index = 0; index < chunks.size(); index++) {
+			byte[] data = FileRelayUtil.readChunk(file, manifest, index);
+			boolean any = false;
+			for (int i = 0; i < seedSize; i++) {
+				if (broken[i]) {
+					continue;
+				}
+				NodeModel nodeModel = prepared.get(i);
+				try {
+					this.sendChunk(limiter, nodeModel, index, data, timeout);
+					any = true;
+				} catch (InterruptedIOException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				} catch (Exception e) {
+					log.warn("中继分发发送分块失败：{} {}", nodeModel.getName(), e.getMessage());
+					broken[i] = true;
+				}
+			}
+			if (!any) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void sendChunk(BandwidthLimiter limiter, NodeModel nodeModel, int index, byte[] data, int timeout) throws InterruptedIOException {
+		String url = nodeModel.getRealUrl(NodeUrl.MANAGE_FILE_RELAY_CHUNK);
+		for (int i = 1; ; i++) {
+			if (limiter != null) {
+				limiter.acquire(data.length);
+			}
+			try {
+				FileRelayUtil.sendChunk(url, relayId, token, index, data, timeout);
+				return;
+			} catch (RuntimeException e) {
+				if (i >= RETRY) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * 等待节点接收完成，上级节点不能转发时不再等待下级节点
+	 *
+	 * @param fanOut 转发数
+	 * @param broken 失败的节点
+	 * @return 接收完成的节点ID
+	 */
+	private Set<String> waitComplete(int fanOut, boolean[] broken) {
+		int size = prepared.size();
+		Set<String> complete = new HashSet<>();
+		// 0 等待 1 完成 2 失败
+		int[] state = new int[size];
+		long endTime = SystemClock.now() + TimeUnit.SECONDS.toMillis(outGivingExtConfig.getRelayTimeout());
+		while (true) {
+			boolean waiting = false;
+			for (int i = 0; i < size; i++) {
+				if (state[i] != 0) {
+					continue;
+				}
+				int parent = i < fanOut ? -1 : i / fanOut - 1;
+				if (parent >= 0 && (state[parent] == 2 || (state[parent] == 1 && broken[parent]))) {
+					// 上级节点无法转发
+					state[i] = 2;
+					broken[i] = true;
+					continue;
+				}
+				if (parent < 0 && broken[i]) {
+					// 服务端发送失败
+					state[i] = 2;
+					continue;
+				}
+				NodeModel nodeModel = prepared.get(i);
+				JSONObject status = this.status(nodeModel);
+				if (status == null) {
+					waiting = true;
+					continue;
+				}
+				JSONObject forwardError = status.getJSONObject("forwardError");
+				if (forwardError != null) {
+					// 转发失败的下级节点
+					for (int child = (i + 1) * fanOut; child < Math.min(size, (i + 2) * fanOut); child++) {
+						String error = forwardError.getString(prepared.get(child).getRealUrl(NodeUrl.MANAGE_FILE_RELAY_CHUNK));
+						if (error != null && state[child] == 0) {
+							log.warn("中继分发转发失败：{} -> {} {}", nodeModel.getName(), prepared.get(child).getName(), error);
+							state[child] = 2;
+						}
+					}
+				}
+				if (status.getBooleanValue("complete")) {
+					state[i] = 1;
+					complete.add(nodeModel.getId());
+				} else if (status.getString("error") != null || !status.getBooleanValue("exists")) {
+					log.warn("中继分发接收失败：{} {}", nodeModel.getName(), status.getString("error"));
+					state[i] = 2;
+				} else {
+					waiting = true;
+				}
+			}
+			if (!waiting || SystemClock.now() > endTime || Thread.currentThread().isInterrupted()) {
+				break;
+			}
+			ThreadUtil.sleep(1, TimeUnit.SECONDS);
+		}
+		return complete;
+	}
+
+	/**
+	 * 删除节点上的中继文件
+	 */
+	public void clean() {
+		for (NodeModel nodeModel : prepared) {
+			try {
+				NodeForward.requestBySys(nodeModel, NodeUrl.MANAGE_FILE_RELAY_CLEAN, "relayId", relayId);
+			} catch (Exception e) {
+				log.warn("删除中继文件失败：{} {}", nodeModel.getName(), e.getMessage());
+			}
+		}
+	}
+
+	private boolean prepare(NodeModel nodeModel, String manifest, List<String> peers) {
+		try {
+			JsonMessage<Object> jsonMessage = NodeForward.requestBySys(nodeModel, NodeUrl.MANAGE_FILE_RELAY_PREPARE,
+				"relayId", relayId,
+				"token", token,
+				"manifest", manifest,
+				"peers", JSONArray.toJSONString(peers));
+			if (jsonMessage.getCode() == HttpStatus.HTTP_OK) {
+				return true;
+			}
+			log.warn("中继分发准备失败：{} {}", nodeModel.getName(), jsonMessage);
+		} catch (Exception e) {
+			log.warn("中继分发准备失败：{} {}", nodeModel.getName(), e.getMessage());
+		}
+		return false;
+	}
+
+	private JSONObject status(NodeModel nodeModel) {
+		return status(nodeModel, relayId);
+	}
+
+	/**
+	 * 节点上的中继文件是否接收完成，中继过期或者被删除后需要直接上传
+	 *
+	 * @param nodeModel 节点
+	 * @param relayId   中继ID
+	 * @return 查询失败返回 false
+	 */
+	public static boolean isComplete(NodeModel nodeModel, String relayId) {
+		JSONObject status = status(nodeModel, relayId);
+		return status != null && status.getBooleanValue("complete");
+	}
+
+	private static JSONObject status(NodeModel nodeModel, String relayId) {
+		try {
+			JsonMessage<JSONObject> jsonMessage = NodeForward.requestBySys(nodeModel, NodeUrl.MANAGE_FILE_RELAY_STATUS, "relayId", relayId);
+			return jsonMessage.getCode() == HttpStatus.HTTP_OK ? jsonMessage.getData() : null;
+		} catch (Exception e) {
+			log.warn("查询中继状态失败：{} {}", nodeModel.getName(), e.getMessage());
+			return null;
+		}
+	}
+}
@@ -22,6 +22,8 @@
  */
 package io.jpom.outgiving;
 
+import cn.hutool.core.date.DateUtil;
+import cn.hutool.core.thread.ExecutorBuilder;
 import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.EnumUtil;
 import cn.hutool.core.util.ObjectUtil;
@@ -29,7 +31,6 @@ import cn.hutool.core.util.StrUtil;
 import cn.jiangzeyin.common.JsonMessage;
 import cn.jiangzeyin.common.spring.SpringUtil;
 import com.alibaba.fastjson.JSONObject;
-import io.jpom.JpomApplication;
 import io.jpom.common.forward.NodeForward;
 import io.jpom.common.forward.NodeUrl;
 import io.jpom.model.AfterOpt;
@@ -38,20 +39,36 @@ import io.jpom.model.user.UserModel;
 import io.jpom.model.outgiving.OutGivingModel;
 import io.jpom.model.outgiving.OutGivingNodeProject;
 import io.jpom.service.outgiving.OutGivingServer;
+import io.jpom.system.extconf.OutGivingExtConfig;
+import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * 分发线程
+ * <p>
+ * 节点分发由 {@link OutGivingScheduler} 调度，运行中各节点的状态保存在内存中，
+ * 只在每一批（每一个顺序节点）结束后统一写入分发数据，避免每个节点更新状态都重写整个节点列表
  *
  * @author bwcx_jzy
  * @since 2019/7/18
  **/
+@Slf4j
 public class OutGivingRun {
 
+	/**
+	 * 运行中的分发节点状态 分发id -> 节点id:项目id -> 状态
+	 */
+	private static final Map<String, Map<String, OutGivingNodeProject>> RUN_STATUS_MAP = new ConcurrentHashMap<>();
+
+	private static volatile ThreadPoolExecutor uploadPool;
+
 	/**
 	 * 开始异步执行分发任务
 	 *
@@ -68,45 +85,147 @@ public class OutGivingRun {
 		OutGivingModel item = outGivingServer.getByKey(id);
 		Objects.requireNonNull(item, "不存在分发");
 		AfterOpt afterOpt = ObjectUtil.defaultIfNull(EnumUtil.likeValueOf(AfterOpt.class, item.getAfterOpt()), AfterOpt.No);
-
+		if (afterOpt != AfterOpt.Order_Restart && afterOpt != AfterOpt.Order_Must_Restart
+				&& afterOpt != AfterOpt.Restart && afterOpt != AfterOpt.No) {
+			//
+			throw new IllegalArgumentException("Not implemented " + afterOpt.getDesc());
+		}
 		//
 		List<OutGivingNodeProject> outGivingNodeProjects = item.outGivingNodeProjectList();
+		OutGivingExtConfig outGivingExtConfig = SpringUtil.getBean(OutGivingExtConfig.class);
 		// 开启线程
-		if (afterOpt == AfterOpt.Order_Restart || afterOpt == AfterOpt.Order_Must_Restart) {
-			ThreadUtil.execute(() -> {
-				// 截取睡眠时间
-				int sleepTime = ObjectUtil.defaultIfNull(item.getIntervalTime(), 10);
-				//
-				boolean cancel = false;
+		ThreadUtil.execute(new OutGivingScheduler(item, afterOpt, outGivingNodeProjects, file, userModel, unzip, outGivingExtConfig));
+	}
+
+	/**
+	 * 分发上传使用的线程池，所有分发共用，限制同时上传的节点数
+	 *
+	 * @return 线程池
+	 */
+	static ThreadPoolExecutor getUploadPool() {
+		int poolSize = SpringUtil.getBean(OutGivingExtConfig.class).getPoolSize();
+		ThreadPoolExecutor pool = uploadPool;
+		if (pool == null) {
+			synchronized (OutGivingRun.class) {
+				pool = uploadPool;
+				if (pool == null) {
+					pool = ExecutorBuilder.create()
+							.setCorePoolSize(poolSize)
+							.setMaxPoolSize(poolSize)
+							.setWorkQueue(new LinkedBlockingQueue<>())
+							.setThreadFactory(ThreadUtil.newNamedThreadFactory("Jpom OutGiving-", true))
+							.build();
+					pool.allowCoreThreadTimeOut(true);
+					uploadPool = pool;
+				}
+			}
+		}
+		return pool;
+	}
+
+	private static String statusKey(OutGivingNodeProject outGivingNodeProject) {
+		return StrUtil.format("{}:{}", outGivingNodeProject.getNodeId(), outGivingNodeProject.getProjectId());
+	}
+
+	/**
+	 * 开始分发，记录运行中的状态
+	 *
+	 * @param outGivingId 分发id
+	 */
+	static void startStatus(String outGivingId) {
+		RUN_STATUS_MAP.put(outGivingId, new ConcurrentHashMap<>(16));
+		flushStatus(outGivingId, false);
+	}
+
+	/**
+	 * 更新运行中节点的状态
+	 *
+	 * @param outGivingId              分发id
+	 * @param outGivingNodeProjectItem 分发项
+	 * @param status                   状态
+	 * @param msg                      消息描述
+	 */
+	static void putStatus(String outGivingId, OutGivingNodeProject outGivingNodeProjectItem, OutGivingNodeProject.Status status, String msg) {
+		Map<String, OutGivingNodeProject> map = RUN_STATUS_MAP.computeIfAbsent(outGivingId, s -> new ConcurrentHashMap<>(16));
+		OutGivingNodeProject outGivingNodeProject = new OutGivingNodeProject();
+		outGivingNodeProject.setNodeId(outGivingNodeProjectItem.getNodeId());
+		outGivingNodeProject.setProjectId(outGivingNodeProjectItem.getProjectId());
+		outGivingNodeProject.setStatus(status.getCode());
+		outGivingNodeProject.setResult(msg);
+		outGivingNodeProject.setLastOutGivingTime(DateUtil.now());
+		map.put(statusKey(outGivingNodeProject), outGivingNodeProject);
+	}
+
+	/**
+	 * 获取运行中节点的状态
+	 *
+	 * @param outGivingId          分发id
+	 * @param outGivingNodeProject 分发项
+	 * @return 没有在运行中返回 null
+	 */
+	public static OutGivingNodeProject getRunStatus(String outGivingId, OutGivingNodeProject outGivingNodeProject) {
+		Map<String, OutGivingNodeProject> map = RUN_STATUS_MAP.get(outGivingId);
+		return map == null ? null : map.get(statusKey(outGivingNodeProject));
+	}
+
+	/**
+	 * 结束分发，写入最终状态
+	 *
+	 * @param outGivingId 分发id
+	 */
+	static void finishStatus(String outGivingId) {
+		try {
+			flushStatus(outGivingId, true);
+		} finally {
+			RUN_STATUS_MAP.remove(outGivingId);
+		}
+	}
+
+	/**
+	 * 将内存中的节点状态写入分发数据
+	 *
+	 * @param outGivingId 分发id
+	 * @param done        是否分发结束
+	 */
+	static void flushStatus(String outGivingId, boolean done) {
+		Map<String, OutGivingNodeProject> map = RUN_STATUS_MAP.get(outGivingId);
+		if (map == null) {
+			return;
+		}
+		try {
+			synchronized (outGivingId.intern()) {
+				OutGivingServer outGivingServer = SpringUtil.getBean(OutGivingServer.class);
+				OutGivingModel outGivingModel = outGivingServer.getByKey(outGivingId);
+				if (outGivingModel == null) {
+					// 分发已经被删除
+					return;
+				}
+				List<OutGivingNodeProject> outGivingNodeProjects = outGivingModel.outGivingNodeProjectList();
+				if (outGivingNodeProjects == null) {
+					return;
+				}
 				for (OutGivingNodeProject outGivingNodeProject : outGivingNodeProjects) {
-					if (cancel) {
-						String userId = userModel == null ? JpomApplication.SYSTEM_ID : userModel.getId();
-						OutGivingItemRun.updateStatus(null, id, outGivingNodeProject, OutGivingNodeProject.Status.Cancel, "前一个节点分发失败，取消分发", userId);
-					} else {
-						OutGivingItemRun outGivingRun = new OutGivingItemRun(item, outGivingNodeProject, file, userModel, unzip);
-						OutGivingNodeProject.Status status = outGivingRun.call();
-						if (status != OutGivingNodeProject.Status.Ok) {
-							if (afterOpt == AfterOpt.Order_Must_Restart) {
-								// 完整重启，不再继续剩余的节点项目
-								cancel = true;
-							}
-						}
-						// 休眠x秒 等待之前项目正常启动
-						ThreadUtil.sleep(sleepTime, TimeUnit.SECONDS);
+					OutGivingNodeProject runStatus = map.get(statusKey(outGivingNodeProject));
+					if (runStatus == null) {
+						continue;
 					}
+					outGivingNodeProject.setStatus(runStatus.getStatus());
+					outGivingNodeProject.setResult(runStatus.getResult());
+					outGivingNodeProject.setLastOutGivingTime(runStatus.getLastOutGivingTime());
 				}
-			});
-		} else if (afterOpt == AfterOpt.Restart || afterOpt == AfterOpt.No) {
-			outGivingNodeProjects.forEach(outGivingNodeProject ->
-					ThreadUtil.execAsync(new OutGivingItemRun(item, outGivingNodeProject, file, userModel, unzip))
-			);
-		} else {
-			//
-			throw new IllegalArgumentException("Not implemented " + afterOpt.getDesc());
+				OutGivingModel.Status outGivingStatus = done ? OutGivingModel.Status.DONE : OutGivingModel.Status.ING;
+				// 更新分发数据
+				OutGivingModel outGivingModel1 = new OutGivingModel();
+				outGivingModel1.setId(outGivingId);
+				outGivingModel1.setStatus(outGivingStatus.getCode());
+				outGivingModel1.outGivingNodeProjectList(outGivingNodeProjects);
+				outGivingServer.update(outGivingModel1);
+			}
+		} catch (Exception e) {
+			log.error("更新分发状态失败：{}", outGivingId, e);
 		}
 	}
 
-
 	/**
 	 * 上传项目文件
 	 *
@@ -124,12 +243,40 @@ public class OutGivingRun {
 												 NodeModel nodeModel,
 												 UserModel userModel,
 												 boolean clearOld) {
-		JSONObject data = new JSONObject();
+		JSONObject data = uploadData(projectId, unzip, afterOpt, clearOld);
 		data.put("file", file);
-		data.put("id", projectId);
 		if (StrUtil.isNotEmpty(levelName)) {
 			data.put("levelName", levelName);
 		}
+		return NodeForward.request(nodeModel, NodeUrl.Manage_File_Upload, userModel, data);
+	}
+
+	/**
+	 * 使用节点已经接收完成的中继文件发布项目
+	 *
+	 * @param relayId   中继ID
+	 * @param projectId 项目id
+	 * @param unzip     是否需要解压
+	 * @param afterOpt  是否需要重启
+	 * @param nodeModel 节点
+	 * @param userModel 操作用户
+	 * @param clearOld  是否清空
+	 * @return json
+	 */
+	public static JsonMessage<String> relayUpload(String relayId, String projectId,
+												  boolean unzip,
+												  AfterOpt afterOpt,
+												  NodeModel nodeModel,
+												  UserModel userModel,
+												  boolean clearOld) {
+		JSONObject data = uploadData(projectId, unzip, afterOpt, clearOld);
+		data.put("relayId", relayId);
+		return NodeForward.request(nodeModel, NodeUrl.Manage_File_Upload, userModel, data);
+	}
+
+	private static JSONObject uploadData(String projectId, boolean unzip, AfterOpt afterOpt, boolean clearOld) {
+		JSONObject data = new JSONObject();
+		data.put("id", projectId);
 		if (unzip) {
 			// 解压
 			data.put("type", "unzip");
@@ -142,6 +289,6 @@ public class OutGivingRun {
 		if (afterOpt != AfterOpt.No) {
 			data.put("after", afterOpt.getCode());
 		}
-		return NodeForward.request(nodeModel, NodeUrl.Manage_File_Upload, userModel, data);
+		return data;
 	}
 }
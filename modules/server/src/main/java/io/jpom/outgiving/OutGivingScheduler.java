@@ -0,0 +1,309 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.outgiving;
+
+import cn.hutool.core.date.SystemClock;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.ObjectUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.http.HttpStatus;
+import cn.jiangzeyin.common.JsonMessage;
+import cn.jiangzeyin.common.spring.SpringUtil;
+import com.alibaba.fastjson.JSONObject;
+import io.jpom.JpomApplication;
+import io.jpom.common.forward.NodeForward;
+import io.jpom.common.forward.NodeUrl;
+import io.jpom.model.AfterOpt;
+import io.jpom.model.data.NodeModel;
+import io.jpom.model.outgiving.OutGivingModel;
+import io.jpom.model.outgiving.OutGivingNodeProject;
+import io.jpom.model.user.UserModel;
+import io.jpom.service.node.NodeService;
+import io.jpom.system.extconf.OutGivingExtConfig;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 分发调度
+ * <p>
+ * 顺序重启：逐个节点分发，节点项目正常运行（或等待超时）后再分发下一个节点。
+ * 分发后不操作、并发重启：按配置的比例分批分发，每一批在共用的线程池中并发上传，
+ * 前一批全部成功（并发重启需要项目正常运行）后才分发下一批。
+ * 开启中继分发时先把文件中继到节点，接收完成的节点不再从服务端上传文件
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+@Slf4j
+public class OutGivingScheduler implements Runnable {
+
+	private final OutGivingModel item;
+	private final AfterOpt afterOpt;
+	private final List<OutGivingNodeProject> outGivingNodeProjects;
+	private final File file;
+	private final UserModel userModel;
+	private final boolean unzip;
+	private final OutGivingExtConfig outGivingExtConfig;
+	private final String userId;
+	/**
+	 * 中继分发接收完成的节点
+	 */
+	private Set<String> relayNodeIds = Collections.emptySet();
+	private OutGivingRelay relay;
+
+	public OutGivingScheduler(OutGivingModel item,
+							  AfterOpt afterOpt,
+							  List<OutGivingNodeProject> outGivingNodeProjects,
+							  File file,
+							  UserModel userModel,
+							  boolean unzip,
+							  OutGivingExtConfig outGivingExtConfig) {
+		this.item = item;
+		this.afterOpt = afterOpt;
+		this.outGivingNodeProjects = ObjectUtil.defaultIfNull(outGivingNodeProjects, new ArrayList<>());
+		this.file = file;
+		this.userModel = userModel;
+		this.unzip = unzip;
+		this.outGivingExtConfig = outGivingExtConfig;
+		this.userId = userModel == null ? JpomApplication.SYSTEM_ID : userModel.getId();
+	}
+
+	@Override
+	public void run() {
+		String id = item.getId();
+		OutGivingRun.startStatus(id);
+		try {
+			this.startRelay();
+			if (afterOpt == AfterOpt.Order_Restart || afterOpt == AfterOpt.Order_Must_Restart) {
+				this.runOrder();
+			} else {
+				this.runWaves();
+			}
+		} catch (Exception e) {
+			log.error("分发调度异常：{}", id, e);
+		} finally {
+			if (relay != null) {
+				relay.clean();
+			}
+			OutGivingRun.finishStatus(id);
+		}
+	}
+
+	/**
+	 * 中继分发文件，配置了代理的节点不参与中继
+	 */
+	private void startRelay() {
+		if (file == null || !outGivingExtConfig.isRelay()) {
+			return;
+		}
+		NodeService nodeService = SpringUtil.getBean(NodeService.class);
+		List<NodeModel> nodeModels = outGivingNodeProjects.stream()
+			.map(OutGivingNodeProject::getNodeId)
+			.distinct()
+			.map(nodeService::getByKey)
+			.filter(nodeModel -> nodeModel != null && StrUtil.isEmpty(nodeModel.getHttpProxy()))
+			.collect(Collectors.toList());
+		if (nodeModels.size() <= 1) {
+			return;
+		}
+		relay = new OutGivingRelay(file, nodeModels, outGivingExtConfig);
+		try {
+			relayNodeIds = relay.run();
+			log.info("中继分发完成：{} {}/{}", item.getId(), relayNodeIds.size(), nodeModels.size());
+		} catch (Exception e) {
+			log.error("中继分发异常，使用直接上传：{}", item.getId(), e);
+		}
+	}
+
+	private OutGivingItemRun createItemRun(OutGivingNodeProject outGivingNodeProject) {
+		String relayId = relayNodeIds.contains(outGivingNodeProject.getNodeId()) ? relay.getRelayId() : null;
+		return new OutGivingItemRun(item, outGivingNodeProject, file, userModel, unzip, relayId);
+	}
+
+	/**
+	 * 顺序重启
+	 */
+	private void runOrder() {
+		boolean cancel = false;
+		for (OutGivingNodeProject outGivingNodeProject : outGivingNodeProjects) {
+			if (cancel) {
+				this.cancel(outGivingNodeProject);
+				continue;
+			}
+			OutGivingItemRun outGivingRun = this.createItemRun(outGivingNodeProject);
+			OutGivingNodeProject.Status status = outGivingRun.call();
+			// 等待项目正常启动并持续运行分发间隔时间
+			boolean healthy = status == OutGivingNodeProject.Status.Ok && this.waitHealthy(outGivingNodeProject);
+			if (!healthy && afterOpt == AfterOpt.Order_Must_Restart) {
+				// 完整重启，不再继续剩余的节点项目
+				cancel = true;
+			}
+			OutGivingRun.flushStatus(item.getId(), false);
+		}
+	}
+
+	/**
+	 * 分批分发
+	 */
+	private void runWaves() throws InterruptedException {
+		List<List<OutGivingNodeProject>> waves = this.splitWaves();
+		boolean gate = waves.size() > 1;
+		boolean cancel = false;
+		for (List<OutGivingNodeProject> wave : waves) {
+			if (cancel) {
+				wave.forEach(this::cancel);
+				continue;
+			}
+			List<Future<Boolean>> futures = new ArrayList<>(wave.size());
+			for (OutGivingNodeProject outGivingNodeProject : wave) {
+				futures.add(OutGivingRun.getUploadPool().submit(() -> {
+					OutGivingItemRun outGivingRun = this.createItemRun(outGivingNodeProject);
+					OutGivingNodeProject.Status status = outGivingRun.call();
+					if (status != OutGivingNodeProject.Status.Ok) {
+						return false;
+					}
+					// 只有分批分发并且需要重启时才需要检查项目状态
+					return !gate || afterOpt != AfterOpt.Restart || this.waitHealthy(outGivingNodeProject);
+				}));
+			}
+			boolean success = true;
+			for (Future<Boolean> future : futures) {
+				try {
+					success &= future.get();
+				} catch (ExecutionException e) {
+					log.error("分发节点异常", e);
+					success = false;
+				}
+			}
+			OutGivingRun.flushStatus(item.getId(), false);
+			if (gate && !success) {
+				// 前一批失败，取消剩余批次
+				cancel = true;
+			}
+		}
+	}
+
+	/**
+	 * 按比例拆分批次
+	 *
+	 * @return 批次
+	 */
+	private List<List<OutGivingNodeProject>> splitWaves() {
+		int size = outGivingNodeProjects.size();
+		List<List<OutGivingNodeProject>> waves = new ArrayList<>();
+		int start = 0;
+		for (Integer percent : outGivingExtConfig.waves()) {
+			int end = Math.min(size, Math.max(start + 1, (int) Math.ceil(size * percent / 100D)));
+			if (end <= start) {
+				continue;
+			}
+			waves.add(outGivingNodeProjects.subList(start, end));
+			start = end;
+		}
+		return waves;
+	}
+
+	private void cancel(OutGivingNodeProject outGivingNodeProject) {
+		OutGivingItemRun.updateStatus(null, item.getId(), outGivingNodeProject, OutGivingNodeProject.Status.Cancel, "前一个节点分发失败，取消分发", userId);
+	}
+
+	/**
+	 * 等待节点项目正常运行，项目进程出现后还需要持续运行分发间隔时间，避免启动后马上退出的项目被认为正常
+	 *
+	 * @param outGivingNodeProject 分发项
+	 * @return 超时未运行返回 false
+	 */
+	boolean waitHealthy(OutGivingNodeProject outGivingNodeProject) {
+		if (afterOpt == AfterOpt.No) {
+			return true;
+		}
+		int intervalTime = ObjectUtil.defaultIfNull(item.getIntervalTime(), 10);
+		int timeout = outGivingExtConfig.getHealthCheckTimeout();
+		if (timeout <= 0) {
+			timeout = intervalTime;
+		}
+		NodeModel nodeModel = SpringUtil.getBean(NodeService.class).getByKey(outGivingNodeProject.getNodeId());
+		if (nodeModel == null) {
+			return false;
+		}
+		long intervalMillis = TimeUnit.SECONDS.toMillis(Math.max(intervalTime, 0));
+		long endTime = SystemClock.now() + TimeUnit.SECONDS.toMillis(timeout);
+		// 进程出现后需要运行到的时间
+		long readyTime = 0;
+		int lastPid = 0;
+		while (true) {
+			int pid = this.queryPid(nodeModel, outGivingNodeProject);
+			long now = SystemClock.now();
+			if (pid <= 0) {
+				// 进程还没有启动或者已经退出
+				readyTime = 0;
+				if (now >= endTime) {
+					return false;
+				}
+			} else {
+				if (pid != lastPid) {
+					// 进程出现或者重新启动，重新计算运行时间
+					readyTime = now + intervalMillis;
+				}
+				if (now >= readyTime) {
+					return true;
+				}
+				if (now >= endTime + intervalMillis) {
+					// 进程反复重启
+					return false;
+				}
+			}
+			lastPid = pid;
+			ThreadUtil.sleep(1, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * 查询节点项目的进程号
+	 *
+	 * @param nodeModel            节点
+	 * @param outGivingNodeProject 分发项
+	 * @return 未运行或者查询失败返回 0
+	 */
+	int queryPid(NodeModel nodeModel, OutGivingNodeProject outGivingNodeProject) {
+		try {
+			JsonMessage<JSONObject> jsonMessage = NodeForward.requestBySys(nodeModel, NodeUrl.Manage_GetProjectStatus, "id", outGivingNodeProject.getProjectId());
+			JSONObject data = jsonMessage.getData();
+			if (jsonMessage.getCode() == HttpStatus.HTTP_OK && data != null) {
+				return data.containsKey("pid") ? data.getIntValue("pid") : data.getIntValue("pId");
+			}
+		} catch (Exception e) {
+			log.warn("查询项目状态失败：{} {}", nodeModel.getName(), e.getMessage());
+		}
+		return 0;
+	}
+}
@@ -41,6 +41,7 @@ import io.jpom.model.enums.BackupTypeEnum;
 import io.jpom.model.user.UserModel;
 import io.jpom.plugin.IPlugin;
 import io.jpom.plugin.PluginFactory;
+import io.jpom.service.h2db.BaseDbCommonService;
 import io.jpom.service.h2db.BaseDbService;
 import io.jpom.system.db.DbConfig;
 import io.jpom.system.extconf.DbExtConfig;
@@ -232,6 +233,8 @@ public class BackupInfoService extends BaseDbService<BackupInfoModel> {
             Map<String, Object> map = new HashMap<>(10);
             map.put("backupSqlPath", backupSqlPath);
             plugin.execute("restoreBackupSql", map);
+            // 还原后的数据和缓存不一致
+            BaseDbCommonService.refreshAllCache();
             // h2BackupService.restoreBackupSql(backupSqlPath);
             long endTs = System.currentTimeMillis();
             log.debug("restore H2 Database backup...success...cast {} ms", endTs - startTs);
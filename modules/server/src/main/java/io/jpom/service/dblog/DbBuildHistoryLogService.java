@@ -23,6 +23,7 @@
 package io.jpom.service.dblog;
 
 import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.http.HttpStatus;
 import cn.jiangzeyin.common.JsonMessage;
@@ -135,16 +136,9 @@ public class DbBuildHistoryLogService extends BaseWorkspaceService<BuildHistoryL
         super.insert(buildHistoryLog);
         // 清理单个
         int buildItemMaxHistoryCount = buildExtConfig.getItemMaxHistoryCount();
-        super.autoLoopClear("startTime", buildItemMaxHistoryCount,
+        ThreadUtil.execute(() -> super.autoLoopClear("startTime", buildItemMaxHistoryCount,
             entity -> entity.set("buildDataId", buildHistoryLog.getBuildDataId()),
-            buildHistoryLog1 -> {
-                JsonMessage<String> jsonMessage = this.deleteLogAndFile(buildHistoryLog1);
-                if (jsonMessage.getCode() != HttpStatus.HTTP_OK) {
-                    log.warn("{} {} {}", buildHistoryLog1.getBuildName(), buildHistoryLog1.getBuildNumberId(), jsonMessage);
-                    return false;
-                }
-                return true;
-            });
+            this::clearLogAndFile));
     }
 
     @Override
@@ -156,16 +150,27 @@ public class DbBuildHistoryLogService extends BaseWorkspaceService<BuildHistoryL
             // 不清除
             return;
         }
-        super.autoLoopClear("startTime", saveCount,
-            null,
-            buildHistoryLog1 -> {
-                JsonMessage<String> jsonMessage = this.deleteLogAndFile(buildHistoryLog1);
-                if (jsonMessage.getCode() != HttpStatus.HTTP_OK) {
-                    log.warn("{} {} {}", buildHistoryLog1.getBuildName(), buildHistoryLog1.getBuildNumberId(), jsonMessage);
-                    return false;
-                }
-                return true;
-            });
+        super.autoLoopClear("startTime", saveCount, null, this::clearLogAndFile);
+    }
+
+    @Override
+    protected void executeClearDaysImpl(long time) {
+        super.loopClearBefore("startTime", time, null, this::clearLogAndFile);
+    }
+
+    /**
+     * 删除构建记录对应的日志和产物文件
+     *
+     * @param buildHistoryLog 构建记录
+     * @return 文件删除成功才能删除记录
+     */
+    private boolean clearLogAndFile(BuildHistoryLog buildHistoryLog) {
+        JsonMessage<String> jsonMessage = this.deleteLogAndFile(buildHistoryLog);
+        if (jsonMessage.getCode() != HttpStatus.HTTP_OK) {
+            log.warn("{} {} {}", buildHistoryLog.getBuildName(), buildHistoryLog.getBuildNumberId(), jsonMessage);
+            return false;
+        }
+        return true;
     }
 
     @Override
@@ -22,28 +22,238 @@
  */
 package io.jpom.service.dblog;
 
+import cn.hutool.core.date.SystemClock;
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.NumberUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.db.Entity;
+import cn.hutool.db.Page;
+import cn.hutool.db.sql.Direction;
+import cn.hutool.db.sql.Order;
+import com.alibaba.fastjson.JSONObject;
 import io.jpom.model.log.SystemMonitorLog;
 import io.jpom.service.h2db.BaseDbService;
+import io.jpom.service.stat.MonitorSeriesStore;
+import io.jpom.system.ConfigBean;
+import io.jpom.system.ServerExtConfigBean;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
 /**
+ * 节点监控数据
+ * <p>
+ * 新的数据写入时序存储（{@link MonitorSeriesStore}），数据库表只用于查询升级前的历史数据，查询时和存储中的数据合并
+ *
  * @author Arno
  * @since 2019/9/13
  */
 @Service
-public class DbSystemMonitorLogService extends BaseDbService<SystemMonitorLog> {
+public class DbSystemMonitorLogService extends BaseDbService<SystemMonitorLog> implements DisposableBean {
+
+	/**
+	 * 图表最多的点数
+	 */
+	private static final int MAX_POINTS = 5000;
+
+	private volatile MonitorSeriesStore seriesStore;
 
 	@Override
 	protected String[] clearTimeColumns() {
 		return new String[]{"monitorTime"};
 	}
 
+	private MonitorSeriesStore getSeriesStore() {
+		if (seriesStore == null) {
+			synchronized (this) {
+				if (seriesStore == null) {
+					seriesStore = new MonitorSeriesStore(FileUtil.file(ConfigBean.getInstance().getDataPath(), "monitor_series"));
+				}
+			}
+		}
+		return seriesStore;
+	}
+
+	@Override
+	public void insert(SystemMonitorLog systemMonitorLog) {
+		this.insert(Collections.singletonList(systemMonitorLog));
+	}
+
+	@Override
+	public void insert(Collection<SystemMonitorLog> list) {
+		MonitorSeriesStore store = this.getSeriesStore();
+		for (SystemMonitorLog systemMonitorLog : list) {
+			if (systemMonitorLog.getMonitorTime() == null) {
+				continue;
+			}
+			store.append(systemMonitorLog.getNodeId(), systemMonitorLog.getMonitorTime(), toValues(systemMonitorLog));
+		}
+	}
+
+	/**
+	 * 查询时间范围内的监控数据，根据时间范围自动选择数据精度。
+	 * 存储中最早的数据之前的部分（包括第一个汇总间隔）合并升级前数据库中的数据
+	 *
+	 * @param nodeId    节点ID
+	 * @param startTime 开始时间
+	 * @param endTime   结束时间
+	 * @return 按时间降序
+	 */
+	public List<JSONObject> listData(String nodeId, long startTime, long endTime) {
+		long rawStep = TimeUnit.SECONDS.toMillis(ServerExtConfigBean.getInstance().getNodeHeartSecond());
+		MonitorSeriesStore.Resolution resolution = MonitorSeriesStore.selectResolution(startTime, endTime, rawStep, MAX_POINTS, SystemClock.now());
+		MonitorSeriesStore store = this.getSeriesStore();
+		List<MonitorSeriesStore.Point> points = store.query(nodeId, resolution, startTime, endTime);
+		long firstTime = store.firstTime(nodeId, resolution);
+		long historyEnd = firstTime == Long.MAX_VALUE ? endTime : Math.min(endTime, firstTime + resolution.getStep() - 1);
+		if (startTime <= historyEnd) {
+			List<MonitorSeriesStore.Point> history = this.queryHistory(nodeId, resolution, startTime, historyEnd);
+			if (!history.isEmpty()) {
+				history.addAll(points);
+				points = MonitorSeriesStore.merge(resolution, history);
+			}
+		}
+		return this.toJson(nodeId, resolution, points);
+	}
+
+	/**
+	 * 查询最新的监控数据，存储中的数据不够时补充升级前的数据
+	 *
+	 * @param nodeId 节点ID
+	 * @param count  条数
+	 * @return 按时间降序
+	 */
+	public List<JSONObject> listLatest(String nodeId, int count) {
+		List<MonitorSeriesStore.Point> points = this.getSeriesStore().latest(nodeId, count);
+		if (points.size() < count) {
+			Page pageObj = new Page(1, count - points.size());
+			pageObj.addOrder(new Order("monitorTime", Direction.DESC));
+			Entity entity = Entity.create();
+			entity.set("nodeId", nodeId);
+			if (!points.isEmpty()) {
+				entity.set("MONITORTIME", "< " + points.get(0).getTime());
+			}
+			List<MonitorSeriesStore.Point> history = this.toPoints(super.listPageOnlyResult(entity, pageObj));
+			if (!history.isEmpty()) {
+				history.addAll(points);
+				points = MonitorSeriesStore.merge(MonitorSeriesStore.Resolution.RAW, history);
+			}
+		}
+		return this.toJson(nodeId, MonitorSeriesStore.Resolution.RAW, points);
+	}
 
-	//
-//	public PageResultDto<SystemMonitorLog> getMonitorData(long startTime, long endTime) {
-//		Entity entity = new Entity(SystemMonitorLog.TABLE_NAME);
-//		entity.set(" MONITORTIME", ">= " + startTime);
-//		entity.set("MONITORTIME", "<= " + endTime);
-//		return listPage(entity, null);
-//	}
+	/**
+	 * 查询升级前数据库中的数据，汇总精度在数据库中按间隔汇总
+	 *
+	 * @param nodeId     节点ID
+	 * @param resolution 精度
+	 * @param startTime  开始时间
+	 * @param endTime    结束时间
+	 * @return 数据点
+	 */
+	private List<MonitorSeriesStore.Point> queryHistory(String nodeId, MonitorSeriesStore.Resolution resolution, long startTime, long endTime) {
+		if (resolution == MonitorSeriesStore.Resolution.RAW) {
+			Page pageObj = new Page(1, MAX_POINTS);
+			pageObj.addOrder(new Order("monitorTime", Direction.DESC));
+			Entity entity = Entity.create();
+			entity.set("nodeId", nodeId);
+			entity.set(" MONITORTIME", ">= " + startTime);
+			entity.set("MONITORTIME", "<= " + endTime);
+			return this.toPoints(super.listPageOnlyResult(entity, pageObj));
+		}
+		String[] metrics = MonitorSeriesStore.METRICS;
+		StringBuilder aggregates = new StringBuilder();
+		for (int i = 0; i < metrics.length; i++) {
+			aggregates.append(StrUtil.format(",AVG(CAST({} AS DOUBLE)) A{},MIN({}) N{},MAX({}) X{},COUNT({}) C{}",
+				metrics[i], i, metrics[i], i, metrics[i], i, metrics[i], i));
+		}
+		long step = resolution.getStep();
+		String sql = StrUtil.format("SELECT T{} FROM (SELECT MONITORTIME / {} * {} AS T,{} FROM {} WHERE NODEID = ? AND MONITORTIME >= ? AND MONITORTIME <= ?) S GROUP BY T ORDER BY T",
+			aggregates, step, step, String.join(StrUtil.COMMA, metrics), super.getTableName());
+		List<Entity> list = super.query(sql, nodeId, startTime, endTime);
+		List<MonitorSeriesStore.Point> points = new ArrayList<>(list.size());
+		for (Entity entity : list) {
+			double[] values = new double[metrics.length * 4];
+			for (int i = 0; i < metrics.length; i++) {
+				values[i] = toValue(entity.getDouble("A" + i));
+				values[metrics.length + i] = toValue(entity.getDouble("N" + i));
+				values[metrics.length * 2 + i] = toValue(entity.getDouble("X" + i));
+				values[metrics.length * 3 + i] = entity.getLong("C" + i);
+			}
+			points.add(new MonitorSeriesStore.Point(entity.getLong("T"), values));
+		}
+		return points;
+	}
+
+	/**
+	 * 缓存的监控数据写入文件，并清理过期的数据
+	 */
+	public void flushSeries() {
+		MonitorSeriesStore store = this.getSeriesStore();
+		store.flush(false);
+		store.clean();
+	}
+
+	@Override
+	public void destroy() {
+		if (seriesStore != null) {
+			seriesStore.flush(true);
+		}
+	}
+
+	private List<MonitorSeriesStore.Point> toPoints(List<SystemMonitorLog> list) {
+		return list.stream()
+			.filter(systemMonitorLog -> systemMonitorLog.getMonitorTime() != null)
+			.map(systemMonitorLog -> new MonitorSeriesStore.Point(systemMonitorLog.getMonitorTime(), toValues(systemMonitorLog)))
+			.collect(Collectors.toList());
+	}
+
+	/**
+	 * 转换为和数据库记录一致的字段，汇总数据额外返回最小值（Min）、最大值（Max）
+	 */
+	private List<JSONObject> toJson(String nodeId, MonitorSeriesStore.Resolution resolution, List<MonitorSeriesStore.Point> points) {
+		String[] metrics = MonitorSeriesStore.METRICS;
+		List<JSONObject> list = new ArrayList<>(points.size());
+		for (int i = points.size() - 1; i >= 0; i--) {
+			MonitorSeriesStore.Point point = points.get(i);
+			double[] values = point.getValues();
+			JSONObject jsonObject = new JSONObject();
+			jsonObject.put("nodeId", nodeId);
+			jsonObject.put("monitorTime", point.getTime());
+			jsonObject.put("resolution", resolution.name());
+			for (int j = 0; j < metrics.length; j++) {
+				jsonObject.put(metrics[j], toObject(values[j]));
+				if (resolution != MonitorSeriesStore.Resolution.RAW) {
+					jsonObject.put(metrics[j] + "Min", toObject(values[metrics.length + j]));
+					jsonObject.put(metrics[j] + "Max", toObject(values[metrics.length * 2 + j]));
+				}
+			}
+			list.add(jsonObject);
+		}
+		return list;
+	}
+
+	private static double[] toValues(SystemMonitorLog systemMonitorLog) {
+		return new double[]{
+			toValue(systemMonitorLog.getOccupyCpu()),
+			toValue(systemMonitorLog.getOccupyMemory()),
+			toValue(systemMonitorLog.getOccupyMemoryUsed()),
+			toValue(systemMonitorLog.getOccupyDisk()),
+			toValue(systemMonitorLog.getNetworkTime()),
+		};
+	}
+
+	private static double toValue(Number number) {
+		return number == null ? Double.NaN : number.doubleValue();
+	}
+
+	private static Double toObject(double value) {
+		return Double.isNaN(value) ? null : NumberUtil.round(value, 2).doubleValue();
+	}
 }
@@ -24,13 +24,15 @@ package io.jpom.service.dblog;
 
 import cn.hutool.core.bean.BeanPath;
 import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.date.SystemClock;
 import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.CharsetUtil;
-import cn.hutool.core.util.EnumUtil;
 import cn.hutool.core.util.ObjectUtil;
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.db.Entity;
 import cn.hutool.extra.servlet.ServletUtil;
 import cn.jiangzeyin.common.spring.SpringUtil;
+import io.jpom.common.BaseServerController;
 import io.jpom.common.Const;
 import io.jpom.model.PageResultDto;
 import io.jpom.model.data.MonitorModel;
@@ -46,14 +48,19 @@ import io.jpom.service.h2db.BaseWorkspaceService;
 import io.jpom.service.monitor.MonitorUserOptService;
 import io.jpom.service.system.WorkspaceService;
 import io.jpom.service.user.UserService;
+import io.jpom.system.extconf.DbExtConfig;
 import io.jpom.system.init.OperateLogController;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.stereotype.Service;
 
 import javax.servlet.http.HttpServletRequest;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -64,11 +71,31 @@ import java.util.stream.Collectors;
  */
 @Service
 @Slf4j
-public class DbUserOperateLogService extends BaseWorkspaceService<UserOperateLogV1> {
+public class DbUserOperateLogService extends BaseWorkspaceService<UserOperateLogV1> implements DisposableBean {
 
     private final MonitorUserOptService monitorUserOptService;
     private final UserService userService;
     private final WorkspaceService workspaceService;
+    /**
+     * 每一批最多写入的条数
+     */
+    private static final int BATCH_SIZE = 100;
+    /**
+     * 队列满时请求线程最多等待的时间（毫秒），超过后丢弃
+     */
+    private static final long OFFER_TIMEOUT = 50;
+    /**
+     * 操作日志队列，请求线程只放入队列，由后台线程补充信息、批量写入、判断监控
+     */
+    private final BlockingQueue<OperateLogEvent> logQueue;
+    private volatile Thread writerThread;
+    private volatile boolean running = true;
+    private final AtomicLong submitCount = new AtomicLong();
+    private final AtomicLong dropCount = new AtomicLong();
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong failCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private volatile long lastDropWarnTime;
     /**
      * 通用 bean 的名称字段 bean-path
      */
@@ -76,10 +103,25 @@ public class DbUserOperateLogService extends BaseWorkspaceService<UserOperateLog
 
     public DbUserOperateLogService(MonitorUserOptService monitorUserOptService,
                                    UserService userService,
-                                   WorkspaceService workspaceService) {
+                                   WorkspaceService workspaceService,
+                                   DbExtConfig dbExtConfig) {
         this.monitorUserOptService = monitorUserOptService;
         this.userService = userService;
         this.workspaceService = workspaceService;
+        this.logQueue = new LinkedBlockingQueue<>(Math.max(dbExtConfig.getOperateLogQueueSize(), BATCH_SIZE));
+    }
+
+    /**
+     * 判断操作是否开启了监控（内存中的规则）
+     *
+     * @param workspaceId   工作空间ID
+     * @param classFeature  功能
+     * @param methodFeature 操作
+     * @param userId        操作人
+     * @return true 需要监控
+     */
+    public boolean existsMonitor(String workspaceId, ClassFeature classFeature, MethodFeature methodFeature, String userId) {
+        return monitorUserOptService.existsMonitor(workspaceId, classFeature, methodFeature, userId);
     }
 
     /**
@@ -168,17 +210,12 @@ public class DbUserOperateLogService extends BaseWorkspaceService<UserOperateLog
      * @param userOperateLogV1 操作信息
      * @param cacheInfo        操作缓存相关
      */
-    private void checkMonitor(UserOperateLogV1 userOperateLogV1, OperateLogController.CacheInfo cacheInfo) {
-        ClassFeature classFeature = EnumUtil.fromString(ClassFeature.class, userOperateLogV1.getClassFeature(), null);
-        MethodFeature methodFeature = EnumUtil.fromString(MethodFeature.class, userOperateLogV1.getMethodFeature(), null);
-        UserModel optUserItem = userService.getByKey(userOperateLogV1.getUserId());
+    private void checkMonitor(UserOperateLogV1 userOperateLogV1, OperateLogController.CacheInfo cacheInfo, UserModel optUserItem) {
+        ClassFeature classFeature = cacheInfo.getClassFeature();
+        MethodFeature methodFeature = cacheInfo.getMethodFeature();
         if (classFeature == null || methodFeature == null || optUserItem == null) {
             return;
         }
-        Map<String, Object> dataMap = this.buildDataMsg(classFeature, cacheInfo, userOperateLogV1);
-        WorkspaceModel workspaceModel = workspaceService.getByKey(userOperateLogV1.getWorkspaceId());
-
-        String optTypeMsg = StrUtil.format(" 【{}】->【{}】", classFeature.getName(), methodFeature.getName());
         List<MonitorUserOptModel> monitorUserOptModels = monitorUserOptService.listByType(userOperateLogV1.getWorkspaceId(),
             classFeature,
             methodFeature,
@@ -186,6 +223,10 @@ public class DbUserOperateLogService extends BaseWorkspaceService<UserOperateLog
         if (CollUtil.isEmpty(monitorUserOptModels)) {
             return;
         }
+        // 有监控规则才查询相关数据
+        Map<String, Object> dataMap = this.buildDataMsg(classFeature, cacheInfo, userOperateLogV1);
+        WorkspaceModel workspaceModel = workspaceService.getByKey(userOperateLogV1.getWorkspaceId());
+        String optTypeMsg = StrUtil.format(" 【{}】->【{}】", classFeature.getName(), methodFeature.getName());
         String context = this.buildContent(optUserItem, dataMap, workspaceModel, optTypeMsg, userOperateLogV1);
         for (MonitorUserOptModel monitorUserOptModel : monitorUserOptModels) {
             List<String> notifyUser = monitorUserOptModel.notifyUser();
@@ -239,20 +280,170 @@ public class DbUserOperateLogService extends BaseWorkspaceService<UserOperateLog
     }
 
     /**
-     * 插入操作日志
+     * 提交操作日志，由后台线程生成日志并批量写入。队列满时最多等待 {@link #OFFER_TIMEOUT} 毫秒，仍然满则丢弃并计数
+     *
+     * @param userModel 操作人
+     * @param cacheInfo 当前操作相关信息
+     * @param supplier  生成日志，返回 null 不记录
+     * @return false 队列已满被丢弃
+     */
+    public boolean submit(UserModel userModel, OperateLogController.CacheInfo cacheInfo, Supplier<UserOperateLogV1> supplier) {
+        return this.offer(new OperateLogEvent(userModel, cacheInfo, supplier, null, null));
+    }
+
+    /**
+     * 提交修改操作日志，和新增日志按顺序执行
+     *
+     * @param entity 修改的数据
+     * @param where  条件
+     * @return false 队列已满被丢弃
+     */
+    public boolean submitUpdate(Entity entity, Entity where) {
+        return this.offer(new OperateLogEvent(null, null, null, entity, where));
+    }
+
+    private boolean offer(OperateLogEvent event) {
+        this.startWriter();
+        submitCount.incrementAndGet();
+        boolean offer;
+        try {
+            offer = logQueue.offer(event, OFFER_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            offer = false;
+        }
+        if (!offer) {
+            long drop = dropCount.incrementAndGet();
+            long now = SystemClock.now();
+            if (now - lastDropWarnTime > TimeUnit.MINUTES.toMillis(1)) {
+                lastDropWarnTime = now;
+                log.warn("操作日志队列已满，丢弃操作日志，累计丢弃：{}", drop);
+            }
+        }
+        return offer;
+    }
+
+    private void startWriter() {
+        if (writerThread != null) {
+            return;
+        }
+        synchronized (logQueue) {
+            if (writerThread != null) {
+                return;
+            }
+            Thread thread = ThreadUtil.newThread(this::runWriter, "jpom-operate-log", true);
+            thread.start();
+            writerThread = thread;
+        }
+    }
+
+    private void runWriter() {
+        List<OperateLogEvent> events = new ArrayList<>(BATCH_SIZE);
+        while (running || !logQueue.isEmpty()) {
+            try {
+                OperateLogEvent event = logQueue.poll(1, TimeUnit.SECONDS);
+                if (event == null) {
+                    continue;
+                }
+                events.add(event);
+                logQueue.drainTo(events, BATCH_SIZE - 1);
+                this.writeEvents(events);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("写入操作日志异常", e);
+            } finally {
+                events.clear();
+            }
+        }
+    }
+
+    /**
+     * 按顺序处理一批操作日志，连续的新增合并为一次批量插入
      *
-     * @param userOperateLogV1 日志信息
-     * @param cacheInfo        当前操作相关信息
+     * @param events 操作日志
      */
-    public void insert(UserOperateLogV1 userOperateLogV1, OperateLogController.CacheInfo cacheInfo) {
-        super.insert(userOperateLogV1);
-        ThreadUtil.execute(() -> {
+    private void writeEvents(List<OperateLogEvent> events) {
+        List<OperateLogEvent> inserts = new ArrayList<>(events.size());
+        for (OperateLogEvent event : events) {
+            if (event.where != null) {
+                this.flushInserts(inserts);
+                try {
+                    super.update(event.entity, event.where);
+                } catch (Exception e) {
+                    failCount.incrementAndGet();
+                    log.error("修改操作日志异常", e);
+                }
+                continue;
+            }
+            try {
+                event.log = event.supplier.get();
+            } catch (Exception e) {
+                failCount.incrementAndGet();
+                log.error("生成操作日志异常", e);
+                continue;
+            }
+            if (event.log != null) {
+                inserts.add(event);
+            }
+        }
+        this.flushInserts(inserts);
+    }
+
+    private void flushInserts(List<OperateLogEvent> inserts) {
+        if (inserts.isEmpty()) {
+            return;
+        }
+        List<UserOperateLogV1> list = inserts.stream().map(event -> event.log).collect(Collectors.toList());
+        try {
+            BaseServerController.resetInfo(UserModel.EMPTY);
+            super.insert(list);
+            writeCount.addAndGet(list.size());
+            batchCount.incrementAndGet();
+        } catch (Exception e) {
+            failCount.addAndGet(list.size());
+            log.error("批量写入操作日志异常", e);
+            inserts.clear();
+            return;
+        } finally {
+            BaseServerController.removeEmpty();
+        }
+        for (OperateLogEvent event : inserts) {
             try {
-                this.checkMonitor(userOperateLogV1, cacheInfo);
+                this.checkMonitor(event.log, event.cacheInfo, event.userModel);
             } catch (Exception e) {
                 log.error("执行操作监控错误", e);
             }
-        });
+        }
+        inserts.clear();
+    }
+
+    /**
+     * 操作日志队列统计
+     *
+     * @return map
+     */
+    public Map<String, Object> getQueueStat() {
+        Map<String, Object> map = new HashMap<>(8);
+        map.put("queueSize", logQueue.size());
+        map.put("remainingCapacity", logQueue.remainingCapacity());
+        map.put("submitCount", submitCount.get());
+        map.put("dropCount", dropCount.get());
+        map.put("writeCount", writeCount.get());
+        map.put("failCount", failCount.get());
+        map.put("batchCount", batchCount.get());
+        return map;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        running = false;
+        Thread thread = writerThread;
+        if (thread != null) {
+            // 等待队列中的日志写入
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
     }
 
     @Override
@@ -281,4 +472,24 @@ public class DbUserOperateLogService extends BaseWorkspaceService<UserOperateLog
     protected String[] clearTimeColumns() {
         return new String[]{"optTime", "createTimeMillis"};
     }
+
+    /**
+     * 队列中的操作日志，新增或者修改
+     */
+    private static class OperateLogEvent {
+        private final UserModel userModel;
+        private final OperateLogController.CacheInfo cacheInfo;
+        private final Supplier<UserOperateLogV1> supplier;
+        private final Entity entity;
+        private final Entity where;
+        private UserOperateLogV1 log;
+
+        private OperateLogEvent(UserModel userModel, OperateLogController.CacheInfo cacheInfo, Supplier<UserOperateLogV1> supplier, Entity entity, Entity where) {
+            this.userModel = userModel;
+            this.cacheInfo = cacheInfo;
+            this.supplier = supplier;
+            this.entity = entity;
+            this.where = where;
+        }
+    }
 }
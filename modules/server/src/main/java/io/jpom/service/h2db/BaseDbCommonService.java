@@ -22,10 +22,11 @@
  */
 package io.jpom.service.h2db;
 
-import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.lang.func.VoidFunc1;
 import cn.hutool.core.util.PageUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.core.util.TypeUtil;
@@ -35,6 +36,7 @@ import cn.hutool.db.Page;
 import cn.hutool.db.PageResult;
 import cn.hutool.db.sql.Condition;
 import cn.hutool.db.sql.Order;
+import cn.jiangzeyin.common.spring.SpringUtil;
 import io.jpom.model.PageResultDto;
 import io.jpom.system.JpomRuntimeException;
 import io.jpom.system.db.DbConfig;
@@ -44,8 +46,12 @@ import org.h2.jdbc.JdbcSQLNonTransientException;
 import org.h2.mvstore.MVStoreException;
 import org.springframework.util.Assert;
 
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -71,6 +77,18 @@ public abstract class BaseDbCommonService<T> {
      * 主键
      */
     protected final String key;
+    /**
+     * 主键查询缓存，{@link #keyCacheSize()} 大于 0 开启
+     */
+    private volatile KeyCache keyCache;
+    /**
+     * 主键查询缓存的过期时间
+     */
+    private static final long KEY_CACHE_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+    /**
+     * 当前线程事务中数据有变动的 service，事务结束后再刷新一次缓存
+     */
+    private static final ThreadLocal<Set<BaseDbCommonService<?>>> TX_CHANGED = new ThreadLocal<>();
 
     @SuppressWarnings("unchecked")
     public BaseDbCommonService(String tableName, String key) {
@@ -114,6 +132,7 @@ public abstract class BaseDbCommonService<T> {
         try {
             Entity entity = this.dataBeanToEntity(t);
             db.insert(entity);
+            this.refreshCache();
         } catch (Exception e) {
             throw warpException(e);
         }
@@ -138,6 +157,7 @@ public abstract class BaseDbCommonService<T> {
         try {
             List<Entity> entities = t.stream().map(this::dataBeanToEntity).collect(Collectors.toList());
             db.insert(entities);
+            this.refreshCache();
         } catch (Exception e) {
             throw warpException(e);
         }
@@ -149,12 +169,10 @@ public abstract class BaseDbCommonService<T> {
      * @param data 实体对象
      * @return entity
      */
+    @SuppressWarnings("unchecked")
     public Entity dataBeanToEntity(T data) {
-        Entity entity = new Entity(tableName);
         // 转换为 map
-        Map<String, Object> beanToMap = BeanUtil.beanToMap(data, new LinkedHashMap<>(), true, s -> StrUtil.format("`{}`", s));
-        entity.putAll(beanToMap);
-        return entity;
+        return EntityMapper.of((Class<T>) data.getClass()).toEntity(data, tableName);
     }
 
     /**
@@ -173,7 +191,9 @@ public abstract class BaseDbCommonService<T> {
         db.setWrapper((Character) null);
         entity.setTableName(tableName);
         try {
-            return db.insert(entity);
+            int count = db.insert(entity);
+            this.refreshCache();
+            return count;
         } catch (Exception e) {
             throw warpException(e);
         }
@@ -210,7 +230,9 @@ public abstract class BaseDbCommonService<T> {
         entity.setTableName(tableName);
         where.setTableName(tableName);
         try {
-            return db.update(entity, where);
+            int count = db.update(entity, where);
+            this.refreshCache();
+            return count;
         } catch (Exception e) {
             throw warpException(e);
         }
@@ -255,22 +277,58 @@ public abstract class BaseDbCommonService<T> {
         }
         Entity where = new Entity(tableName);
         where.set(key, keyValue);
+        if (consumer != null) {
+            consumer.accept(where);
+        }
+        KeyCache keyCache = this.getKeyCache();
         Entity entity;
+        if (keyCache == null || !KeyCache.support(where, key)) {
+            entity = this.getEntity(where);
+        } else {
+            entity = keyCache.get(keyValue, where, () -> this.getEntity(new Entity(tableName).set(key, keyValue)));
+        }
+        T entityToBean = this.entityToBean(entity, this.tClass);
+        if (fill) {
+            this.fillSelectResult(entityToBean);
+        }
+        return entityToBean;
+    }
+
+    Entity getEntity(Entity where) {
         try {
             Db db = Db.use();
             db.setWrapper((Character) null);
-            if (consumer != null) {
-                consumer.accept(where);
-            }
-            entity = db.get(where);
+            return db.get(where);
         } catch (Exception e) {
             throw warpException(e);
         }
-        T entityToBean = this.entityToBean(entity, this.tClass);
-        if (fill) {
-            this.fillSelectResult(entityToBean);
+    }
+
+    /**
+     * 按主键缓存的最大数据条数，大于 0 开启主键查询缓存（适用于数据量少、修改不频繁的表）。
+     * 数据通过当前 service 修改后整表缓存失效，缓存会在 {@link #KEY_CACHE_TIMEOUT} 后过期
+     *
+     * @return 默认不缓存
+     */
+    protected int keyCacheSize() {
+        return 0;
+    }
+
+    private KeyCache getKeyCache() {
+        KeyCache cache = this.keyCache;
+        if (cache != null) {
+            return cache;
+        }
+        int size = this.keyCacheSize();
+        if (size <= 0) {
+            return null;
+        }
+        synchronized (this) {
+            if (this.keyCache == null) {
+                this.keyCache = new KeyCache(size);
+            }
+            return this.keyCache;
         }
-        return entityToBean;
     }
 
     /**
@@ -285,10 +343,7 @@ public abstract class BaseDbCommonService<T> {
         if (entity == null) {
             return null;
         }
-        CopyOptions copyOptions = new CopyOptions();
-        copyOptions.setIgnoreError(true);
-        copyOptions.setIgnoreCase(true);
-        return BeanUtil.toBean(entity, rClass, copyOptions);
+        return EntityMapper.of(rClass).toBean(entity);
     }
 
     /**
@@ -301,10 +356,7 @@ public abstract class BaseDbCommonService<T> {
         if (entity == null) {
             return null;
         }
-        CopyOptions copyOptions = new CopyOptions();
-        copyOptions.setIgnoreError(true);
-        copyOptions.setIgnoreCase(true);
-        T toBean = BeanUtil.toBean(entity, this.tClass, copyOptions);
+        T toBean = EntityMapper.of(this.tClass).toBean(entity);
         this.fillSelectResult(toBean);
         return toBean;
     }
@@ -365,7 +417,9 @@ public abstract class BaseDbCommonService<T> {
         try {
             Db db = Db.use();
             db.setWrapper((Character) null);
-            return db.del(where);
+            int count = db.del(where);
+            this.refreshCache();
+            return count;
         } catch (Exception e) {
             throw warpException(e);
         }
@@ -599,7 +653,9 @@ public abstract class BaseDbCommonService<T> {
             return 0;
         }
         try {
-            return Db.use().execute(sql, params);
+            int count = Db.use().execute(sql, params);
+            this.refreshCache();
+            return count;
         } catch (Exception e) {
             throw warpException(e);
         }
@@ -671,6 +727,169 @@ public abstract class BaseDbCommonService<T> {
     protected void fillSelectResult(T data) {
     }
 
+    /**
+     * 数据发生变化（新增、修改、删除、执行 sql）后的回调，子类可以用来刷新缓存。
+     * 通过 {@link #tx(VoidFunc1)} 执行的事务提交后还会再回调一次
+     */
+    protected void onDataChange() {
+    }
+
+    /**
+     * 数据库整体变动（如还原备份）后刷新所有 service 的缓存
+     */
+    public static void refreshAllCache() {
+        SpringUtil.getApplicationContext().getBeansOfType(BaseDbCommonService.class).values().forEach(BaseDbCommonService::refreshCache);
+    }
+
+    /**
+     * 在事务中执行，事务提交（或回滚）后刷新事务中有数据变动的 service 缓存。
+     * 事务中修改时立即刷新的缓存可能被其他线程读取到未提交前的数据重新填充
+     *
+     * @param func 事务内容
+     * @throws SQLException 执行异常
+     */
+    public static void tx(VoidFunc1<Db> func) throws SQLException {
+        if (TX_CHANGED.get() != null) {
+            // 嵌套事务，由外层事务结束后统一刷新
+            Db.use().tx(func);
+            return;
+        }
+        Set<BaseDbCommonService<?>> changed = new LinkedHashSet<>();
+        TX_CHANGED.set(changed);
+        try {
+            Db.use().tx(func);
+        } finally {
+            TX_CHANGED.remove();
+            changed.forEach(BaseDbCommonService::refreshCache);
+        }
+    }
+
+    private void refreshCache() {
+        KeyCache cache = this.keyCache;
+        if (cache != null) {
+            cache.clear();
+        }
+        this.onDataChange();
+        Set<BaseDbCommonService<?>> changed = TX_CHANGED.get();
+        if (changed != null) {
+            changed.add(this);
+        }
+    }
+
+    /**
+     * 主键查询缓存统计
+     *
+     * @return list
+     */
+    public static List<Map<String, Object>> keyCacheStat() {
+        return SpringUtil.getApplicationContext().getBeansOfType(BaseDbCommonService.class).values()
+            .stream()
+            .filter(service -> service.keyCache != null)
+            .map(service -> {
+                Map<String, Object> map = service.keyCache.stat();
+                map.put("tableName", service.tableName);
+                return map;
+            })
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * 主键查询缓存，缓存数据库原始行，每次查询重新转换为实体，避免调用方修改缓存的实体
+     */
+    private static class KeyCache {
+        private final LRUCache<String, Entity> cache;
+        /**
+         * 数据变动版本，查询期间数据变动不放入缓存
+         */
+        private final AtomicLong version = new AtomicLong();
+        private final AtomicLong hitCount = new AtomicLong();
+        private final AtomicLong missCount = new AtomicLong();
+
+        private KeyCache(int size) {
+            this.cache = CacheUtil.newLRUCache(size, KEY_CACHE_TIMEOUT);
+        }
+
+        /**
+         * 查询缓存，再判断附加的查询条件
+         *
+         * @param keyValue 主键值
+         * @param where    完整的查询条件
+         * @param supplier 按主键查询数据库
+         * @return 数据
+         */
+        private Entity get(String keyValue, Entity where, Supplier<Entity> supplier) {
+            Entity entity = cache.get(keyValue, false);
+            if (entity == null) {
+                missCount.incrementAndGet();
+                long loadVersion = version.get();
+                entity = supplier.get();
+                if (entity == null) {
+                    return null;
+                }
+                synchronized (version) {
+                    if (version.get() == loadVersion) {
+                        cache.put(keyValue, entity);
+                    }
+                }
+            } else {
+                hitCount.incrementAndGet();
+            }
+            return this.match(entity, where) ? entity : null;
+        }
+
+        /**
+         * 判断查询条件是否可以使用缓存，附加条件只支持字符串相等
+         *
+         * @param where 查询条件
+         * @param key   主键
+         * @return true 可以使用缓存
+         */
+        private static boolean support(Entity where, String key) {
+            for (Map.Entry<String, Object> entry : where.entrySet()) {
+                if (!StrUtil.equalsIgnoreCase(StrUtil.unWrap(entry.getKey(), '`'), key) && !(entry.getValue() instanceof CharSequence)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean match(Entity entity, Entity where) {
+            for (Map.Entry<String, Object> entry : where.entrySet()) {
+                Object value = entry.getValue();
+                Object entityValue = this.getIgnoreCase(entity, StrUtil.unWrap(entry.getKey(), '`'));
+                if (!StrUtil.equals((CharSequence) value, StrUtil.toStringOrNull(entityValue))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private Object getIgnoreCase(Entity entity, String name) {
+            for (Map.Entry<String, Object> entry : entity.entrySet()) {
+                if (StrUtil.equalsIgnoreCase(entry.getKey(), name)) {
+                    return entry.getValue();
+                }
+            }
+            return null;
+        }
+
+        private void clear() {
+            synchronized (version) {
+                version.incrementAndGet();
+                cache.clear();
+            }
+        }
+
+        private Map<String, Object> stat() {
+            Map<String, Object> map = new HashMap<>(8);
+            map.put("size", cache.size());
+            map.put("capacity", cache.capacity());
+            map.put("hitCount", hitCount.get());
+            map.put("missCount", missCount.get());
+            return map;
+        }
+    }
+
     /**
      * 包裹异常
      *
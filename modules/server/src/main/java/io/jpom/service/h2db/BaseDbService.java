@@ -29,7 +29,6 @@ import cn.hutool.core.date.DateTime;
 import cn.hutool.core.date.DateUtil;
 import cn.hutool.core.date.SystemClock;
 import cn.hutool.core.map.MapUtil;
-import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.*;
 import cn.hutool.db.Entity;
 import cn.hutool.db.Page;
@@ -43,6 +42,7 @@ import io.jpom.model.BaseDbModel;
 import io.jpom.model.BaseUserModifyDbModel;
 import io.jpom.model.PageResultDto;
 import io.jpom.model.user.UserModel;
+import io.jpom.system.db.DbConfig;
 import io.jpom.system.extconf.DbExtConfig;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.util.Assert;
@@ -50,8 +50,13 @@ import org.springframework.util.Assert;
 import javax.servlet.http.HttpServletRequest;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -73,6 +78,16 @@ public abstract class BaseDbService<T extends BaseDbModel> extends BaseDbCommonS
         new Order("modifyTimeMillis", Direction.DESC)
     };
 
+    /**
+     * 时间字段的统计，用于自动清理数据
+     */
+    private final Map<String, TimeBucketCounter> timeBucketCounters = new ConcurrentHashMap<>();
+    /**
+     * 上一次清理后新增的条数
+     */
+    private final AtomicLong pendingClearCount = new AtomicLong();
+    private final Lock retentionLock = new ReentrantLock();
+
     public BaseDbService() {
         super(null, ServerConst.ID_STR);
     }
@@ -88,7 +103,7 @@ public abstract class BaseDbService<T extends BaseDbModel> extends BaseDbCommonS
     public void insert(T t) {
         this.fillInsert(t);
         super.insert(t);
-        this.executeClear();
+        this.afterInsert(Collections.singletonList(t));
     }
 
     /**
@@ -103,6 +118,17 @@ public abstract class BaseDbService<T extends BaseDbModel> extends BaseDbCommonS
         }
     }
 
+    /**
+     * 批量先尝试更新，更新失败插入。在事务中调用时共用一个数据库连接
+     *
+     * @param list 数据
+     */
+    public void upsert(Collection<T> list) {
+        for (T t : list) {
+            this.upsert(t);
+        }
+    }
+
     /**
      * 不填充 插入
      *
@@ -120,7 +146,24 @@ public abstract class BaseDbService<T extends BaseDbModel> extends BaseDbCommonS
         // def create time
         t.forEach(this::fillInsert);
         super.insert(t);
-        this.executeClear();
+        this.afterInsert(t);
+    }
+
+    /**
+     * 插入数据后累计时间字段的统计，清理由定时任务统一执行
+     *
+     * @param list 数据
+     */
+    private void afterInsert(Collection<T> list) {
+        timeBucketCounters.forEach((timeColumn, counter) -> {
+            for (T t : list) {
+                Long time = Convert.toLong(ReflectUtil.getFieldValue(t, timeColumn), null);
+                if (time != null) {
+                    counter.add(time);
+                }
+            }
+        });
+        pendingClearCount.addAndGet(list.size());
     }
 
     /**
@@ -200,6 +243,16 @@ public abstract class BaseDbService<T extends BaseDbModel> extends BaseDbCommonS
         return this.updateById(t);
     }
 
+    @Override
+    public int del(Entity where) {
+        int count = super.del(where);
+        if (count > 0) {
+            // 统计数据已经不准确，下一次清理时重新加载
+            timeBucketCounters.clear();
+        }
+        return count;
+    }
+
     public List<T> list() {
         return super.listByBean(ReflectUtil.newInstance(this.tClass));
     }
@@ -364,15 +417,57 @@ public abstract class BaseDbService<T extends BaseDbModel> extends BaseDbCommonS
     }
 
     /**
-     * 执行清理
+     * 执行自动清理，由定时任务统一调用。按条数清理只在上一次清理后有新增数据时执行
      */
-    private void executeClear() {
-        DbExtConfig dbExtConfig = SpringUtil.getBean(DbExtConfig.class);
-        int h2DbLogStorageCount = dbExtConfig.getLogStorageCount();
-        if (h2DbLogStorageCount <= 0) {
+    public void executeRetention() {
+        if (!DbConfig.getInstance().isInit()) {
+            return;
+        }
+        if (!retentionLock.tryLock()) {
+            // 上一次清理还没有结束
             return;
         }
-        this.executeClearImpl(h2DbLogStorageCount);
+        try {
+            DbExtConfig dbExtConfig = SpringUtil.getBean(DbExtConfig.class);
+            int logStorageDays = ObjectUtil.defaultIfNull(dbExtConfig.getLogStorageDays(), 0);
+            if (logStorageDays > 0) {
+                this.executeClearDays(logStorageDays);
+            }
+            if (pendingClearCount.getAndSet(0) <= 0) {
+                return;
+            }
+            int h2DbLogStorageCount = ObjectUtil.defaultIfNull(dbExtConfig.getLogStorageCount(), 0);
+            if (h2DbLogStorageCount <= 0) {
+                return;
+            }
+            this.executeClearImpl(h2DbLogStorageCount);
+        } finally {
+            retentionLock.unlock();
+        }
+    }
+
+    /**
+     * 按天清理，整天删除超过保留天数的数据
+     *
+     * @param days 保留天数
+     */
+    private void executeClearDays(int days) {
+        long time = (TimeBucketCounter.bucket(SystemClock.now()) - days + 1) * TimeBucketCounter.BUCKET_MILLIS;
+        this.executeClearDaysImpl(time);
+    }
+
+    /**
+     * 按天清理实现，删除数据时需要同步清理关联文件的需要重写并使用 {@link #loopClearBefore}
+     *
+     * @param time 时间（不包含），之前的数据都需要清理
+     */
+    protected void executeClearDaysImpl(long time) {
+        for (String timeColumn : this.clearTimeColumns()) {
+            int count = this.delBeforeTime(timeColumn, time);
+            if (count > 0) {
+                log.debug("{} 清理了 {} 之前的 {}条数据", super.getTableName(), time, count);
+            }
+        }
     }
 
     /**
@@ -384,9 +479,7 @@ public abstract class BaseDbService<T extends BaseDbModel> extends BaseDbCommonS
         String[] strings = this.clearTimeColumns();
         for (String timeColumn : strings) {
             this.autoClear(timeColumn, h2DbLogStorageCount, time -> {
-                Entity entity = Entity.create(super.getTableName());
-                entity.set(timeColumn, "< " + time);
-                int count = super.del(entity);
+                int count = this.delBeforeTime(timeColumn, time);
                 if (count > 0) {
                     log.debug("{} 清理了 {}条数据", super.getTableName(), count);
                 }
@@ -414,13 +507,95 @@ public abstract class BaseDbService<T extends BaseDbModel> extends BaseDbCommonS
         if (maxCount <= 0) {
             return;
         }
-        ThreadUtil.execute(() -> {
-            long timeValue = this.getLastTimeValue(timeColumn, maxCount, null);
-            if (timeValue <= 0) {
-                return;
+        long timeValue = this.getClearTimeValue(timeColumn, maxCount);
+        if (timeValue <= 0) {
+            return;
+        }
+        consumer.accept(timeValue);
+    }
+
+    /**
+     * 删除指定时间之前的数据，并修正时间字段的统计
+     *
+     * @param timeColumn 时间字段
+     * @param time       时间（不包含）
+     * @return 删除的条数
+     */
+    private int delBeforeTime(String timeColumn, long time) {
+        Entity entity = Entity.create(super.getTableName());
+        entity.set(timeColumn, "< " + time);
+        // 不经过 del 方法，避免清空统计
+        int count = super.del(entity);
+        TimeBucketCounter counter = timeBucketCounters.get(timeColumn);
+        if (counter != null && count > 0) {
+            long bucket = TimeBucketCounter.bucket(time);
+            counter.removeBefore(bucket);
+            long start = bucket * TimeBucketCounter.BUCKET_MILLIS;
+            if (time > start) {
+                // 边界的桶只删除了一部分
+                String sql = StrUtil.format("SELECT 1 FROM {} WHERE {} >= ? AND {} < ?", super.getTableName(), timeColumn, timeColumn);
+                counter.put(bucket, super.count(sql, start, start + TimeBucketCounter.BUCKET_MILLIS));
             }
-            consumer.accept(timeValue);
-        });
+        }
+        return count;
+    }
+
+    /**
+     * 通过时间字段的统计计算保留指定条数需要的时间水位，只需要在边界所在的一天内按索引查询
+     *
+     * @param timeColumn 时间字段
+     * @param maxCount   最大数量
+     * @return 时间，小于等于 0 不需要清理
+     */
+    private long getClearTimeValue(String timeColumn, int maxCount) {
+        TimeBucketCounter counter = this.loadTimeBucketCounter(timeColumn);
+        if (counter == null) {
+            return 0L;
+        }
+        long[] boundary = counter.boundary(maxCount);
+        if (boundary == null) {
+            return 0L;
+        }
+        long start = boundary[0] * TimeBucketCounter.BUCKET_MILLIS;
+        long end = start + TimeBucketCounter.BUCKET_MILLIS;
+        if (boundary[1] <= 0) {
+            return end;
+        }
+        String sql = StrUtil.format("SELECT {} FROM {} WHERE {} >= ? AND {} < ? ORDER BY {} DESC LIMIT 1 OFFSET ?",
+            timeColumn, super.getTableName(), timeColumn, timeColumn, timeColumn);
+        List<Entity> list = super.query(sql, start, end, boundary[1] - 1);
+        Entity entity = CollUtil.getFirst(list);
+        if (entity == null) {
+            // 统计不准确，下一次清理时重新加载
+            timeBucketCounters.remove(timeColumn);
+            return 0L;
+        }
+        return Convert.toLong(CollUtil.getFirst(entity.values()), 0L);
+    }
+
+    /**
+     * 加载时间字段按天的统计
+     *
+     * @param timeColumn 时间字段
+     * @return 统计
+     */
+    private TimeBucketCounter loadTimeBucketCounter(String timeColumn) {
+        TimeBucketCounter counter = timeBucketCounters.get(timeColumn);
+        if (counter != null && !counter.isExpired()) {
+            return counter;
+        }
+        String bucketSql = StrUtil.format("FLOOR({} / {})", timeColumn, TimeBucketCounter.BUCKET_MILLIS);
+        String sql = StrUtil.format("SELECT {} AS B, COUNT(1) AS C FROM {} WHERE {} IS NOT NULL GROUP BY {}",
+            bucketSql, super.getTableName(), timeColumn, bucketSql);
+        List<Entity> list = super.query(sql);
+        if (list == null) {
+            return null;
+        }
+        Map<Long, Long> buckets = list.stream()
+            .collect(Collectors.toMap(entity -> entity.getLong("B"), entity -> entity.getLong("C")));
+        counter = new TimeBucketCounter(buckets);
+        timeBucketCounters.put(timeColumn, counter);
+        return counter;
     }
 
     /**
@@ -457,39 +632,53 @@ public abstract class BaseDbService<T extends BaseDbModel> extends BaseDbCommonS
     }
 
     /**
-     * 自动清理数据接口
+     * 自动清理数据接口，从最旧的数据开始分批删除
      *
      * @param timeClo   时间字段
      * @param maxCount  最大数量
+     * @param whereCon  添加查询条件回调，为空时通过时间字段的统计计算
      * @param predicate 查询出超过范围的时间,回调
      */
     protected void autoLoopClear(String timeClo, int maxCount, Consumer<Entity> whereCon, Predicate<T> predicate) {
         if (maxCount <= 0) {
             return;
         }
-        ThreadUtil.execute(() -> {
-            Entity entity = Entity.create(super.getTableName());
-            long timeValue = this.getLastTimeValue(timeClo, maxCount, whereCon);
-            if (timeValue <= 0) {
+        long timeValue = whereCon == null ? this.getClearTimeValue(timeClo, maxCount) : this.getLastTimeValue(timeClo, maxCount, whereCon);
+        this.loopClearBefore(timeClo, timeValue, whereCon, predicate);
+    }
+
+    /**
+     * 清理指定时间之前的数据，从最旧的数据开始分批删除
+     *
+     * @param timeClo   时间字段
+     * @param timeValue 时间（不包含），小于等于 0 不清理
+     * @param whereCon  添加查询条件回调
+     * @param predicate 查询出超过范围的数据回调，返回 false 的数据不删除
+     */
+    protected void loopClearBefore(String timeClo, long timeValue, Consumer<Entity> whereCon, Predicate<T> predicate) {
+        if (timeValue <= 0) {
+            return;
+        }
+        Entity entity = Entity.create(super.getTableName());
+        if (whereCon != null) {
+            // 条件
+            whereCon.accept(entity);
+        }
+        entity.set(timeClo, "< " + timeValue);
+        while (true) {
+            Page page = new Page(1, 50);
+            page.addOrder(new Order(timeClo, Direction.ASC));
+            List<T> list = super.listPageOnlyResult(entity, page);
+            if (list.isEmpty()) {
                 return;
             }
-            if (whereCon != null) {
-                // 条件
-                whereCon.accept(entity);
-            }
-            entity.set(timeClo, "< " + timeValue);
-            while (true) {
-                Page page = new Page(1, 50);
-                page.addOrder(new Order(timeClo, Direction.DESC));
-                PageResultDto<T> pageResult = super.listPage(entity, page);
-                if (pageResult.isEmpty()) {
-                    return;
-                }
-//                pageResult.each(consumer);
-                List<String> ids = pageResult.getResult().stream().filter(predicate).map(BaseDbModel::getId).collect(Collectors.toList());
-                super.delByKey(ids, null);
+            List<String> ids = list.stream().filter(predicate).map(BaseDbModel::getId).collect(Collectors.toList());
+            if (ids.isEmpty()) {
+                // 这一批都不能删除，等待下一次清理
+                return;
             }
-        });
+            super.delByKey(ids, null);
+        }
     }
 
     /**
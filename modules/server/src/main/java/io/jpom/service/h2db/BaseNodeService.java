@@ -22,6 +22,8 @@
  */
 package io.jpom.service.h2db;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.ObjectUtil;
@@ -52,6 +54,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -64,6 +67,10 @@ public abstract class BaseNodeService<T extends BaseNodeModel> extends BaseWorks
     protected final NodeService nodeService;
     protected final WorkspaceService workspaceService;
     private final String dataName;
+    /**
+     * 数据所属的工作空间，权限校验使用。key: 节点ID:数据ID
+     */
+    private final LRUCache<String, String> dataWorkspaceCache = CacheUtil.newLRUCache(2000, TimeUnit.MINUTES.toMillis(10));
 
     protected BaseNodeService(NodeService nodeService,
                               WorkspaceService workspaceService,
@@ -310,6 +317,35 @@ public abstract class BaseNodeService<T extends BaseNodeModel> extends BaseWorks
         return super.queryByBean(data);
     }
 
+    /**
+     * 查询数据所属的工作空间，结果会缓存，数据变动后清空
+     *
+     * @param nodeId 节点ID
+     * @param dataId 数据ID
+     * @return 工作空间ID，数据不存在返回 null
+     */
+    public String getDataWorkspaceId(String nodeId, String dataId) {
+        String key = nodeId + StrUtil.COLON + dataId;
+        String workspaceId = dataWorkspaceCache.get(key, false);
+        if (workspaceId != null) {
+            return workspaceId;
+        }
+        T data = this.getData(nodeId, dataId);
+        if (data == null) {
+            return null;
+        }
+        workspaceId = data.getWorkspaceId();
+        if (workspaceId != null) {
+            dataWorkspaceCache.put(key, workspaceId);
+        }
+        return workspaceId;
+    }
+
+    @Override
+    protected void onDataChange() {
+        dataWorkspaceCache.clear();
+    }
+
     /**
      * 查询远端项目
      *
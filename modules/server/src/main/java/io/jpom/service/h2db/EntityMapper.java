@@ -0,0 +1,233 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service.h2db;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.PropDesc;
+import cn.hutool.core.convert.BasicType;
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.map.CaseInsensitiveMap;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.core.util.TypeUtil;
+import cn.hutool.db.Entity;
+import io.jpom.system.JpomRuntimeException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 实体和数据库 Entity 互相转换，每个实体类只解析一次属性（和 BeanUtil 解析的属性一致），之后使用 MethodHandle 读写属性。
+ * <p>
+ * 实体转 Entity 等同于 BeanUtil.beanToMap(data, map, true, s -> "`" + s + "`")，
+ * Entity 转实体等同于 BeanUtil.toBean(entity, class, 忽略大小写、忽略错误)
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class EntityMapper<T> {
+
+    private static final Map<Class<?>, EntityMapper<?>> MAPPER_MAP = new ConcurrentHashMap<>();
+
+    private final Class<T> beanClass;
+    private final MethodHandle constructor;
+    /**
+     * 可读的属性，按 BeanUtil 的属性顺序
+     */
+    private final Reader[] readers;
+    /**
+     * 可写的属性，属性名忽略大小写
+     */
+    private final Map<String, Writer> writerMap;
+
+    /**
+     * 获取实体类的转换器
+     *
+     * @param beanClass 实体类
+     * @param <T>       泛型
+     * @return 转换器
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> EntityMapper<T> of(Class<T> beanClass) {
+        return (EntityMapper<T>) MAPPER_MAP.computeIfAbsent(beanClass, EntityMapper::new);
+    }
+
+    private EntityMapper(Class<T> beanClass) {
+        this.beanClass = beanClass;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            this.constructor = lookup.unreflectConstructor(beanClass.getDeclaredConstructor());
+        } catch (ReflectiveOperationException e) {
+            throw new JpomRuntimeException("实体类没有无参构造方法：" + beanClass, e);
+        }
+        List<Reader> readerList = new ArrayList<>();
+        Map<String, Writer> writerMap = new CaseInsensitiveMap<>();
+        for (PropDesc prop : BeanUtil.getBeanDesc(beanClass).getProps()) {
+            String fieldName = prop.getFieldName();
+            if (prop.isReadable(true)) {
+                MethodHandle getter = this.getter(lookup, prop);
+                if (getter != null) {
+                    readerList.add(new Reader(StrUtil.format("`{}`", fieldName), getter));
+                }
+            }
+            if (prop.isWritable(true)) {
+                MethodHandle setter = this.setter(lookup, prop);
+                if (setter != null) {
+                    Type fieldType = TypeUtil.getActualType(beanClass, prop.getFieldType());
+                    writerMap.put(fieldName, new Writer(setter, fieldType, BasicType.wrap(prop.getFieldClass())));
+                }
+            }
+        }
+        this.readers = readerList.toArray(new Reader[0]);
+        this.writerMap = writerMap;
+    }
+
+    private MethodHandle getter(MethodHandles.Lookup lookup, PropDesc prop) {
+        try {
+            Method getter = prop.getGetter();
+            if (getter != null) {
+                getter.setAccessible(true);
+                return lookup.unreflect(getter);
+            }
+            Field field = prop.getField();
+            field.setAccessible(true);
+            return lookup.unreflectGetter(field);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private MethodHandle setter(MethodHandles.Lookup lookup, PropDesc prop) {
+        try {
+            Method setter = prop.getSetter();
+            if (setter != null) {
+                setter.setAccessible(true);
+                return lookup.unreflect(setter);
+            }
+            Field field = prop.getField();
+            field.setAccessible(true);
+            return lookup.unreflectSetter(field);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 实体转 Entity，忽略 null 值，字段名使用 ` 包裹
+     *
+     * @param data      实体
+     * @param tableName 表名
+     * @return entity
+     */
+    public Entity toEntity(T data, String tableName) {
+        Entity entity = new Entity(tableName);
+        for (Reader reader : readers) {
+            Object value;
+            try {
+                value = reader.getter.invoke(data);
+            } catch (Throwable e) {
+                throw new JpomRuntimeException("读取属性异常：" + beanClass + " " + reader.name, e);
+            }
+            if (value != null) {
+                entity.put(reader.name, value);
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * Entity 转实体，字段名忽略大小写，类型不一致时转换，转换失败忽略
+     *
+     * @param entity 数据库数据
+     * @return 实体
+     */
+    @SuppressWarnings("unchecked")
+    public T toBean(Map<String, Object> entity) {
+        T bean;
+        try {
+            bean = (T) constructor.invoke();
+        } catch (Throwable e) {
+            throw new JpomRuntimeException("创建实体异常：" + beanClass, e);
+        }
+        for (Map.Entry<String, Object> entry : entity.entrySet()) {
+            String key = entry.getKey();
+            if (key == null) {
+                continue;
+            }
+            Writer writer = writerMap.get(key);
+            if (writer == null && StrUtil.contains(key, StrUtil.C_UNDERLINE)) {
+                writer = writerMap.get(StrUtil.toCamelCase(key));
+            }
+            if (writer == null) {
+                continue;
+            }
+            writer.write(bean, entry.getValue());
+        }
+        return bean;
+    }
+
+    private static class Reader {
+        private final String name;
+        private final MethodHandle getter;
+
+        private Reader(String name, MethodHandle getter) {
+            this.name = name;
+            this.getter = getter;
+        }
+    }
+
+    private static class Writer {
+        private final MethodHandle setter;
+        private final Type fieldType;
+        /**
+         * 基本类型转为包装类型
+         */
+        private final Class<?> fieldClass;
+
+        private Writer(MethodHandle setter, Type fieldType, Class<?> fieldClass) {
+            this.setter = setter;
+            this.fieldType = fieldType;
+            this.fieldClass = fieldClass;
+        }
+
+        private void write(Object bean, Object value) {
+            try {
+                if (value != null && !fieldClass.isInstance(value)) {
+                    value = Convert.convertWithCheck(fieldType, value, null, true);
+                    if (value != null && !fieldClass.isInstance(value)) {
+                        value = Convert.convertWithCheck(fieldClass, value, null, true);
+                    }
+                }
+                setter.invoke(bean, value);
+            } catch (Throwable ignored) {
+                // 和 BeanUtil 忽略错误一致
+            }
+        }
+    }
+}
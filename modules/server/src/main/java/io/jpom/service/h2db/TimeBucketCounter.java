@@ -0,0 +1,134 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service.h2db;
+
+import cn.hutool.core.date.SystemClock;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按天统计时间字段的数据条数
+ * <p>
+ * 插入数据时增量累计，清理数据时通过统计结果计算需要保留的时间水位，不需要每次排序分页查询整表
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class TimeBucketCounter {
+
+    /**
+     * 每一个统计桶的时间范围
+     */
+    public static final long BUCKET_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * 重新加载统计的间隔，修正其他途径删除数据导致的误差
+     */
+    private static final long RELOAD_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * 桶序号 -> 条数
+     */
+    private final TreeMap<Long, Long> buckets = new TreeMap<>();
+    private final long loadTime;
+    private long total;
+
+    public TimeBucketCounter(Map<Long, Long> buckets) {
+        buckets.forEach(this::put);
+        this.loadTime = SystemClock.now();
+    }
+
+    public static long bucket(long time) {
+        return Math.floorDiv(time, BUCKET_MILLIS);
+    }
+
+    /**
+     * 是否需要重新加载
+     *
+     * @return true 需要
+     */
+    public boolean isExpired() {
+        return SystemClock.now() - loadTime > RELOAD_MILLIS;
+    }
+
+    /**
+     * 新增数据
+     *
+     * @param time 时间
+     */
+    public synchronized void add(long time) {
+        buckets.merge(bucket(time), 1L, Long::sum);
+        total++;
+    }
+
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    /**
+     * 计算保留指定条数需要的边界桶
+     *
+     * @param maxCount 保留条数
+     * @return [桶序号, 该桶中需要保留的条数]，不需要清理返回 null
+     */
+    public synchronized long[] boundary(long maxCount) {
+        if (total <= maxCount) {
+            return null;
+        }
+        long keep = 0;
+        for (Map.Entry<Long, Long> entry : buckets.descendingMap().entrySet()) {
+            long count = entry.getValue();
+            if (keep + count > maxCount) {
+                return new long[]{entry.getKey(), maxCount - keep};
+            }
+            keep += count;
+        }
+        return null;
+    }
+
+    /**
+     * 删除指定桶之前的所有桶
+     *
+     * @param bucket 桶序号（不包含）
+     */
+    public synchronized void removeBefore(long bucket) {
+        Map<Long, Long> head = buckets.headMap(bucket);
+        for (Long count : head.values()) {
+            total -= count;
+        }
+        head.clear();
+    }
+
+    /**
+     * 修正指定桶的条数
+     *
+     * @param bucket 桶序号
+     * @param count  条数
+     */
+    public synchronized void put(long bucket, long count) {
+        Long old = count > 0 ? buckets.put(bucket, count) : buckets.remove(bucket);
+        total += count - (old == null ? 0 : old);
+    }
+}
@@ -30,7 +30,10 @@ import io.jpom.permission.MethodFeature;
 import io.jpom.service.h2db.BaseWorkspaceService;
 import org.springframework.stereotype.Service;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
@@ -41,6 +44,12 @@ import java.util.stream.Collectors;
 @Service
 public class MonitorUserOptService extends BaseWorkspaceService<MonitorUserOptModel> {
 
+    /**
+     * 开启的监控规则，数据变动后重新加载
+     */
+    private volatile List<MonitorRule> monitorRules;
+    private final AtomicLong rulesVersion = new AtomicLong();
+
     /**
      * 查询 对应操作的监控信息
      *
@@ -50,26 +59,82 @@ public class MonitorUserOptService extends BaseWorkspaceService<MonitorUserOptMo
      * @return list
      */
     public List<MonitorUserOptModel> listByType(String workspaceId, ClassFeature classFeature, MethodFeature methodFeature, String userId) {
-        MonitorUserOptModel where = new MonitorUserOptModel();
-        if (StrUtil.isNotEmpty(workspaceId)) {
-            // 没有工作空间查询全部
-            where.setWorkspaceId(workspaceId);
+        List<MonitorUserOptModel> list = this.getMonitorRules()
+            .stream()
+            .filter(monitorRule -> monitorRule.match(workspaceId, classFeature, methodFeature, userId))
+            .map(monitorRule -> monitorRule.model)
+            .collect(Collectors.toList());
+        return CollUtil.isEmpty(list) ? null : list;
+    }
+
+    /**
+     * 判断对应操作是否有开启的监控
+     *
+     * @param workspaceId   工作空间ID
+     * @param classFeature  功能
+     * @param methodFeature 操作
+     * @param userId        操作人
+     * @return true 需要监控
+     */
+    public boolean existsMonitor(String workspaceId, ClassFeature classFeature, MethodFeature methodFeature, String userId) {
+        for (MonitorRule monitorRule : this.getMonitorRules()) {
+            if (monitorRule.match(workspaceId, classFeature, methodFeature, userId)) {
+                return true;
+            }
         }
+        return false;
+    }
+
+    private List<MonitorRule> getMonitorRules() {
+        List<MonitorRule> rules = monitorRules;
+        if (rules != null) {
+            return rules;
+        }
+        long version = rulesVersion.get();
+        MonitorUserOptModel where = new MonitorUserOptModel();
         where.setStatus(true);
         List<MonitorUserOptModel> list = super.listByBean(where);
-        if (CollUtil.isEmpty(list)) {
-            return null;
+        rules = CollUtil.emptyIfNull(list).stream().map(MonitorRule::new).collect(Collectors.toList());
+        synchronized (rulesVersion) {
+            if (rulesVersion.get() == version) {
+                // 加载期间数据没有变动才缓存
+                monitorRules = rules;
+            }
+        }
+        return rules;
+    }
+
+    @Override
+    protected void onDataChange() {
+        synchronized (rulesVersion) {
+            rulesVersion.incrementAndGet();
+            monitorRules = null;
+        }
+    }
+
+    /**
+     * 解析后的监控规则
+     */
+    private static class MonitorRule {
+        private final MonitorUserOptModel model;
+        private final Set<ClassFeature> classFeatures;
+        private final Set<MethodFeature> methodFeatures;
+        private final Set<String> monitorUser;
+
+        private MonitorRule(MonitorUserOptModel model) {
+            this.model = model;
+            this.classFeatures = new HashSet<>(CollUtil.emptyIfNull(model.monitorFeature()));
+            this.methodFeatures = new HashSet<>(CollUtil.emptyIfNull(model.monitorOpt()));
+            this.monitorUser = new HashSet<>(CollUtil.emptyIfNull(model.monitorUser()));
         }
-        return list.stream().filter(monitorUserOptModel -> {
-            List<ClassFeature> classFeatures = monitorUserOptModel.monitorFeature();
-            List<MethodFeature> methodFeatures = monitorUserOptModel.monitorOpt();
-            boolean b = CollUtil.contains(classFeatures, classFeature) && CollUtil.contains(methodFeatures, methodFeature);
-            if (b) {
-                List<String> monitorUser = monitorUserOptModel.monitorUser();
-                return CollUtil.contains(monitorUser, userId);
+
+        private boolean match(String workspaceId, ClassFeature classFeature, MethodFeature methodFeature, String userId) {
+            if (StrUtil.isNotEmpty(workspaceId) && !StrUtil.equals(workspaceId, model.getWorkspaceId())) {
+                // 没有工作空间匹配全部
+                return false;
             }
-            return false;
-        }).collect(Collectors.toList());
+            return classFeatures.contains(classFeature) && methodFeatures.contains(methodFeature) && monitorUser.contains(userId);
+        }
     }
 
 //    public List<MonitorUserOptModel> listByType(UserOperateLogV1.OptType optType, String userId) {
@@ -62,6 +62,11 @@ import java.util.stream.Collectors;
 @Slf4j
 public class NodeService extends BaseGroupService<NodeModel> {
 
+    @Override
+    protected int keyCacheSize() {
+        return 500;
+    }
+
     private final SshService sshService;
     private final WorkspaceService workspaceService;
 
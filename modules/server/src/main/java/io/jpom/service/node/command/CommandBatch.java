@@ -0,0 +1,316 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service.node.command;
+
+import cn.hutool.core.date.SystemClock;
+import cn.hutool.core.util.ObjectUtil;
+import cn.hutool.core.util.StrUtil;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import io.jpom.model.data.CommandExecLogModel;
+import io.jpom.model.data.SshModel;
+import lombok.Getter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * ssh 命令批量执行的批次
+ * <p>
+ * 记录每台 ssh 的执行状态、退出码、耗时和最后几行输出，失败数超过最低成功率允许的数量后，
+ * 还没有开始的 ssh 不再执行。已经结束的执行项按数量或者定时分批保存
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class CommandBatch {
+
+    /**
+     * 保留的输出行数
+     */
+    private static final int TAIL_LINES = 20;
+    /**
+     * 保留的输出字符数（对应数据库字段长度）
+     */
+    private static final int TAIL_LENGTH = 2000;
+    /**
+     * 结束的数量达到后保存一次执行结果
+     */
+    static final int SAVE_COUNT = 10;
+
+    @Getter
+    private final String batchId;
+    @Getter
+    private final List<Item> items;
+    /**
+     * 允许失败的数量
+     */
+    private final int allowFailCount;
+    private final AtomicInteger successCount = new AtomicInteger();
+    private final AtomicInteger failCount = new AtomicInteger();
+    private final AtomicInteger cancelCount = new AtomicInteger();
+    private final AtomicInteger finishCount = new AtomicInteger();
+    /**
+     * 已经结束还没有保存的执行项
+     */
+    private final Queue<Item> unsaved = new ConcurrentLinkedQueue<>();
+    private volatile ScheduledFuture<?> saveFuture;
+    private volatile boolean stopped;
+
+    /**
+     * 创建批次
+     *
+     * @param batchId        批次id
+     * @param logModels      每台 ssh 的执行记录
+     * @param minSuccessRate 最低成功率 0-100
+     */
+    CommandBatch(String batchId, List<CommandExecLogModel> logModels, Integer minSuccessRate) {
+        this.batchId = batchId;
+        this.items = logModels.stream().map(Item::new).collect(Collectors.toList());
+        int total = items.size();
+        int rate = Math.min(ObjectUtil.defaultIfNull(minSuccessRate, 0), 100);
+        this.allowFailCount = rate <= 0 ? total : total - (int) Math.ceil(total * rate / 100D);
+    }
+
+    /**
+     * 根据数据库中的执行记录还原（批次已经结束）
+     *
+     * @param batchId   批次id
+     * @param logModels 执行记录
+     * @return 批次
+     */
+    static CommandBatch of(String batchId, List<CommandExecLogModel> logModels) {
+        CommandBatch batch = new CommandBatch(batchId, logModels, 0);
+        for (Item item : batch.items) {
+            CommandExecLogModel logModel = item.logModel;
+            item.status = ObjectUtil.defaultIfNull(logModel.getStatus(), CommandExecLogModel.Status.ING.getCode());
+            item.exitCode = logModel.getExitCode();
+            item.duration = ObjectUtil.defaultIfNull(logModel.getDuration(), 0L);
+            StrUtil.splitTrim(logModel.getOutputTail(), StrUtil.LF).forEach(item.tail::add);
+            if (item.status != CommandExecLogModel.Status.ING.getCode()) {
+                batch.count(item);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * 开始执行某一台
+     *
+     * @param item 执行项
+     * @return false 批次已经停止，不再执行
+     */
+    boolean start(Item item) {
+        if (stopped) {
+            return false;
+        }
+        item.startTime = SystemClock.now();
+        return true;
+    }
+
+    /**
+     * 某一台执行结束
+     *
+     * @param item     执行项
+     * @param status   状态
+     * @param exitCode 退出码
+     * @return true 整个批次已经结束
+     */
+    boolean finish(Item item, CommandExecLogModel.Status status, Integer exitCode) {
+        item.exitCode = exitCode;
+        item.duration = item.startTime > 0 ? SystemClock.now() - item.startTime : 0;
+        item.status = status.getCode();
+        unsaved.add(item);
+        this.count(item);
+        return finishCount.get() >= items.size();
+    }
+
+    /**
+     * 取出需要保存的执行结果
+     *
+     * @param force 是否忽略数量全部取出（定时保存、批次结束）
+     * @return 执行结果，没有需要保存的返回空集合
+     */
+    List<CommandExecLogModel> pollResults(boolean force) {
+        if (!force && unsaved.size() < SAVE_COUNT) {
+            return Collections.emptyList();
+        }
+        List<CommandExecLogModel> results = new ArrayList<>();
+        Item item;
+        while ((item = unsaved.poll()) != null) {
+            results.add(item.toResult());
+        }
+        return results;
+    }
+
+    void setSaveFuture(ScheduledFuture<?> saveFuture) {
+        this.saveFuture = saveFuture;
+    }
+
+    /**
+     * 停止定时保存
+     */
+    void cancelSave() {
+        ScheduledFuture<?> future = this.saveFuture;
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * 保存失败，下次再保存
+     *
+     * @param results 执行结果
+     */
+    void retryResults(List<CommandExecLogModel> results) {
+        for (CommandExecLogModel result : results) {
+            items.stream()
+                .filter(item -> StrUtil.equals(item.logModel.getId(), result.getId()))
+                .findFirst()
+                .ifPresent(unsaved::add);
+        }
+    }
+
+    private void count(Item item) {
+        if (item.isSuccess()) {
+            successCount.incrementAndGet();
+        } else if (item.status == CommandExecLogModel.Status.CANCEL.getCode()) {
+            cancelCount.incrementAndGet();
+        } else if (failCount.incrementAndGet() > allowFailCount) {
+            stopped = true;
+        }
+        finishCount.incrementAndGet();
+    }
+
+    /**
+     * 批次汇总结果
+     *
+     * @return json
+     */
+    public JSONObject toJson() {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("batchId", batchId);
+        jsonObject.put("total", items.size());
+        jsonObject.put("successCount", successCount.get());
+        jsonObject.put("failCount", failCount.get());
+        jsonObject.put("cancelCount", cancelCount.get());
+        jsonObject.put("finishCount", finishCount.get());
+        jsonObject.put("stopped", stopped);
+        jsonObject.put("run", finishCount.get() < items.size());
+        JSONArray array = new JSONArray();
+        for (Item item : items) {
+            array.add(item.toJson());
+        }
+        jsonObject.put("items", array);
+        return jsonObject;
+    }
+
+    /**
+     * 单台 ssh 的执行项
+     */
+    public static class Item {
+        @Getter
+        private final CommandExecLogModel logModel;
+        private final Deque<String> tail = new ArrayDeque<>(TAIL_LINES);
+        @Getter
+        private SshModel sshModel;
+        private volatile int status = CommandExecLogModel.Status.ING.getCode();
+        private volatile Integer exitCode;
+        private volatile long startTime;
+        private volatile long duration;
+
+        Item(CommandExecLogModel logModel) {
+            this.logModel = logModel;
+        }
+
+        void setSshModel(SshModel sshModel) {
+            this.sshModel = sshModel;
+        }
+
+        /**
+         * 记录输出
+         *
+         * @param line 行
+         */
+        void appendLine(String line) {
+            synchronized (tail) {
+                if (tail.size() >= TAIL_LINES) {
+                    tail.pollFirst();
+                }
+                tail.addLast(line);
+            }
+        }
+
+        public boolean isRunning() {
+            return status == CommandExecLogModel.Status.ING.getCode();
+        }
+
+        boolean isSuccess() {
+            return status == CommandExecLogModel.Status.DONE.getCode() && exitCode != null && exitCode == 0;
+        }
+
+        String tail() {
+            String join;
+            synchronized (tail) {
+                join = String.join(StrUtil.LF, tail);
+            }
+            return join.length() > TAIL_LENGTH ? join.substring(join.length() - TAIL_LENGTH) : join;
+        }
+
+        /**
+         * 执行结果（用于更新数据库）
+         *
+         * @return 执行记录
+         */
+        CommandExecLogModel toResult() {
+            CommandExecLogModel result = new CommandExecLogModel();
+            result.setId(logModel.getId());
+            result.setStatus(status);
+            result.setExitCode(exitCode);
+            result.setDuration(duration);
+            result.setOutputTail(this.tail());
+            return result;
+        }
+
+        JSONObject toJson() {
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put("id", logModel.getId());
+            jsonObject.put("sshId", logModel.getSshId());
+            jsonObject.put("sshName", logModel.getSshName());
+            jsonObject.put("status", status);
+            jsonObject.put("exitCode", exitCode);
+            long startTime = this.startTime;
+            jsonObject.put("duration", this.isRunning() && startTime > 0 ? SystemClock.now() - startTime : duration);
+            jsonObject.put("outputTail", this.tail());
+            return jsonObject;
+        }
+    }
+}
@@ -24,6 +24,7 @@ package io.jpom.service.node.command;
 
 import cn.hutool.core.io.FileUtil;
 import io.jpom.model.data.CommandExecLogModel;
+import io.jpom.service.IStatusRecover;
 import io.jpom.service.h2db.BaseWorkspaceService;
 import io.jpom.util.CommandUtil;
 import org.springframework.stereotype.Service;
@@ -35,7 +36,7 @@ import java.io.File;
  * @since 2021/12/22
  */
 @Service
-public class CommandExecLogService extends BaseWorkspaceService<CommandExecLogModel> {
+public class CommandExecLogService extends BaseWorkspaceService<CommandExecLogModel> implements IStatusRecover {
 
     @Override
     protected void fillSelectResult(CommandExecLogModel data) {
@@ -47,16 +48,36 @@ public class CommandExecLogService extends BaseWorkspaceService<CommandExecLogMo
 
     @Override
     protected void executeClearImpl(int h2DbLogStorageCount) {
-        super.autoLoopClear("createTimeMillis", h2DbLogStorageCount, null, commandExecLogModel -> {
-            File file = commandExecLogModel.logFile();
-            CommandUtil.systemFastDel(file);
-            File parentFile = file.getParentFile();
-            boolean empty = FileUtil.isEmpty(parentFile);
-            if (empty) {
-                CommandUtil.systemFastDel(parentFile);
-            }
-            return true;
-        });
+        super.autoLoopClear("createTimeMillis", h2DbLogStorageCount, null, this::clearLogFile);
+    }
+
+    @Override
+    protected void executeClearDaysImpl(long time) {
+        super.loopClearBefore("createTimeMillis", time, null, this::clearLogFile);
+    }
+
+    /**
+     * 删除执行记录对应的日志文件
+     *
+     * @param commandExecLogModel 执行记录
+     * @return 是否可以删除记录
+     */
+    private boolean clearLogFile(CommandExecLogModel commandExecLogModel) {
+        File file = commandExecLogModel.logFile();
+        CommandUtil.systemFastDel(file);
+        File parentFile = file.getParentFile();
+        boolean empty = FileUtil.isEmpty(parentFile);
+        if (empty) {
+            CommandUtil.systemFastDel(parentFile);
+        }
+        return true;
+    }
+
+    @Override
+    public int statusRecover() {
+        // 重启前还没有保存结果的执行记录
+        String updateSql = "update " + super.getTableName() + " set status=? where status=?";
+        return super.execute(updateSql, CommandExecLogModel.Status.SESSION_ERROR.getCode(), CommandExecLogModel.Status.ING.getCode());
     }
 
     @Override
@@ -26,9 +26,12 @@ import cn.hutool.core.exceptions.ExceptionUtil;
 import cn.hutool.core.io.FileUtil;
 import cn.hutool.core.io.IoUtil;
 import cn.hutool.core.io.LineHandler;
+import cn.hutool.core.thread.ExecutorBuilder;
+import cn.hutool.core.thread.ThreadFactoryBuilder;
 import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.CharsetUtil;
 import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.ObjectUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.cron.task.Task;
 import cn.hutool.db.Entity;
@@ -45,9 +48,11 @@ import io.jpom.model.data.CommandModel;
 import io.jpom.model.data.SshModel;
 import io.jpom.model.user.UserModel;
 import io.jpom.service.ITriggerToken;
+import io.jpom.service.h2db.BaseDbCommonService;
 import io.jpom.service.h2db.BaseWorkspaceService;
 import io.jpom.service.node.ssh.SshService;
 import io.jpom.service.system.WorkspaceEnvVarService;
+import io.jpom.system.ServerExtConfigBean;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
@@ -58,7 +63,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 /**
@@ -76,6 +85,24 @@ public class CommandService extends BaseWorkspaceService<CommandModel> implement
     private final WorkspaceEnvVarService workspaceEnvVarService;
 
     private static final byte[] LINE_BYTES = SystemUtil.getOsInfo().getLineSeparator().getBytes(CharsetUtil.CHARSET_UTF_8);
+    /**
+     * 执行中的批次
+     */
+    private static final Map<String, CommandBatch> BATCH_MAP = new ConcurrentHashMap<>();
+    /**
+     * 单台执行超时检查
+     */
+    private static final ScheduledThreadPoolExecutor COMMAND_TIMEOUT_EXECUTOR;
+    /**
+     * 定时保存执行结果的间隔
+     */
+    private static final int SAVE_INTERVAL_SECONDS = 10;
+    private static volatile ThreadPoolExecutor commandExecutor;
+
+    static {
+        COMMAND_TIMEOUT_EXECUTOR = new ScheduledThreadPoolExecutor(1, ThreadFactoryBuilder.create().setNamePrefix("jpom-ssh-command-timeout-").setDaemon(true).build());
+        COMMAND_TIMEOUT_EXECUTOR.setRemoveOnCancelPolicy(true);
+    }
 
     public CommandService(SshService sshService,
                           CommandExecLogService commandExecLogService,
@@ -198,71 +225,158 @@ public class CommandService extends BaseWorkspaceService<CommandModel> implement
         List<String> sshIds = StrUtil.split(nodes, StrUtil.COMMA, true, true);
         Assert.notEmpty(sshIds, "请选择 ssh 节点");
         String batchId = IdUtil.fastSimpleUUID();
-        for (String sshId : sshIds) {
-            this.executeItem(commandModel, commandParams, sshId, batchId, triggerExecType);
+        // 拼接参数
+        String commandParamsLine;
+        String paramsJson;
+        if (commandParams != null) {
+            paramsJson = JSONObject.toJSONString(commandParams);
+            commandParamsLine = commandParams.stream().map(CommandModel.CommandParam::getValue).collect(Collectors.joining(StrUtil.SPACE));
+        } else {
+            paramsJson = null;
+            commandParamsLine = StrUtil.EMPTY;
+        }
+        Map<String, SshModel> sshModelMap = new HashMap<>(sshIds.size());
+        List<CommandExecLogModel> logModels = sshIds.stream().map(sshId -> {
+            SshModel sshModel = sshService.getByKey(sshId, false);
+            CommandExecLogModel commandExecLogModel = new CommandExecLogModel();
+            commandExecLogModel.setId(IdUtil.fastSimpleUUID());
+            commandExecLogModel.setCommandId(commandModel.getId());
+            commandExecLogModel.setCommandName(commandModel.getName());
+            commandExecLogModel.setBatchId(batchId);
+            commandExecLogModel.setSshId(sshId);
+            commandExecLogModel.setWorkspaceId(commandModel.getWorkspaceId());
+            commandExecLogModel.setTriggerExecType(triggerExecType);
+            commandExecLogModel.setParams(paramsJson);
+            // 批量写入时每条数据的字段需要一致
+            commandExecLogModel.setSshName(StrUtil.EMPTY);
+            if (sshModel != null) {
+                commandExecLogModel.setSshName(sshModel.getName());
+                sshModelMap.put(commandExecLogModel.getId(), sshModel);
+            }
+            commandExecLogModel.setStatus(CommandExecLogModel.Status.ING.getCode());
+            return commandExecLogModel;
+        }).collect(Collectors.toList());
+        // 整个批次一次写入
+        commandExecLogService.insert(logModels);
+        //
+        CommandBatch batch = new CommandBatch(batchId, logModels, commandModel.getMinSuccessRate());
+        BATCH_MAP.put(batchId, batch);
+        // 定时保存已经结束的执行结果，避免重启后整个批次都没有结果
+        batch.setSaveFuture(COMMAND_TIMEOUT_EXECUTOR.scheduleWithFixedDelay(() -> this.saveResults(batch, true),
+            SAVE_INTERVAL_SECONDS, SAVE_INTERVAL_SECONDS, TimeUnit.SECONDS));
+        ThreadPoolExecutor executor = getCommandExecutor();
+        for (CommandBatch.Item item : batch.getItems()) {
+            item.setSshModel(sshModelMap.get(item.getLogModel().getId()));
+            executor.execute(() -> this.executeItem(batch, item, commandModel, commandParamsLine));
         }
         return batchId;
     }
 
     /**
-     * 准备执行 某一个
+     * 获取批次的执行结果，执行中的批次从内存中获取
      *
-     * @param commandModel  命令模版
-     * @param commandParams 参数
-     * @param sshId         ssh id
-     * @param batchId       批次ID
+     * @param commandId 命令ID
+     * @param batchId   批次ID
+     * @return 汇总结果
      */
-    private void executeItem(CommandModel commandModel, List<CommandModel.CommandParam> commandParams, String sshId, String batchId, int triggerExecType) {
-        SshModel sshModel = sshService.getByKey(sshId, false);
-
-        CommandExecLogModel commandExecLogModel = new CommandExecLogModel();
-        commandExecLogModel.setCommandId(commandModel.getId());
-        commandExecLogModel.setCommandName(commandModel.getName());
-        commandExecLogModel.setBatchId(batchId);
-        commandExecLogModel.setSshId(sshId);
-        commandExecLogModel.setWorkspaceId(commandModel.getWorkspaceId());
-        commandExecLogModel.setTriggerExecType(triggerExecType);
-        if (sshModel != null) {
-            commandExecLogModel.setSshName(sshModel.getName());
+    public JSONObject batchResult(String commandId, String batchId) {
+        CommandBatch batch = BATCH_MAP.get(batchId);
+        if (batch == null) {
+            CommandExecLogModel where = new CommandExecLogModel();
+            where.setCommandId(commandId);
+            where.setBatchId(batchId);
+            batch = CommandBatch.of(batchId, commandExecLogService.listByBean(where));
         }
-        commandExecLogModel.setStatus(CommandExecLogModel.Status.ING.getCode());
-        // 拼接参数
-        String commandParamsLine;
-        if (commandParams != null) {
-            commandExecLogModel.setParams(JSONObject.toJSONString(commandParams));
-            commandParamsLine = commandParams.stream().map(CommandModel.CommandParam::getValue).collect(Collectors.joining(StrUtil.SPACE));
-        } else {
-            commandParamsLine = StrUtil.EMPTY;
+        return batch.toJson();
+    }
+
+    /**
+     * 执行记录是否还在执行中
+     *
+     * @param logModel 执行记录
+     * @return true 执行中
+     */
+    public boolean isRunning(CommandExecLogModel logModel) {
+        CommandBatch batch = BATCH_MAP.get(logModel.getBatchId());
+        if (batch == null) {
+            Integer status = logModel.getStatus();
+            return status != null && status == CommandExecLogModel.Status.ING.getCode();
         }
-        commandExecLogService.insert(commandExecLogModel);
+        return batch.getItems().stream()
+            .filter(item -> StrUtil.equals(item.getLogModel().getId(), logModel.getId()))
+            .anyMatch(CommandBatch.Item::isRunning);
+    }
 
-        ThreadUtil.execute(() -> {
+    /**
+     * 执行 某一个
+     *
+     * @param batch             批次
+     * @param item              执行项
+     * @param commandModel      命令模版
+     * @param commandParamsLine 参数
+     */
+    private void executeItem(CommandBatch batch, CommandBatch.Item item, CommandModel commandModel, String commandParamsLine) {
+        CommandExecLogModel.Status status;
+        Integer[] exitCode = new Integer[1];
+        if (batch.start(item)) {
             try {
-                this.execute(commandModel, commandExecLogModel, sshModel, commandParamsLine);
+                status = this.execute(commandModel, item, commandParamsLine, exitCode);
             } catch (Exception e) {
                 log.error("命令模版执行链接异常", e);
-                this.updateStatus(commandExecLogModel.getId(), CommandExecLogModel.Status.SESSION_ERROR);
+                item.appendLine(e.getMessage());
+                status = CommandExecLogModel.Status.SESSION_ERROR;
             }
-        });
-
+        } else {
+            item.appendLine("失败的数量已经超过最低成功率，取消执行");
+            status = CommandExecLogModel.Status.CANCEL;
+        }
+        if (batch.finish(item, status, exitCode[0])) {
+            // 批次结束后保存剩余的执行结果
+            batch.cancelSave();
+            this.saveResults(batch, true);
+            BATCH_MAP.remove(batch.getBatchId());
+        } else {
+            this.saveResults(batch, false);
+        }
     }
 
+    /**
+     * 在一个事务中保存已经结束的执行结果
+     *
+     * @param batch 批次
+     * @param force 是否忽略数量全部保存
+     */
+    private void saveResults(CommandBatch batch, boolean force) {
+        List<CommandExecLogModel> results = batch.pollResults(force);
+        if (results.isEmpty()) {
+            return;
+        }
+        try {
+            BaseDbCommonService.tx(db -> results.forEach(commandExecLogService::updateById));
+        } catch (Exception e) {
+            log.error("保存命令执行结果失败", e);
+            batch.retryResults(results);
+        }
+    }
 
     /**
      * 执行命令
      *
-     * @param commandModel        命令模版
-     * @param commandExecLogModel 执行记录
-     * @param sshModel            ssh
-     * @param commandParamsLine   参数
+     * @param commandModel      命令模版
+     * @param item              执行项
+     * @param commandParamsLine 参数
+     * @param exitCode          退出码
+     * @return 执行状态
      * @throws IOException io
      */
-    private void execute(CommandModel commandModel, CommandExecLogModel commandExecLogModel, SshModel sshModel, String commandParamsLine) throws IOException {
-        File file = commandExecLogModel.logFile();
+    private CommandExecLogModel.Status execute(CommandModel commandModel, CommandBatch.Item item, String commandParamsLine, Integer[] exitCode) throws IOException {
+        File file = item.getLogModel().logFile();
+        SshModel sshModel = item.getSshModel();
         try (BufferedOutputStream outputStream = FileUtil.getOutputStream(file)) {
             if (sshModel == null) {
+                item.appendLine("ssh 不存在");
                 this.appendLine(outputStream, "ssh 不存在");
-                return;
+                return CommandExecLogModel.Status.ERROR;
             }
             String command = commandModel.getCommand();
             String[] commands = StrUtil.splitToArray(command, StrUtil.LF);
@@ -270,7 +384,9 @@ public class CommandService extends BaseWorkspaceService<CommandModel> implement
             workspaceEnvVarService.formatCommand(commandModel.getWorkspaceId(), commands);
             //
             Charset charset = sshModel.charset();
-
+            int timeout = ObjectUtil.defaultIfNull(commandModel.getTimeout(), 0);
+            int timeoutSecond = timeout > 0 ? timeout : ServerExtConfigBean.getInstance().getSshCommandTimeout();
+            CommandExecLogModel.Status[] status = new CommandExecLogModel.Status[]{CommandExecLogModel.Status.ERROR};
             sshService.exec(sshModel, (s, session) -> {
                 final ChannelExec channel = (ChannelExec) JschUtil.createChannel(session, ChannelType.EXEC);
                 channel.setCommand(StrUtil.bytes(s + StrUtil.SPACE + commandParamsLine, charset));
@@ -278,40 +394,74 @@ public class CommandService extends BaseWorkspaceService<CommandModel> implement
 
                 channel.setErrStream(outputStream, true);
                 InputStream in = null;
-
+                AtomicBoolean timedOut = new AtomicBoolean();
+                ScheduledFuture<?> timeoutFuture = null;
                 try {
-                    channel.connect(sshModel.timeout());
                     in = channel.getInputStream();
-                    IoUtil.readLines(in, charset, (LineHandler) line -> this.appendLine(outputStream, line));
-                    // 更新状态
-                    this.updateStatus(commandExecLogModel.getId(), CommandExecLogModel.Status.DONE);
+                    channel.connect(sshModel.timeout());
+                    if (timeoutSecond > 0) {
+                        // 超时后断开通道，读取结束
+                        timeoutFuture = COMMAND_TIMEOUT_EXECUTOR.schedule(() -> {
+                            timedOut.set(true);
+                            channel.disconnect();
+                        }, timeoutSecond, TimeUnit.SECONDS);
+                    }
+                    InputStream finalIn = in;
+                    IoUtil.readLines(in, charset, (LineHandler) line -> {
+                        item.appendLine(line);
+                        // 没有待读取的输出时再刷新到文件
+                        this.appendLine(outputStream, line, available(finalIn) <= 0);
+                    });
+                    exitCode[0] = this.waitExitStatus(channel);
+                    status[0] = timedOut.get() ? CommandExecLogModel.Status.TIMEOUT : CommandExecLogModel.Status.DONE;
                 } catch (Exception e) {
-                    log.error("执行命令错误", e);
-                    // 更新状态
-                    this.updateStatus(commandExecLogModel.getId(), CommandExecLogModel.Status.ERROR);
-                    // 记录错误日志
-                    String stacktraceToString = ExceptionUtil.stacktraceToString(e);
-                    this.appendLine(outputStream, stacktraceToString);
+                    if (timedOut.get()) {
+                        status[0] = CommandExecLogModel.Status.TIMEOUT;
+                    } else {
+                        log.error("执行命令错误", e);
+                        status[0] = CommandExecLogModel.Status.ERROR;
+                        // 记录错误日志
+                        String stacktraceToString = ExceptionUtil.stacktraceToString(e);
+                        this.appendLine(outputStream, stacktraceToString);
+                    }
                 } finally {
+                    if (timeoutFuture != null) {
+                        timeoutFuture.cancel(false);
+                    }
                     IoUtil.close(in);
                     JschUtil.close(channel);
                 }
+                if (status[0] == CommandExecLogModel.Status.TIMEOUT) {
+                    String msg = StrUtil.format("执行超时（{} 秒），已经断开", timeoutSecond);
+                    item.appendLine(msg);
+                    this.appendLine(outputStream, msg);
+                }
                 return null;
             }, commands);
+            return status[0];
         }
     }
 
     /**
-     * 修改执行状态
+     * 等待命令退出码（退出码可能在输出结束后才收到）
      *
-     * @param id     ID
-     * @param status 状态
+     * @param channel 通道
+     * @return 退出码，没有收到返回 null
      */
-    private void updateStatus(String id, CommandExecLogModel.Status status) {
-        CommandExecLogModel commandExecLogModel = new CommandExecLogModel();
-        commandExecLogModel.setId(id);
-        commandExecLogModel.setStatus(status.getCode());
-        commandExecLogService.update(commandExecLogModel);
+    private Integer waitExitStatus(ChannelExec channel) {
+        for (int i = 0; i < 100 && !channel.isClosed(); i++) {
+            ThreadUtil.sleep(10);
+        }
+        int exitStatus = channel.getExitStatus();
+        return exitStatus < 0 ? null : exitStatus;
+    }
+
+    private static int available(InputStream inputStream) {
+        try {
+            return inputStream.available();
+        } catch (IOException e) {
+            return 0;
+        }
     }
 
     /**
@@ -321,15 +471,67 @@ public class CommandService extends BaseWorkspaceService<CommandModel> implement
      * @param line         消息
      */
     private void appendLine(BufferedOutputStream outputStream, String line) {
+        this.appendLine(outputStream, line, true);
+    }
+
+    /**
+     * 记录日志
+     *
+     * @param outputStream 文件输出流
+     * @param line         消息
+     * @param flush        是否刷新到文件
+     */
+    private void appendLine(BufferedOutputStream outputStream, String line, boolean flush) {
         try {
             outputStream.write(line.getBytes(CharsetUtil.CHARSET_UTF_8));
             outputStream.write(LINE_BYTES);
-            outputStream.flush();
+            if (flush) {
+                outputStream.flush();
+            }
         } catch (IOException e) {
             log.warn("command log append line:{}", e.getMessage());
         }
     }
 
+    /**
+     * ssh 命令执行线程池，所有批次共用，限制同时执行的 ssh 数
+     *
+     * @return 线程池
+     */
+    private static ThreadPoolExecutor getCommandExecutor() {
+        if (commandExecutor == null) {
+            synchronized (CommandService.class) {
+                if (commandExecutor == null) {
+                    int concurrent = ServerExtConfigBean.getInstance().getSshCommandConcurrent();
+                    commandExecutor = ExecutorBuilder.create()
+                        .setCorePoolSize(concurrent)
+                        .setMaxPoolSize(concurrent)
+                        .setKeepAliveTime(60, TimeUnit.SECONDS)
+                        .setAllowCoreThreadTimeOut(true)
+                        .setWorkQueue(new LinkedBlockingQueue<>())
+                        .setThreadFactory(ThreadFactoryBuilder.create().setNamePrefix("jpom-ssh-command-").setDaemon(true).build())
+                        .build();
+                }
+            }
+        }
+        return commandExecutor;
+    }
+
+    /**
+     * 命令执行统计
+     *
+     * @return json
+     */
+    public static JSONObject stat() {
+        JSONObject jsonObject = new JSONObject();
+        ThreadPoolExecutor executor = commandExecutor;
+        jsonObject.put("batchCount", BATCH_MAP.size());
+        jsonObject.put("activeCount", executor == null ? 0 : executor.getActiveCount());
+        jsonObject.put("queueSize", executor == null ? 0 : executor.getQueue().size());
+        jsonObject.put("completedCount", executor == null ? 0 : executor.getCompletedTaskCount());
+        return jsonObject;
+    }
+
     /**
      * 将ssh 脚本信息同步到其他工作空间
      *
@@ -147,22 +147,33 @@ public class NodeScriptExecuteLogServer extends BaseNodeService<ScriptExecuteLog
 
     @Override
     protected void executeClearImpl(int h2DbLogStorageCount) {
-        super.autoLoopClear("createTimeMillis", h2DbLogStorageCount,
-            null,
-            executeLogModel -> {
-                try {
-                    NodeModel nodeModel = nodeService.getByKey(executeLogModel.getNodeId());
-                    JsonMessage<Object> jsonMessage = NodeForward.requestBySys(nodeModel, NodeUrl.SCRIPT_DEL_LOG,
-                        "id", executeLogModel.getScriptId(), "executeId", executeLogModel.getId());
-                    if (jsonMessage.getCode() != HttpStatus.HTTP_OK) {
-                        log.warn("{} {} {}", executeLogModel.getNodeId(), executeLogModel.getScriptName(), jsonMessage);
-                        return false;
-                    }
-                    return true;
-                } catch (Exception e) {
-                    log.error("自动清除数据错误 {} {}", executeLogModel.getNodeId(), executeLogModel.getScriptName(), e);
-                    return false;
-                }
-            });
+        super.autoLoopClear("createTimeMillis", h2DbLogStorageCount, null, this::clearNodeLog);
+    }
+
+    @Override
+    protected void executeClearDaysImpl(long time) {
+        super.loopClearBefore("createTimeMillis", time, null, this::clearNodeLog);
+    }
+
+    /**
+     * 删除节点中对应的执行日志
+     *
+     * @param executeLogModel 执行记录
+     * @return 节点中的日志删除成功才能删除记录
+     */
+    private boolean clearNodeLog(ScriptExecuteLogCacheModel executeLogModel) {
+        try {
+            NodeModel nodeModel = nodeService.getByKey(executeLogModel.getNodeId());
+            JsonMessage<Object> jsonMessage = NodeForward.requestBySys(nodeModel, NodeUrl.SCRIPT_DEL_LOG,
+                "id", executeLogModel.getScriptId(), "executeId", executeLogModel.getId());
+            if (jsonMessage.getCode() != HttpStatus.HTTP_OK) {
+                log.warn("{} {} {}", executeLogModel.getNodeId(), executeLogModel.getScriptName(), jsonMessage);
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            log.error("自动清除数据错误 {} {}", executeLogModel.getNodeId(), executeLogModel.getScriptName(), e);
+            return false;
+        }
     }
 }
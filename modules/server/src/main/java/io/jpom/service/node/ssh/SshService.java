@@ -29,11 +29,9 @@ import cn.hutool.core.io.IoUtil;
 import cn.hutool.core.io.resource.ResourceUtil;
 import cn.hutool.core.util.*;
 import cn.hutool.crypto.SecureUtil;
-import cn.hutool.extra.ssh.ChannelType;
 import cn.hutool.extra.ssh.JschRuntimeException;
 import cn.hutool.extra.ssh.JschUtil;
 import cn.hutool.extra.ssh.Sftp;
-import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
 import com.jcraft.jsch.SftpException;
@@ -63,6 +61,11 @@ import java.util.function.BiFunction;
 @Service
 public class SshService extends BaseWorkspaceService<SshModel> {
 
+    @Override
+    protected int keyCacheSize() {
+        return 500;
+    }
+
     @Override
     protected void fillSelectResult(SshModel data) {
         if (data == null) {
@@ -88,7 +91,9 @@ public class SshService extends BaseWorkspaceService<SshModel> {
 //    }
 
     /**
-     * 获取 ssh 回话
+     * 获取 ssh 回话，每次都会新建连接，使用完成需要关闭
+     * <p>
+     * 文件管理、执行命令等短时间的操作使用 {@link SshSessionPool#borrow(SshModel)} 复用会话
      *
      * @param sshModel sshModel
      * @return session
@@ -247,7 +252,7 @@ public class SshService extends BaseWorkspaceService<SshModel> {
         if (ArrayUtil.isEmpty(command)) {
             return "没有任何命令";
         }
-        Session session = null;
+        SshSessionPool.Lease lease = null;
         InputStream sshExecTemplateInputStream = null;
         Sftp sftp = null;
         try {
@@ -267,9 +272,9 @@ public class SshService extends BaseWorkspaceService<SshModel> {
             Charset charset = sshModel.charset();
             FileUtil.writeString(stringBuilder.toString(), buildSsh, charset);
             //
-            session = getSessionByModel(sshModel);
+            lease = SshSessionPool.borrow(sshModel);
             // 上传文件
-            sftp = new Sftp(session, charset, sshModel.timeout());
+            sftp = lease.sftp(sshModel);
             String home = sftp.home();
             String path = home + "/.jpom/";
             String destFile = path + IdUtil.fastSimpleUUID() + ".sh";
@@ -278,7 +283,7 @@ public class SshService extends BaseWorkspaceService<SshModel> {
             // 执行命令
             try {
                 String commandSh = "bash " + destFile;
-                return function.apply(commandSh, session);
+                return function.apply(commandSh, lease.getSession());
             } finally {
                 try {
                     // 删除 ssh 中临时文件
@@ -291,7 +296,7 @@ public class SshService extends BaseWorkspaceService<SshModel> {
         } finally {
             IoUtil.close(sftp);
             IoUtil.close(sshExecTemplateInputStream);
-            JschUtil.close(session);
+            IoUtil.close(lease);
         }
     }
 
@@ -362,21 +367,10 @@ public class SshService extends BaseWorkspaceService<SshModel> {
      * @param sshModel   ssh
      * @param remotePath 远程路径
      * @param desc       文件夹或者文件
+     * @return 传输结果
      */
-    public void uploadDir(SshModel sshModel, String remotePath, File desc) {
-        Session session = null;
-        ChannelSftp channel = null;
-        try {
-            session = getSessionByModel(sshModel);
-            channel = (ChannelSftp) JschUtil.openChannel(session, ChannelType.SFTP);
-            try (Sftp sftp = new Sftp(channel, sshModel.charset(), sshModel.timeout())) {
-                sftp.syncUpload(desc, remotePath);
-            }
-            //uploadDir(channel, remotePath, desc, sshModel.getCharsetT());
-        } finally {
-            JschUtil.close(channel);
-            JschUtil.close(session);
-        }
+    public SshTransfer.Result uploadDir(SshModel sshModel, String remotePath, File desc) {
+        return new SshTransfer(sshModel).upload(desc, remotePath);
     }
 
     /**
@@ -389,18 +383,8 @@ public class SshService extends BaseWorkspaceService<SshModel> {
      * @throws SftpException sftp
      */
     public void download(SshModel sshModel, String remoteFile, File save) throws IOException, SftpException {
-        Session session = null;
-        ChannelSftp channel = null;
-        OutputStream output = null;
-        try {
-            session = getSessionByModel(sshModel);
-            channel = (ChannelSftp) JschUtil.openChannel(session, ChannelType.SFTP);
-            output = Files.newOutputStream(save.toPath());
-            channel.get(remoteFile, output);
-        } finally {
-            IoUtil.close(output);
-            JschUtil.close(channel);
-            JschUtil.close(session);
+        try (OutputStream output = Files.newOutputStream(save.toPath())) {
+            new SshTransfer(sshModel).download(remoteFile, output);
         }
     }
 
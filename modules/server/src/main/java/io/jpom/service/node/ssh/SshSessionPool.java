@@ -0,0 +1,463 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service.node.ssh;
+
+import cn.hutool.core.date.SystemClock;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.SecureUtil;
+import cn.hutool.extra.ssh.JschUtil;
+import cn.hutool.extra.ssh.Sftp;
+import com.alibaba.fastjson.JSONObject;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.Session;
+import io.jpom.model.data.SshModel;
+import io.jpom.system.ServerExtConfigBean;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * ssh 会话池
+ * <p>
+ * 每个 ssh 独立一个池，一个会话上同时复用多个 exec、sftp 通道，避免每次操作都重新握手认证。
+ * 会话空闲超时关闭，ssh 的连接信息变更后旧会话不再使用
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+@Slf4j
+public class SshSessionPool {
+
+    private static final Map<String, HostPool> POOL_MAP = new ConcurrentHashMap<>();
+    /**
+     * 创建会话（握手认证）
+     */
+    static Function<SshModel, Session> connector = SshService::getSessionByModel;
+
+    /**
+     * 借出会话，使用完成后需要关闭（归还）
+     *
+     * @param sshModel ssh
+     * @return 会话
+     */
+    public static Lease borrow(SshModel sshModel) {
+        return borrow(sshModel, Math.max(sshModel.timeout(), TimeUnit.SECONDS.toMillis(30)));
+    }
+
+    /**
+     * 借出会话，会话数达到上限时最多等待指定的时间
+     *
+     * @param sshModel   ssh
+     * @param waitMillis 最多等待的毫秒数
+     * @return 会话
+     */
+    static Lease borrow(SshModel sshModel, long waitMillis) {
+        String id = sshModel.getId();
+        if (StrUtil.isEmpty(id)) {
+            // 还没有保存的 ssh（测试连接）不使用池
+            return new Lease(null, null, connector.apply(sshModel));
+        }
+        String fingerprint = fingerprint(sshModel);
+        while (true) {
+            HostPool hostPool = POOL_MAP.compute(id, (key, pool) -> {
+                if (pool != null && pool.fingerprint.equals(fingerprint)) {
+                    return pool;
+                }
+                if (pool != null) {
+                    // 连接信息变更，旧会话不再使用
+                    pool.retire();
+                }
+                return new HostPool(sshModel.getName(), fingerprint);
+            });
+            Lease lease = hostPool.borrow(sshModel, waitMillis, false);
+            if (lease != null) {
+                return lease;
+            }
+            // 池已经被回收，重新获取
+            POOL_MAP.remove(id, hostPool);
+        }
+    }
+
+    /**
+     * 尝试再借出一个会话用于并行传输，不等待。优先使用空闲的会话或者新建会话，分散到多个连接上
+     *
+     * @param sshModel ssh
+     * @return null 没有可用的会话
+     */
+    public static Lease tryBorrow(SshModel sshModel) {
+        String id = sshModel.getId();
+        if (StrUtil.isEmpty(id)) {
+            return null;
+        }
+        HostPool hostPool = POOL_MAP.get(id);
+        if (hostPool == null || !hostPool.fingerprint.equals(fingerprint(sshModel))) {
+            return null;
+        }
+        return hostPool.borrow(sshModel, 0, true);
+    }
+
+    /**
+     * ssh 删除或者修改后关闭对应的会话
+     *
+     * @param id ssh id
+     */
+    public static void invalidate(String id) {
+        if (StrUtil.isEmpty(id)) {
+            return;
+        }
+        HostPool hostPool = POOL_MAP.remove(id);
+        if (hostPool != null) {
+            hostPool.retire();
+        }
+    }
+
+    /**
+     * 关闭空闲的会话
+     */
+    public static void evictIdle() {
+        long idleMillis = TimeUnit.SECONDS.toMillis(ServerExtConfigBean.getInstance().getSshSessionIdleTime());
+        POOL_MAP.forEach((id, hostPool) -> {
+            if (hostPool.evict(idleMillis)) {
+                POOL_MAP.remove(id, hostPool);
+            }
+        });
+    }
+
+    public static List<JSONObject> stat() {
+        return POOL_MAP.values().stream().map(HostPool::stat).collect(Collectors.toList());
+    }
+
+    private static String fingerprint(SshModel sshModel) {
+        return SecureUtil.sha1(StrUtil.join(StrUtil.COMMA, sshModel.getHost(), sshModel.getPort(), sshModel.getUser(),
+            sshModel.getPassword(), sshModel.getPrivateKey(), sshModel.getConnectType(), sshModel.getTimeout()));
+    }
+
+    /**
+     * 单个 ssh 的会话池
+     */
+    private static class HostPool {
+        private final String name;
+        private final String fingerprint;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition available = lock.newCondition();
+        private final List<PooledSession> sessions = new ArrayList<>();
+        /**
+         * 正在握手的会话数
+         */
+        private int connecting;
+        private boolean retired;
+        private long lastBorrowTime = SystemClock.now();
+        private long handshakeCount;
+        private long borrowCount;
+        private long waitCount;
+        private long waitTime;
+        private long maxWaitTime;
+
+        private HostPool(String name, String fingerprint) {
+            this.name = name;
+            this.fingerprint = fingerprint;
+        }
+
+        /**
+         * 借出会话，优先复用通道最少的会话，会话数达到上限后等待归还
+         *
+         * @param sshModel   ssh
+         * @param waitMillis 没有可用会话时最多等待的毫秒数，0 不等待
+         * @param spread     是否优先使用空闲会话或者新建会话
+         * @return null 池已经回收或者不等待时没有可用会话
+         */
+        private Lease borrow(SshModel sshModel, long waitMillis, boolean spread) {
+            ServerExtConfigBean configBean = ServerExtConfigBean.getInstance();
+            int maxSessions = configBean.getSshMaxSessions();
+            int maxChannels = configBean.getSshMaxChannels();
+            long start = SystemClock.now();
+            long deadline = start + waitMillis;
+            boolean waited = false;
+            lock.lock();
+            try {
+                while (true) {
+                    if (retired) {
+                        return null;
+                    }
+                    PooledSession pooledSession = this.pick(maxChannels);
+                    boolean canCreate = sessions.size() + connecting < maxSessions;
+                    if (pooledSession != null && !(spread && canCreate && pooledSession.leased > 0)) {
+                        pooledSession.leased++;
+                        this.onBorrow(start, waited);
+                        return new Lease(this, pooledSession, pooledSession.session);
+                    }
+                    if (canCreate) {
+                        connecting++;
+                        break;
+                    }
+                    if (waitMillis <= 0) {
+                        return null;
+                    }
+                    long remaining = deadline - SystemClock.now();
+                    if (remaining <= 0) {
+                        throw new IllegalStateException(StrUtil.format("ssh [{}] 连接数已满（{} 个会话），等待超时", name, maxSessions));
+                    }
+                    waited = true;
+                    available.await(remaining, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待 ssh 连接被中断", e);
+            } finally {
+                lock.unlock();
+            }
+            // 握手不占用锁
+            Session session;
+            try {
+                session = connector.apply(sshModel);
+            } catch (RuntimeException e) {
+                lock.lock();
+                try {
+                    connecting--;
+                    available.signal();
+                } finally {
+                    lock.unlock();
+                }
+                throw e;
+            }
+            PooledSession pooledSession = new PooledSession(session);
+            lock.lock();
+            try {
+                connecting--;
+                handshakeCount++;
+                this.onBorrow(start, waited);
+                if (retired) {
+                    // 握手期间连接信息变更，本次使用后直接关闭
+                    pooledSession.removed = true;
+                } else {
+                    sessions.add(pooledSession);
+                }
+                pooledSession.leased = 1;
+            } finally {
+                lock.unlock();
+            }
+            return new Lease(this, pooledSession, session);
+        }
+
+        private PooledSession pick(int maxChannels) {
+            PooledSession result = null;
+            Iterator<PooledSession> iterator = sessions.iterator();
+            while (iterator.hasNext()) {
+                PooledSession item = iterator.next();
+                if (!item.session.isConnected()) {
+                    iterator.remove();
+                    item.removed = true;
+                    if (item.leased <= 0) {
+                        JschUtil.close(item.session);
+                    }
+                    continue;
+                }
+                if (item.leased < maxChannels && (result == null || item.leased < result.leased)) {
+                    result = item;
+                }
+            }
+            return result;
+        }
+
+        private void onBorrow(long start, boolean waited) {
+            borrowCount++;
+            lastBorrowTime = SystemClock.now();
+            if (waited) {
+                long time = lastBorrowTime - start;
+                waitCount++;
+                waitTime += time;
+                maxWaitTime = Math.max(maxWaitTime, time);
+            }
+        }
+
+        private void release(PooledSession pooledSession) {
+            boolean close = false;
+            lock.lock();
+            try {
+                pooledSession.leased--;
+                pooledSession.lastUsed = SystemClock.now();
+                if (!pooledSession.removed && (retired || !pooledSession.session.isConnected())) {
+                    sessions.remove(pooledSession);
+                    pooledSession.removed = true;
+                }
+                close = pooledSession.removed && pooledSession.leased <= 0;
+                available.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (close) {
+                JschUtil.close(pooledSession.session);
+            }
+        }
+
+        /**
+         * 回收池，关闭空闲会话，使用中的会话归还后关闭
+         */
+        private void retire() {
+            List<Session> close = new ArrayList<>();
+            lock.lock();
+            try {
+                retired = true;
+                for (PooledSession item : sessions) {
+                    item.removed = true;
+                    if (item.leased <= 0) {
+                        close.add(item.session);
+                    }
+                }
+                sessions.clear();
+                available.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            close.forEach(JschUtil::close);
+        }
+
+        /**
+         * 关闭空闲会话
+         *
+         * @param idleMillis 空闲时间
+         * @return true 池已经空闲可以移除
+         */
+        private boolean evict(long idleMillis) {
+            List<Session> close = new ArrayList<>();
+            boolean empty;
+            lock.lock();
+            try {
+                long now = SystemClock.now();
+                Iterator<PooledSession> iterator = sessions.iterator();
+                while (iterator.hasNext()) {
+                    PooledSession item = iterator.next();
+                    if (item.leased <= 0 && (now - item.lastUsed > idleMillis || !item.session.isConnected())) {
+                        iterator.remove();
+                        item.removed = true;
+                        close.add(item.session);
+                    }
+                }
+                empty = sessions.isEmpty() && connecting == 0 && now - lastBorrowTime > idleMillis;
+                if (empty) {
+                    retired = true;
+                    available.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+            close.forEach(JschUtil::close);
+            return empty;
+        }
+
+        private JSONObject stat() {
+            JSONObject jsonObject = new JSONObject();
+            lock.lock();
+            try {
+                jsonObject.put("name", name);
+                jsonObject.put("sessionCount", sessions.size());
+                jsonObject.put("leased", sessions.stream().mapToInt(item -> item.leased).sum());
+                jsonObject.put("handshakeCount", handshakeCount);
+                jsonObject.put("borrowCount", borrowCount);
+                jsonObject.put("waitCount", waitCount);
+                jsonObject.put("avgWaitTime", waitCount == 0 ? 0 : waitTime / waitCount);
+                jsonObject.put("maxWaitTime", maxWaitTime);
+            } finally {
+                lock.unlock();
+            }
+            return jsonObject;
+        }
+    }
+
+    private static class PooledSession {
+        private final Session session;
+        /**
+         * 借出次数（正在使用的通道数）
+         */
+        private int leased;
+        private long lastUsed = SystemClock.now();
+        /**
+         * 已经从池中移除，归还后关闭
+         */
+        private boolean removed;
+
+        private PooledSession(Session session) {
+            this.session = session;
+        }
+    }
+
+    /**
+     * 借出的会话，关闭即归还。不要直接关闭 {@link #getSession()}
+     */
+    public static class Lease implements AutoCloseable {
+        private final HostPool hostPool;
+        private final PooledSession pooledSession;
+        private final Session session;
+        private boolean closed;
+
+        private Lease(HostPool hostPool, PooledSession pooledSession, Session session) {
+            this.hostPool = hostPool;
+            this.pooledSession = pooledSession;
+            this.session = session;
+        }
+
+        public Session getSession() {
+            return session;
+        }
+
+        /**
+         * 在会话上打开 sftp 通道，关闭 sftp 只会关闭通道
+         * <p>
+         * 不能使用 {@code new Sftp(session)}，它关闭时会同时关闭会话
+         *
+         * @param sshModel ssh
+         * @return sftp
+         */
+        public Sftp sftp(SshModel sshModel) {
+            ChannelSftp channel = JschUtil.openSftp(session, sshModel.timeout());
+            try {
+                return new Sftp(channel, sshModel.charset(), sshModel.timeout());
+            } catch (RuntimeException e) {
+                JschUtil.close(channel);
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (hostPool == null) {
+                JschUtil.close(session);
+            } else {
+                hostPool.release(pooledSession);
+            }
+        }
+    }
+}
@@ -0,0 +1,467 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service.node.ssh;
+
+import cn.hutool.core.date.DateUtil;
+import cn.hutool.core.date.SystemClock;
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.extra.ssh.ChannelType;
+import cn.hutool.extra.ssh.JschRuntimeException;
+import cn.hutool.extra.ssh.JschUtil;
+import com.jcraft.jsch.*;
+import io.jpom.model.data.SshModel;
+import io.jpom.system.ServerExtConfigBean;
+import lombok.Lombok;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipParameters;
+import org.springframework.util.Assert;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+
+/**
+ * ssh 文件传输
+ * <p>
+ * 目录上传时在多个 sftp 通道（优先分散到多个会话）上并行传输，大文件优先并使用更多的并发请求。
+ * 大小和修改时间都相同的文件跳过，大文件先写入临时文件，中断后下次上传从已写入的位置继续。
+ * 也可以打包成一个 tar 流上传后在远程解压
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+@Slf4j
+public class SshTransfer {
+
+    /**
+     * 大文件，使用更多的并发请求并且支持续传
+     */
+    static final long LARGE_FILE_SIZE = 4 * 1024 * 1024;
+    /**
+     * jsch 默认的并发请求数（每个请求 32K）
+     */
+    private static final int BULK_REQUESTS = 16;
+    private static final int LARGE_BULK_REQUESTS = 64;
+    private static final String PART_SUFFIX = ".jpom-part";
+
+    private final SshModel sshModel;
+    private final int parallel;
+    private final boolean tar;
+
+    public SshTransfer(SshModel sshModel) {
+        this(sshModel, ServerExtConfigBean.getInstance().getSshTransferChannels(), ServerExtConfigBean.getInstance().isSshTransferTar());
+    }
+
+    /**
+     * @param sshModel ssh
+     * @param parallel 最多同时使用的通道数
+     * @param tar      目录是否打包成 tar 流上传后远程解压
+     */
+    public SshTransfer(SshModel sshModel, int parallel, boolean tar) {
+        this.sshModel = sshModel;
+        this.parallel = Math.max(parallel, 1);
+        this.tar = tar;
+    }
+
+    /**
+     * 上传文件或者文件夹，文件夹上传的是文件夹下面的内容
+     *
+     * @param local     本地文件或者文件夹
+     * @param remoteDir 远程目录
+     * @return 传输结果
+     */
+    public Result upload(File local, String remoteDir) {
+        Assert.state(FileUtil.exist(local), "文件不存在：" + FileUtil.getAbsolutePath(local));
+        Result result = new Result();
+        long start = SystemClock.now();
+        try (SshSessionPool.Lease lease = SshSessionPool.borrow(sshModel)) {
+            if (tar && local.isDirectory()) {
+                this.uploadTar(lease, local, remoteDir, result);
+            } else {
+                this.uploadFiles(lease, local, remoteDir, result);
+            }
+        }
+        result.time = SystemClock.now() - start;
+        return result;
+    }
+
+    /**
+     * 下载文件，使用更多的并发请求
+     *
+     * @param remoteFile 远程文件
+     * @param output     输出流
+     * @throws SftpException sftp
+     */
+    public void download(String remoteFile, OutputStream output) throws SftpException {
+        try (SshSessionPool.Lease lease = SshSessionPool.borrow(sshModel)) {
+            ChannelSftp channel = this.openSftp(lease.getSession());
+            try {
+                channel.setBulkRequests(LARGE_BULK_REQUESTS);
+                channel.get(remoteFile, output);
+            } catch (JSchException e) {
+                throw new JschRuntimeException(e);
+            } finally {
+                JschUtil.close(channel);
+            }
+        }
+    }
+
+    private void uploadFiles(SshSessionPool.Lease lease, File local, String remoteDir, Result result) {
+        List<FileItem> files = new ArrayList<>();
+        // 父级目录排在子目录前面
+        Set<String> dirs = new TreeSet<>();
+        if (local.isFile()) {
+            files.add(new FileItem(local, joinPath(remoteDir, local.getName())));
+        } else {
+            this.walk(local, remoteDir, files, dirs);
+        }
+        // 大文件先传，避免最后只剩一个通道在传大文件
+        files.sort(Comparator.comparingLong((FileItem item) -> item.size).reversed());
+        Queue<FileItem> queue = new ConcurrentLinkedQueue<>(files);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        ChannelSftp channel = this.openSftp(lease.getSession());
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            this.mkDirs(channel, remoteDir);
+            for (String dir : dirs) {
+                this.mkdir(channel, dir);
+            }
+            int workers = Math.min(parallel, files.size());
+            for (int i = 1; i < workers; i++) {
+                futures.add(ThreadUtil.execAsync(() -> this.parallelWork(queue, result, error)));
+            }
+            result.channels.incrementAndGet();
+            this.work(channel, queue, result, error);
+        } catch (Throwable e) {
+            error.compareAndSet(null, e);
+        } finally {
+            JschUtil.close(channel);
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (Exception e) {
+                error.compareAndSet(null, e);
+            }
+        }
+        Throwable throwable = error.get();
+        if (throwable != null) {
+            throw Lombok.sneakyThrow(throwable);
+        }
+    }
+
+    /**
+     * 额外的并行通道，在工作线程中借用，握手和当前通道的传输同时进行。
+     * 服务器拒绝更多的连接或者通道时只记录日志，剩下的文件由当前通道上传
+     */
+    private void parallelWork(Queue<FileItem> queue, Result result, AtomicReference<Throwable> error) {
+        SshSessionPool.Lease workerLease;
+        try {
+            workerLease = SshSessionPool.tryBorrow(sshModel);
+        } catch (Exception e) {
+            log.warn("ssh [{}] 创建并行传输的会话失败：{}", sshModel.getName(), e.getMessage());
+            return;
+        }
+        if (workerLease == null) {
+            return;
+        }
+        try (SshSessionPool.Lease lease = workerLease) {
+            ChannelSftp workerChannel;
+            try {
+                workerChannel = this.openSftp(lease.getSession());
+            } catch (Exception e) {
+                log.warn("ssh [{}] 打开并行传输的通道失败：{}", sshModel.getName(), e.getMessage());
+                return;
+            }
+            result.channels.incrementAndGet();
+            try {
+                this.work(workerChannel, queue, result, error);
+            } finally {
+                JschUtil.close(workerChannel);
+            }
+        }
+    }
+
+    private void work(ChannelSftp channel, Queue<FileItem> queue, Result result, AtomicReference<Throwable> error) {
+        FileItem item;
+        while (error.get() == null && (item = queue.poll()) != null) {
+            try {
+                this.put(channel, item, result);
+            } catch (Exception e) {
+                error.compareAndSet(null, new IllegalStateException("上传文件失败：" + item.remote + " " + e.getMessage(), e));
+                return;
+            }
+        }
+    }
+
+    /**
+     * 上传单个文件，大小和修改时间相同则跳过
+     */
+    private void put(ChannelSftp channel, FileItem item, Result result) throws SftpException, IOException, JSchException {
+        int mtime = (int) (item.file.lastModified() / 1000);
+        SftpATTRS attrs = this.stat(channel, item.remote);
+        if (attrs != null && !attrs.isDir() && attrs.getSize() == item.size && attrs.getMTime() == mtime) {
+            result.skipCount.incrementAndGet();
+            return;
+        }
+        if (item.size < LARGE_FILE_SIZE) {
+            channel.setBulkRequests(BULK_REQUESTS);
+            try (InputStream inputStream = Files.newInputStream(item.file.toPath())) {
+                channel.put(inputStream, item.remote, ChannelSftp.OVERWRITE);
+            }
+            result.bytes.addAndGet(item.size);
+        } else {
+            channel.setBulkRequests(LARGE_BULK_REQUESTS);
+            // 临时文件名包含本地文件的大小和修改时间，本地文件变化后不会续传到旧的临时文件上
+            String part = StrUtil.format("{}.{}{}", item.remote, Long.toHexString(item.size * 31 + mtime), PART_SUFFIX);
+            SftpATTRS partAttrs = this.stat(channel, part);
+            long offset = partAttrs == null || partAttrs.getSize() > item.size ? 0 : partAttrs.getSize();
+            if (offset < item.size) {
+                try (InputStream inputStream = Files.newInputStream(item.file.toPath())) {
+                    // RESUME 模式下 jsch 会跳过输入流中远程已经存在的部分
+                    channel.put(inputStream, part, offset > 0 ? ChannelSftp.RESUME : ChannelSftp.OVERWRITE);
+                }
+            }
+            if (offset > 0) {
+                result.resumeCount.incrementAndGet();
+            }
+            if (attrs != null) {
+                channel.rm(item.remote);
+            }
+            channel.rename(part, item.remote);
+            result.bytes.addAndGet(item.size - offset);
+        }
+        channel.setMtime(item.remote, mtime);
+        result.fileCount.incrementAndGet();
+    }
+
+    /**
+     * 打包为 tar 流上传，远程解压
+     */
+    private void uploadTar(SshSessionPool.Lease lease, File dir, String remoteDir, Result result) {
+        Charset charset = sshModel.charset();
+        ChannelSftp channel = this.openSftp(lease.getSession());
+        String tarFile = joinPath(remoteDir, ".jpom-" + IdUtil.fastSimpleUUID() + ".tar.gz");
+        result.channels.incrementAndGet();
+        try {
+            this.mkDirs(channel, remoteDir);
+            channel.setBulkRequests(LARGE_BULK_REQUESTS);
+            GzipParameters parameters = new GzipParameters();
+            parameters.setCompressionLevel(Deflater.BEST_SPEED);
+            try (TarArchiveOutputStream outputStream = new TarArchiveOutputStream(
+                new GzipCompressorOutputStream(new BufferedOutputStream(channel.put(tarFile), 64 * 1024), parameters), charset.name())) {
+                outputStream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+                outputStream.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+                this.writeTar(outputStream, dir, StrUtil.EMPTY, result);
+                outputStream.finish();
+            }
+            String command = StrUtil.format("tar -xzf {} -C {} && rm -f {}", quote(tarFile), quote(remoteDir), quote(tarFile));
+            this.exec(lease.getSession(), command, charset);
+        } catch (Exception e) {
+            try {
+                channel.rm(tarFile);
+            } catch (Exception ignored) {
+            }
+            throw Lombok.sneakyThrow(e);
+        } finally {
+            JschUtil.close(channel);
+        }
+    }
+
+    private void writeTar(TarArchiveOutputStream outputStream, File dir, String prefix, Result result) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String name = prefix + child.getName();
+            if (child.isDirectory()) {
+                outputStream.putArchiveEntry(new TarArchiveEntry(child, name + StrUtil.SLASH));
+                outputStream.closeArchiveEntry();
+                this.writeTar(outputStream, child, name + StrUtil.SLASH, result);
+            } else {
+                outputStream.putArchiveEntry(new TarArchiveEntry(child, name));
+                try (InputStream inputStream = Files.newInputStream(child.toPath())) {
+                    IoUtil.copy(inputStream, outputStream);
+                }
+                outputStream.closeArchiveEntry();
+                result.fileCount.incrementAndGet();
+                result.bytes.addAndGet(child.length());
+            }
+        }
+    }
+
+    private void exec(Session session, String command, Charset charset) throws JSchException, IOException {
+        ChannelExec channel = (ChannelExec) JschUtil.createChannel(session, ChannelType.EXEC);
+        try (ByteArrayOutputStream errStream = new ByteArrayOutputStream()) {
+            channel.setCommand(StrUtil.bytes(command, charset));
+            channel.setInputStream(null);
+            channel.setErrStream(errStream);
+            InputStream inputStream = channel.getInputStream();
+            channel.connect(sshModel.timeout());
+            String out = IoUtil.read(inputStream, charset);
+            while (!channel.isClosed()) {
+                ThreadUtil.sleep(10);
+            }
+            int exitStatus = channel.getExitStatus();
+            Assert.state(exitStatus == 0, StrUtil.format("远程解压失败（{}）：{}{}", exitStatus, out, new String(errStream.toByteArray(), charset)));
+        } finally {
+            JschUtil.close(channel);
+        }
+    }
+
+    private void walk(File dir, String remoteDir, List<FileItem> files, Set<String> dirs) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String remote = joinPath(remoteDir, child.getName());
+            if (child.isDirectory()) {
+                dirs.add(remote);
+                this.walk(child, remote, files, dirs);
+            } else {
+                files.add(new FileItem(child, remote));
+            }
+        }
+    }
+
+    private ChannelSftp openSftp(Session session) {
+        ChannelSftp channel = JschUtil.openSftp(session, sshModel.timeout());
+        try {
+            channel.setFilenameEncoding(sshModel.charset().name());
+        } catch (SftpException e) {
+            JschUtil.close(channel);
+            throw new JschRuntimeException(e);
+        }
+        return channel;
+    }
+
+    /**
+     * 逐级创建目录
+     */
+    private void mkDirs(ChannelSftp channel, String path) throws SftpException {
+        List<String> names = StrUtil.split(path, StrUtil.C_SLASH, true, true);
+        String current = StrUtil.startWith(path, StrUtil.SLASH) ? StrUtil.EMPTY : null;
+        for (String name : names) {
+            current = current == null ? name : current + StrUtil.SLASH + name;
+            this.mkdir(channel, current);
+        }
+    }
+
+    private void mkdir(ChannelSftp channel, String path) throws SftpException {
+        SftpATTRS attrs = this.stat(channel, path);
+        if (attrs == null) {
+            channel.mkdir(path);
+        } else {
+            Assert.state(attrs.isDir(), "远程路径已经存在同名文件：" + path);
+        }
+    }
+
+    private SftpATTRS stat(ChannelSftp channel, String path) throws SftpException {
+        try {
+            return channel.stat(path);
+        } catch (SftpException e) {
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private static String joinPath(String dir, String name) {
+        return StrUtil.removeSuffix(dir, StrUtil.SLASH) + StrUtil.SLASH + name;
+    }
+
+    private static String quote(String value) {
+        return "'" + StrUtil.replace(value, "'", "'\\''") + "'";
+    }
+
+    private static class FileItem {
+        private final File file;
+        private final long size;
+        private final String remote;
+
+        private FileItem(File file, String remote) {
+            this.file = file;
+            this.size = file.length();
+            this.remote = remote;
+        }
+    }
+
+    /**
+     * 传输结果
+     */
+    public static class Result {
+        private final AtomicInteger fileCount = new AtomicInteger();
+        private final AtomicInteger skipCount = new AtomicInteger();
+        private final AtomicInteger resumeCount = new AtomicInteger();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicInteger channels = new AtomicInteger();
+        private long time;
+
+        public int getFileCount() {
+            return fileCount.get();
+        }
+
+        public int getSkipCount() {
+            return skipCount.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return 每秒传输的字节数
+         */
+        public long getSpeed() {
+            return time <= 0 ? bytes.get() : bytes.get() * 1000 / time;
+        }
+
+        @Override
+        public String toString() {
+            return StrUtil.format("上传 {} 个文件（跳过 {} 个，续传 {} 个），{}，{} 个通道，耗时 {}，{}/s",
+                fileCount.get(), skipCount.get(), resumeCount.get(), FileUtil.readableFileSize(bytes.get()), channels.get(),
+                DateUtil.formatBetween(Math.max(time, 1)), FileUtil.readableFileSize(this.getSpeed()));
+        }
+    }
+}
@@ -57,11 +57,24 @@ public class ScriptExecuteLogServer extends BaseWorkspaceService<ScriptExecuteLo
 
     @Override
     protected void executeClearImpl(int h2DbLogStorageCount) {
-        super.autoLoopClear("createTimeMillis", h2DbLogStorageCount, null, scriptExecuteLogModel -> {
-            File logFile = ScriptModel.logFile(scriptExecuteLogModel.getScriptId(), scriptExecuteLogModel.getId());
-            boolean fastDel = CommandUtil.systemFastDel(logFile);
-            return !fastDel;
-        });
+        super.autoLoopClear("createTimeMillis", h2DbLogStorageCount, null, this::clearLogFile);
+    }
+
+    @Override
+    protected void executeClearDaysImpl(long time) {
+        super.loopClearBefore("createTimeMillis", time, null, this::clearLogFile);
+    }
+
+    /**
+     * 删除执行记录对应的日志文件
+     *
+     * @param scriptExecuteLogModel 执行记录
+     * @return 日志文件删除成功才能删除记录
+     */
+    private boolean clearLogFile(ScriptExecuteLogModel scriptExecuteLogModel) {
+        File logFile = ScriptModel.logFile(scriptExecuteLogModel.getScriptId(), scriptExecuteLogModel.getId());
+        boolean fastDel = CommandUtil.systemFastDel(logFile);
+        return !fastDel;
     }
 
     @Override
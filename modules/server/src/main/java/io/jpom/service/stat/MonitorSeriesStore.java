@@ -0,0 +1,666 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service.stat;
+
+import cn.hutool.core.date.DatePattern;
+import cn.hutool.core.date.DateTime;
+import cn.hutool.core.date.DateUtil;
+import cn.hutool.core.date.SystemClock;
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.IORuntimeException;
+import io.jpom.util.TimeSeriesCodec;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 节点监控数据的时序存储
+ * <p>
+ * 每个节点、每种精度按天（或按月）一个只追加的分段文件，文件由多个压缩的数据块组成。
+ * 写入原始数据时同时按 1 分钟、5 分钟、1 小时汇总平均值、最小值、最大值、条数，查询时根据时间范围选择合适的精度
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+@Slf4j
+public class MonitorSeriesStore {
+
+    /**
+     * 原始数据的指标
+     */
+    public static final String[] METRICS = {"occupyCpu", "occupyMemory", "occupyMemoryUsed", "occupyDisk", "networkTime"};
+    /**
+     * 每个数据块最多的条数
+     */
+    private static final int BLOCK_SIZE = 120;
+    /**
+     * 缓存中的数据最长多久写入文件
+     */
+    private static final long FLUSH_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    /**
+     * 数据块头：数据长度、最小时间、最大时间、crc
+     */
+    private static final int BLOCK_HEADER = 4 + 8 + 8 + 8;
+
+    /**
+     * 数据精度
+     */
+    public enum Resolution {
+        /**
+         * 原始数据
+         */
+        RAW(0, 3, DatePattern.PURE_DATE_PATTERN),
+        MINUTE(TimeUnit.MINUTES.toMillis(1), 14, DatePattern.PURE_DATE_PATTERN),
+        FIVE_MINUTES(TimeUnit.MINUTES.toMillis(5), 90, DatePattern.SIMPLE_MONTH_PATTERN),
+        HOUR(TimeUnit.HOURS.toMillis(1), 730, DatePattern.SIMPLE_MONTH_PATTERN),
+        ;
+        /**
+         * 汇总间隔
+         */
+        private final long step;
+        /**
+         * 保留天数
+         */
+        private final int retentionDays;
+        /**
+         * 分段文件的时间格式
+         */
+        private final String segmentPattern;
+
+        Resolution(long step, int retentionDays, String segmentPattern) {
+            this.step = step;
+            this.retentionDays = retentionDays;
+            this.segmentPattern = segmentPattern;
+        }
+
+        public long getStep() {
+            return step;
+        }
+
+        /**
+         * 列数，汇总数据每个指标有平均值、最小值、最大值、条数四列
+         *
+         * @return 列数
+         */
+        private int columnCount() {
+            return this == RAW ? METRICS.length : METRICS.length * 4;
+        }
+
+        private DateTime segmentStart(long time) {
+            return DatePattern.PURE_DATE_PATTERN.equals(segmentPattern) ? DateUtil.beginOfDay(DateUtil.date(time)) : DateUtil.beginOfMonth(DateUtil.date(time));
+        }
+
+        private DateTime nextSegment(DateTime segmentStart) {
+            return DatePattern.PURE_DATE_PATTERN.equals(segmentPattern) ? DateUtil.offsetDay(segmentStart, 1) : DateUtil.offsetMonth(segmentStart, 1);
+        }
+
+        private long retentionStart(long now) {
+            return now - TimeUnit.DAYS.toMillis(retentionDays);
+        }
+    }
+
+    private final File baseDir;
+    private final Map<String, NodeSeries> nodeMap = new ConcurrentHashMap<>();
+    private volatile long lastCleanTime;
+
+    public MonitorSeriesStore(File baseDir) {
+        this.baseDir = baseDir;
+    }
+
+    /**
+     * 选择查询的精度：数据还在保留期内并且点数不超过限制的最高精度
+     *
+     * @param start     开始时间
+     * @param end       结束时间
+     * @param rawStep   原始数据的间隔
+     * @param maxPoints 最多的点数
+     * @param now       当前时间
+     * @return 精度
+     */
+    public static Resolution selectResolution(long start, long end, long rawStep, int maxPoints, long now) {
+        for (Resolution resolution : Resolution.values()) {
+            long step = resolution == Resolution.RAW ? Math.max(rawStep, 1) : resolution.step;
+            if (start >= resolution.retentionStart(now) && (end - start) / step <= maxPoints) {
+                return resolution;
+            }
+        }
+        return Resolution.HOUR;
+    }
+
+    /**
+     * 写入原始数据
+     *
+     * @param nodeId 节点ID
+     * @param time   时间
+     * @param values 指标值，顺序和 METRICS 一致，空值使用 NaN
+     */
+    public void append(String nodeId, long time, double[] values) {
+        NodeSeries nodeSeries = nodeMap.computeIfAbsent(nodeId, NodeSeries::new);
+        nodeSeries.append(time, values);
+    }
+
+    /**
+     * 查询时间范围内的数据
+     *
+     * @param nodeId     节点ID
+     * @param resolution 精度
+     * @param start      开始时间
+     * @param end        结束时间
+     * @return 按时间升序
+     */
+    public List<Point> query(String nodeId, Resolution resolution, long start, long end) {
+        NodeSeries nodeSeries = nodeMap.computeIfAbsent(nodeId, NodeSeries::new);
+        return nodeSeries.query(resolution, start, end);
+    }
+
+    /**
+     * 查询最新的原始数据
+     *
+     * @param nodeId 节点ID
+     * @param count  条数
+     * @return 按时间升序
+     */
+    public List<Point> latest(String nodeId, int count) {
+        NodeSeries nodeSeries = nodeMap.computeIfAbsent(nodeId, NodeSeries::new);
+        return nodeSeries.latest(count);
+    }
+
+    /**
+     * 查询存储中最早的数据时间（最早的分段文件的第一个数据块）
+     *
+     * @param nodeId     节点ID
+     * @param resolution 精度
+     * @return 没有数据返回 Long.MAX_VALUE
+     */
+    public long firstTime(String nodeId, Resolution resolution) {
+        NodeSeries nodeSeries = nodeMap.computeIfAbsent(nodeId, NodeSeries::new);
+        return nodeSeries.firstTime(resolution);
+    }
+
+    /**
+     * 缓存数据写入文件
+     *
+     * @param force 是否全部写入（包括还没有结束的汇总），关闭时使用
+     */
+    public void flush(boolean force) {
+        long now = SystemClock.now();
+        for (NodeSeries nodeSeries : nodeMap.values()) {
+            nodeSeries.flush(force, now);
+        }
+    }
+
+    /**
+     * 删除超过保留天数的分段文件，每小时执行一次
+     */
+    public void clean() {
+        long now = SystemClock.now();
+        if (now - lastCleanTime < TimeUnit.HOURS.toMillis(1)) {
+            return;
+        }
+        lastCleanTime = now;
+        for (Resolution resolution : Resolution.values()) {
+            File[] nodeDirs = FileUtil.file(baseDir, resolution.name().toLowerCase()).listFiles(File::isDirectory);
+            if (nodeDirs == null) {
+                continue;
+            }
+            long retentionStart = resolution.retentionStart(now);
+            for (File nodeDir : nodeDirs) {
+                File[] files = nodeDir.listFiles((dir, name) -> name.endsWith(".seg"));
+                if (files == null) {
+                    continue;
+                }
+                for (File file : files) {
+                    try {
+                        DateTime segmentStart = DateUtil.parse(FileUtil.mainName(file), resolution.segmentPattern);
+                        if (resolution.nextSegment(segmentStart).getTime() <= retentionStart) {
+                            FileUtil.del(file);
+                        }
+                    } catch (Exception e) {
+                        log.warn("监控数据文件名不正确：{}", file.getAbsolutePath());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 数据点
+     */
+    public static class Point {
+        private final long time;
+        private final double[] values;
+
+        public Point(long time, double[] values) {
+            this.time = time;
+            this.values = values;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * 原始数据为指标值；汇总数据依次为平均值、最小值、最大值、条数
+         *
+         * @return 值
+         */
+        public double[] getValues() {
+            return values;
+        }
+    }
+
+    /**
+     * 单个节点的数据
+     */
+    private class NodeSeries {
+        private final String nodeId;
+        private final Map<Resolution, Buffer> buffers = new EnumMap<>(Resolution.class);
+        private final Map<Resolution, Aggregator> aggregators = new EnumMap<>(Resolution.class);
+        private long lastTime = Long.MIN_VALUE;
+
+        private NodeSeries(String nodeId) {
+            this.nodeId = nodeId;
+            for (Resolution resolution : Resolution.values()) {
+                buffers.put(resolution, new Buffer(resolution.columnCount()));
+                if (resolution != Resolution.RAW) {
+                    aggregators.put(resolution, new Aggregator(resolution.step));
+                }
+            }
+        }
+
+        private synchronized void append(long time, double[] values) {
+            if (time <= lastTime) {
+                // 重复或者乱序的数据
+                return;
+            }
+            lastTime = time;
+            this.add(Resolution.RAW, time, values);
+            aggregators.forEach((resolution, aggregator) -> {
+                Point point = aggregator.add(time, values);
+                if (point != null) {
+                    this.add(resolution, point.time, point.values);
+                }
+            });
+        }
+
+        private void add(Resolution resolution, long time, double[] values) {
+            Buffer buffer = buffers.get(resolution);
+            buffer.add(time, values);
+            if (buffer.size >= BLOCK_SIZE) {
+                this.write(resolution, buffer);
+            }
+        }
+
+        private synchronized void flush(boolean force, long now) {
+            aggregators.forEach((resolution, aggregator) -> {
+                // 节点不再上报数据时结束汇总
+                if (force || aggregator.isExpired(now)) {
+                    Point point = aggregator.close();
+                    if (point != null) {
+                        buffers.get(resolution).add(point.time, point.values);
+                    }
+                }
+            });
+            buffers.forEach((resolution, buffer) -> {
+                if (buffer.size > 0 && (force || now - buffer.firstAddTime >= FLUSH_MILLIS)) {
+                    this.write(resolution, buffer);
+                }
+            });
+        }
+
+        private synchronized List<Point> query(Resolution resolution, long start, long end) {
+            List<Point> list = new ArrayList<>();
+            DateTime segment = resolution.segmentStart(start);
+            while (segment.getTime() <= end) {
+                this.read(resolution, segment, start, end, list);
+                segment = resolution.nextSegment(segment);
+            }
+            buffers.get(resolution).read(start, end, list);
+            return merge(resolution, list);
+        }
+
+        private synchronized List<Point> latest(int count) {
+            List<Point> list = new ArrayList<>();
+            buffers.get(Resolution.RAW).read(Long.MIN_VALUE, Long.MAX_VALUE, list);
+            long now = SystemClock.now();
+            long retentionStart = Resolution.RAW.retentionStart(now);
+            DateTime segment = Resolution.RAW.segmentStart(Math.max(now, lastTime));
+            while (list.size() < count && Resolution.RAW.nextSegment(segment).getTime() > retentionStart) {
+                this.read(Resolution.RAW, segment, Long.MIN_VALUE, Long.MAX_VALUE, list);
+                segment = DateUtil.offsetDay(segment, -1);
+            }
+            List<Point> merge = merge(Resolution.RAW, list);
+            return merge.subList(Math.max(merge.size() - count, 0), merge.size());
+        }
+
+        private synchronized long firstTime(Resolution resolution) {
+            File[] files = FileUtil.file(baseDir, resolution.name().toLowerCase(), nodeId).listFiles((dir, name) -> name.endsWith(".seg"));
+            if (files != null) {
+                Arrays.sort(files, Comparator.comparing(File::getName));
+                for (File file : files) {
+                    try (DataInputStream inputStream = new DataInputStream(Files.newInputStream(file.toPath()))) {
+                        int length = inputStream.readInt();
+                        if (length > 0) {
+                            return inputStream.readLong();
+                        }
+                    } catch (IOException e) {
+                        // 空文件
+                    }
+                }
+            }
+            Buffer buffer = buffers.get(resolution);
+            return buffer.size > 0 ? buffer.times[0] : Long.MAX_VALUE;
+        }
+
+        private File segmentFile(Resolution resolution, DateTime segmentStart) {
+            return FileUtil.file(baseDir, resolution.name().toLowerCase(), nodeId, DateUtil.format(segmentStart, resolution.segmentPattern) + ".seg");
+        }
+
+        /**
+         * 缓存数据按分段写入文件
+         */
+        private void write(Resolution resolution, Buffer buffer) {
+            try {
+                int from = 0;
+                while (from < buffer.size) {
+                    DateTime segmentStart = resolution.segmentStart(buffer.times[from]);
+                    long segmentEnd = resolution.nextSegment(segmentStart).getTime();
+                    int to = from + 1;
+                    while (to < buffer.size && buffer.times[to] >= segmentStart.getTime() && buffer.times[to] < segmentEnd) {
+                        to++;
+                    }
+                    this.writeBlock(this.segmentFile(resolution, segmentStart), buffer, from, to);
+                    from = to;
+                }
+            } catch (Exception e) {
+                log.error("监控数据写入文件失败：{} {}", nodeId, resolution, e);
+            } finally {
+                // 写入失败也不再保留，避免缓存一直增长
+                buffer.clear();
+            }
+        }
+
+        private void writeBlock(File file, Buffer buffer, int from, int to) {
+            int count = to - from;
+            long[] times = Arrays.copyOfRange(buffer.times, from, to);
+            double[][] columns = new double[buffer.columns.length][];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = Arrays.copyOfRange(buffer.columns[i], from, to);
+            }
+            byte[] payload = TimeSeriesCodec.encode(times, columns, count);
+            long minTime = Arrays.stream(times).min().orElse(0);
+            long maxTime = Arrays.stream(times).max().orElse(0);
+            CRC32 crc32 = new CRC32();
+            crc32.update(payload);
+            ByteBuffer byteBuffer = ByteBuffer.allocate(BLOCK_HEADER + payload.length);
+            byteBuffer.putInt(payload.length).putLong(minTime).putLong(maxTime).putLong(crc32.getValue()).put(payload);
+            FileUtil.mkParentDirs(file);
+            try (OutputStream outputStream = Files.newOutputStream(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                outputStream.write(byteBuffer.array());
+            } catch (IOException e) {
+                throw new IORuntimeException(e);
+            }
+        }
+
+        /**
+         * 读取分段文件，文件末尾不完整的数据块（异常退出）忽略
+         */
+        private void read(Resolution resolution, DateTime segmentStart, long start, long end, List<Point> list) {
+            File file = this.segmentFile(resolution, segmentStart);
+            if (!FileUtil.isFile(file)) {
+                return;
+            }
+            ByteBuffer byteBuffer = ByteBuffer.wrap(FileUtil.readBytes(file));
+            while (byteBuffer.remaining() >= BLOCK_HEADER) {
+                int length = byteBuffer.getInt();
+                long minTime = byteBuffer.getLong();
+                long maxTime = byteBuffer.getLong();
+                long crc = byteBuffer.getLong();
+                if (length <= 0 || length > byteBuffer.remaining()) {
+                    log.warn("监控数据文件不完整：{}", file.getAbsolutePath());
+                    return;
+                }
+                if (maxTime < start || minTime > end) {
+                    byteBuffer.position(byteBuffer.position() + length);
+                    continue;
+                }
+                byte[] payload = new byte[length];
+                byteBuffer.get(payload);
+                CRC32 crc32 = new CRC32();
+                crc32.update(payload);
+                if (crc32.getValue() != crc) {
+                    log.warn("监控数据块校验失败：{}", file.getAbsolutePath());
+                    continue;
+                }
+                TimeSeriesCodec.Block block = TimeSeriesCodec.decode(payload);
+                for (int i = 0; i < block.size(); i++) {
+                    long time = block.getTime(i);
+                    if (time < start || time > end) {
+                        continue;
+                    }
+                    double[] values = new double[block.getColumnCount()];
+                    for (int j = 0; j < values.length; j++) {
+                        values[j] = block.getValue(j, i);
+                    }
+                    list.add(new Point(time, values));
+                }
+            }
+        }
+    }
+
+    /**
+     * 排序并合并相同时间的数据（重启时未结束的汇总会提前写入、升级前的历史数据和存储的数据在同一个汇总间隔），
+     * 汇总数据的平均值按条数加权
+     *
+     * @param resolution 精度
+     * @param list       数据
+     * @return 按时间升序
+     */
+    public static List<Point> merge(Resolution resolution, List<Point> list) {
+        list.sort(Comparator.comparingLong(Point::getTime));
+        List<Point> result = new ArrayList<>(list.size());
+        for (Point point : list) {
+            Point last = result.isEmpty() ? null : result.get(result.size() - 1);
+            if (last == null || last.time != point.time) {
+                result.add(point);
+                continue;
+            }
+            if (resolution == Resolution.RAW) {
+                continue;
+            }
+            int metrics = METRICS.length;
+            double[] values = new double[metrics * 4];
+            for (int i = 0; i < metrics; i++) {
+                double lastCount = count(last.values, i);
+                double count = count(point.values, i);
+                values[i] = avg(last.values[i], lastCount, point.values[i], count);
+                values[metrics + i] = nanMin(last.values[metrics + i], point.values[metrics + i]);
+                values[metrics * 2 + i] = nanMax(last.values[metrics * 2 + i], point.values[metrics * 2 + i]);
+                values[metrics * 3 + i] = lastCount + count;
+            }
+            result.set(result.size() - 1, new Point(last.time, values));
+        }
+        return result;
+    }
+
+    /**
+     * 汇总数据的条数，没有条数列的数据块（旧格式）按 1 条计算
+     */
+    private static double count(double[] values, int index) {
+        int metrics = METRICS.length;
+        if (Double.isNaN(values[index])) {
+            return 0;
+        }
+        return values.length > metrics * 3 ? values[metrics * 3 + index] : 1;
+    }
+
+    private static double avg(double a, double aCount, double b, double bCount) {
+        if (Double.isNaN(a)) {
+            return b;
+        }
+        return Double.isNaN(b) ? a : (a * aCount + b * bCount) / (aCount + bCount);
+    }
+
+    private static double nanMin(double a, double b) {
+        if (Double.isNaN(a)) {
+            return b;
+        }
+        return Double.isNaN(b) ? a : Math.min(a, b);
+    }
+
+    private static double nanMax(double a, double b) {
+        if (Double.isNaN(a)) {
+            return b;
+        }
+        return Double.isNaN(b) ? a : Math.max(a, b);
+    }
+
+    /**
+     * 写入文件前的缓存
+     */
+    private static class Buffer {
+        private long[] times = new long[16];
+        private final double[][] columns;
+        private int size;
+        private long firstAddTime;
+
+        private Buffer(int columnCount) {
+            this.columns = new double[columnCount][16];
+        }
+
+        private void add(long time, double[] values) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = Arrays.copyOf(columns[i], size * 2);
+                }
+            }
+            if (size == 0) {
+                firstAddTime = SystemClock.now();
+            }
+            times[size] = time;
+            for (int i = 0; i < columns.length; i++) {
+                columns[i][size] = values[i];
+            }
+            size++;
+        }
+
+        private void read(long start, long end, List<Point> list) {
+            for (int i = 0; i < size; i++) {
+                if (times[i] < start || times[i] > end) {
+                    continue;
+                }
+                double[] values = new double[columns.length];
+                for (int j = 0; j < values.length; j++) {
+                    values[j] = columns[j][i];
+                }
+                list.add(new Point(times[i], values));
+            }
+        }
+
+        private void clear() {
+            size = 0;
+        }
+    }
+
+    /**
+     * 按时间间隔汇总平均值、最小值、最大值、条数
+     */
+    private static class Aggregator {
+        private final long step;
+        private long bucket = Long.MIN_VALUE;
+        private final double[] sum = new double[METRICS.length];
+        private final double[] min = new double[METRICS.length];
+        private final double[] max = new double[METRICS.length];
+        private final int[] count = new int[METRICS.length];
+
+        private Aggregator(long step) {
+            this.step = step;
+        }
+
+        /**
+         * 添加数据
+         *
+         * @return 进入下一个间隔时返回上一个间隔的汇总
+         */
+        private Point add(long time, double[] values) {
+            long timeBucket = Math.floorDiv(time, step) * step;
+            Point point = null;
+            if (timeBucket != bucket) {
+                point = this.close();
+                bucket = timeBucket;
+            }
+            for (int i = 0; i < METRICS.length; i++) {
+                double value = values[i];
+                if (Double.isNaN(value)) {
+                    continue;
+                }
+                if (count[i] == 0) {
+                    min[i] = value;
+                    max[i] = value;
+                } else {
+                    min[i] = Math.min(min[i], value);
+                    max[i] = Math.max(max[i], value);
+                }
+                sum[i] += value;
+                count[i]++;
+            }
+            return point;
+        }
+
+        private boolean isExpired(long now) {
+            return bucket != Long.MIN_VALUE && now - bucket >= step * 2;
+        }
+
+        private Point close() {
+            if (bucket == Long.MIN_VALUE) {
+                return null;
+            }
+            int metrics = METRICS.length;
+            double[] values = new double[metrics * 4];
+            boolean any = false;
+            for (int i = 0; i < metrics; i++) {
+                any |= count[i] > 0;
+                values[i] = count[i] > 0 ? sum[i] / count[i] : Double.NaN;
+                values[metrics + i] = count[i] > 0 ? min[i] : Double.NaN;
+                values[metrics * 2 + i] = count[i] > 0 ? max[i] : Double.NaN;
+                values[metrics * 3 + i] = count[i];
+            }
+            Point point = new Point(bucket, values);
+            bucket = Long.MIN_VALUE;
+            Arrays.fill(sum, 0);
+            Arrays.fill(count, 0);
+            return any ? point : null;
+        }
+    }
+}
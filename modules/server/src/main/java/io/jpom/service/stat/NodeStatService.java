@@ -24,8 +24,10 @@ package io.jpom.service.stat;
 
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.date.SystemClock;
+import cn.hutool.core.thread.ExecutorBuilder;
 import cn.hutool.core.thread.ThreadUtil;
 import cn.hutool.core.util.ObjectUtil;
+import cn.hutool.core.util.RandomUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.db.Entity;
 import cn.jiangzeyin.common.JsonMessage;
@@ -39,6 +41,7 @@ import io.jpom.model.user.UserModel;
 import io.jpom.model.log.SystemMonitorLog;
 import io.jpom.model.stat.NodeStatModel;
 import io.jpom.service.dblog.DbSystemMonitorLogService;
+import io.jpom.service.h2db.BaseDbCommonService;
 import io.jpom.service.h2db.BaseWorkspaceService;
 import io.jpom.service.node.NodeService;
 import io.jpom.system.AgentException;
@@ -47,11 +50,11 @@ import io.jpom.system.ServerExtConfigBean;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
-import java.util.Collection;
-import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
@@ -67,6 +70,21 @@ public class NodeStatService extends BaseWorkspaceService<NodeStatModel> impleme
     private final ServerExtConfigBean serverExtConfigBean;
     private final DbSystemMonitorLogService dbSystemMonitorLogService;
     private final NodeService nodeService;
+    /**
+     * 心跳请求线程池
+     */
+    private ThreadPoolExecutor heartExecutor;
+    /**
+     * 执行每一轮检测（等待所有节点结果、保存数据）
+     */
+    private ExecutorService cycleExecutor;
+    private final AtomicBoolean cycleRunning = new AtomicBoolean(false);
+    private final AtomicLong skipCycleCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private volatile long lastCycleStart;
+    private volatile long cycleDuration;
+    private volatile long cycleLag;
+    private volatile int nodeCount;
 
     public NodeStatService(ServerExtConfigBean serverExtConfigBean,
                            DbSystemMonitorLogService dbSystemMonitorLogService,
@@ -94,8 +112,18 @@ public class NodeStatService extends BaseWorkspaceService<NodeStatModel> impleme
     public void startLoad() {
         // 启动心跳检测
         int heartSecond = serverExtConfigBean.getNodeHeartSecond();
+        int poolSize = serverExtConfigBean.getNodeHeartPoolSize();
+        heartExecutor = ExecutorBuilder.create()
+            .setCorePoolSize(poolSize)
+            .setMaxPoolSize(poolSize)
+            .setWorkQueue(new LinkedBlockingQueue<>())
+            .setThreadFactory(ThreadUtil.newNamedThreadFactory("Jpom Node Heart-", true))
+            .build();
+        cycleExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "Jpom Node Heart Cycle"));
         ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "Jpom Node Monitor"));
-        scheduler.scheduleAtFixedRate(this, 10, heartSecond, TimeUnit.SECONDS);
+        // 随机延迟，避免多个服务端同时请求
+        long initialDelay = TimeUnit.SECONDS.toMillis(10) + RandomUtil.randomLong(TimeUnit.SECONDS.toMillis(heartSecond));
+        scheduler.scheduleAtFixedRate(this::trigger, initialDelay, TimeUnit.SECONDS.toMillis(heartSecond), TimeUnit.MILLISECONDS);
         //  清理 错误的节点统计数据
         List<String> duplicationByUrl = nodeService.getDeDuplicationByUrl();
         List<String> statUrl = this.getDeDuplicationByUrl();
@@ -108,6 +136,33 @@ public class NodeStatService extends BaseWorkspaceService<NodeStatModel> impleme
         }
     }
 
+    /**
+     * 定时触发，上一轮还未结束则跳过本轮
+     */
+    private void trigger() {
+        long now = SystemClock.now();
+        long heartMillis = TimeUnit.SECONDS.toMillis(serverExtConfigBean.getNodeHeartSecond());
+        if (lastCycleStart > 0) {
+            cycleLag = Math.max(now - lastCycleStart - heartMillis, 0);
+        }
+        lastCycleStart = now;
+        if (!cycleRunning.compareAndSet(false, true)) {
+            skipCycleCount.incrementAndGet();
+            log.warn("上一轮节点心跳检测还未结束，跳过本轮检测");
+            return;
+        }
+        cycleExecutor.execute(() -> {
+            try {
+                this.run();
+            } catch (Exception e) {
+                log.error("节点心跳检测异常", e);
+            } finally {
+                cycleDuration = SystemClock.now() - now;
+                cycleRunning.set(false);
+            }
+        });
+    }
+
     @Override
     public void run() {
         List<NodeModel> nodeModels = nodeService.listDeDuplicationByUrl();
@@ -115,103 +170,175 @@ public class NodeStatService extends BaseWorkspaceService<NodeStatModel> impleme
         this.checkList(nodeModels);
     }
 
-
-    private List<NodeModel> getListByUrl(String url) {
-        NodeModel nodeModel = new NodeModel();
-        nodeModel.setUrl(url);
-        return nodeService.listByBean(nodeModel);
+    /**
+     * 心跳检测统计信息
+     *
+     * @return map
+     */
+    public Map<String, Object> getHeartStat() {
+        Map<String, Object> map = new HashMap<>(8);
+        map.put("running", cycleRunning.get());
+        map.put("lastCycleStart", lastCycleStart);
+        map.put("cycleDuration", cycleDuration);
+        map.put("cycleLag", cycleLag);
+        map.put("skipCycleCount", skipCycleCount.get());
+        map.put("timeoutCount", timeoutCount.get());
+        map.put("nodeCount", nodeCount);
+        return map;
     }
 
     private void checkList(List<NodeModel> nodeModels) {
         if (CollUtil.isEmpty(nodeModels)) {
             return;
         }
-        nodeModels.forEach(nodeModel -> {
+        nodeCount = nodeModels.size();
+        // 一次查询所有节点，按 url 分组
+        Map<String, List<NodeModel>> urlMap = nodeService.list().stream().collect(Collectors.groupingBy(NodeModel::getUrl));
+        int heartTimeout = serverExtConfigBean.getNodeHeartTimeout();
+        // 本轮需要在下一轮开始前结束
+        long deadline = SystemClock.now() + TimeUnit.SECONDS.toMillis(serverExtConfigBean.getNodeHeartSecond());
+        List<NodeHeartResult> results = new ArrayList<>(nodeModels.size());
+        List<Future<?>> futures = new ArrayList<>(nodeModels.size());
+        for (NodeModel nodeModel : nodeModels) {
             //
             nodeModel.setName(nodeModel.getUrl());
-            List<NodeModel> modelList = this.getListByUrl(nodeModel.getUrl());
+            List<NodeModel> modelList = urlMap.getOrDefault(nodeModel.getUrl(), Collections.emptyList());
+            NodeHeartResult result = new NodeHeartResult(modelList);
+            results.add(result);
             boolean match = modelList.stream().allMatch(NodeModel::isOpenStatus);
             if (!match) {
                 // 节点都关闭
-                try {
-                    BaseServerController.resetInfo(UserModel.EMPTY);
-                    this.save(modelList, 4, "节点禁用中");
-                } finally {
-                    BaseServerController.removeEmpty();
-                }
-                return;
+                result.fail(4, "节点禁用中");
+                continue;
             }
             nodeModel.setOpenStatus(1);
-            nodeModel.setTimeOut(5);
+            nodeModel.setTimeOut(heartTimeout);
             //
-            ThreadUtil.execute(() -> {
-                try {
-                    BaseServerController.resetInfo(UserModel.EMPTY);
-                    JSONObject nodeTopInfo = this.getNodeTopInfo(nodeModel);
-                    //
-                    long timeMillis = SystemClock.now();
-                    JsonMessage<Object> jsonMessage = NodeForward.requestBySys(nodeModel, NodeUrl.Status, "nodeId", nodeModel.getId());
-                    int networkTime = (int) (System.currentTimeMillis() - timeMillis);
-                    JSONObject jsonObject;
-                    if (jsonMessage.getCode() == 200) {
-                        jsonObject = jsonMessage.getData(JSONObject.class);
-                    } else {
-                        // 状态码错
-                        jsonObject = new JSONObject();
-                        jsonObject.put("status", 3);
-                        jsonObject.put("failureMsg", jsonMessage.toString());
-                    }
-                    jsonObject.put("networkTime", networkTime);
-                    if (nodeTopInfo != null) {
-                        nodeTopInfo.put("networkTime", networkTime);
-                    }
-                    this.save(modelList, nodeTopInfo, jsonObject);
-                } catch (AuthorizeException agentException) {
-                    this.save(modelList, 2, agentException.getMessage());
-                } catch (AgentException e) {
-                    this.save(modelList, 1, e.getMessage());
-                } catch (Exception e) {
-                    this.save(modelList, 1, e.getMessage());
-                    log.error("获取节点监控信息失败", e);
-                } finally {
-                    BaseServerController.removeEmpty();
-                }
-            });
-        });
+            futures.add(heartExecutor.submit(() -> this.requestNode(nodeModel, result)));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get(Math.max(deadline - SystemClock.now(), 0), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+            } catch (Exception e) {
+                log.error("获取节点监控信息失败", e);
+            }
+        }
+        for (NodeHeartResult result : results) {
+            if (!result.done) {
+                timeoutCount.incrementAndGet();
+                result.fail(1, "节点心跳检测超时");
+            }
+        }
+        try {
+            BaseServerController.resetInfo(UserModel.EMPTY);
+            this.save(results);
+        } finally {
+            BaseServerController.removeEmpty();
+        }
     }
 
-    private void saveSystemMonitor(List<NodeModel> modelList, JSONObject systemMonitor) {
-        if (systemMonitor != null) {
-            List<SystemMonitorLog> monitorLogs = modelList.stream().map(nodeModel -> {
-                SystemMonitorLog log = new SystemMonitorLog();
-                log.setOccupyMemory(systemMonitor.getDouble("memory"));
-                log.setOccupyMemoryUsed(systemMonitor.getDouble("memoryUsed"));
-                log.setOccupyDisk(systemMonitor.getDouble("disk"));
-                log.setOccupyCpu(systemMonitor.getDouble("cpu"));
-                log.setMonitorTime(systemMonitor.getLongValue("time"));
-                log.setNetworkTime(systemMonitor.getIntValue("networkTime"));
-                log.setNodeId(nodeModel.getId());
-                return log;
-            }).collect(Collectors.toList());
+    /**
+     * 请求节点监控信息和状态
+     *
+     * @param nodeModel 节点
+     * @param result    结果
+     */
+    private void requestNode(NodeModel nodeModel, NodeHeartResult result) {
+        try {
+            BaseServerController.resetInfo(UserModel.EMPTY);
+            JSONObject nodeTopInfo = this.getNodeTopInfo(nodeModel);
             //
-            dbSystemMonitorLogService.insert(monitorLogs);
+            long timeMillis = SystemClock.now();
+            JsonMessage<Object> jsonMessage = NodeForward.requestBySys(nodeModel, NodeUrl.Status, "nodeId", nodeModel.getId());
+            int networkTime = (int) (System.currentTimeMillis() - timeMillis);
+            JSONObject jsonObject;
+            if (jsonMessage.getCode() == 200) {
+                jsonObject = jsonMessage.getData(JSONObject.class);
+            } else {
+                // 状态码错
+                jsonObject = new JSONObject();
+                jsonObject.put("status", 3);
+                jsonObject.put("failureMsg", jsonMessage.toString());
+            }
+            jsonObject.put("networkTime", networkTime);
+            if (nodeTopInfo != null) {
+                nodeTopInfo.put("networkTime", networkTime);
+            }
+            result.success(nodeTopInfo, jsonObject);
+        } catch (AuthorizeException agentException) {
+            result.fail(2, agentException.getMessage());
+        } catch (AgentException e) {
+            result.fail(1, e.getMessage());
+        } catch (Exception e) {
+            result.fail(1, e.getMessage());
+            log.error("获取节点监控信息失败", e);
+        } finally {
+            BaseServerController.removeEmpty();
+        }
+    }
+
+    /**
+     * 一次事务保存本轮所有节点的结果
+     *
+     * @param results 结果
+     */
+    private void save(List<NodeHeartResult> results) {
+        List<SystemMonitorLog> monitorLogs = new ArrayList<>();
+        List<NodeStatModel> statModels = new ArrayList<>();
+        for (NodeHeartResult result : results) {
+            if (result.statusData == null) {
+                statModels.addAll(this.create(result.modelList, result.status, result.msg));
+            } else {
+                monitorLogs.addAll(this.createSystemMonitor(result.modelList, result.systemMonitor));
+                statModels.addAll(this.create(result.modelList, result.systemMonitor, result.statusData));
+            }
+        }
+        try {
+            BaseDbCommonService.tx(db -> {
+                dbSystemMonitorLogService.insert(monitorLogs);
+                this.upsert(statModels);
+            });
+        } catch (SQLException e) {
+            log.error("保存节点监控信息失败", e);
         }
     }
 
+    private List<SystemMonitorLog> createSystemMonitor(List<NodeModel> modelList, JSONObject systemMonitor) {
+        if (systemMonitor == null) {
+            return Collections.emptyList();
+        }
+        return modelList.stream().map(nodeModel -> {
+            SystemMonitorLog log = new SystemMonitorLog();
+            log.setOccupyMemory(systemMonitor.getDouble("memory"));
+            log.setOccupyMemoryUsed(systemMonitor.getDouble("memoryUsed"));
+            log.setOccupyDisk(systemMonitor.getDouble("disk"));
+            log.setOccupyCpu(systemMonitor.getDouble("cpu"));
+            log.setMonitorTime(systemMonitor.getLongValue("time"));
+            log.setNetworkTime(systemMonitor.getIntValue("networkTime"));
+            log.setNodeId(nodeModel.getId());
+            return log;
+        }).collect(Collectors.toList());
+    }
+
     /**
      * 更新状态 和错误信息
      *
      * @param modelList 节点
      * @param satus     状态
      * @param msg       错误消息
+     * @return 统计数据
      */
-    private void save(List<NodeModel> modelList, int satus, String msg) {
+    private List<NodeStatModel> create(List<NodeModel> modelList, int satus, String msg) {
+        List<NodeStatModel> list = new ArrayList<>(modelList.size());
         for (NodeModel nodeModel : modelList) {
             NodeStatModel nodeStatModel = this.create(nodeModel);
             nodeStatModel.setFailureMsg(msg);
             nodeStatModel.setStatus(satus);
-            this.upsert(nodeStatModel);
+            list.add(nodeStatModel);
         }
+        return list;
     }
 
     /**
@@ -220,10 +347,10 @@ public class NodeStatService extends BaseWorkspaceService<NodeStatModel> impleme
      * @param modelList     节点
      * @param systemMonitor 系统监控
      * @param statusData    状态数据
+     * @return 统计数据
      */
-    private void save(List<NodeModel> modelList, JSONObject systemMonitor, JSONObject statusData) {
-        this.saveSystemMonitor(modelList, systemMonitor);
-        //
+    private List<NodeStatModel> create(List<NodeModel> modelList, JSONObject systemMonitor, JSONObject statusData) {
+        List<NodeStatModel> list = new ArrayList<>(modelList.size());
         for (NodeModel nodeModel : modelList) {
             NodeStatModel nodeStatModel = this.create(nodeModel);
             if (nodeModel.isOpenStatus()) {
@@ -253,8 +380,9 @@ public class NodeStatService extends BaseWorkspaceService<NodeStatModel> impleme
                 nodeStatModel.setStatus(4);
                 nodeStatModel.setFailureMsg("节点禁用中");
             }
-            this.upsert(nodeStatModel);
+            list.add(nodeStatModel);
         }
+        return list;
     }
 
     private NodeStatModel create(NodeModel model) {
@@ -291,4 +419,32 @@ public class NodeStatService extends BaseWorkspaceService<NodeStatModel> impleme
         log.warn("{} node response msg:{}", reqNode.getName(), message);
         return null;
     }
+
+    /**
+     * 单个节点（url）的心跳结果
+     */
+    private static class NodeHeartResult {
+        private final List<NodeModel> modelList;
+        private volatile boolean done;
+        private int status;
+        private String msg;
+        private JSONObject systemMonitor;
+        private JSONObject statusData;
+
+        private NodeHeartResult(List<NodeModel> modelList) {
+            this.modelList = modelList;
+        }
+
+        private void success(JSONObject systemMonitor, JSONObject statusData) {
+            this.systemMonitor = systemMonitor;
+            this.statusData = statusData;
+            this.done = true;
+        }
+
+        private void fail(int status, String msg) {
+            this.status = status;
+            this.msg = msg;
+            this.done = true;
+        }
+    }
 }
@@ -43,6 +43,11 @@ import java.util.Set;
 @Slf4j
 public class WorkspaceService extends BaseDbService<WorkspaceModel> {
 
+	@Override
+	protected int keyCacheSize() {
+		return 200;
+	}
+
 	/**
 	 * 检查初始化 默认的工作空间
 	 */
@@ -25,6 +25,7 @@ package io.jpom.service.user;
 import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.convert.Convert;
 import cn.hutool.core.date.DateTime;
+import cn.hutool.core.date.SystemClock;
 import cn.hutool.core.date.DateUtil;
 import cn.hutool.core.date.Week;
 import cn.hutool.core.util.ObjectUtil;
@@ -43,7 +44,10 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 
 import java.time.DayOfWeek;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
@@ -65,6 +69,24 @@ public class UserBindWorkspaceService extends BaseDbService<UserBindWorkspaceMod
      */
     public static final String SSH_COMMAND_NOT_LIMITED = "-sshCommandNotLimited";
 
+    /**
+     * 权限位：工作空间、节点管理员、ssh 终端没有限制、功能方法（按 MethodFeature 顺序）
+     */
+    private static final int BIT_WORKSPACE = 0;
+    private static final int BIT_SYSTEM_USER = 1;
+    private static final int BIT_SSH_COMMAND_NOT_LIMITED = 2;
+    private static final int BIT_METHOD = 3;
+    private static final String[] METHOD_SUFFIX = Arrays.stream(MethodFeature.values())
+        .map(methodFeature -> StrUtil.DASHED + methodFeature.name())
+        .toArray(String[]::new);
+
+    /**
+     * 权限缓存版本，权限组、绑定关系变动后递增
+     */
+    private final AtomicLong permissionVersion = new AtomicLong();
+    private final Map<String, GroupPermission> groupPermissionCache = new ConcurrentHashMap<>();
+    private final Map<String, UserPermission> userPermissionCache = new ConcurrentHashMap<>();
+
     public UserBindWorkspaceService(WorkspaceService workspaceService,
                                     UserPermissionGroupServer userPermissionGroupServer) {
         this.workspaceService = workspaceService;
@@ -170,123 +192,127 @@ public class UserBindWorkspaceService extends BaseDbService<UserBindWorkspaceMod
      * 查询用户 是否存在工作空间权限
      *
      * @param userModel   用户
-     * @param workspaceId 工作空间
-     * @return list
+     * @param workspaceId 工作空间（可以带权限后缀）
+     * @return true 存在
      */
-    private List<UserBindWorkspaceModel> existsList(UserModel userModel, String workspaceId) {
-        String permissionGroup = userModel.getPermissionGroup();
-        List<String> list = StrUtil.splitTrim(permissionGroup, StrUtil.AT);
-        list = list.stream()
-            .map(s -> UserBindWorkspaceModel.getId(s, workspaceId))
-            .collect(Collectors.toList());
-        // 兼容旧数据
-        list.add(UserBindWorkspaceModel.getId(userModel.getId(), workspaceId));
-        return this.listById(list);
+    public boolean exists(UserModel userModel, String workspaceId) {
+        return this.findGroups(userModel, parseWorkspaceId(workspaceId), parseBit(workspaceId)) != null;
     }
 
     /**
-     * 查询用户 是否存在工作空间权限
+     * 判断是否可以执行，并且验证时间段
      *
      * @param userModel   用户
-     * @param workspaceId 工作空间
-     * @return true 存在
+     * @param workspaceId 工作空间ID（可以带权限后缀）
+     * @return Permission Result
      */
-    public boolean exists(UserModel userModel, String workspaceId) {
-        List<UserBindWorkspaceModel> workspaceModels = this.existsList(userModel, workspaceId);
-        return CollUtil.isNotEmpty(workspaceModels);
+    public UserBindWorkspaceModel.PermissionResult checkPermission(UserModel userModel, String workspaceId) {
+        return this.checkPermission(userModel, parseWorkspaceId(workspaceId), parseBit(workspaceId));
     }
 
     /**
-     * 判断是否可以执行，并且验证时间段
+     * 判断是否可以执行对应的功能，并且验证时间段
      *
      * @param userModel   用户
      * @param workspaceId 工作空间ID
+     * @param method      功能
      * @return Permission Result
      */
-    public UserBindWorkspaceModel.PermissionResult checkPermission(UserModel userModel, String workspaceId) {
-        List<UserBindWorkspaceModel> workspaceModels = this.existsList(userModel, workspaceId);
-        if (CollUtil.isEmpty(workspaceModels)) {
+    public UserBindWorkspaceModel.PermissionResult checkPermission(UserModel userModel, String workspaceId, MethodFeature method) {
+        return this.checkPermission(userModel, workspaceId, BIT_METHOD + method.ordinal());
+    }
+
+    private UserBindWorkspaceModel.PermissionResult checkPermission(UserModel userModel, String workspaceId, int bit) {
+        List<GroupPermission> groups = this.findGroups(userModel, workspaceId, bit);
+        if (groups == null) {
             return UserBindWorkspaceModel.PermissionResult.builder()
                 .state(UserBindWorkspaceModel.PermissionResultEnum.FAIL)
                 .msg("您没有对应管理权限:-3")
                 .build();
         }
-        List<String> permissionGroupIds = workspaceModels.stream()
-            .map(UserBindWorkspaceModel::getUserId)
-            .collect(Collectors.toList());
-        List<UserPermissionGroupBean> permissionGroups = userPermissionGroupServer.listById(permissionGroupIds);
-        if (CollUtil.isEmpty(permissionGroups)) {
+        boolean existsGroup = false;
+        boolean hasAllowRule = false;
+        long now = SystemClock.now();
+        for (GroupPermission group : groups) {
+            if (!group.exists) {
+                continue;
+            }
+            existsGroup = true;
+            hasAllowRule = hasAllowRule || !group.allowRules.isEmpty();
+            // 判断禁止执行
+            for (ProhibitRule prohibitRule : group.prohibitRules) {
+                if (now >= prohibitRule.startTime && now <= prohibitRule.endTime) {
+                    return UserBindWorkspaceModel.PermissionResult.builder()
+                        .state(UserBindWorkspaceModel.PermissionResultEnum.MISS_PROHIBIT)
+                        .msg(prohibitRule.msg)
+                        .build();
+                }
+            }
+        }
+        if (!existsGroup) {
             return UserBindWorkspaceModel.PermissionResult.builder()
                 .state(UserBindWorkspaceModel.PermissionResultEnum.FAIL)
                 .msg("您没有对应管理权限:-2")
                 .build();
         }
-        // 判断禁止执行
-        Optional<JSONObject> prohibitExecuteRule = this.findProhibitExecuteRule(permissionGroups);
-        if (prohibitExecuteRule.isPresent()) {
-            String msg = prohibitExecuteRule.map(jsonObject -> {
-                String reason = jsonObject.getString("reason");
-                String startTime = jsonObject.getString("startTime");
-                String endTime = jsonObject.getString("endTime");
-                if (StrUtil.isEmpty(reason)) {
-                    return StrUtil.format("【禁止操作】当前时段禁止执行 {} 至 {}", startTime, endTime);
-                }
-                return StrUtil.format("【禁止操作】{} {} 至 {}", reason, startTime, endTime);
-            }).orElse("【禁止操作】当前时段禁止执行");
-            return UserBindWorkspaceModel.PermissionResult.builder()
-                .state(UserBindWorkspaceModel.PermissionResultEnum.MISS_PROHIBIT)
-                .msg(msg)
-                .build();
+        if (!hasAllowRule) {
+            // 没有配置规则，直接放行
+            return UserBindWorkspaceModel.PermissionResult.builder().state(UserBindWorkspaceModel.PermissionResultEnum.SUCCESS).build();
         }
         // 判断允许执行
-        return this.checkAllowExecute(permissionGroups);
+        return this.checkAllowExecute(groups);
+    }
+
+    /**
+     * 查找用户拥有对应权限的权限组
+     *
+     * @param userModel   用户
+     * @param workspaceId 工作空间ID
+     * @param bit         权限位
+     * @return null 没有权限
+     */
+    private List<GroupPermission> findGroups(UserModel userModel, String workspaceId, int bit) {
+        UserPermission userPermission = this.getUserPermission(userModel);
+        List<GroupPermission> list = null;
+        for (GroupPermission group : userPermission.groups) {
+            if (group.has(workspaceId, bit)) {
+                if (list == null) {
+                    list = new ArrayList<>(userPermission.groups.length);
+                }
+                list.add(group);
+            }
+        }
+        return list;
     }
 
     /**
      * 匹配可以执行的时间段
      *
-     * @param permissionGroups 权限组
+     * @param groups 权限组
      * @return 结果
      */
-    private UserBindWorkspaceModel.PermissionResult checkAllowExecute(List<UserPermissionGroupBean> permissionGroups) {
-        List<JSONObject> allowExecuteListRule = permissionGroups.stream()
-            .map(UserPermissionGroupBean::getAllowExecute)
-            .filter(Objects::nonNull)
-            .map(JSONArray::parseArray)
-            .filter(CollUtil::isNotEmpty)
-            .flatMap(jsonArray -> jsonArray.stream().map(o -> (JSONObject) o))
-            .collect(Collectors.toList());
-        if (CollUtil.isEmpty(allowExecuteListRule)) {
-            // 没有配置规则，直接放行
-            return UserBindWorkspaceModel.PermissionResult.builder().state(UserBindWorkspaceModel.PermissionResultEnum.SUCCESS).build();
-        }
-        Optional<JSONObject> allowExecuteRule = allowExecuteListRule.stream()
-            .filter(jsonObject -> {
-                DateTime now = DateTime.now();
-                Week nowWeek = now.dayOfWeekEnum();
-                int nowWeekInt = nowWeek.getIso8601Value();
-                JSONArray week = jsonObject.getJSONArray("week");
-                if (CollUtil.isEmpty(week)) {
-                    return false;
+    private UserBindWorkspaceModel.PermissionResult checkAllowExecute(List<GroupPermission> groups) {
+        LocalDateTime now = LocalDateTime.now();
+        int nowWeekInt = now.getDayOfWeek().getValue();
+        long nowTime = now.toLocalTime().toNanoOfDay() / 1_000_000;
+        List<AllowRule> allowRules = new ArrayList<>();
+        for (GroupPermission group : groups) {
+            if (!group.exists) {
+                continue;
+            }
+            for (AllowRule allowRule : group.allowRules) {
+                if ((allowRule.weeks & (1 << nowWeekInt)) != 0 && nowTime >= allowRule.startTime && nowTime <= allowRule.endTime) {
+                    // 允许执行
+                    return UserBindWorkspaceModel.PermissionResult.builder().state(UserBindWorkspaceModel.PermissionResultEnum.SUCCESS).build();
                 }
-                if (!CollUtil.contains(week, nowWeekInt)) {
-                    return false;
-                }
-                String startTime = jsonObject.getString("startTime");
-                String endTime = jsonObject.getString("endTime");
-                DateTime startDate = DateUtil.parseTimeToday(startTime);
-                DateTime endDate = DateUtil.parseTimeToday(endTime);
-                return DateUtil.isIn(DateTime.now(), startDate, endDate);
-            })
-            .findAny();
-        if (allowExecuteRule.isPresent()) {
-            // 允许执行
-            return UserBindWorkspaceModel.PermissionResult.builder().state(UserBindWorkspaceModel.PermissionResultEnum.SUCCESS).build();
+                allowRules.add(allowRule);
+            }
         }
         // 拼接限制规则
-        String ruleStr = allowExecuteListRule.stream().map(jsonObject -> {
+        String ruleStr = allowRules.stream().map(allowRule -> {
+            JSONObject jsonObject = allowRule.rule;
             JSONArray week = jsonObject.getJSONArray("week");
-            String weekStr = week.stream()
+            String weekStr = CollUtil.emptyIfNull(week).stream()
                 .map(o -> Convert.toInt(o, 0))
                 .map(weekInt -> {
                     DayOfWeek dayOfWeek = DayOfWeek.of(weekInt);
@@ -305,28 +331,217 @@ public class UserBindWorkspaceService extends BaseDbService<UserBindWorkspaceMod
     }
 
     /**
-     * 匹配禁止执行规则
+     * 权限组、绑定关系发生变化，刷新缓存的权限
+     */
+    public void refreshPermission() {
+        permissionVersion.incrementAndGet();
+        groupPermissionCache.clear();
+        userPermissionCache.clear();
+    }
+
+    @Override
+    protected void onDataChange() {
+        this.refreshPermission();
+    }
+
+    /**
+     * 获取用户的权限，权限组变化、缓存的版本过期后重新加载
      *
-     * @param permissionGroups 权限组配置
-     * @return 找到的第一个禁止规则
+     * @param userModel 用户
+     * @return 用户权限
      */
-    private Optional<JSONObject> findProhibitExecuteRule(List<UserPermissionGroupBean> permissionGroups) {
-        return permissionGroups.stream()
-            .map(UserPermissionGroupBean::getProhibitExecute)
-            .filter(Objects::nonNull)
-            .map(JSONArray::parseArray)
-            .filter(CollUtil::isNotEmpty)
-            .flatMap(jsonArray -> jsonArray.stream().map(o -> (JSONObject) o))
-            .filter(jsonObject -> {
-                String startTime = jsonObject.getString("startTime");
-                String endTime = jsonObject.getString("endTime");
-                if (StrUtil.hasEmpty(startTime, endTime)) {
-                    return false;
-                }
-                DateTime startDate = DateUtil.parse(startTime);
-                DateTime endDate = DateUtil.parse(endTime);
-                return DateUtil.isIn(DateTime.now(), startDate, endDate);
-            })
-            .findFirst();
+    private UserPermission getUserPermission(UserModel userModel) {
+        long version = permissionVersion.get();
+        String permissionGroup = userModel.getPermissionGroup();
+        UserPermission userPermission = userPermissionCache.get(userModel.getId());
+        if (userPermission != null && userPermission.version == version && StrUtil.equals(userPermission.permissionGroup, permissionGroup)) {
+            return userPermission;
+        }
+        List<String> list = StrUtil.splitTrim(permissionGroup, StrUtil.AT);
+        // 兼容旧数据
+        list.add(userModel.getId());
+        GroupPermission[] groups = list.stream()
+            .distinct()
+            .map(this::getGroupPermission)
+            .toArray(GroupPermission[]::new);
+        userPermission = new UserPermission(version, permissionGroup, groups);
+        userPermissionCache.put(userModel.getId(), userPermission);
+        return userPermission;
+    }
+
+    /**
+     * 获取权限组的权限
+     *
+     * @param groupId 权限组ID（兼容旧数据为用户ID）
+     * @return 权限
+     */
+    private GroupPermission getGroupPermission(String groupId) {
+        // 先读取版本再查询数据，查询期间数据变动缓存会在下一次读取时重新加载
+        long version = permissionVersion.get();
+        GroupPermission groupPermission = groupPermissionCache.get(groupId);
+        if (groupPermission != null && groupPermission.version == version) {
+            return groupPermission;
+        }
+        List<UserBindWorkspaceModel> bindList = this.listUserWorkspace(groupId);
+        UserPermissionGroupBean groupBean = userPermissionGroupServer.getByKey(groupId);
+        groupPermission = new GroupPermission(version, groupBean, bindList);
+        groupPermissionCache.put(groupId, groupPermission);
+        return groupPermission;
+    }
+
+    /**
+     * 解析权限后缀
+     *
+     * @param workspaceId 工作空间ID（可以带权限后缀）
+     * @return 权限位
+     */
+    private static int parseBit(String workspaceId) {
+        if (StrUtil.endWith(workspaceId, SYSTEM_USER)) {
+            return BIT_SYSTEM_USER;
+        }
+        if (StrUtil.endWith(workspaceId, SSH_COMMAND_NOT_LIMITED)) {
+            return BIT_SSH_COMMAND_NOT_LIMITED;
+        }
+        for (int i = 0; i < METHOD_SUFFIX.length; i++) {
+            if (StrUtil.endWith(workspaceId, METHOD_SUFFIX[i])) {
+                return BIT_METHOD + i;
+            }
+        }
+        return BIT_WORKSPACE;
+    }
+
+    /**
+     * 去掉权限后缀
+     *
+     * @param workspaceId 工作空间ID（可以带权限后缀）
+     * @return 工作空间ID
+     */
+    private static String parseWorkspaceId(String workspaceId) {
+        int bit = parseBit(workspaceId);
+        switch (bit) {
+            case BIT_WORKSPACE:
+                return workspaceId;
+            case BIT_SYSTEM_USER:
+                return StrUtil.removeSuffix(workspaceId, SYSTEM_USER);
+            case BIT_SSH_COMMAND_NOT_LIMITED:
+                return StrUtil.removeSuffix(workspaceId, SSH_COMMAND_NOT_LIMITED);
+            default:
+                return StrUtil.removeSuffix(workspaceId, METHOD_SUFFIX[bit - BIT_METHOD]);
+        }
+    }
+
+    /**
+     * 用户的权限，由多个权限组合并
+     */
+    private static class UserPermission {
+        private final long version;
+        private final String permissionGroup;
+        private final GroupPermission[] groups;
+
+        private UserPermission(long version, String permissionGroup, GroupPermission[] groups) {
+            this.version = version;
+            this.permissionGroup = permissionGroup;
+            this.groups = groups;
+        }
+    }
+
+    /**
+     * 权限组的权限，工作空间 x 权限位
+     */
+    private static class GroupPermission {
+        private final long version;
+        /**
+         * 权限组是否存在，旧数据绑定在用户ID上没有权限组
+         */
+        private final boolean exists;
+        private final Map<String, Long> workspaceBits = new HashMap<>();
+        private final List<ProhibitRule> prohibitRules = new ArrayList<>();
+        private final List<AllowRule> allowRules = new ArrayList<>();
+
+        private GroupPermission(long version, UserPermissionGroupBean groupBean, List<UserBindWorkspaceModel> bindList) {
+            this.version = version;
+            this.exists = groupBean != null;
+            for (UserBindWorkspaceModel bindWorkspaceModel : CollUtil.emptyIfNull(bindList)) {
+                String workspaceId = bindWorkspaceModel.getWorkspaceId();
+                int bit = parseBit(workspaceId);
+                workspaceBits.merge(parseWorkspaceId(workspaceId), 1L << bit, (a, b) -> a | b);
+            }
+            if (groupBean == null) {
+                return;
+            }
+            Optional.ofNullable(groupBean.getProhibitExecute())
+                .map(JSONArray::parseArray)
+                .ifPresent(jsonArray -> jsonArray.forEach(o -> {
+                    JSONObject jsonObject = (JSONObject) o;
+                    String startTime = jsonObject.getString("startTime");
+                    String endTime = jsonObject.getString("endTime");
+                    if (StrUtil.hasEmpty(startTime, endTime)) {
+                        return;
+                    }
+                    prohibitRules.add(new ProhibitRule(jsonObject));
+                }));
+            Optional.ofNullable(groupBean.getAllowExecute())
+                .map(JSONArray::parseArray)
+                .ifPresent(jsonArray -> jsonArray.forEach(o -> allowRules.add(new AllowRule((JSONObject) o))));
+        }
+
+        private boolean has(String workspaceId, int bit) {
+            Long bits = workspaceBits.get(workspaceId);
+            return bits != null && (bits & (1L << bit)) != 0;
+        }
+    }
+
+    /**
+     * 禁止执行的时间段
+     */
+    private static class ProhibitRule {
+        private final long startTime;
+        private final long endTime;
+        private final String msg;
+
+        private ProhibitRule(JSONObject jsonObject) {
+            String reason = jsonObject.getString("reason");
+            String startTime = jsonObject.getString("startTime");
+            String endTime = jsonObject.getString("endTime");
+            this.startTime = DateUtil.parse(startTime).getTime();
+            this.endTime = DateUtil.parse(endTime).getTime();
+            if (StrUtil.isEmpty(reason)) {
+                this.msg = StrUtil.format("【禁止操作】当前时段禁止执行 {} 至 {}", startTime, endTime);
+            } else {
+                this.msg = StrUtil.format("【禁止操作】{} {} 至 {}", reason, startTime, endTime);
+            }
+        }
+    }
+
+    /**
+     * 允许执行的时间段，时间为当天的毫秒数
+     */
+    private static class AllowRule {
+        private final JSONObject rule;
+        private final int weeks;
+        private final long startTime;
+        private final long endTime;
+
+        private AllowRule(JSONObject jsonObject) {
+            this.rule = jsonObject;
+            JSONArray week = jsonObject.getJSONArray("week");
+            int weeks = 0;
+            for (Object o : CollUtil.emptyIfNull(week)) {
+                weeks |= 1 << Convert.toInt(o, 0);
+            }
+            this.weeks = weeks;
+            if (weeks == 0) {
+                this.startTime = 0;
+                this.endTime = -1;
+                return;
+            }
+            this.startTime = this.parseTime(jsonObject.getString("startTime"));
+            this.endTime = this.parseTime(jsonObject.getString("endTime"));
+        }
+
+        private long parseTime(String time) {
+            DateTime dateTime = DateUtil.parseTimeToday(time);
+            return dateTime.getTime() - DateUtil.beginOfDay(dateTime).getTime();
+        }
     }
 }
@@ -22,6 +22,7 @@
  */
 package io.jpom.service.user;
 
+import cn.jiangzeyin.common.spring.SpringUtil;
 import io.jpom.model.user.UserPermissionGroupBean;
 import io.jpom.service.h2db.BaseDbService;
 import org.springframework.stereotype.Service;
@@ -32,4 +33,10 @@ import org.springframework.stereotype.Service;
  */
 @Service
 public class UserPermissionGroupServer extends BaseDbService<UserPermissionGroupBean> {
+
+    @Override
+    protected void onDataChange() {
+        // 权限组的执行时间段变化，刷新缓存的权限
+        SpringUtil.getBean(UserBindWorkspaceService.class).refreshPermission();
+    }
 }
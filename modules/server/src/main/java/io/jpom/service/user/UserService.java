@@ -46,6 +46,11 @@ import java.util.List;
 @Service
 public class UserService extends BaseDbService<UserModel> {
 
+    @Override
+    protected int keyCacheSize() {
+        return 500;
+    }
+
     /**
      * 是否需要初始化
      *
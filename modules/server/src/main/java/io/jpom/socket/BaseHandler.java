@@ -81,11 +81,13 @@ public abstract class BaseHandler extends TextWebSocketHandler {
 	public void handleTransportError(WebSocketSession session, Throwable exception) {
 		log.error(session.getId() + "socket 异常", exception);
 		destroy(session);
+		SocketSessionUtil.closeOutbound(session.getId());
 	}
 
 	@Override
 	public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
 		destroy(session);
+		SocketSessionUtil.closeOutbound(session.getId());
 	}
 
 	/**
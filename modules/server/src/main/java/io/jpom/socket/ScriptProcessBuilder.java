@@ -43,7 +43,6 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.socket.WebSocketSession;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -116,13 +115,7 @@ public class ScriptProcessBuilder extends BaseRunScript implements Runnable {
         if (scriptProcessBuilder.sessions.add(session)) {
             if (FileUtil.exist(scriptProcessBuilder.logFile)) {
                 // 读取之前的信息并发送
-                FileUtil.readLines(scriptProcessBuilder.logFile, CharsetUtil.CHARSET_UTF_8, (LineHandler) line -> {
-                    try {
-                        SocketSessionUtil.send(session, line);
-                    } catch (IOException e) {
-                        log.error("发送消息失败", e);
-                    }
-                });
+                FileUtil.readLines(scriptProcessBuilder.logFile, CharsetUtil.CHARSET_UTF_8, (LineHandler) line -> SocketSessionUtil.sendAsync(session, line));
             }
         }
     }
@@ -196,11 +189,8 @@ public class ScriptProcessBuilder extends BaseRunScript implements Runnable {
         Iterator<WebSocketSession> iterator = sessions.iterator();
         while (iterator.hasNext()) {
             WebSocketSession session = iterator.next();
-            try {
-                SocketSessionUtil.send(session, msg);
-            } catch (IOException e) {
-                log.error("发送消息失败", e);
-            }
+            // 结束消息需要和之前的日志保持顺序，并且不能和日志合并
+            SocketSessionUtil.sendAsync(session, msg, false);
             iterator.remove();
         }
         FILE_SCRIPT_PROCESS_BUILDER_CONCURRENT_HASH_MAP.remove(this.executeId);
@@ -218,10 +208,8 @@ public class ScriptProcessBuilder extends BaseRunScript implements Runnable {
         Iterator<WebSocketSession> iterator = sessions.iterator();
         while (iterator.hasNext()) {
             WebSocketSession session = iterator.next();
-            try {
-                SocketSessionUtil.send(session, line);
-            } catch (IOException e) {
-                log.error("发送消息失败", e);
+            // 异步发送，避免接收慢的会话阻塞脚本输出的读取
+            if (!SocketSessionUtil.sendAsync(session, line)) {
                 iterator.remove();
             }
         }
@@ -137,13 +137,23 @@ public class ServerWebSocketInterceptor implements HandshakeInterceptor {
 
                 attributes.put("tomcatId", tomcatId);
                 break;
-            case dockerLog:
+            case dockerLog: {
+                Object dataItem = this.checkData(handlerType, userModel, httpServletRequest);
+                if (dataItem == null) {
+                    return false;
+                }
+                attributes.put("dataItem", dataItem);
+                break;
+            }
             case ssh: {
                 Object dataItem = this.checkData(handlerType, userModel, httpServletRequest);
                 if (dataItem == null) {
                     return false;
                 }
                 attributes.put("dataItem", dataItem);
+                // 重连终端
+                attributes.put("terminalId", httpServletRequest.getParameter("terminalId"));
+                attributes.put("offset", httpServletRequest.getParameter("offset"));
                 break;
             }
             case docker:
@@ -230,7 +240,7 @@ public class ServerWebSocketInterceptor implements HandshakeInterceptor {
         Feature feature = handlerClass.getAnnotation(Feature.class);
         MethodFeature method = feature.method();
         ClassFeature cls = feature.cls();
-        UserBindWorkspaceModel.PermissionResult permissionResult = userBindWorkspaceService.checkPermission(userInfo, workspaceId + StrUtil.DASHED + method.name());
+        UserBindWorkspaceModel.PermissionResult permissionResult = userBindWorkspaceService.checkPermission(userInfo, workspaceId, method);
         if (permissionResult.isSuccess()) {
             return StrUtil.EMPTY;
         }
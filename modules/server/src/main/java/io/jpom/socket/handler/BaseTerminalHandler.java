@@ -29,6 +29,7 @@ import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.WebSocketSession;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 /**
  * @author bwcx_jzy
@@ -47,7 +48,7 @@ public abstract class BaseTerminalHandler extends BaseHandler {
 			return;
 		}
 		synchronized (session.getId()) {
-			BinaryMessage byteBuffer = new BinaryMessage(msg.getBytes());
+			BinaryMessage byteBuffer = new BinaryMessage(msg.getBytes(StandardCharsets.UTF_8));
 			try {
 				session.sendMessage(byteBuffer);
 			} catch (IOException e) {
@@ -43,18 +43,23 @@ import io.jpom.permission.MethodFeature;
 import io.jpom.service.dblog.SshTerminalExecuteLogService;
 import io.jpom.service.node.ssh.SshService;
 import io.jpom.service.user.UserBindWorkspaceService;
+import io.jpom.system.ServerExtConfigBean;
+import io.jpom.util.SocketSessionUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * ssh 处理2
@@ -67,6 +72,10 @@ import java.util.concurrent.ConcurrentHashMap;
 public class SshHandler extends BaseTerminalHandler {
 
     private static final ConcurrentHashMap<String, HandlerItem> HANDLER_ITEM_CONCURRENT_HASH_MAP = new ConcurrentHashMap<>();
+    /**
+     * 可以重连的终端，key 为前端生成的终端 id
+     */
+    private static final ConcurrentHashMap<String, HandlerItem> TERMINAL_MAP = new ConcurrentHashMap<>();
     private static SshTerminalExecuteLogService sshTerminalExecuteLogService;
     private static UserBindWorkspaceService userBindWorkspaceService;
 
@@ -86,26 +95,69 @@ public class SshHandler extends BaseTerminalHandler {
 
         super.logOpt(this.getClass(), attributes, attributes);
         //
-        HandlerItem handlerItem;
+        String terminalId = ServerExtConfigBean.getInstance().getSshTerminalResumeTime() > 0 ? (String) attributes.get("terminalId") : null;
+        HandlerItem handlerItem = this.resume(session, terminalId, sshItem);
+        if (handlerItem != null) {
+            HANDLER_ITEM_CONCURRENT_HASH_MAP.put(session.getId(), handlerItem);
+            return;
+        }
         try {
-            handlerItem = new HandlerItem(session, sshItem);
+            handlerItem = new HandlerItem(session, sshItem, terminalId);
             handlerItem.startRead();
         } catch (Exception e) {
             // 输出超时日志 @author jzy
             log.error("ssh 控制台连接超时", e);
             sendBinary(session, "ssh 控制台连接超时");
+            if (handlerItem != null) {
+                handlerItem.close();
+            }
             this.destroy(session);
             return;
         }
         HANDLER_ITEM_CONCURRENT_HASH_MAP.put(session.getId(), handlerItem);
+        if (terminalId != null) {
+            TERMINAL_MAP.put(terminalId, handlerItem);
+        }
         //
         Thread.sleep(1000);
     }
 
+    /**
+     * 重新连接到断开的终端
+     *
+     * @param session    会话
+     * @param terminalId 终端id
+     * @param sshItem    ssh
+     * @return null 没有可以恢复的终端
+     */
+    private HandlerItem resume(WebSocketSession session, String terminalId, SshModel sshItem) {
+        if (StrUtil.isEmpty(terminalId)) {
+            return null;
+        }
+        HandlerItem handlerItem = TERMINAL_MAP.get(terminalId);
+        if (handlerItem == null) {
+            return null;
+        }
+        Map<String, Object> attributes = session.getAttributes();
+        UserModel userInfo = (UserModel) attributes.get("userInfo");
+        UserModel owner = (UserModel) handlerItem.session.getAttributes().get("userInfo");
+        if (!StrUtil.equals(handlerItem.sshItem.getId(), sshItem.getId()) || !StrUtil.equals(owner.getId(), userInfo.getId())) {
+            return null;
+        }
+        long offset = Convert.toLong(attributes.get("offset"), 0L);
+        try {
+            handlerItem.attach(session, offset);
+        } catch (IOException e) {
+            log.warn("恢复 ssh 终端失败：{}", e.getMessage());
+            closeNotReliable(session);
+        }
+        return handlerItem;
+    }
+
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
         HandlerItem handlerItem = HANDLER_ITEM_CONCURRENT_HASH_MAP.get(session.getId());
-        if (handlerItem == null) {
+        if (handlerItem == null || handlerItem.session != session) {
             sendBinary(session, "已经离线啦");
             IoUtil.close(session);
             return;
@@ -135,7 +187,7 @@ public class SshHandler extends BaseTerminalHandler {
         try {
             this.sendCommand(handlerItem, payload, userInfo, sshCommandNotLimited);
         } catch (Exception e) {
-            sendBinary(session, "Failure:" + e.getMessage());
+            handlerItem.output.write("Failure:" + e.getMessage());
             log.error("执行命令异常", e);
         }
     }
@@ -158,7 +210,7 @@ public class SshHandler extends BaseTerminalHandler {
      * @param command 命令行
      * @param refuse  是否拒绝
      */
-    private void logCommands(WebSocketSession session, String command, boolean refuse) {
+    private static void logCommands(WebSocketSession session, String command, boolean refuse) {
         List<String> split = StrUtil.splitTrim(command, StrUtil.CR);
         // 最后一个是否为回车, 最后一个不是回车表示还未提交，还在缓存去待确认
         boolean all = StrUtil.endWith(command, StrUtil.CR);
@@ -177,18 +229,27 @@ public class SshHandler extends BaseTerminalHandler {
         sshTerminalExecuteLogService.batch(userInfo, sshItem, ip, userAgent, refuse, split);
     }
 
-    private class HandlerItem implements Runnable {
-        private final WebSocketSession session;
+    private static class HandlerItem implements Runnable {
+        private volatile WebSocketSession session;
         private final InputStream inputStream;
         private final OutputStream outputStream;
         private final Session openSession;
         private final ChannelShell channel;
         private final SshModel sshItem;
+        private final String terminalId;
+        private final SshTerminalOutput output;
         private final StringBuilder nowLineInput = new StringBuilder();
+        /**
+         * 客户端断开的时间，0 表示已连接
+         */
+        private volatile long detachTime;
 
-        HandlerItem(WebSocketSession session, SshModel sshItem) throws IOException {
+        HandlerItem(WebSocketSession session, SshModel sshItem, String terminalId) throws IOException {
             this.session = session;
             this.sshItem = sshItem;
+            this.terminalId = terminalId;
+            this.output = new SshTerminalOutput(sshItem.charset(), ServerExtConfigBean.getInstance().getSshTerminalScrollbackSize());
+            this.output.attach(frameSender(session), 0);
             this.openSession = SshService.getSessionByModel(sshItem);
             this.channel = (ChannelShell) JschUtil.createChannel(openSession, ChannelType.SHELL);
             this.inputStream = channel.getInputStream();
@@ -200,6 +261,73 @@ public class SshHandler extends BaseTerminalHandler {
             ThreadUtil.execute(this);
         }
 
+        private static SshTerminalOutput.FrameSender frameSender(WebSocketSession session) {
+            return new SshTerminalOutput.FrameSender() {
+                @Override
+                public void send(ByteBuffer buffer) throws IOException {
+                    try {
+                        session.sendMessage(new BinaryMessage(buffer));
+                    } catch (IOException | RuntimeException e) {
+                        throw new IOException(e);
+                    }
+                }
+
+                @Override
+                public void close() {
+                    // 发送失败（超时）后关闭会话，客户端可以重连继续
+                    closeNotReliable(session);
+                }
+            };
+        }
+
+        /**
+         * 绑定新的客户端，关闭原有的客户端
+         *
+         * @param session 新会话
+         * @param offset  客户端已经收到的字节数
+         * @throws IOException 补发失败
+         */
+        synchronized void attach(WebSocketSession session, long offset) throws IOException {
+            WebSocketSession old = this.session;
+            this.session = session;
+            this.detachTime = 0;
+            try {
+                this.output.attach(frameSender(session), offset);
+            } catch (IOException e) {
+                // 补发失败按断开处理，超过保留时间没有重连会被关闭
+                this.detachTime = System.currentTimeMillis();
+                throw e;
+            } finally {
+                if (old != session) {
+                    IoUtil.close(old);
+                }
+            }
+        }
+
+        /**
+         * 客户端异常断开，保留终端等待重连
+         *
+         * @param session 断开的会话
+         */
+        synchronized void detach(WebSocketSession session) {
+            if (this.session != session) {
+                return;
+            }
+            this.output.detach();
+            this.detachTime = System.currentTimeMillis();
+        }
+
+        synchronized void close() {
+            if (terminalId != null) {
+                TERMINAL_MAP.remove(terminalId, this);
+            }
+            IoUtil.close(inputStream);
+            IoUtil.close(outputStream);
+            JschUtil.close(channel);
+            JschUtil.close(openSession);
+            IoUtil.close(session);
+        }
+
         /**
          * 调整 缓存区大小
          *
@@ -257,7 +385,7 @@ public class SshHandler extends BaseTerminalHandler {
                 refuse = SshModel.checkInputItem(sshItem, msg);
             }
             // 执行命令行记录
-            logCommands(session, allCommand, refuse);
+            SshHandler.logCommands(session, allCommand, refuse);
             return systemUser || refuse;
         }
 
@@ -265,32 +393,66 @@ public class SshHandler extends BaseTerminalHandler {
         @Override
         public void run() {
             try {
-                byte[] buffer = new byte[1024];
-                int i;
-                //如果没有数据来，线程会一直阻塞在这个地方等待数据。
-                while ((i = inputStream.read(buffer)) != -1) {
-                    sendBinary(session, new String(Arrays.copyOfRange(buffer, 0, i), sshItem.charset()));
-                }
+                output.pump(inputStream);
             } catch (Exception e) {
-                if (!this.openSession.isConnected()) {
-                    return;
+                if (this.openSession.isConnected()) {
+                    log.error("读取错误", e);
                 }
-                log.error("读取错误", e);
-                SshHandler.this.destroy(this.session);
             }
+            // 终端已经退出
+            this.close();
         }
     }
 
     @Override
-    public void destroy(WebSocketSession session) {
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        log.warn("{} ssh 终端 socket 异常：{}", session.getId(), exception.getMessage());
+        // 由关闭事件判断是否保留终端
+        closeNotReliable(session);
+    }
+
+    private static void closeNotReliable(WebSocketSession session) {
+        try {
+            session.close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (IOException e) {
+            log.warn("关闭会话失败：{}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
         HandlerItem handlerItem = HANDLER_ITEM_CONCURRENT_HASH_MAP.get(session.getId());
-        if (handlerItem != null) {
-            IoUtil.close(handlerItem.inputStream);
-            IoUtil.close(handlerItem.outputStream);
-            JschUtil.close(handlerItem.channel);
-            JschUtil.close(handlerItem.openSession);
+        boolean normal = CloseStatus.NORMAL.equalsCode(status) || CloseStatus.GOING_AWAY.equalsCode(status) || CloseStatus.NO_STATUS_CODE.equalsCode(status);
+        if (handlerItem != null && handlerItem.terminalId != null && !normal) {
+            // 网络异常断开，保留终端等待重连
+            HANDLER_ITEM_CONCURRENT_HASH_MAP.remove(session.getId());
+            handlerItem.detach(session);
+            SocketSessionUtil.closeOutbound(session.getId());
+            return;
+        }
+        super.afterConnectionClosed(session, status);
+    }
+
+    @Override
+    public void destroy(WebSocketSession session) {
+        HandlerItem handlerItem = HANDLER_ITEM_CONCURRENT_HASH_MAP.remove(session.getId());
+        if (handlerItem != null && handlerItem.session == session) {
+            handlerItem.close();
         }
         IoUtil.close(session);
-        HANDLER_ITEM_CONCURRENT_HASH_MAP.remove(session.getId());
+    }
+
+    /**
+     * 关闭断开后超过保留时间没有重连的终端
+     */
+    public static void evictDetached() {
+        long keepMillis = TimeUnit.SECONDS.toMillis(ServerExtConfigBean.getInstance().getSshTerminalResumeTime());
+        long now = System.currentTimeMillis();
+        for (HandlerItem handlerItem : TERMINAL_MAP.values()) {
+            long detachTime = handlerItem.detachTime;
+            if (detachTime > 0 && now - detachTime > keepMillis) {
+                handlerItem.close();
+            }
+        }
     }
 }
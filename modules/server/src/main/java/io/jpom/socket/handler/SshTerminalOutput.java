@@ -0,0 +1,308 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.socket.handler;
+
+import cn.hutool.core.thread.ThreadUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ssh 终端输出
+ * <p>
+ * 按 ssh 的编码流式解码（多字节字符跨读取边界不会乱码），统一转为 UTF-8 后合并成二进制帧发送。
+ * 空闲时的回显立即发送，持续输出时在时间窗口内合并，单帧不超过 {@link #MAX_FRAME_SIZE}。
+ * 发送在读取线程中同步完成，浏览器接收慢时不再读取 ssh 输出，由 ssh 通道窗口让远程暂停输出。
+ * 最近的输出保存在有界的回滚缓存中，重连的客户端可以从已接收的位置继续。
+ * 发送失败时只解除绑定，在释放锁之后才通知关闭客户端，避免和关闭事件的处理互相等待
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+@Slf4j
+class SshTerminalOutput {
+
+    /**
+     * 单帧最大字节数
+     */
+    static final int MAX_FRAME_SIZE = 32 * 1024;
+    /**
+     * 持续输出时合并的时间窗口
+     */
+    static final long LINGER_NANOS = TimeUnit.MILLISECONDS.toNanos(15);
+
+    private final Object lock = new Object();
+    private final CharsetDecoder decoder;
+    private final CharsetEncoder encoder;
+    /**
+     * 读取缓存，保留未解码完的半个字符
+     */
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(MAX_FRAME_SIZE + 16);
+    private final CharBuffer charBuffer = CharBuffer.allocate(8 * 1024);
+    private final ByteBuffer frame = ByteBuffer.allocate(MAX_FRAME_SIZE);
+    private final byte[] scrollback;
+    /**
+     * 累计输出的字节数
+     */
+    private long total;
+    private long lastFlushNanos;
+    private FrameSender sender;
+    /**
+     * 发送失败等待关闭的客户端
+     */
+    private FrameSender failed;
+
+    SshTerminalOutput(Charset charset, int scrollbackSize) {
+        this.decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.scrollback = new byte[Math.max(scrollbackSize, MAX_FRAME_SIZE)];
+    }
+
+    /**
+     * 读取 ssh 输出直到结束
+     *
+     * @param inputStream ssh 通道的输出
+     * @throws IOException io
+     */
+    void pump(InputStream inputStream) throws IOException {
+        while (true) {
+            //如果没有数据来，线程会一直阻塞在这个地方等待数据。
+            int len = this.read(inputStream);
+            if (len < 0) {
+                break;
+            }
+            // 上一帧刚发送完说明在持续输出，等待合并；否则是交互回显，只合并已经到达的数据
+            long now = System.nanoTime();
+            boolean streaming = now - lastFlushNanos < LINGER_NANOS * 2;
+            long deadline = now + LINGER_NANOS;
+            while (true) {
+                if (inputStream.available() > 0) {
+                    if (this.read(inputStream) < 0) {
+                        break;
+                    }
+                    continue;
+                }
+                if (!streaming || System.nanoTime() >= deadline) {
+                    break;
+                }
+                ThreadUtil.sleep(1);
+            }
+            synchronized (lock) {
+                this.flush();
+            }
+            this.closeFailed();
+        }
+        synchronized (lock) {
+            readBuffer.flip();
+            this.decode(true);
+            decoder.flush(charBuffer);
+            charBuffer.flip();
+            while (encoder.encode(charBuffer, frame, true).isOverflow()) {
+                this.flush();
+            }
+            while (encoder.flush(frame).isOverflow()) {
+                this.flush();
+            }
+            this.flush();
+        }
+        this.closeFailed();
+    }
+
+    private int read(InputStream inputStream) throws IOException {
+        int len = inputStream.read(readBuffer.array(), readBuffer.position(), readBuffer.remaining());
+        if (len > 0) {
+            synchronized (lock) {
+                readBuffer.position(readBuffer.position() + len);
+                readBuffer.flip();
+                this.decode(false);
+                readBuffer.compact();
+            }
+            this.closeFailed();
+        }
+        return len;
+    }
+
+    private void decode(boolean endOfInput) {
+        CoderResult result;
+        do {
+            result = decoder.decode(readBuffer, charBuffer, endOfInput);
+            charBuffer.flip();
+            while (encoder.encode(charBuffer, frame, false).isOverflow()) {
+                this.flush();
+            }
+            charBuffer.compact();
+        } while (result.isOverflow());
+    }
+
+    /**
+     * 直接输出提示消息（同样记录到回滚缓存）
+     *
+     * @param msg 消息
+     */
+    void write(String msg) {
+        byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
+        synchronized (lock) {
+            this.flush();
+            this.deliver(ByteBuffer.wrap(bytes));
+        }
+        this.closeFailed();
+    }
+
+    private void flush() {
+        if (frame.position() == 0) {
+            return;
+        }
+        frame.flip();
+        this.deliver(frame);
+        frame.clear();
+        lastFlushNanos = System.nanoTime();
+    }
+
+    private void deliver(ByteBuffer buffer) {
+        this.record(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        if (sender == null) {
+            return;
+        }
+        try {
+            sender.send(buffer);
+        } catch (IOException e) {
+            log.warn("发送终端消息失败，等待客户端重连：{}", e.getMessage());
+            failed = sender;
+            sender = null;
+        }
+    }
+
+    /**
+     * 在锁外关闭发送失败的客户端
+     */
+    private void closeFailed() {
+        FrameSender close;
+        synchronized (lock) {
+            close = this.failed;
+            this.failed = null;
+        }
+        if (close != null) {
+            close.close();
+        }
+    }
+
+    private void record(byte[] bytes, int offset, int len) {
+        int capacity = scrollback.length;
+        if (len > capacity) {
+            offset += len - capacity;
+            total += len - capacity;
+            len = capacity;
+        }
+        int index = (int) (total % capacity);
+        int first = Math.min(len, capacity - index);
+        System.arraycopy(bytes, offset, scrollback, index, first);
+        System.arraycopy(bytes, offset + first, scrollback, 0, len - first);
+        total += len;
+    }
+
+    /**
+     * 绑定客户端，补发客户端还未收到的输出
+     *
+     * @param sender 发送
+     * @param offset 客户端已经收到的字节数
+     * @throws IOException 补发失败，失败时不会绑定客户端，也不会调用 {@link FrameSender#close()}
+     */
+    void attach(FrameSender sender, long offset) throws IOException {
+        synchronized (lock) {
+            this.sender = null;
+            this.failed = null;
+            this.flush();
+            int capacity = scrollback.length;
+            long oldest = Math.max(0, total - capacity);
+            long start = offset < oldest || offset > total ? oldest : offset;
+            int len = (int) (total - start);
+            if (len > 0) {
+                byte[] bytes = new byte[len];
+                int index = (int) (start % capacity);
+                int first = Math.min(len, capacity - index);
+                System.arraycopy(scrollback, index, bytes, 0, first);
+                System.arraycopy(scrollback, 0, bytes, first, len - first);
+                int skip = 0;
+                if (start != offset) {
+                    // 缓存已经被覆盖，跳过开头不完整的 UTF-8 字符
+                    while (skip < len && (bytes[skip] & 0xC0) == 0x80) {
+                        skip++;
+                    }
+                }
+                for (int i = skip; i < len; i += MAX_FRAME_SIZE) {
+                    sender.send(ByteBuffer.wrap(bytes, i, Math.min(MAX_FRAME_SIZE, len - i)));
+                }
+            }
+            this.sender = sender;
+        }
+    }
+
+    /**
+     * 解除客户端绑定，之后的输出只记录到回滚缓存
+     */
+    void detach() {
+        synchronized (lock) {
+            this.sender = null;
+        }
+    }
+
+    long getTotal() {
+        synchronized (lock) {
+            return total;
+        }
+    }
+
+    /**
+     * 终端帧发送
+     */
+    interface FrameSender {
+
+        /**
+         * 同步发送一帧，返回后缓存可以复用
+         *
+         * @param buffer 帧数据
+         * @throws IOException 发送失败
+         */
+        void send(ByteBuffer buffer) throws IOException;
+
+        /**
+         * 发送失败后关闭客户端，调用时没有持有输出的锁
+         */
+        default void close() {
+        }
+    }
+}
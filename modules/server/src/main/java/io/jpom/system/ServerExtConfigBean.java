@@ -23,6 +23,7 @@
 package io.jpom.system;
 
 import cn.hutool.core.convert.Convert;
+import cn.hutool.core.io.unit.DataSizeUtil;
 import cn.hutool.core.util.ObjectUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.script.ScriptUtil;
@@ -103,12 +104,84 @@ public class ServerExtConfigBean {
     @Value("${ssh.initEnv:}")
     private String sshInitEnv;
 
+    /**
+     * 单个 ssh 最多保持的会话数
+     */
+    @Value("${ssh.maxSessions:4}")
+    private Integer sshMaxSessions;
+
+    /**
+     * 单个 ssh 会话同时打开的最大通道数（exec、sftp）
+     */
+    @Value("${ssh.maxChannels:5}")
+    private Integer sshMaxChannels;
+
+    /**
+     * ssh 会话空闲多久后关闭 单位秒
+     */
+    @Value("${ssh.sessionIdleTime:300}")
+    private Integer sshSessionIdleTime;
+
+    /**
+     * ssh 上传目录时同时使用的 sftp 通道数
+     */
+    @Value("${ssh.transferChannels:4}")
+    private Integer sshTransferChannels;
+
+    /**
+     * ssh 上传目录时是否打包成 tar 流上传后在远程解压（需要远程服务器支持 tar 命令）
+     */
+    @Value("${ssh.transferTar:false}")
+    private Boolean sshTransferTar;
+
+    /**
+     * ssh 命令批量执行时同时执行的 ssh 数
+     */
+    @Value("${ssh.commandConcurrent:10}")
+    private Integer sshCommandConcurrent;
+
+    /**
+     * ssh 命令单台执行的默认超时时间 单位秒，0 不限制
+     */
+    @Value("${ssh.commandTimeout:0}")
+    private Integer sshCommandTimeout;
+
+    /**
+     * ssh 终端保留的最近输出大小 单位 KB
+     */
+    @Value("${ssh.terminalScrollback:256}")
+    private Integer sshTerminalScrollback;
+
+    /**
+     * ssh 终端网络断开后保留多久等待重连 单位秒，0 不保留
+     */
+    @Value("${ssh.terminalResumeTime:60}")
+    private Integer sshTerminalResumeTime;
+
     /**
      * 上传文件的超时时间 单位秒,最短5秒中
      */
     @Value("${node.uploadFileTimeOut:300}")
     private int uploadFileTimeOut;
 
+    /**
+     * 单个节点最多保持的连接数
+     */
+    @Value("${node.maxConnections:20}")
+    private Integer nodeMaxConnections;
+
+    /**
+     * 节点连接空闲多久后关闭 单位秒
+     */
+    @Value("${node.connectionIdleTime:60}")
+    private Integer nodeConnectionIdleTime;
+
+    /**
+     * 上传文件到节点的总带宽（每秒），如 50MB，为空不限制
+     */
+    @Value("${node.uploadMaxBandwidth:}")
+    private String nodeUploadMaxBandwidth;
+
     /**
      * 前端接口 超时时间 单位秒
      */
@@ -168,6 +241,18 @@ public class ServerExtConfigBean {
     @Value("${system.nodeHeartSecond:30}")
     private Integer nodeHeartSecond;
 
+    /**
+     * 检查节点心跳同时请求的节点数
+     */
+    @Value("${system.nodeHeartPoolSize:10}")
+    private Integer nodeHeartPoolSize;
+
+    /**
+     * 检查节点心跳单个节点的请求超时时间
+     */
+    @Value("${system.nodeHeartTimeout:5}")
+    private Integer nodeHeartTimeout;
+
     /**
      * 获取上传文件超时时间
      *
@@ -177,6 +262,42 @@ public class ServerExtConfigBean {
         return Math.max(this.uploadFileTimeOut, 5) * 1000;
     }
 
+    public int getSshMaxSessions() {
+        return Math.max(ObjectUtil.defaultIfNull(this.sshMaxSessions, 4), 1);
+    }
+
+    public int getSshMaxChannels() {
+        return Math.max(ObjectUtil.defaultIfNull(this.sshMaxChannels, 5), 2);
+    }
+
+    public int getSshSessionIdleTime() {
+        return Math.max(ObjectUtil.defaultIfNull(this.sshSessionIdleTime, 300), 10);
+    }
+
+    public int getSshTransferChannels() {
+        return Math.max(ObjectUtil.defaultIfNull(this.sshTransferChannels, 4), 1);
+    }
+
+    public boolean isSshTransferTar() {
+        return ObjectUtil.defaultIfNull(this.sshTransferTar, false);
+    }
+
+    public int getSshCommandConcurrent() {
+        return Math.max(ObjectUtil.defaultIfNull(this.sshCommandConcurrent, 10), 1);
+    }
+
+    public int getSshCommandTimeout() {
+        return Math.max(ObjectUtil.defaultIfNull(this.sshCommandTimeout, 0), 0);
+    }
+
+    public int getSshTerminalScrollbackSize() {
+        return Math.max(ObjectUtil.defaultIfNull(this.sshTerminalScrollback, 256), 32) * 1024;
+    }
+
+    public int getSshTerminalResumeTime() {
+        return Math.max(ObjectUtil.defaultIfNull(this.sshTerminalResumeTime, 60), 0);
+    }
+
     public String getSshInitEnv() {
         return StrUtil.emptyToDefault(this.sshInitEnv, "source /etc/profile && source ~/.bash_profile && source ~/.bashrc");
     }
@@ -265,6 +386,38 @@ public class ServerExtConfigBean {
         return Math.max(integer, 5);
     }
 
+    public int getNodeHeartPoolSize() {
+        int integer = ObjectUtil.defaultIfNull(nodeHeartPoolSize, 10);
+        return Math.max(integer, 1);
+    }
+
+    public int getNodeHeartTimeout() {
+        int integer = ObjectUtil.defaultIfNull(nodeHeartTimeout, 5);
+        return Math.max(integer, 1);
+    }
+
+    public int getNodeMaxConnections() {
+        int integer = ObjectUtil.defaultIfNull(nodeMaxConnections, 20);
+        return Math.max(integer, 1);
+    }
+
+    public int getNodeConnectionIdleTime() {
+        int integer = ObjectUtil.defaultIfNull(nodeConnectionIdleTime, 60);
+        return Math.max(integer, 1);
+    }
+
+    /**
+     * 上传文件到节点的总带宽
+     *
+     * @return 每秒字节数，小于等于 0 不限制
+     */
+    public long getNodeUploadMaxBandwidth() {
+        if (StrUtil.isBlank(nodeUploadMaxBandwidth)) {
+            return 0;
+        }
+        return DataSizeUtil.parse(nodeUploadMaxBandwidth);
+    }
+
     public String getNotificationPlacement() {
         return notificationPlacement;
     }
@@ -57,6 +57,16 @@ public class BuildExtConfig {
      */
     private int poolWaitQueue = 10;
 
+    /**
+     * 差异发布对比文件的签名方式 crc32（速度快）、sha1，插件端不支持 crc32 时自动使用 sha1
+     */
+    private String diffSyncHashType = "crc32";
+
+    /**
+     * 差异发布有变化的文件打包为一个压缩包上传时是否压缩，关闭后文件原样存储（STORED）不压缩，内网带宽充足时可以减少 CPU 消耗
+     */
+    private boolean diffSyncCompress = true;
+
 
     public boolean checkDeleteCommand() {
         return checkDeleteCommand != null && checkDeleteCommand;
@@ -52,6 +52,16 @@ public class DbExtConfig {
      * 日志记录最大条数
      */
     private Integer logStorageCount = 10000;
+
+    /**
+     * 日志存储天数，整天清理超过天数的旧数据，配置小于等于零则不按天数清理
+     */
+    private Integer logStorageDays = 0;
+
+    /**
+     * 操作日志队列大小，请求线程放入队列后由后台线程批量写入，队列满时丢弃
+     */
+    private Integer operateLogQueueSize = 10000;
     /**
      * 数据库 url
      */
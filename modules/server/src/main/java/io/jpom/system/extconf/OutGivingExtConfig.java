@@ -0,0 +1,107 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.system.extconf;
+
+import cn.hutool.core.collection.CollUtil;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 节点分发相关配置
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+@Configuration
+@ConfigurationProperties(prefix = "outgiving")
+@Data
+public class OutGivingExtConfig {
+
+    /**
+     * 同时分发的节点数（所有分发共用）
+     */
+    private int poolSize = 10;
+
+    /**
+     * 分批分发，每一批累计分发的节点百分比，如 10,50,100。为空则一次分发所有节点。
+     * 前一批分发失败（并发重启时项目未正常运行）时取消剩余的批次，只对分发后不操作、并发重启生效
+     */
+    private List<Integer> waves;
+
+    /**
+     * 分批分发、顺序重启时等待项目启动的最长时间（秒），小于等于 0 使用分发配置的间隔时间
+     */
+    private int healthCheckTimeout;
+
+    /**
+     * 是否开启中继分发：服务端只把文件发送给少量的节点，再由节点转发给其他节点，减少服务端的上传流量
+     */
+    private boolean relay;
+
+    /**
+     * 中继分发每个节点（包括服务端）转发的节点数
+     */
+    private int relayFanOut = 2;
+
+    /**
+     * 中继分发的分块大小（MB）
+     */
+    private int relayChunkSize = 4;
+
+    /**
+     * 中继分发等待所有节点接收完成的最长时间（秒），超时未完成的节点由服务端直接上传
+     */
+    private int relayTimeout = 600;
+
+    public int getPoolSize() {
+        return Math.max(poolSize, 1);
+    }
+
+    public int getRelayFanOut() {
+        return Math.max(relayFanOut, 1);
+    }
+
+    public int getRelayChunkSize() {
+        return Math.min(Math.max(relayChunkSize, 1), 64);
+    }
+
+    /**
+     * 有效的分批比例，递增并且最后一批为 100
+     *
+     * @return 百分比
+     */
+    public List<Integer> waves() {
+        List<Integer> list = CollUtil.emptyIfNull(waves)
+            .stream()
+            .filter(integer -> integer != null && integer > 0 && integer < 100)
+            .distinct()
+            .sorted()
+            .collect(Collectors.toList());
+        list.add(100);
+        return list;
+    }
+}
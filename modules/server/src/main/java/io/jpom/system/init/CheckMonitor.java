@@ -37,9 +37,13 @@ import io.jpom.cron.CronUtils;
 import io.jpom.model.data.NodeModel;
 import io.jpom.service.IStatusRecover;
 import io.jpom.service.dblog.BackupInfoService;
+import io.jpom.service.dblog.DbSystemMonitorLogService;
+import io.jpom.service.h2db.BaseDbService;
 import io.jpom.service.node.NodeService;
 import io.jpom.service.node.script.NodeScriptExecuteLogServer;
 import io.jpom.service.node.script.NodeScriptServer;
+import io.jpom.service.node.ssh.SshSessionPool;
+import io.jpom.socket.handler.SshHandler;
 import io.jpom.system.ConfigBean;
 import lombok.extern.slf4j.Slf4j;
 
@@ -78,6 +82,26 @@ public class CheckMonitor {
                 log.error("系统调度执行出现错误", e);
             }
         });
+        // 自动清理数据，每个表依次清理
+        CronUtils.upsert("db_retention", "0 0/1 * * * ?", () -> {
+            Map<String, BaseDbService> serviceMap = SpringUtil.getApplicationContext().getBeansOfType(BaseDbService.class);
+            serviceMap.forEach((name, baseDbService) -> {
+                try {
+                    baseDbService.executeRetention();
+                } catch (Exception e) {
+                    log.error("自动清理数据异常：{}", name, e);
+                }
+            });
+        });
+        // 节点监控数据写入文件
+        CronUtils.upsert("monitor_series", "0 0/1 * * * ?", () -> {
+            DbSystemMonitorLogService dbSystemMonitorLogService = SpringUtil.getBean(DbSystemMonitorLogService.class);
+            dbSystemMonitorLogService.flushSeries();
+        });
+        // 关闭空闲的 ssh 会话
+        CronUtils.upsert("ssh_session_pool", "0 0/1 * * * ?", SshSessionPool::evictIdle);
+        // 关闭断开后没有重连的 ssh 终端
+        CronUtils.upsert("ssh_terminal_resume", "0 0/1 * * * ?", SshHandler::evictDetached);
         // 拉取 脚本模版日志
         CronUtils.upsert("pull_script_log", "0 0/1 * * * ?", () -> {
             NodeService nodeService = SpringUtil.getBean(NodeService.class);
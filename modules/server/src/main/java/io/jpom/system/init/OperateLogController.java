@@ -146,8 +146,11 @@ public class OperateLogController implements AopLogInterface {
             cacheInfo.reqData = JSONObject.toJSONString(allData);
             //
             if (cacheInfo.methodFeature == MethodFeature.DEL) {
-                // 删除数据 提前查询出操作到数据相关信息
-                cacheInfo.optDataNameMap = dbUserOperateLogService.buildDataMsg(cacheInfo.classFeature, cacheInfo.dataId, cacheInfo.nodeModel == null ? null : cacheInfo.nodeModel.getId());
+                UserModel userModel = BaseServerController.getUserModel();
+                if (userModel != null && dbUserOperateLogService.existsMonitor(cacheInfo.workspaceId, cacheInfo.classFeature, cacheInfo.methodFeature, userModel.getId())) {
+                    // 删除数据并且需要监控 提前查询出操作到数据相关信息
+                    cacheInfo.optDataNameMap = dbUserOperateLogService.buildDataMsg(cacheInfo.classFeature, cacheInfo.dataId, cacheInfo.nodeModel == null ? null : cacheInfo.nodeModel.getId());
+                }
             }
             CACHE_INFO_THREAD_LOCAL.set(cacheInfo);
         }
@@ -210,13 +213,28 @@ public class OperateLogController implements AopLogInterface {
     }
 
     /**
-     * 记录操作日志
+     * 记录操作日志，放入队列由后台线程写入
      *
      * @param userModel 用户
      * @param value     返回执行
      * @param cacheInfo 请求信息
      */
     public void log(UserModel userModel, Object value, CacheInfo cacheInfo) {
+        if (dbUserOperateLogService == null) {
+            dbUserOperateLogService = SpringUtil.getBean(DbUserOperateLogService.class);
+        }
+        dbUserOperateLogService.submit(userModel, cacheInfo, () -> this.buildLog(userModel, value, cacheInfo));
+    }
+
+    /**
+     * 生成操作日志
+     *
+     * @param userModel 用户
+     * @param value     返回执行
+     * @param cacheInfo 请求信息
+     * @return null 不需要记录
+     */
+    private UserOperateLogV1 buildLog(UserModel userModel, Object value, CacheInfo cacheInfo) {
         UserOperateLogV1 userOperateLogV1 = new UserOperateLogV1();
         userOperateLogV1.setWorkspaceId(cacheInfo.workspaceId);
         userOperateLogV1.setClassFeature(cacheInfo.classFeature.name());
@@ -243,7 +261,7 @@ public class OperateLogController implements AopLogInterface {
                     int[] resultCode = cacheInfo.getResultCode();
                     if (ArrayUtil.isNotEmpty(resultCode) && !ArrayUtil.contains(resultCode, code)) {
                         // 忽略
-                        return;
+                        return null;
                     }
                     userOperateLogV1.setOptStatus(code);
                 } catch (Exception ignored) {
@@ -262,13 +280,7 @@ public class OperateLogController implements AopLogInterface {
                 userOperateLogV1.setWorkspaceId(cacheInfo.nodeModel.getWorkspaceId());
             }
         }
-        //
-        try {
-            BaseServerController.resetInfo(UserModel.EMPTY);
-            dbUserOperateLogService.insert(userOperateLogV1, cacheInfo);
-        } finally {
-            BaseServerController.removeEmpty();
-        }
+        return userOperateLogV1;
     }
 
 
@@ -291,7 +303,7 @@ public class OperateLogController implements AopLogInterface {
         //
         Entity where = new Entity();
         where.set("reqId", reqId);
-        dbUserOperateLogService.update(entity, where);
+        dbUserOperateLogService.submitUpdate(entity, where);
     }
 
     /**
@@ -0,0 +1,262 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.util;
+
+import org.springframework.util.Assert;
+
+import java.util.Arrays;
+
+/**
+ * 时序数据块编码
+ * <p>
+ * 按列存储：时间列使用二阶差分（delta-of-delta）编码，数值列使用相邻值异或（XOR）编码，
+ * 监控数据变化平缓时每个点只需要几个 bit
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class TimeSeriesCodec {
+
+    /**
+     * 编码
+     *
+     * @param times   时间列
+     * @param columns 数值列，空值使用 NaN
+     * @param count   数据条数
+     * @return 编码后的数据
+     */
+    public static byte[] encode(long[] times, double[][] columns, int count) {
+        Assert.isTrue(count > 0, "没有数据");
+        BitWriter writer = new BitWriter(count * (columns.length + 1) * 2 + 16);
+        writer.writeBits(count, 32);
+        writer.writeBits(columns.length, 16);
+        // 时间列
+        writer.writeBits(times[0], 64);
+        long prevTime = times[0];
+        long prevDelta = 0;
+        for (int i = 1; i < count; i++) {
+            long delta = times[i] - prevTime;
+            writeDod(writer, delta - prevDelta);
+            prevDelta = delta;
+            prevTime = times[i];
+        }
+        // 数值列
+        for (double[] column : columns) {
+            long prev = Double.doubleToRawLongBits(column[0]);
+            writer.writeBits(prev, 64);
+            int prevLeading = -1;
+            int prevTrailing = 0;
+            for (int i = 1; i < count; i++) {
+                long value = Double.doubleToRawLongBits(column[i]);
+                long xor = value ^ prev;
+                prev = value;
+                if (xor == 0) {
+                    writer.writeBit(false);
+                    continue;
+                }
+                writer.writeBit(true);
+                int leading = Math.min(Long.numberOfLeadingZeros(xor), 63);
+                int trailing = Long.numberOfTrailingZeros(xor);
+                if (prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) {
+                    // 沿用上一个有效位区间
+                    writer.writeBit(false);
+                    writer.writeBits(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+                } else {
+                    int significant = 64 - leading - trailing;
+                    writer.writeBit(true);
+                    writer.writeBits(leading, 6);
+                    writer.writeBits(significant - 1, 6);
+                    writer.writeBits(xor >>> trailing, significant);
+                    prevLeading = leading;
+                    prevTrailing = trailing;
+                }
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * 解码
+     *
+     * @param bytes 编码后的数据
+     * @return 数据块
+     */
+    public static Block decode(byte[] bytes) {
+        BitReader reader = new BitReader(bytes);
+        int count = (int) reader.readBits(32);
+        int columnCount = (int) reader.readBits(16);
+        long[] times = new long[count];
+        times[0] = reader.readBits(64);
+        long prevDelta = 0;
+        for (int i = 1; i < count; i++) {
+            long delta = prevDelta + readDod(reader);
+            times[i] = times[i - 1] + delta;
+            prevDelta = delta;
+        }
+        double[][] columns = new double[columnCount][count];
+        for (double[] column : columns) {
+            long prev = reader.readBits(64);
+            column[0] = Double.longBitsToDouble(prev);
+            int prevLeading = 0;
+            int prevTrailing = 0;
+            for (int i = 1; i < count; i++) {
+                if (reader.readBit()) {
+                    if (reader.readBit()) {
+                        prevLeading = (int) reader.readBits(6);
+                        int significant = (int) reader.readBits(6) + 1;
+                        prevTrailing = 64 - prevLeading - significant;
+                    }
+                    long xor = reader.readBits(64 - prevLeading - prevTrailing) << prevTrailing;
+                    prev ^= xor;
+                }
+                column[i] = Double.longBitsToDouble(prev);
+            }
+        }
+        return new Block(times, columns);
+    }
+
+    private static void writeDod(BitWriter writer, long dod) {
+        if (dod == 0) {
+            writer.writeBit(false);
+        } else if (dod >= -63 && dod <= 64) {
+            writer.writeBits(0b10, 2);
+            writer.writeBits(dod + 63, 7);
+        } else if (dod >= -255 && dod <= 256) {
+            writer.writeBits(0b110, 3);
+            writer.writeBits(dod + 255, 9);
+        } else if (dod >= -2047 && dod <= 2048) {
+            writer.writeBits(0b1110, 4);
+            writer.writeBits(dod + 2047, 12);
+        } else {
+            writer.writeBits(0b1111, 4);
+            writer.writeBits(dod, 64);
+        }
+    }
+
+    private static long readDod(BitReader reader) {
+        if (!reader.readBit()) {
+            return 0;
+        }
+        if (!reader.readBit()) {
+            return reader.readBits(7) - 63;
+        }
+        if (!reader.readBit()) {
+            return reader.readBits(9) - 255;
+        }
+        if (!reader.readBit()) {
+            return reader.readBits(12) - 2047;
+        }
+        return reader.readBits(64);
+    }
+
+    /**
+     * 解码后的数据块
+     */
+    public static class Block {
+        private final long[] times;
+        private final double[][] columns;
+
+        public Block(long[] times, double[][] columns) {
+            this.times = times;
+            this.columns = columns;
+        }
+
+        public int size() {
+            return times.length;
+        }
+
+        public long getTime(int index) {
+            return times[index];
+        }
+
+        public double getValue(int column, int index) {
+            return columns[column][index];
+        }
+
+        public int getColumnCount() {
+            return columns.length;
+        }
+    }
+
+    private static class BitWriter {
+        private byte[] buffer;
+        private int bitLength;
+
+        private BitWriter(int capacity) {
+            this.buffer = new byte[Math.max(capacity, 16)];
+        }
+
+        private void writeBit(boolean bit) {
+            this.ensure(1);
+            if (bit) {
+                buffer[bitLength >>> 3] |= (byte) (0x80 >>> (bitLength & 7));
+            }
+            bitLength++;
+        }
+
+        private void writeBits(long value, int bits) {
+            this.ensure(bits);
+            for (int i = bits - 1; i >= 0; i--) {
+                if (((value >>> i) & 1) == 1) {
+                    buffer[bitLength >>> 3] |= (byte) (0x80 >>> (bitLength & 7));
+                }
+                bitLength++;
+            }
+        }
+
+        private void ensure(int bits) {
+            int need = (bitLength + bits + 7) >>> 3;
+            if (need > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(need, buffer.length * 2));
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, (bitLength + 7) >>> 3);
+        }
+    }
+
+    private static class BitReader {
+        private final byte[] buffer;
+        private int position;
+
+        private BitReader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        private boolean readBit() {
+            Assert.state(position < buffer.length * 8, "数据块不完整");
+            boolean bit = (buffer[position >>> 3] & (0x80 >>> (position & 7))) != 0;
+            position++;
+            return bit;
+        }
+
+        private long readBits(int bits) {
+            long value = 0;
+            for (int i = 0; i < bits; i++) {
+                value = (value << 1) | (this.readBit() ? 1 : 0);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.common.forward;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+
+/**
+ * 上传带宽限制
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class BandwidthLimiterTest {
+
+    @Test
+    public void testAcquire() throws InterruptedIOException {
+        // 每秒 1MB，发送 512KB 需要约 300 毫秒（允许 200 毫秒突发）
+        BandwidthLimiter limiter = new BandwidthLimiter(1024 * 1024);
+        long start = System.nanoTime();
+        for (int i = 0; i < 8; i++) {
+            limiter.acquire(64 * 1024);
+        }
+        long millis = (System.nanoTime() - start) / 1000_000;
+        Assert.assertTrue("cost " + millis, millis >= 250 && millis < 1000);
+    }
+}
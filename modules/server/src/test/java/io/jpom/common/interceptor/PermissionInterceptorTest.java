@@ -0,0 +1,161 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.common.interceptor;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.ReflectUtil;
+import cn.jiangzeyin.common.spring.SpringUtil;
+import io.jpom.common.Const;
+import io.jpom.model.data.NodeModel;
+import io.jpom.model.data.WorkspaceModel;
+import io.jpom.model.user.UserModel;
+import io.jpom.model.user.UserPermissionGroupBean;
+import io.jpom.permission.Feature;
+import io.jpom.permission.MethodFeature;
+import io.jpom.permission.SystemPermission;
+import io.jpom.service.h2db.MemoryDb;
+import io.jpom.service.node.NodeService;
+import io.jpom.service.system.WorkspaceService;
+import io.jpom.service.user.UserBindWorkspaceService;
+import io.jpom.service.user.UserPermissionGroupServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.method.HandlerMethod;
+
+/**
+ * 权限拦截：方法注解解析后缓存，使用预先计算的权限判断，绑定关系变动后立即生效
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class PermissionInterceptorTest {
+
+    private PermissionInterceptor interceptor;
+    private UserBindWorkspaceService bindService;
+    private String workspaceId;
+    private String groupId;
+    private UserModel userModel;
+    private NodeModel nodeModel;
+
+    @Before
+    public void before() throws Exception {
+        MemoryDb.init();
+        WorkspaceService workspaceService = new WorkspaceService();
+        UserPermissionGroupServer groupServer = new UserPermissionGroupServer();
+        bindService = new UserBindWorkspaceService(workspaceService, groupServer);
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.registerBean(UserBindWorkspaceService.class, () -> bindService);
+        context.refresh();
+        SpringUtil.updateApplicationContext(context);
+        //
+        WorkspaceModel workspaceModel = new WorkspaceModel();
+        workspaceModel.setId(IdUtil.fastSimpleUUID());
+        workspaceModel.setName("test");
+        workspaceService.insert(workspaceModel);
+        workspaceId = workspaceModel.getId();
+        UserPermissionGroupBean groupBean = new UserPermissionGroupBean();
+        groupBean.setName("test");
+        groupServer.insert(groupBean);
+        groupId = groupBean.getId();
+        userModel = new UserModel(IdUtil.fastSimpleUUID());
+        userModel.setPermissionGroup(groupId);
+        //
+        nodeModel = new NodeModel();
+        nodeModel.setId(IdUtil.fastSimpleUUID());
+        nodeModel.setOpenStatus(1);
+        NodeService nodeService = Mockito.mock(NodeService.class);
+        Mockito.when(nodeService.getByKey(nodeModel.getId())).thenReturn(nodeModel);
+        interceptor = new PermissionInterceptor();
+        ReflectUtil.setFieldValue(interceptor, "nodeService", nodeService);
+        ReflectUtil.setFieldValue(interceptor, "userBindWorkspaceService", bindService);
+    }
+
+    @After
+    public void after() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    private boolean preHandle(String methodName, boolean node) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.getSession().setAttribute(LoginInterceptor.SESSION_NAME, userModel);
+        request.setParameter(Const.WORKSPACEID_REQ_HEADER, workspaceId);
+        if (node) {
+            request.setParameter("nodeId", nodeModel.getId());
+        }
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        HandlerMethod handlerMethod = new HandlerMethod(new TestController(), TestController.class.getMethod(methodName));
+        return interceptor.preHandle(request, new MockHttpServletResponse(), handlerMethod);
+    }
+
+    @Test
+    public void testMethodFeature() throws Exception {
+        Assert.assertTrue(this.preHandle("list", false));
+        Assert.assertFalse(this.preHandle("execute", false));
+        bindService.updateUserWorkspace(groupId, CollUtil.newArrayList(workspaceId, workspaceId + "-" + MethodFeature.EXECUTE.name()));
+        Assert.assertTrue(this.preHandle("execute", false));
+        // 类上没有功能注解，方法上的不受影响
+        Assert.assertTrue(this.preHandle("none", false));
+        bindService.updateUserWorkspace(groupId, CollUtil.newArrayList(workspaceId));
+        Assert.assertFalse(this.preHandle("execute", false));
+    }
+
+    @Test
+    public void testSystemPermission() throws Exception {
+        bindService.updateUserWorkspace(groupId, CollUtil.newArrayList(workspaceId));
+        // 服务端需要系统管理员
+        Assert.assertFalse(this.preHandle("system", false));
+        // 节点需要节点管理员
+        Assert.assertFalse(this.preHandle("system", true));
+        bindService.updateUserWorkspace(groupId, CollUtil.newArrayList(workspaceId, workspaceId + UserBindWorkspaceService.SYSTEM_USER));
+        Assert.assertTrue(this.preHandle("system", true));
+        bindService.deleteByUserId(groupId);
+        Assert.assertFalse(this.preHandle("system", true));
+    }
+
+    public static class TestController {
+
+        @Feature(method = MethodFeature.LIST)
+        public void list() {
+        }
+
+        @Feature(method = MethodFeature.EXECUTE)
+        public void execute() {
+        }
+
+        public void none() {
+        }
+
+        @SystemPermission
+        public void system() {
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.outgiving;
+
+import cn.hutool.core.util.ReflectUtil;
+import cn.jiangzeyin.common.spring.SpringUtil;
+import io.jpom.model.AfterOpt;
+import io.jpom.model.data.NodeModel;
+import io.jpom.model.outgiving.OutGivingModel;
+import io.jpom.model.outgiving.OutGivingNodeProject;
+import io.jpom.service.node.NodeService;
+import io.jpom.system.extconf.OutGivingExtConfig;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * 等待节点项目正常运行：进程出现后需要持续运行分发间隔时间
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class OutGivingSchedulerTest {
+
+    private OutGivingExtConfig outGivingExtConfig;
+    private OutGivingModel item;
+    private OutGivingNodeProject outGivingNodeProject;
+
+    @Before
+    public void before() {
+        NodeService nodeService = Mockito.mock(NodeService.class);
+        Mockito.when(nodeService.getByKey("node1")).thenReturn(new NodeModel());
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.registerBean(NodeService.class, () -> nodeService);
+        context.refresh();
+        SpringUtil.updateApplicationContext(context);
+        outGivingExtConfig = new OutGivingExtConfig();
+        ReflectUtil.setFieldValue(outGivingExtConfig, "healthCheckTimeout", 3);
+        item = new OutGivingModel();
+        item.setId("test");
+        item.setIntervalTime(2);
+        outGivingNodeProject = new OutGivingNodeProject();
+        outGivingNodeProject.setNodeId("node1");
+        outGivingNodeProject.setProjectId("project1");
+    }
+
+    private TestScheduler scheduler(AfterOpt afterOpt, Integer... pids) {
+        return new TestScheduler(afterOpt, pids);
+    }
+
+    @Test
+    public void testIntervalTime() {
+        TestScheduler scheduler = this.scheduler(AfterOpt.Order_Restart, 100);
+        long start = System.currentTimeMillis();
+        Assert.assertTrue(scheduler.waitHealthy(outGivingNodeProject));
+        // 进程出现后至少等待分发间隔时间
+        Assert.assertTrue(System.currentTimeMillis() - start >= 2000);
+        Assert.assertTrue(scheduler.count >= 3);
+    }
+
+    @Test
+    public void testRestartReset() {
+        // 第一次启动后马上退出，重新启动后再等待间隔时间
+        TestScheduler scheduler = this.scheduler(AfterOpt.Order_Restart, 100, 0, 101);
+        long start = System.currentTimeMillis();
+        Assert.assertTrue(scheduler.waitHealthy(outGivingNodeProject));
+        Assert.assertTrue(System.currentTimeMillis() - start >= 4000);
+        Assert.assertTrue(scheduler.count >= 5);
+    }
+
+    @Test
+    public void testExitBeforeInterval() {
+        // 启动后退出，超时未再启动
+        TestScheduler scheduler = this.scheduler(AfterOpt.Order_Restart, 100, 0);
+        Assert.assertFalse(scheduler.waitHealthy(outGivingNodeProject));
+    }
+
+    @Test
+    public void testTimeout() {
+        TestScheduler scheduler = this.scheduler(AfterOpt.Order_Must_Restart, 0);
+        long start = System.currentTimeMillis();
+        Assert.assertFalse(scheduler.waitHealthy(outGivingNodeProject));
+        Assert.assertTrue(System.currentTimeMillis() - start >= 3000);
+    }
+
+    @Test
+    public void testNoRestart() {
+        TestScheduler scheduler = this.scheduler(AfterOpt.No, 0);
+        Assert.assertTrue(scheduler.waitHealthy(outGivingNodeProject));
+        Assert.assertEquals(0, scheduler.count);
+    }
+
+    /**
+     * 按顺序返回进程号，最后一个一直返回
+     */
+    private class TestScheduler extends OutGivingScheduler {
+
+        private final Iterator<Integer> iterator;
+        private int pid;
+        private int count;
+
+        TestScheduler(AfterOpt afterOpt, Integer... pids) {
+            super(item, afterOpt, null, null, null, false, outGivingExtConfig);
+            this.iterator = Arrays.asList(pids).iterator();
+        }
+
+        @Override
+        int queryPid(NodeModel nodeModel, OutGivingNodeProject outGivingNodeProject) {
+            count++;
+            if (iterator.hasNext()) {
+                pid = iterator.next();
+            }
+            return pid;
+        }
+    }
+}
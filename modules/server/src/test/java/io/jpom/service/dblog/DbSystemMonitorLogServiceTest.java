@@ -0,0 +1,156 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service.dblog;
+
+import cn.hutool.core.date.SystemClock;
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.ReflectUtil;
+import cn.jiangzeyin.common.spring.SpringUtil;
+import com.alibaba.fastjson.JSONObject;
+import io.jpom.model.log.SystemMonitorLog;
+import io.jpom.service.h2db.MemoryDb;
+import io.jpom.service.stat.MonitorSeriesStore;
+import io.jpom.system.ServerExtConfigBean;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 节点监控数据查询：升级前数据库中的数据和时序存储的数据合并
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class DbSystemMonitorLogServiceTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    private File root;
+    private DbSystemMonitorLogService service;
+    private String nodeId;
+
+    @Before
+    public void before() throws Exception {
+        MemoryDb.init();
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.registerBean(ServerExtConfigBean.class, ServerExtConfigBean::new);
+        context.refresh();
+        SpringUtil.updateApplicationContext(context);
+        root = FileUtil.file(FileUtil.getTmpDir(), "jpom-monitor-series-" + System.nanoTime());
+        service = new DbSystemMonitorLogService();
+        ReflectUtil.setFieldValue(service, "seriesStore", new MonitorSeriesStore(root));
+        nodeId = IdUtil.fastSimpleUUID();
+    }
+
+    @After
+    public void after() {
+        service.destroy();
+        FileUtil.del(root);
+    }
+
+    /**
+     * 升级前写入数据库的数据
+     */
+    private void insertHistory(long time, double cpu) {
+        SystemMonitorLog systemMonitorLog = new SystemMonitorLog();
+        systemMonitorLog.setNodeId(nodeId);
+        systemMonitorLog.setMonitorTime(time);
+        systemMonitorLog.setOccupyCpu(cpu);
+        systemMonitorLog.setNetworkTime(10);
+        service.insertNotFill(systemMonitorLog);
+    }
+
+    /**
+     * 升级后写入时序存储的数据
+     */
+    private void insert(long time, double cpu) {
+        SystemMonitorLog systemMonitorLog = new SystemMonitorLog();
+        systemMonitorLog.setNodeId(nodeId);
+        systemMonitorLog.setMonitorTime(time);
+        systemMonitorLog.setOccupyCpu(cpu);
+        systemMonitorLog.setNetworkTime(20);
+        service.insert(systemMonitorLog);
+    }
+
+    @Test
+    public void testRawMerge() {
+        long upgrade = (SystemClock.now() - TimeUnit.HOURS.toMillis(2)) / MINUTE * MINUTE;
+        for (int i = 60; i > 0; i--) {
+            this.insertHistory(upgrade - i * 30_000L, 10);
+        }
+        for (int i = 0; i < 60; i++) {
+            this.insert(upgrade + i * 30_000L, 20);
+        }
+        List<JSONObject> list = service.listData(nodeId, upgrade - TimeUnit.HOURS.toMillis(1), upgrade + TimeUnit.HOURS.toMillis(1));
+        Assert.assertEquals(120, list.size());
+        // 按时间降序，后面为升级前的数据
+        Assert.assertEquals(20, list.get(0).getDoubleValue("occupyCpu"), 0);
+        Assert.assertEquals(upgrade - 30_000L, list.get(60).getLongValue("monitorTime"));
+        Assert.assertEquals(10, list.get(119).getDoubleValue("occupyCpu"), 0);
+        // 只有升级前的数据
+        list = service.listData(nodeId, upgrade - TimeUnit.HOURS.toMillis(1), upgrade - 1);
+        Assert.assertEquals(60, list.size());
+        // 最新的数据不够时补充升级前的数据
+        list = service.listLatest(nodeId, 70);
+        Assert.assertEquals(70, list.size());
+        Assert.assertEquals(upgrade - 30_000L * 10, list.get(69).getLongValue("monitorTime"));
+    }
+
+    @Test
+    public void testRollupMerge() {
+        // 超过原始数据的保留时间，使用 1 分钟汇总
+        long upgrade = (SystemClock.now() - TimeUnit.DAYS.toMillis(4)) / MINUTE * MINUTE + 30_000L;
+        // 升级前每 10 秒一条，升级所在的 1 分钟内有 3 条
+        for (int i = 60; i > 0; i--) {
+            this.insertHistory(upgrade - i * 10_000L, 10);
+        }
+        for (int i = 0; i < 60; i++) {
+            this.insert(upgrade + i * 30_000L, 40);
+        }
+        service.destroy();
+        long start = upgrade - TimeUnit.HOURS.toMillis(1);
+        List<JSONObject> list = service.listData(nodeId, start, start + TimeUnit.HOURS.toMillis(3));
+        Assert.assertEquals("MINUTE", list.get(0).getString("resolution"));
+        // 升级前的 10 个间隔 + 升级所在的间隔 + 升级后的 30 个间隔
+        Assert.assertEquals(41, list.size());
+        JSONObject bucket = list.stream()
+            .filter(jsonObject -> jsonObject.getLongValue("monitorTime") == upgrade - 30_000L)
+            .findFirst()
+            .orElseThrow(IllegalStateException::new);
+        // 数据库中的 3 条和存储中的 1 条按条数加权
+        Assert.assertEquals(17.5, bucket.getDoubleValue("occupyCpu"), 0);
+        Assert.assertEquals(10, bucket.getDoubleValue("occupyCpuMin"), 0);
+        Assert.assertEquals(40, bucket.getDoubleValue("occupyCpuMax"), 0);
+        Assert.assertEquals(12.5, bucket.getDoubleValue("networkTime"), 0);
+        JSONObject first = list.get(list.size() - 1);
+        Assert.assertEquals(upgrade - 30_000L - 10 * MINUTE, first.getLongValue("monitorTime"));
+        Assert.assertEquals(10, first.getDoubleValue("occupyCpu"), 0);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service.dblog;
+
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.ReflectUtil;
+import cn.hutool.db.Entity;
+import io.jpom.model.log.UserOperateLogV1;
+import io.jpom.model.user.UserModel;
+import io.jpom.service.h2db.MemoryDb;
+import io.jpom.service.monitor.MonitorUserOptService;
+import io.jpom.service.system.WorkspaceService;
+import io.jpom.service.user.UserService;
+import io.jpom.system.extconf.DbExtConfig;
+import io.jpom.system.init.OperateLogController;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 操作日志队列：队列满时丢弃、修改和新增按顺序执行、关闭时写完队列
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class DbUserOperateLogServiceTest {
+
+    private DbUserOperateLogService service;
+    private String userId;
+    private final CountDownLatch writing = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void before() throws Exception {
+        MemoryDb.init();
+        DbExtConfig dbExtConfig = new DbExtConfig();
+        // 最小的队列（100）
+        ReflectUtil.setFieldValue(dbExtConfig, "operateLogQueueSize", 1);
+        service = new DbUserOperateLogService(Mockito.mock(MonitorUserOptService.class),
+            Mockito.mock(UserService.class),
+            Mockito.mock(WorkspaceService.class),
+            dbExtConfig);
+        userId = IdUtil.fastSimpleUUID().substring(0, 20);
+    }
+
+    @After
+    public void after() throws Exception {
+        release.countDown();
+        service.destroy();
+    }
+
+    private boolean submit(String reqId, int optStatus) {
+        return service.submit(new UserModel(userId), new OperateLogController.CacheInfo(), () -> this.newLog(reqId, optStatus));
+    }
+
+    private UserOperateLogV1 newLog(String reqId, int optStatus) {
+        UserOperateLogV1 userOperateLogV1 = new UserOperateLogV1();
+        userOperateLogV1.setId(reqId);
+        userOperateLogV1.setReqId(reqId);
+        userOperateLogV1.setUserId(userId);
+        userOperateLogV1.setOptStatus(optStatus);
+        return userOperateLogV1;
+    }
+
+    /**
+     * 后台线程处理第一条日志时阻塞，后续提交的日志都留在队列中
+     */
+    private void blockWriter() throws InterruptedException {
+        service.submit(new UserModel(userId), new OperateLogController.CacheInfo(), () -> {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return this.newLog(IdUtil.fastSimpleUUID(), 0);
+        });
+        Assert.assertTrue(writing.await(5, TimeUnit.SECONDS));
+    }
+
+    private long count() {
+        return service.count(Entity.create().set("userId", userId));
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+        this.blockWriter();
+        int capacity = (int) service.getQueueStat().get("remainingCapacity");
+        Assert.assertEquals(100, capacity);
+        for (int i = 0; i < capacity; i++) {
+            Assert.assertTrue(this.submit(IdUtil.fastSimpleUUID(), 200));
+        }
+        // 队列满，等待后丢弃，不会一直阻塞请求线程
+        long start = System.currentTimeMillis();
+        Assert.assertFalse(this.submit(IdUtil.fastSimpleUUID(), 200));
+        Assert.assertFalse(service.submitUpdate(Entity.create().set("optStatus", 1), Entity.create().set("reqId", "none")));
+        Assert.assertTrue(System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(2));
+        Map<String, Object> stat = service.getQueueStat();
+        Assert.assertEquals(2L, stat.get("dropCount"));
+        Assert.assertEquals(capacity + 3L, stat.get("submitCount"));
+        //
+        release.countDown();
+        service.destroy();
+        Assert.assertEquals(capacity + 1, this.count());
+        Assert.assertEquals(capacity + 1L, service.getQueueStat().get("writeCount"));
+    }
+
+    @Test
+    public void testUpdateOrder() throws Exception {
+        this.blockWriter();
+        String reqId = IdUtil.fastSimpleUUID();
+        String reqId2 = IdUtil.fastSimpleUUID();
+        // 同一批中：新增 -> 修改 -> 新增 -> 修改，修改需要在对应的新增之后执行
+        Assert.assertTrue(this.submit(reqId, 0));
+        Assert.assertTrue(service.submitUpdate(Entity.create().set("optStatus", 200), Entity.create().set("reqId", reqId)));
+        Assert.assertTrue(this.submit(reqId2, 0));
+        Assert.assertTrue(service.submitUpdate(Entity.create().set("optStatus", 500), Entity.create().set("reqId", reqId2)));
+        Assert.assertTrue(service.submitUpdate(Entity.create().set("optStatus", 201), Entity.create().set("reqId", reqId)));
+        release.countDown();
+        service.destroy();
+        Assert.assertEquals(201, (int) service.getByKey(reqId).getOptStatus());
+        Assert.assertEquals(500, (int) service.getByKey(reqId2).getOptStatus());
+    }
+
+    @Test
+    public void testDestroyDrain() throws Exception {
+        this.blockWriter();
+        for (int i = 0; i < 50; i++) {
+            Assert.assertTrue(this.submit(IdUtil.fastSimpleUUID(), 200));
+        }
+        // 没有日志和生成异常的日志不写入，也不影响其他日志
+        service.submit(new UserModel(userId), new OperateLogController.CacheInfo(), () -> null);
+        service.submit(new UserModel(userId), new OperateLogController.CacheInfo(), () -> {
+            throw new IllegalStateException("test");
+        });
+        release.countDown();
+        service.destroy();
+        Assert.assertEquals(51, this.count());
+        List<UserOperateLogV1> list = service.listByBean(this.newLog(null, 200));
+        Assert.assertEquals(50, list.size());
+        Assert.assertEquals(0, service.getQueueStat().get("queueSize"));
+        Assert.assertEquals(1L, service.getQueueStat().get("failCount"));
+    }
+}
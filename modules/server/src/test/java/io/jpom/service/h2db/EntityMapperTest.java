@@ -0,0 +1,176 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service.h2db;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import cn.hutool.core.util.ReflectUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.db.Entity;
+import io.jpom.model.data.NodeModel;
+import io.jpom.model.log.BuildHistoryLog;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 实体转换和 BeanUtil 转换结果一致，并对比耗时
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class EntityMapperTest {
+
+    private static final int COUNT = 200_000;
+
+    private NodeModel createNode() {
+        NodeModel nodeModel = new NodeModel();
+        nodeModel.setId("node-id");
+        nodeModel.setName("节点");
+        nodeModel.setUrl("127.0.0.1:2123");
+        nodeModel.setProtocol("http");
+        nodeModel.setOpenStatus(1);
+        nodeModel.setTimeOut(10);
+        nodeModel.setSortValue(1.5F);
+        nodeModel.setWorkspaceId("DEFAULT");
+        nodeModel.setGroup("默认");
+        nodeModel.setCreateTimeMillis(1663545600000L);
+        return nodeModel;
+    }
+
+    private BuildHistoryLog createBuildLog() {
+        BuildHistoryLog buildHistoryLog = new BuildHistoryLog();
+        buildHistoryLog.setId("log-id");
+        buildHistoryLog.setBuildDataId("build-id");
+        buildHistoryLog.setBuildName("构建");
+        buildHistoryLog.setBuildNumberId(12);
+        buildHistoryLog.setStatus(2);
+        buildHistoryLog.setStartTime(1663545600000L);
+        buildHistoryLog.setEndTime(1663545660000L);
+        buildHistoryLog.setDiffSync(true);
+        buildHistoryLog.setHasFile(false);
+        buildHistoryLog.setWorkspaceId("DEFAULT");
+        return buildHistoryLog;
+    }
+
+    private Entity oldToEntity(Object data) {
+        Entity entity = new Entity("TEST");
+        entity.putAll(BeanUtil.beanToMap(data, new LinkedHashMap<>(), true, s -> StrUtil.format("`{}`", s)));
+        return entity;
+    }
+
+    private <T> T oldToBean(Entity entity, Class<T> tClass) {
+        CopyOptions copyOptions = new CopyOptions();
+        copyOptions.setIgnoreError(true);
+        copyOptions.setIgnoreCase(true);
+        return BeanUtil.toBean(entity, tClass, copyOptions);
+    }
+
+    /**
+     * 模拟数据库返回的数据：字段名大写、部分类型不一致
+     */
+    private Entity toRow(Entity entity) {
+        Entity row = new Entity("TEST");
+        for (Map.Entry<String, Object> entry : entity.entrySet()) {
+            String key = StrUtil.unWrap(entry.getKey(), '`').toUpperCase();
+            Object value = entry.getValue();
+            if (value instanceof Integer) {
+                value = ((Integer) value).longValue();
+            } else if (value instanceof Float) {
+                value = ((Float) value).doubleValue();
+            }
+            row.set(key, value);
+        }
+        row.set("HASLOG", 1);
+        row.set("UNKNOWN_COLUMN", "x");
+        return row;
+    }
+
+    @Test
+    public void testSame() {
+        for (Object data : new Object[]{this.createNode(), this.createBuildLog()}) {
+            Entity entity = EntityMapper.of(data.getClass()).toEntity(cast(data), "TEST");
+            Entity oldEntity = this.oldToEntity(data);
+            Assert.assertEquals(oldEntity, entity);
+            Assert.assertEquals(new ArrayList<>(oldEntity.keySet()), new ArrayList<>(entity.keySet()));
+            //
+            Entity row = this.toRow(entity);
+            Object bean = EntityMapper.of(data.getClass()).toBean(row);
+            Object oldBean = this.oldToBean(row, data.getClass());
+            Assert.assertEquals(this.fieldValues(oldBean), this.fieldValues(bean));
+        }
+    }
+
+    private Map<String, Object> fieldValues(Object bean) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (Field field : ReflectUtil.getFields(bean.getClass())) {
+            if (!Modifier.isStatic(field.getModifiers())) {
+                map.put(field.getDeclaringClass().getName() + "." + field.getName(), ReflectUtil.getFieldValue(bean, field));
+            }
+        }
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object o) {
+        return (T) o;
+    }
+
+    @Test
+    @Ignore("性能对比，需要时手动运行")
+    public void testTime() {
+        this.compare(this.createNode(), NodeModel.class);
+        this.compare(this.createBuildLog(), BuildHistoryLog.class);
+    }
+
+    private <T> void compare(T data, Class<T> tClass) {
+        EntityMapper<T> mapper = EntityMapper.of(tClass);
+        Entity row = this.toRow(mapper.toEntity(data, "TEST"));
+        // 预热
+        for (int i = 0; i < COUNT / 10; i++) {
+            this.oldToBean(row, tClass);
+            this.oldToEntity(data);
+            mapper.toBean(row);
+            mapper.toEntity(data, "TEST");
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < COUNT; i++) {
+            this.oldToEntity(data);
+            this.oldToBean(row, tClass);
+        }
+        long oldTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < COUNT; i++) {
+            mapper.toEntity(data, "TEST");
+            mapper.toBean(row);
+        }
+        long newTime = System.nanoTime() - start;
+        System.out.println(StrUtil.format("{} BeanUtil: {} ns/op, EntityMapper: {} ns/op", tClass.getSimpleName(), oldTime / COUNT, newTime / COUNT));
+    }
+}
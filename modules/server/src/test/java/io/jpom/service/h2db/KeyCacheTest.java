@@ -0,0 +1,206 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service.h2db;
+
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.db.Db;
+import cn.hutool.db.Entity;
+import cn.jiangzeyin.common.spring.SpringUtil;
+import io.jpom.model.data.WorkspaceModel;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 主键查询缓存：修改、删除、整体刷新后失效，查询期间数据变动不放入缓存
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class KeyCacheTest {
+
+    private TestService service;
+    private String id;
+
+    @Before
+    public void before() throws Exception {
+        MemoryDb.init();
+        service = new TestService();
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.registerBean(TestService.class, () -> service);
+        context.refresh();
+        SpringUtil.updateApplicationContext(context);
+        //
+        WorkspaceModel workspaceModel = new WorkspaceModel();
+        workspaceModel.setId(IdUtil.fastSimpleUUID());
+        workspaceModel.setName("name1");
+        service.insert(workspaceModel);
+        id = workspaceModel.getId();
+    }
+
+    /**
+     * 绕过 service 直接修改数据库，缓存不会感知
+     */
+    private void updateNameDirect(String name) throws Exception {
+        Db.use().execute("update " + service.getTableName() + " set name=? where id=?", name, id);
+    }
+
+    private String getName() {
+        WorkspaceModel workspaceModel = service.getByKey(id);
+        return workspaceModel == null ? null : workspaceModel.getName();
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        Assert.assertEquals("name1", this.getName());
+        this.updateNameDirect("name2");
+        // 命中缓存
+        Assert.assertEquals("name1", this.getName());
+        WorkspaceModel workspaceModel = new WorkspaceModel();
+        workspaceModel.setId(id);
+        workspaceModel.setName("name3");
+        service.updateById(workspaceModel);
+        Assert.assertEquals("name3", this.getName());
+        // 修改返回的实体不影响缓存
+        service.getByKey(id).setName("name4");
+        Assert.assertEquals("name3", this.getName());
+    }
+
+    @Test
+    public void testDelete() {
+        Assert.assertEquals("name1", this.getName());
+        service.delByKey(id);
+        Assert.assertNull(this.getName());
+    }
+
+    @Test
+    public void testRefreshAllCache() throws Exception {
+        Assert.assertEquals("name1", this.getName());
+        this.updateNameDirect("name2");
+        Assert.assertEquals("name1", this.getName());
+        BaseDbCommonService.refreshAllCache();
+        Assert.assertEquals("name2", this.getName());
+    }
+
+    @Test
+    public void testCondition() {
+        Assert.assertEquals("name1", this.getName());
+        // 附加条件在缓存的数据上判断
+        Assert.assertNotNull(service.getByKey(id, false, entity -> entity.set("name", "name1")));
+        Assert.assertNull(service.getByKey(id, false, entity -> entity.set("name", "name2")));
+    }
+
+    @Test
+    public void testWriteDuringLoad() throws Exception {
+        // 查询出旧数据后、放入缓存之前，其他线程修改了数据
+        service.onLoad = () -> {
+            service.onLoad = null;
+            Thread thread = new Thread(() -> {
+                WorkspaceModel workspaceModel = new WorkspaceModel();
+                workspaceModel.setId(id);
+                workspaceModel.setName("name2");
+                service.updateById(workspaceModel);
+            });
+            thread.start();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        Assert.assertEquals("name1", this.getName());
+        // 旧数据没有放入缓存
+        Assert.assertEquals("name2", this.getName());
+        Assert.assertEquals(1L, service.count(Entity.create().set("id", id)));
+    }
+
+    /**
+     * 其他线程读取数据
+     */
+    private String getNameByThread() throws InterruptedException {
+        AtomicReference<String> name = new AtomicReference<>();
+        Thread thread = new Thread(() -> name.set(this.getName()));
+        thread.start();
+        thread.join();
+        return name.get();
+    }
+
+    @Test
+    public void testTxCommit() throws Exception {
+        Assert.assertEquals("name1", this.getName());
+        BaseDbCommonService.tx(db -> {
+            WorkspaceModel workspaceModel = new WorkspaceModel();
+            workspaceModel.setId(id);
+            workspaceModel.setName("name2");
+            service.updateById(workspaceModel);
+            // 事务还没有提交，其他线程读取到旧数据并放入缓存
+            try {
+                Assert.assertEquals("name1", this.getNameByThread());
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        // 提交后刷新缓存
+        Assert.assertEquals("name2", this.getName());
+        Assert.assertEquals("name2", this.getNameByThread());
+    }
+
+    @Test
+    public void testTxRollback() {
+        Assert.assertEquals("name1", this.getName());
+        Assert.assertThrows(SQLException.class, () -> BaseDbCommonService.tx(db -> {
+            WorkspaceModel workspaceModel = new WorkspaceModel();
+            workspaceModel.setId(id);
+            workspaceModel.setName("name2");
+            service.updateById(workspaceModel);
+            // 事务中读取到未提交的数据并放入缓存
+            Assert.assertEquals("name2", this.getName());
+            throw new IllegalStateException("rollback");
+        }));
+        Assert.assertEquals("name1", this.getName());
+    }
+
+    static class TestService extends BaseDbService<WorkspaceModel> {
+
+        private volatile Runnable onLoad;
+
+        @Override
+        protected int keyCacheSize() {
+            return 10;
+        }
+
+        @Override
+        Entity getEntity(Entity where) {
+            Entity entity = super.getEntity(where);
+            Runnable runnable = this.onLoad;
+            if (runnable != null) {
+                runnable.run();
+            }
+            return entity;
+        }
+    }
+}
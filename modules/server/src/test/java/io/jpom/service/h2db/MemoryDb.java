@@ -0,0 +1,77 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service.h2db;
+
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.util.CharsetUtil;
+import cn.hutool.core.util.ReflectUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.db.Db;
+import cn.hutool.db.ds.DSFactory;
+import cn.hutool.db.ds.GlobalDSFactory;
+import cn.hutool.setting.Setting;
+import io.jpom.system.db.DbConfig;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * 测试使用的内存数据库，执行和启动时一样的建表 sql，不启动整个应用
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class MemoryDb {
+
+    private static volatile boolean init;
+
+    /**
+     * 初始化内存数据库（只会初始化一次）
+     */
+    public static synchronized void init() throws Exception {
+        if (init) {
+            return;
+        }
+        Setting setting = new Setting();
+        setting.set("url", "jdbc:h2:mem:jpom-test;DB_CLOSE_DELAY=-1");
+        setting.set("user", "jpom");
+        setting.set("pass", "jpom");
+        DSFactory dsFactory = DSFactory.create(setting);
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources("classpath:/sql/*.sql");
+        Resource[] sorted = Arrays.stream(resources)
+            .filter(resource -> !StrUtil.containsIgnoreCase(resource.getFilename(), "temp"))
+            .sorted(Comparator.comparing(Resource::getFilename))
+            .toArray(Resource[]::new);
+        for (Resource resource : sorted) {
+            try (InputStream inputStream = resource.getInputStream()) {
+                Db.use(dsFactory.getDataSource()).execute(IoUtil.read(inputStream, CharsetUtil.CHARSET_UTF_8));
+            }
+        }
+        GlobalDSFactory.set(dsFactory);
+        ReflectUtil.setFieldValue(DbConfig.getInstance(), "init", true);
+        init = true;
+    }
+}
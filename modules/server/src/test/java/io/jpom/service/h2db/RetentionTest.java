@@ -0,0 +1,167 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service.h2db;
+
+import cn.hutool.core.date.SystemClock;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.ReflectUtil;
+import cn.hutool.db.Entity;
+import cn.jiangzeyin.common.spring.SpringUtil;
+import io.jpom.model.log.UserOperateLogV1;
+import io.jpom.system.extconf.DbExtConfig;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 自动清理：按天清理时需要经过子类的清理实现，关联的文件才能同步删除
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class RetentionTest {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private DbExtConfig dbExtConfig;
+    private String userId;
+
+    @Before
+    public void before() throws Exception {
+        MemoryDb.init();
+        dbExtConfig = new DbExtConfig();
+        ReflectUtil.setFieldValue(dbExtConfig, "logStorageDays", 3);
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.registerBean(DbExtConfig.class, () -> dbExtConfig);
+        context.refresh();
+        SpringUtil.updateApplicationContext(context);
+        userId = IdUtil.fastSimpleUUID().substring(0, 20);
+    }
+
+    private String insert(BaseDbService<UserOperateLogV1> service, long time) {
+        UserOperateLogV1 userOperateLogV1 = new UserOperateLogV1();
+        userOperateLogV1.setUserId(userId);
+        userOperateLogV1.setCreateTimeMillis(time);
+        service.insertNotFill(userOperateLogV1);
+        return userOperateLogV1.getId();
+    }
+
+    private Set<String> ids(BaseDbService<UserOperateLogV1> service) {
+        List<Entity> list = service.query("select id from " + service.getTableName() + " where userId=?", userId);
+        return list.stream().map(entity -> entity.getStr("id")).collect(Collectors.toSet());
+    }
+
+    @Test
+    public void testDaysHook() {
+        TestService service = new TestService();
+        long now = SystemClock.now();
+        String old = this.insert(service, now - 10 * DAY);
+        String old2 = this.insert(service, now - 5 * DAY);
+        String locked = this.insert(service, now - 6 * DAY);
+        String keep = this.insert(service, now - DAY);
+        service.locked.add(locked);
+        service.executeRetention();
+        // 每一条超过天数的数据都经过了子类的清理回调
+        Assert.assertEquals(3, service.cleared.size());
+        Assert.assertTrue(service.cleared.contains(old));
+        Assert.assertTrue(service.cleared.contains(old2));
+        Assert.assertTrue(service.cleared.contains(locked));
+        // 回调不允许删除的数据保留
+        Set<String> ids = this.ids(service);
+        Assert.assertEquals(2, ids.size());
+        Assert.assertTrue(ids.contains(locked));
+        Assert.assertTrue(ids.contains(keep));
+        // 回调允许后下一次清理删除
+        service.locked.clear();
+        service.cleared.clear();
+        service.executeRetention();
+        Assert.assertEquals(1, service.cleared.size());
+        Assert.assertTrue(service.cleared.contains(locked));
+        Assert.assertEquals(1, this.ids(service).size());
+    }
+
+    @Test
+    public void testDaysDefault() {
+        DefaultService service = new DefaultService();
+        long now = SystemClock.now();
+        this.insert(service, now - 10 * DAY);
+        this.insert(service, now - 5 * DAY);
+        String keep = this.insert(service, now - DAY);
+        service.executeRetention();
+        Set<String> ids = this.ids(service);
+        Assert.assertEquals(1, ids.size());
+        Assert.assertTrue(ids.contains(keep));
+    }
+
+    @Test
+    public void testDaysDisabled() {
+        ReflectUtil.setFieldValue(dbExtConfig, "logStorageDays", 0);
+        TestService service = new TestService();
+        this.insert(service, SystemClock.now() - 10 * DAY);
+        service.executeRetention();
+        Assert.assertTrue(service.cleared.isEmpty());
+        Assert.assertEquals(1, this.ids(service).size());
+    }
+
+    /**
+     * 只按时间字段删除数据
+     */
+    static class DefaultService extends BaseDbService<UserOperateLogV1> {
+
+        @Override
+        protected String[] clearTimeColumns() {
+            return new String[]{"createTimeMillis"};
+        }
+    }
+
+    /**
+     * 删除数据前需要清理关联数据
+     */
+    static class TestService extends DefaultService {
+
+        private final Set<String> cleared = ConcurrentHashMap.newKeySet();
+        private final Set<String> locked = ConcurrentHashMap.newKeySet();
+
+        private boolean clear(UserOperateLogV1 userOperateLogV1) {
+            cleared.add(userOperateLogV1.getId());
+            return !locked.contains(userOperateLogV1.getId());
+        }
+
+        @Override
+        protected void executeClearImpl(int h2DbLogStorageCount) {
+            super.autoLoopClear("createTimeMillis", h2DbLogStorageCount, null, this::clear);
+        }
+
+        @Override
+        protected void executeClearDaysImpl(long time) {
+            super.loopClearBefore("createTimeMillis", time, null, this::clear);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service.h2db;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按天统计数据条数，计算清理的边界
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class TimeBucketCounterTest {
+
+    private static final long DAY = TimeBucketCounter.BUCKET_MILLIS;
+
+    @Test
+    public void testBoundary() {
+        Map<Long, Long> map = new HashMap<>();
+        map.put(1L, 5L);
+        map.put(2L, 3L);
+        map.put(3L, 4L);
+        TimeBucketCounter counter = new TimeBucketCounter(map);
+        Assert.assertEquals(12, counter.getTotal());
+        Assert.assertNull(counter.boundary(12));
+        // 保留 5 条：第 3 天 4 条，第 2 天保留最新的 1 条
+        Assert.assertArrayEquals(new long[]{2, 1}, counter.boundary(5));
+        // 保留 7 条：第 3、2 天刚好 7 条，第 1 天全部删除
+        Assert.assertArrayEquals(new long[]{1, 0}, counter.boundary(7));
+
+        counter.add(3 * DAY + 10);
+        counter.add(4 * DAY);
+        Assert.assertEquals(14, counter.getTotal());
+        Assert.assertArrayEquals(new long[]{3, 1}, counter.boundary(2));
+    }
+
+    @Test
+    public void testRemove() {
+        Map<Long, Long> map = new HashMap<>();
+        map.put(1L, 5L);
+        map.put(2L, 3L);
+        map.put(3L, 4L);
+        TimeBucketCounter counter = new TimeBucketCounter(map);
+        counter.removeBefore(2);
+        Assert.assertEquals(7, counter.getTotal());
+        counter.put(2, 1);
+        Assert.assertEquals(5, counter.getTotal());
+        counter.put(2, 0);
+        Assert.assertEquals(4, counter.getTotal());
+        Assert.assertNull(counter.boundary(4));
+        Assert.assertEquals(-1, TimeBucketCounter.bucket(-1));
+        Assert.assertEquals(1, TimeBucketCounter.bucket(DAY));
+    }
+}
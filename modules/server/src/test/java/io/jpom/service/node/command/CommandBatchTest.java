@@ -0,0 +1,129 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service.node.command;
+
+import cn.hutool.core.util.IdUtil;
+import com.alibaba.fastjson.JSONObject;
+import io.jpom.model.data.CommandExecLogModel;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * ssh 命令批量执行策略
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class CommandBatchTest {
+
+    private static CommandBatch create(int size, Integer minSuccessRate) {
+        List<CommandExecLogModel> list = IntStream.range(0, size).mapToObj(value -> {
+            CommandExecLogModel logModel = new CommandExecLogModel();
+            logModel.setId(IdUtil.fastSimpleUUID());
+            logModel.setSshName("ssh-" + value);
+            return logModel;
+        }).collect(Collectors.toList());
+        return new CommandBatch("test", list, minSuccessRate);
+    }
+
+    /**
+     * 按顺序执行，返回实际执行的数量
+     */
+    private static int run(CommandBatch batch, int failCount) {
+        int started = 0;
+        for (CommandBatch.Item item : batch.getItems()) {
+            if (!batch.start(item)) {
+                batch.finish(item, CommandExecLogModel.Status.CANCEL, null);
+                continue;
+            }
+            boolean fail = started++ < failCount;
+            batch.finish(item, CommandExecLogModel.Status.DONE, fail ? 1 : 0);
+        }
+        return started;
+    }
+
+    @Test
+    public void testFailFast() {
+        CommandBatch batch = create(10, 100);
+        Assert.assertEquals(1, run(batch, 3));
+        JSONObject result = batch.toJson();
+        Assert.assertTrue(result.getBooleanValue("stopped"));
+        Assert.assertFalse(result.getBooleanValue("run"));
+        Assert.assertEquals(9, result.getIntValue("cancelCount"));
+    }
+
+    @Test
+    public void testSuccessRate() {
+        // 80% 最多允许失败 2 台，第 3 台失败后停止
+        CommandBatch batch = create(10, 80);
+        Assert.assertEquals(3, run(batch, 5));
+        Assert.assertEquals(3, batch.toJson().getIntValue("failCount"));
+        // 不限制时全部执行
+        batch = create(10, 0);
+        Assert.assertEquals(10, run(batch, 5));
+        JSONObject result = batch.toJson();
+        Assert.assertEquals(5, result.getIntValue("successCount"));
+        Assert.assertFalse(result.getBooleanValue("stopped"));
+    }
+
+    @Test
+    public void testOutputTail() {
+        CommandBatch batch = create(1, 0);
+        CommandBatch.Item item = batch.getItems().get(0);
+        for (int i = 0; i < 100; i++) {
+            item.appendLine("line " + i);
+        }
+        String tail = item.toResult().getOutputTail();
+        Assert.assertTrue(tail.startsWith("line 80"));
+        Assert.assertTrue(tail.endsWith("line 99"));
+    }
+
+    @Test
+    public void testPollResults() {
+        CommandBatch batch = create(25, 0);
+        List<CommandBatch.Item> items = batch.getItems();
+        for (int i = 0; i < CommandBatch.SAVE_COUNT - 1; i++) {
+            batch.start(items.get(i));
+            batch.finish(items.get(i), CommandExecLogModel.Status.DONE, 0);
+        }
+        // 数量不够时只有定时保存才取出
+        Assert.assertTrue(batch.pollResults(false).isEmpty());
+        batch.start(items.get(9));
+        batch.finish(items.get(9), CommandExecLogModel.Status.DONE, 1);
+        List<CommandExecLogModel> results = batch.pollResults(false);
+        Assert.assertEquals(CommandBatch.SAVE_COUNT, results.size());
+        Assert.assertEquals(Integer.valueOf(1), results.get(9).getExitCode());
+        Assert.assertTrue(batch.pollResults(true).isEmpty());
+        // 保存失败的结果下次重新保存
+        batch.retryResults(results.subList(0, 2));
+        batch.start(items.get(10));
+        batch.finish(items.get(10), CommandExecLogModel.Status.TIMEOUT, null);
+        results = batch.pollResults(true);
+        Assert.assertEquals(3, results.size());
+        Assert.assertEquals(CommandExecLogModel.Status.TIMEOUT.getCode(), results.get(2).getStatus().intValue());
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service.node.ssh;
+
+import cn.hutool.core.util.ReflectUtil;
+import cn.jiangzeyin.common.spring.SpringUtil;
+import com.jcraft.jsch.Session;
+import io.jpom.model.data.SshModel;
+import io.jpom.system.ServerExtConfigBean;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * ssh 会话池：借出、等待、通道上限以及修改后回收
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class SshSessionPoolTest {
+
+    private final List<Session> created = new ArrayList<>();
+    private final AtomicInteger handshake = new AtomicInteger();
+    private Function<SshModel, Session> connector;
+    private SshModel sshModel;
+
+    /**
+     * 使用指定的会话池配置，不启动整个应用
+     */
+    static void config(int maxSessions, int maxChannels) {
+        ServerExtConfigBean configBean = new ServerExtConfigBean();
+        ReflectUtil.setFieldValue(configBean, "sshMaxSessions", maxSessions);
+        ReflectUtil.setFieldValue(configBean, "sshMaxChannels", maxChannels);
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.registerBean(ServerExtConfigBean.class, () -> configBean);
+        context.refresh();
+        SpringUtil.updateApplicationContext(context);
+    }
+
+    /**
+     * 已经连接的会话
+     */
+    static Session mockSession() {
+        Session session = Mockito.mock(Session.class);
+        Mockito.when(session.isConnected()).thenReturn(true);
+        Mockito.doAnswer(invocation -> {
+            Mockito.when(session.isConnected()).thenReturn(false);
+            return null;
+        }).when(session).disconnect();
+        return session;
+    }
+
+    @Before
+    public void before() {
+        config(2, 2);
+        connector = SshSessionPool.connector;
+        SshSessionPool.connector = model -> {
+            handshake.incrementAndGet();
+            Session session = mockSession();
+            created.add(session);
+            return session;
+        };
+        sshModel = new SshModel("pool-" + System.nanoTime());
+        sshModel.setName("pool");
+        sshModel.setHost("127.0.0.1");
+        sshModel.setPassword("a");
+    }
+
+    @After
+    public void after() {
+        SshSessionPool.invalidate(sshModel.getId());
+        SshSessionPool.connector = connector;
+    }
+
+    @Test
+    public void testReuse() {
+        Session session;
+        try (SshSessionPool.Lease lease = SshSessionPool.borrow(sshModel)) {
+            session = lease.getSession();
+        }
+        try (SshSessionPool.Lease lease = SshSessionPool.borrow(sshModel)) {
+            Assert.assertSame(session, lease.getSession());
+        }
+        Assert.assertEquals(1, handshake.get());
+        // 归还不会关闭会话
+        Mockito.verify(session, Mockito.never()).disconnect();
+    }
+
+    @Test
+    public void testMaxChannels() {
+        // 每个会话最多 2 个通道，第 3 次借出新建会话
+        SshSessionPool.Lease lease1 = SshSessionPool.borrow(sshModel);
+        SshSessionPool.Lease lease2 = SshSessionPool.borrow(sshModel);
+        Assert.assertSame(lease1.getSession(), lease2.getSession());
+        SshSessionPool.Lease lease3 = SshSessionPool.borrow(sshModel);
+        Assert.assertNotSame(lease1.getSession(), lease3.getSession());
+        Assert.assertEquals(2, handshake.get());
+        lease1.close();
+        lease2.close();
+        lease3.close();
+    }
+
+    @Test
+    public void testWaitTimeout() {
+        List<SshSessionPool.Lease> leases = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            leases.add(SshSessionPool.borrow(sshModel));
+        }
+        // 2 个会话、每个 2 个通道都已经借出
+        Assert.assertNull(SshSessionPool.tryBorrow(sshModel));
+        long start = System.currentTimeMillis();
+        Assert.assertThrows(IllegalStateException.class, () -> SshSessionPool.borrow(sshModel, 200));
+        Assert.assertTrue(System.currentTimeMillis() - start >= 200);
+        leases.forEach(SshSessionPool.Lease::close);
+    }
+
+    @Test
+    public void testWaitRelease() throws Exception {
+        List<SshSessionPool.Lease> leases = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            leases.add(SshSessionPool.borrow(sshModel));
+        }
+        CompletableFuture<SshSessionPool.Lease> future = CompletableFuture.supplyAsync(() -> SshSessionPool.borrow(sshModel, 5000));
+        Thread.sleep(100);
+        Assert.assertFalse(future.isDone());
+        SshSessionPool.Lease first = leases.remove(0);
+        first.close();
+        // 归还后等待的线程复用同一个会话
+        try (SshSessionPool.Lease lease = future.get(5, TimeUnit.SECONDS)) {
+            Assert.assertSame(first.getSession(), lease.getSession());
+        }
+        Assert.assertEquals(2, handshake.get());
+        leases.forEach(SshSessionPool.Lease::close);
+    }
+
+    @Test
+    public void testTryBorrowSpread() {
+        try (SshSessionPool.Lease lease = SshSessionPool.borrow(sshModel);
+             SshSessionPool.Lease parallel = SshSessionPool.tryBorrow(sshModel)) {
+            // 还可以新建会话时并行传输使用新的会话
+            Assert.assertNotNull(parallel);
+            Assert.assertNotSame(lease.getSession(), parallel.getSession());
+        }
+    }
+
+    @Test
+    public void testRetireAfterEdit() {
+        SshSessionPool.Lease leased = SshSessionPool.borrow(sshModel);
+        Session old = leased.getSession();
+        // 修改连接信息后使用新的会话，使用中的旧会话归还后关闭
+        sshModel.setPassword("b");
+        try (SshSessionPool.Lease lease = SshSessionPool.borrow(sshModel)) {
+            Assert.assertNotSame(old, lease.getSession());
+        }
+        Mockito.verify(old, Mockito.never()).disconnect();
+        leased.close();
+        Mockito.verify(old).disconnect();
+        // 删除或者修改后直接回收，空闲的会话立即关闭
+        Session current;
+        try (SshSessionPool.Lease lease = SshSessionPool.borrow(sshModel)) {
+            current = lease.getSession();
+        }
+        SshSessionPool.invalidate(sshModel.getId());
+        Mockito.verify(current).disconnect();
+        try (SshSessionPool.Lease lease = SshSessionPool.borrow(sshModel)) {
+            Assert.assertNotSame(current, lease.getSession());
+        }
+        Assert.assertEquals(3, handshake.get());
+    }
+
+    @Test
+    public void testHandshakeFailure() {
+        SshSessionPool.connector = model -> {
+            throw new IllegalStateException("connection refused");
+        };
+        Assert.assertThrows(IllegalStateException.class, () -> SshSessionPool.borrow(sshModel));
+        // 握手失败不占用会话数
+        SshSessionPool.connector = model -> mockSession();
+        for (int i = 0; i < 4; i++) {
+            SshSessionPool.borrow(sshModel);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service.node.ssh;
+
+import cn.hutool.core.date.SystemClock;
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.extra.ssh.Sftp;
+import io.jpom.ApplicationStartTest;
+import io.jpom.model.data.SshModel;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+/**
+ * ssh 发布上传耗时对比：hutool syncUpload、单通道、多通道、tar 流
+ * <p>
+ * 需要一个 ssh 服务（可以是本机的 sshd），通过参数指定：
+ * -Djpom.test.ssh=host:port:user:password -Djpom.test.ssh.path=/tmp/jpom-transfer
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+@Slf4j
+public class SshTransferBenchmarkTest extends ApplicationStartTest {
+
+    private SshModel sshModel;
+    private String remotePath;
+    private File localDir;
+
+    @BeforeEach
+    public void before() {
+        String ssh = System.getProperty("jpom.test.ssh");
+        Assumptions.assumeTrue(StrUtil.isNotEmpty(ssh), "没有配置 jpom.test.ssh");
+        String[] split = StrUtil.splitToArray(ssh, StrUtil.C_COLON, 4);
+        sshModel = new SshModel("benchmark");
+        sshModel.setName("benchmark");
+        sshModel.setHost(split[0]);
+        sshModel.setPort(Integer.parseInt(split[1]));
+        sshModel.setUser(split[2]);
+        sshModel.setPassword(split[3]);
+        sshModel.setConnectType(SshModel.ConnectType.PASS.name());
+        remotePath = System.getProperty("jpom.test.ssh.path", "/tmp/jpom-transfer");
+        // 模拟构建产物：大量小文件和少量大文件
+        localDir = FileUtil.file(FileUtil.getTmpDir(), "jpom-transfer-" + System.nanoTime());
+        for (int i = 0; i < 2000; i++) {
+            FileUtil.writeBytes(RandomUtil.randomBytes(RandomUtil.randomInt(200, 8 * 1024)), FileUtil.file(localDir, "static", "d" + (i % 20), i + ".js"));
+        }
+        for (int i = 0; i < 3; i++) {
+            FileUtil.writeBytes(RandomUtil.randomBytes(20 * 1024 * 1024), FileUtil.file(localDir, "lib", i + ".jar"));
+        }
+    }
+
+    @AfterEach
+    public void after() {
+        FileUtil.del(localDir);
+        SshSessionPool.invalidate("benchmark");
+    }
+
+    @Test
+    public void testUpload() {
+        long size = FileUtil.size(localDir);
+        // hutool 逐个文件上传
+        this.clear();
+        long start = SystemClock.now();
+        try (Sftp sftp = new Sftp(SshService.getSessionByModel(sshModel), sshModel.charset(), sshModel.timeout())) {
+            sftp.syncUpload(localDir, remotePath + "/hutool");
+        }
+        long time = SystemClock.now() - start;
+        log.info("hutool syncUpload：{}，耗时 {} ms，{}/s", FileUtil.readableFileSize(size), time, FileUtil.readableFileSize(size * 1000 / Math.max(time, 1)));
+        //
+        this.clear();
+        log.info("单通道：{}", new SshTransfer(sshModel, 1, false).upload(localDir, remotePath + "/single"));
+        this.clear();
+        log.info("多通道：{}", new SshTransfer(sshModel, 4, false).upload(localDir, remotePath + "/parallel"));
+        log.info("多通道（再次上传，跳过未变化文件）：{}", new SshTransfer(sshModel, 4, false).upload(localDir, remotePath + "/parallel"));
+        this.clear();
+        log.info("tar 流：{}", new SshTransfer(sshModel, 1, true).upload(localDir, remotePath + "/tar"));
+        this.clear();
+    }
+
+    private void clear() {
+        try (SshSessionPool.Lease lease = SshSessionPool.borrow(sshModel);
+             Sftp sftp = lease.sftp(sshModel)) {
+            if (sftp.exist(remotePath)) {
+                sftp.delDir(remotePath);
+            }
+        }
+    }
+}
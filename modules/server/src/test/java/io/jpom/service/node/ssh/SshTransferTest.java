@@ -0,0 +1,125 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service.node.ssh;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.RandomUtil;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpException;
+import io.jpom.model.data.SshModel;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * ssh 目录上传：额外的并行通道不可用时由当前通道完成上传
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class SshTransferTest {
+
+    private Function<SshModel, Session> connector;
+    private SshModel sshModel;
+    private File localDir;
+
+    @Before
+    public void before() {
+        connector = SshSessionPool.connector;
+        sshModel = new SshModel("transfer-" + System.nanoTime());
+        sshModel.setName("transfer");
+        sshModel.setHost("127.0.0.1");
+        localDir = FileUtil.file(FileUtil.getTmpDir(), "jpom-transfer-" + System.nanoTime());
+        for (int i = 0; i < 5; i++) {
+            FileUtil.writeBytes(RandomUtil.randomBytes(1024), FileUtil.file(localDir, "d" + (i % 2), i + ".js"));
+        }
+    }
+
+    @After
+    public void after() {
+        SshSessionPool.invalidate(sshModel.getId());
+        SshSessionPool.connector = connector;
+        FileUtil.del(localDir);
+    }
+
+    private static Session mockSession(ChannelSftp channel) throws JSchException {
+        Session session = SshSessionPoolTest.mockSession();
+        Mockito.when(session.openChannel("sftp")).thenReturn(channel);
+        return session;
+    }
+
+    @Test
+    public void testNoSecondSession() throws Exception {
+        // 服务器拒绝更多的连接（MaxStartups、fail2ban 等）
+        SshSessionPoolTest.config(4, 2);
+        ChannelSftp channel = Mockito.mock(ChannelSftp.class);
+        Session session = mockSession(channel);
+        AtomicInteger handshake = new AtomicInteger();
+        SshSessionPool.connector = model -> {
+            if (handshake.getAndIncrement() > 0) {
+                throw new IllegalStateException("connection refused");
+            }
+            return session;
+        };
+        SshTransfer.Result result = new SshTransfer(sshModel, 3, false).upload(localDir, "/tmp/app");
+        Assert.assertEquals(5, result.getFileCount());
+        Assert.assertTrue(handshake.get() > 1);
+        Mockito.verify(channel, Mockito.times(5)).put(ArgumentMatchers.any(InputStream.class), ArgumentMatchers.anyString(), ArgumentMatchers.eq(ChannelSftp.OVERWRITE));
+    }
+
+    @Test
+    public void testNoSecondChannel() throws Exception {
+        // 一个会话，服务器限制每个连接的通道数（MaxSessions）
+        SshSessionPoolTest.config(1, 3);
+        ChannelSftp channel = Mockito.mock(ChannelSftp.class);
+        Session session = SshSessionPoolTest.mockSession();
+        Mockito.when(session.openChannel("sftp")).thenReturn(channel).thenThrow(new JSchException("channel is not opened."));
+        SshSessionPool.connector = model -> session;
+        SshTransfer.Result result = new SshTransfer(sshModel, 3, false).upload(localDir, "/tmp/app");
+        Assert.assertEquals(5, result.getFileCount());
+        Mockito.verify(session, Mockito.times(3)).openChannel("sftp");
+    }
+
+    @Test
+    public void testTransferError() throws Exception {
+        // 传输失败仍然结束整个上传
+        SshSessionPoolTest.config(1, 3);
+        ChannelSftp channel = Mockito.mock(ChannelSftp.class);
+        Mockito.doThrow(new SftpException(ChannelSftp.SSH_FX_FAILURE, "disk full"))
+            .when(channel).put(ArgumentMatchers.any(InputStream.class), ArgumentMatchers.anyString(), ArgumentMatchers.anyInt());
+        Session session = mockSession(channel);
+        SshSessionPool.connector = model -> session;
+        SshTransfer sshTransfer = new SshTransfer(sshModel, 3, false);
+        Assert.assertThrows(IllegalStateException.class, () -> sshTransfer.upload(localDir, "/tmp/app"));
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service.stat;
+
+import cn.hutool.core.date.SystemClock;
+import cn.hutool.core.io.FileUtil;
+import io.jpom.util.TimeSeriesCodec;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 节点监控数据时序存储：压缩编码、汇总以及重新打开后查询
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class MonitorSeriesStoreTest {
+
+    private File root;
+
+    @Before
+    public void before() {
+        root = FileUtil.file(FileUtil.getTmpDir(), "jpom-monitor-series-" + System.nanoTime());
+    }
+
+    @After
+    public void after() {
+        FileUtil.del(root);
+    }
+
+    @Test
+    public void testCodec() {
+        int count = 200;
+        long[] times = new long[count];
+        double[][] columns = new double[3][count];
+        long time = 1663545600000L;
+        for (int i = 0; i < count; i++) {
+            time += 30_000 + (i % 7 == 0 ? 13 : 0) + (i == 100 ? 1_000_000_000L : 0);
+            times[i] = time;
+            columns[0][i] = 12.5 + (i % 10) * 0.01;
+            columns[1][i] = i % 3 == 0 ? Double.NaN : -i;
+            columns[2][i] = 55.55;
+        }
+        byte[] bytes = TimeSeriesCodec.encode(times, columns, count);
+        // 时间 + 3 列原始数据需要 6400 字节
+        Assert.assertTrue(bytes.length < 2000);
+        TimeSeriesCodec.Block block = TimeSeriesCodec.decode(bytes);
+        Assert.assertEquals(count, block.size());
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(times[i], block.getTime(i));
+            for (int j = 0; j < 3; j++) {
+                Assert.assertEquals(Double.doubleToRawLongBits(columns[j][i]), Double.doubleToRawLongBits(block.getValue(j, i)));
+            }
+        }
+    }
+
+    @Test
+    public void testRollup() throws Exception {
+        MonitorSeriesStore store = new MonitorSeriesStore(root);
+        long start = (SystemClock.now() / TimeUnit.HOURS.toMillis(1) - 2) * TimeUnit.HOURS.toMillis(1);
+        // 两个小时，每 30 秒一条
+        for (int i = 0; i < 240; i++) {
+            long time = start + i * 30_000L;
+            store.append("node1", time, new double[]{i % 2 == 0 ? 10 : 20, 50, Double.NaN, 30, i});
+        }
+        List<MonitorSeriesStore.Point> raw = store.query("node1", MonitorSeriesStore.Resolution.RAW, start, start + TimeUnit.HOURS.toMillis(2));
+        Assert.assertEquals(240, raw.size());
+        store.flush(true);
+
+        // 重新打开，从文件读取
+        store = new MonitorSeriesStore(root);
+        raw = store.query("node1", MonitorSeriesStore.Resolution.RAW, start, start + TimeUnit.HOURS.toMillis(2));
+        Assert.assertEquals(240, raw.size());
+        Assert.assertEquals(239, raw.get(239).getValues()[4], 0);
+        List<MonitorSeriesStore.Point> latest = store.latest("node1", 10);
+        Assert.assertEquals(10, latest.size());
+        Assert.assertEquals(start + 239 * 30_000L, latest.get(9).getTime());
+
+        List<MonitorSeriesStore.Point> minute = store.query("node1", MonitorSeriesStore.Resolution.MINUTE, start, start + TimeUnit.HOURS.toMillis(2));
+        Assert.assertEquals(120, minute.size());
+        double[] values = minute.get(0).getValues();
+        int metrics = MonitorSeriesStore.METRICS.length;
+        // cpu 平均值、最小值、最大值
+        Assert.assertEquals(15, values[0], 0);
+        Assert.assertEquals(10, values[metrics], 0);
+        Assert.assertEquals(20, values[metrics * 2], 0);
+        Assert.assertTrue(Double.isNaN(values[2]));
+
+        List<MonitorSeriesStore.Point> hour = store.query("node1", MonitorSeriesStore.Resolution.HOUR, start, start + TimeUnit.HOURS.toMillis(2));
+        Assert.assertEquals(2, hour.size());
+        Assert.assertEquals(119, hour.get(0).getValues()[metrics * 2 + 4], 0);
+
+        // 文件末尾不完整的数据块忽略
+        File file = FileUtil.loopFiles(FileUtil.file(root, "raw")).get(0);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.seek(randomAccessFile.length());
+            randomAccessFile.write(new byte[]{0, 0, 1, 0, 1, 2});
+        }
+        store = new MonitorSeriesStore(root);
+        raw = store.query("node1", MonitorSeriesStore.Resolution.RAW, start, start + TimeUnit.HOURS.toMillis(2));
+        Assert.assertEquals(240, raw.size());
+    }
+
+    @Test
+    public void testMergeWeighted() {
+        long minute = TimeUnit.MINUTES.toMillis(1);
+        long start = (SystemClock.now() - TimeUnit.HOURS.toMillis(1)) / minute * minute;
+        MonitorSeriesStore store = new MonitorSeriesStore(root);
+        for (int i = 0; i < 3; i++) {
+            store.append("node1", start + i * 10_000L, new double[]{10, 50, 50, 50, 1});
+        }
+        // 重启时写入未结束的汇总，重启后同一个间隔再写入一次
+        store.flush(true);
+        store = new MonitorSeriesStore(root);
+        store.append("node1", start + 30_000L, new double[]{50, 50, 50, 50, Double.NaN});
+        store.flush(true);
+        List<MonitorSeriesStore.Point> points = store.query("node1", MonitorSeriesStore.Resolution.MINUTE, start, start + minute);
+        Assert.assertEquals(1, points.size());
+        double[] values = points.get(0).getValues();
+        int metrics = MonitorSeriesStore.METRICS.length;
+        // 按条数加权 (10 * 3 + 50) / 4
+        Assert.assertEquals(20, values[0], 0);
+        Assert.assertEquals(10, values[metrics], 0);
+        Assert.assertEquals(50, values[metrics * 2], 0);
+        Assert.assertEquals(4, values[metrics * 3], 0);
+        // 空值不计入条数
+        Assert.assertEquals(1, values[4], 0);
+        Assert.assertEquals(3, values[metrics * 3 + 4], 0);
+        Assert.assertEquals(start, store.firstTime("node1", MonitorSeriesStore.Resolution.MINUTE));
+        Assert.assertEquals(Long.MAX_VALUE, store.firstTime("node2", MonitorSeriesStore.Resolution.MINUTE));
+    }
+
+    @Test
+    public void testSelectResolution() {
+        long now = SystemClock.now();
+        long hour = TimeUnit.HOURS.toMillis(1);
+        long day = TimeUnit.DAYS.toMillis(1);
+        Assert.assertEquals(MonitorSeriesStore.Resolution.RAW, MonitorSeriesStore.selectResolution(now - hour, now, 30_000, 5000, now));
+        Assert.assertEquals(MonitorSeriesStore.Resolution.FIVE_MINUTES, MonitorSeriesStore.selectResolution(now - 7 * day, now, 30_000, 5000, now));
+        Assert.assertEquals(MonitorSeriesStore.Resolution.MINUTE, MonitorSeriesStore.selectResolution(now - 10 * day, now - 10 * day + hour, 30_000, 5000, now));
+        Assert.assertEquals(MonitorSeriesStore.Resolution.HOUR, MonitorSeriesStore.selectResolution(now - 365 * day, now, 30_000, 5000, now));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.service.user;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.date.DateField;
+import cn.hutool.core.date.DateTime;
+import cn.hutool.core.date.DateUtil;
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.ReflectUtil;
+import cn.jiangzeyin.common.spring.SpringUtil;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import io.jpom.model.data.WorkspaceModel;
+import io.jpom.model.user.UserBindWorkspaceModel;
+import io.jpom.model.user.UserModel;
+import io.jpom.model.user.UserPermissionGroupBean;
+import io.jpom.permission.MethodFeature;
+import io.jpom.service.h2db.MemoryDb;
+import io.jpom.service.system.WorkspaceService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.time.LocalDate;
+
+/**
+ * 预先计算的权限：绑定关系、权限组变动后失效，禁止/允许执行时间段，ssh 终端不限制
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class UserBindWorkspaceServiceTest {
+
+    private WorkspaceService workspaceService;
+    private UserPermissionGroupServer groupServer;
+    private UserBindWorkspaceService bindService;
+    private String workspace1;
+    private String workspace2;
+
+    @Before
+    public void before() throws Exception {
+        MemoryDb.init();
+        workspaceService = new WorkspaceService();
+        groupServer = new UserPermissionGroupServer();
+        bindService = new UserBindWorkspaceService(workspaceService, groupServer);
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.registerBean(WorkspaceService.class, () -> workspaceService);
+        context.registerBean(UserPermissionGroupServer.class, () -> groupServer);
+        context.registerBean(UserBindWorkspaceService.class, () -> bindService);
+        context.refresh();
+        SpringUtil.updateApplicationContext(context);
+        workspace1 = this.createWorkspace();
+        workspace2 = this.createWorkspace();
+    }
+
+    private String createWorkspace() {
+        WorkspaceModel workspaceModel = new WorkspaceModel();
+        workspaceModel.setId(IdUtil.fastSimpleUUID());
+        workspaceModel.setName("test");
+        workspaceService.insert(workspaceModel);
+        return workspaceModel.getId();
+    }
+
+    private UserPermissionGroupBean createGroup(JSONArray prohibitExecute, JSONArray allowExecute) {
+        UserPermissionGroupBean groupBean = new UserPermissionGroupBean();
+        groupBean.setName("test");
+        groupBean.setProhibitExecute(prohibitExecute == null ? null : prohibitExecute.toString());
+        groupBean.setAllowExecute(allowExecute == null ? null : allowExecute.toString());
+        groupServer.insert(groupBean);
+        return groupBean;
+    }
+
+    private UserModel createUser(String... groups) {
+        UserModel userModel = new UserModel(IdUtil.fastSimpleUUID());
+        userModel.setPermissionGroup(CollUtil.join(CollUtil.newArrayList(groups), "@"));
+        return userModel;
+    }
+
+    private static JSONArray prohibit(DateTime start, DateTime end) {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("startTime", DateUtil.formatDateTime(start));
+        jsonObject.put("endTime", DateUtil.formatDateTime(end));
+        jsonObject.put("reason", "test");
+        return new JSONArray(CollUtil.newArrayList(jsonObject));
+    }
+
+    private static JSONArray allow(Integer... weeks) {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("week", weeks);
+        jsonObject.put("startTime", "00:00:00");
+        jsonObject.put("endTime", "23:59:59");
+        return new JSONArray(CollUtil.newArrayList(jsonObject));
+    }
+
+    @Test
+    public void testBindInvalidation() {
+        UserPermissionGroupBean group = this.createGroup(null, null);
+        UserModel userModel = this.createUser(group.getId());
+        Assert.assertFalse(bindService.exists(userModel, workspace1));
+        // 绑定后立即生效
+        bindService.updateUserWorkspace(group.getId(), CollUtil.newArrayList(workspace1, workspace1 + "-" + MethodFeature.EXECUTE.name()));
+        Assert.assertTrue(bindService.exists(userModel, workspace1));
+        Assert.assertTrue(bindService.checkPermission(userModel, workspace1, MethodFeature.EXECUTE).isSuccess());
+        Assert.assertFalse(bindService.checkPermission(userModel, workspace1, MethodFeature.DEL).isSuccess());
+        Assert.assertFalse(bindService.exists(userModel, workspace2));
+        // 重新绑定，旧的权限失效
+        bindService.updateUserWorkspace(group.getId(), CollUtil.newArrayList(workspace2, workspace2 + "-" + MethodFeature.DEL.name()));
+        Assert.assertFalse(bindService.exists(userModel, workspace1));
+        Assert.assertFalse(bindService.checkPermission(userModel, workspace1, MethodFeature.EXECUTE).isSuccess());
+        Assert.assertTrue(bindService.checkPermission(userModel, workspace2, MethodFeature.DEL).isSuccess());
+        // 解绑
+        bindService.deleteByUserId(group.getId());
+        Assert.assertFalse(bindService.exists(userModel, workspace2));
+        Assert.assertEquals(UserBindWorkspaceModel.PermissionResultEnum.FAIL, this.state(bindService.checkPermission(userModel, workspace2, MethodFeature.DEL)));
+    }
+
+    @Test
+    public void testUserGroupChange() {
+        UserPermissionGroupBean group1 = this.createGroup(null, null);
+        UserPermissionGroupBean group2 = this.createGroup(null, null);
+        bindService.updateUserWorkspace(group1.getId(), CollUtil.newArrayList(workspace1));
+        bindService.updateUserWorkspace(group2.getId(), CollUtil.newArrayList(workspace2));
+        UserModel userModel = this.createUser(group1.getId());
+        Assert.assertTrue(bindService.exists(userModel, workspace1));
+        Assert.assertFalse(bindService.exists(userModel, workspace2));
+        // 用户修改权限组，缓存按权限组字段失效
+        userModel.setPermissionGroup(group1.getId() + "@" + group2.getId());
+        Assert.assertTrue(bindService.exists(userModel, workspace1));
+        Assert.assertTrue(bindService.exists(userModel, workspace2));
+        userModel.setPermissionGroup(group2.getId());
+        Assert.assertFalse(bindService.exists(userModel, workspace1));
+    }
+
+    @Test
+    public void testProhibit() {
+        DateTime now = DateUtil.date();
+        UserPermissionGroupBean group = this.createGroup(prohibit(DateUtil.offset(now, DateField.HOUR, -1), DateUtil.offset(now, DateField.HOUR, 1)), null);
+        bindService.updateUserWorkspace(group.getId(), CollUtil.newArrayList(workspace1, workspace1 + "-" + MethodFeature.EXECUTE.name()));
+        UserModel userModel = this.createUser(group.getId());
+        UserBindWorkspaceModel.PermissionResult permissionResult = bindService.checkPermission(userModel, workspace1, MethodFeature.EXECUTE);
+        Assert.assertEquals(UserBindWorkspaceModel.PermissionResultEnum.MISS_PROHIBIT, this.state(permissionResult));
+        Assert.assertTrue(permissionResult.errorMsg().contains("test"));
+        // 修改权限组的禁止时间段后立即生效
+        group.setProhibitExecute(prohibit(DateUtil.offset(now, DateField.HOUR, -3), DateUtil.offset(now, DateField.HOUR, -2)).toString());
+        groupServer.update(group);
+        Assert.assertTrue(bindService.checkPermission(userModel, workspace1, MethodFeature.EXECUTE).isSuccess());
+    }
+
+    @Test
+    public void testAllow() {
+        int today = LocalDate.now().getDayOfWeek().getValue();
+        int otherDay = today % 7 + 1;
+        UserPermissionGroupBean group = this.createGroup(null, allow(otherDay));
+        bindService.updateUserWorkspace(group.getId(), CollUtil.newArrayList(workspace1, workspace1 + "-" + MethodFeature.EXECUTE.name()));
+        UserModel userModel = this.createUser(group.getId());
+        UserBindWorkspaceModel.PermissionResult permissionResult = bindService.checkPermission(userModel, workspace1, MethodFeature.EXECUTE);
+        Assert.assertEquals(UserBindWorkspaceModel.PermissionResultEnum.MISS_PERIOD, this.state(permissionResult));
+        // 修改允许的时间段后立即生效
+        group.setAllowExecute(allow(otherDay, today).toString());
+        groupServer.update(group);
+        Assert.assertTrue(bindService.checkPermission(userModel, workspace1, MethodFeature.EXECUTE).isSuccess());
+        // 多个权限组，满足其中一个允许时间段即可
+        UserPermissionGroupBean group2 = this.createGroup(null, allow(otherDay));
+        bindService.updateUserWorkspace(group2.getId(), CollUtil.newArrayList(workspace1, workspace1 + "-" + MethodFeature.EXECUTE.name()));
+        userModel.setPermissionGroup(group.getId() + "@" + group2.getId());
+        Assert.assertTrue(bindService.checkPermission(userModel, workspace1, MethodFeature.EXECUTE).isSuccess());
+        userModel.setPermissionGroup(group2.getId());
+        Assert.assertEquals(UserBindWorkspaceModel.PermissionResultEnum.MISS_PERIOD, this.state(bindService.checkPermission(userModel, workspace1, MethodFeature.EXECUTE)));
+    }
+
+    @Test
+    public void testSshCommandNotLimited() {
+        UserPermissionGroupBean group = this.createGroup(null, null);
+        bindService.updateUserWorkspace(group.getId(), CollUtil.newArrayList(workspace1));
+        UserModel userModel = this.createUser(group.getId());
+        Assert.assertTrue(bindService.exists(userModel, workspace1));
+        Assert.assertFalse(bindService.exists(userModel, workspace1 + UserBindWorkspaceService.SSH_COMMAND_NOT_LIMITED));
+        bindService.updateUserWorkspace(group.getId(), CollUtil.newArrayList(workspace1, workspace1 + UserBindWorkspaceService.SSH_COMMAND_NOT_LIMITED));
+        Assert.assertTrue(bindService.exists(userModel, workspace1 + UserBindWorkspaceService.SSH_COMMAND_NOT_LIMITED));
+        Assert.assertTrue(bindService.checkPermission(userModel, workspace1 + UserBindWorkspaceService.SSH_COMMAND_NOT_LIMITED).isSuccess());
+        // 其他权限位、其他工作空间不受影响
+        Assert.assertFalse(bindService.exists(userModel, workspace1 + UserBindWorkspaceService.SYSTEM_USER));
+        Assert.assertFalse(bindService.exists(userModel, workspace2 + UserBindWorkspaceService.SSH_COMMAND_NOT_LIMITED));
+    }
+
+    @Test
+    public void testOldUserBind() {
+        // 旧数据直接绑定在用户ID上，没有权限组
+        UserModel userModel = this.createUser();
+        bindService.updateUserWorkspace(userModel.getId(), CollUtil.newArrayList(workspace1));
+        Assert.assertTrue(bindService.exists(userModel, workspace1));
+        Assert.assertEquals(UserBindWorkspaceModel.PermissionResultEnum.FAIL, this.state(bindService.checkPermission(userModel, workspace1)));
+    }
+
+    private UserBindWorkspaceModel.PermissionResultEnum state(UserBindWorkspaceModel.PermissionResult permissionResult) {
+        return (UserBindWorkspaceModel.PermissionResultEnum) ReflectUtil.getFieldValue(permissionResult, "state");
+    }
+}
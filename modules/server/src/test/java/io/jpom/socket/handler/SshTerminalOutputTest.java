@@ -0,0 +1,196 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2019 Code Technology Studio
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.jpom.socket.handler;
+
+import cn.hutool.core.util.CharsetUtil;
+import cn.hutool.core.util.StrUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ssh 终端输出
+ *
+ * @author bwcx_jzy
+ * @since 2022/9/19
+ */
+public class SshTerminalOutputTest {
+
+    /**
+     * 每次只返回一个字节，模拟多字节字符跨读取边界
+     */
+    private static class SlowInputStream extends InputStream {
+        private final byte[] bytes;
+        private int index;
+
+        SlowInputStream(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() {
+            return index < bytes.length ? bytes[index++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int read = this.read();
+            if (read < 0) {
+                return -1;
+            }
+            b[off] = (byte) read;
+            return 1;
+        }
+    }
+
+    private static class Collector implements SshTerminalOutput.FrameSender {
+        private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        private final List<Integer> frames = new ArrayList<>();
+
+        @Override
+        public void send(ByteBuffer buffer) {
+            frames.add(buffer.remaining());
+            outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+
+        String text() {
+            return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testDecode() throws IOException {
+        String text = "中文输出 abc 测试\r\n";
+        SshTerminalOutput output = new SshTerminalOutput(CharsetUtil.CHARSET_GBK, 1024);
+        Collector collector = new Collector();
+        output.attach(collector, 0);
+        output.pump(new SlowInputStream(text.getBytes(CharsetUtil.CHARSET_GBK)));
+        Assert.assertEquals(text, collector.text());
+        Assert.assertEquals(text.getBytes(StandardCharsets.UTF_8).length, output.getTotal());
+    }
+
+    @Test
+    public void testBatch() throws IOException {
+        String text = StrUtil.repeat("line 日志\n", 20000);
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        SshTerminalOutput output = new SshTerminalOutput(StandardCharsets.UTF_8, 1024);
+        Collector collector = new Collector();
+        output.attach(collector, 0);
+        output.pump(new java.io.ByteArrayInputStream(bytes));
+        Assert.assertEquals(text, collector.text());
+        // 数据一次性到达时按最大帧合并
+        Assert.assertTrue("frames " + collector.frames.size(), collector.frames.size() <= bytes.length / SshTerminalOutput.MAX_FRAME_SIZE + 2);
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        SshTerminalOutput output = new SshTerminalOutput(StandardCharsets.UTF_8, 32 * 1024);
+        Collector first = new Collector();
+        output.attach(first, 0);
+        output.write("hello ");
+        output.detach();
+        output.write("世界");
+        // 从已经收到的位置继续
+        Collector second = new Collector();
+        output.attach(second, first.outputStream.size());
+        Assert.assertEquals("世界", second.text());
+        // 缓存被覆盖后从完整的字符开始补发
+        output.write(StrUtil.repeat("中", 20000));
+        Collector third = new Collector();
+        output.attach(third, 0);
+        String text = third.text();
+        Assert.assertTrue(StrUtil.containsOnly(text, '中'));
+        Assert.assertEquals(32 * 1024 / 3, text.length());
+    }
+
+    @Test
+    public void testReplayFailure() throws IOException {
+        SshTerminalOutput output = new SshTerminalOutput(StandardCharsets.UTF_8, 32 * 1024);
+        output.write("hello");
+        List<Boolean> closed = new ArrayList<>();
+        SshTerminalOutput.FrameSender broken = new SshTerminalOutput.FrameSender() {
+            @Override
+            public void send(ByteBuffer buffer) throws IOException {
+                throw new IOException("send timeout");
+            }
+
+            @Override
+            public void close() {
+                closed.add(true);
+            }
+        };
+        try {
+            output.attach(broken, 0);
+            Assert.fail("replay should fail");
+        } catch (IOException ignored) {
+        }
+        // 补发失败不绑定客户端，由调用方关闭
+        output.write(" world");
+        Assert.assertTrue(closed.isEmpty());
+        Collector collector = new Collector();
+        output.attach(collector, 0);
+        Assert.assertEquals("hello world", collector.text());
+    }
+
+    @Test
+    public void testCloseOutsideLock() throws Exception {
+        SshTerminalOutput output = new SshTerminalOutput(StandardCharsets.UTF_8, 32 * 1024);
+        Collector collector = new Collector();
+        List<Boolean> attached = new ArrayList<>();
+        output.attach(new SshTerminalOutput.FrameSender() {
+            @Override
+            public void send(ByteBuffer buffer) throws IOException {
+                throw new IOException("send timeout");
+            }
+
+            @Override
+            public void close() {
+                // 模拟关闭事件时另一个线程正在重连
+                Thread thread = new Thread(() -> {
+                    try {
+                        output.attach(collector, 0);
+                        attached.add(true);
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                thread.start();
+                try {
+                    thread.join(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, 0);
+        output.write("hello");
+        Assert.assertEquals(1, attached.size());
+        Assert.assertEquals("hello", collector.text());
+    }
+}
@@ -0,0 +1,35 @@
+--
+-- The MIT License (MIT)
+--
+-- Copyright (c) 2019 Code Technology Studio
+--
+-- Permission is hereby granted, free of charge, to any person obtaining a copy of
+-- this software and associated documentation files (the "Software"), to deal in
+-- the Software without restriction, including without limitation the rights to
+-- use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+-- the Software, and to permit persons to whom the Software is furnished to do so,
+-- subject to the following conditions:
+--
+-- The above copyright notice and this permission notice shall be included in all
+-- copies or substantial portions of the Software.
+--
+-- THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+-- IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+-- FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+-- COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+-- IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+-- CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+--
+
+-- 日志表的时间字段索引，自动清理按时间范围删除
+CREATE INDEX IF NOT EXISTS SYSTEMMONITORLOG_INDEX2 ON PUBLIC.SYSTEMMONITORLOG (monitorTime);
+CREATE INDEX IF NOT EXISTS USEROPERATELOGV1_INDEX1 ON PUBLIC.USEROPERATELOGV1 (optTime);
+CREATE INDEX IF NOT EXISTS USEROPERATELOGV1_INDEX2 ON PUBLIC.USEROPERATELOGV1 (createTimeMillis);
+CREATE INDEX IF NOT EXISTS MONITORNOTIFYLOG_INDEX1 ON PUBLIC.MONITORNOTIFYLOG (createTime);
+CREATE INDEX IF NOT EXISTS MONITORNOTIFYLOG_INDEX2 ON PUBLIC.MONITORNOTIFYLOG (createTimeMillis);
+CREATE INDEX IF NOT EXISTS SSHTERMINALEXECUTELOG_INDEX1 ON PUBLIC.SSHTERMINALEXECUTELOG (createTimeMillis);
+CREATE INDEX IF NOT EXISTS BUILDHISTORYLOG_INDEX1 ON PUBLIC.BUILDHISTORYLOG (startTime);
+CREATE INDEX IF NOT EXISTS BUILDHISTORYLOG_INDEX2 ON PUBLIC.BUILDHISTORYLOG (buildDataId, startTime);
+CREATE INDEX IF NOT EXISTS COMMAND_EXEC_LOG_INDEX1 ON PUBLIC.COMMAND_EXEC_LOG (createTimeMillis);
+CREATE INDEX IF NOT EXISTS SCRIPT_EXECUTE_LOG_INDEX1 ON PUBLIC.SCRIPT_EXECUTE_LOG (createTimeMillis);
+CREATE INDEX IF NOT EXISTS SERVER_SCRIPT_EXECUTE_LOG_INDEX1 ON PUBLIC.SERVER_SCRIPT_EXECUTE_LOG (createTimeMillis);
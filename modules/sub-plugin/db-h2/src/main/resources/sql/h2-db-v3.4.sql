@@ -0,0 +1,39 @@
+--
+-- The MIT License (MIT)
+--
+-- Copyright (c) 2019 Code Technology Studio
+--
+-- Permission is hereby granted, free of charge, to any person obtaining a copy of
+-- this software and associated documentation files (the "Software"), to deal in
+-- the Software without restriction, including without limitation the rights to
+-- use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+-- the Software, and to permit persons to whom the Software is furnished to do so,
+-- subject to the following conditions:
+--
+-- The above copyright notice and this permission notice shall be included in all
+-- copies or substantial portions of the Software.
+--
+-- THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+-- IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+-- FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+-- COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+-- IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+-- CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+--
+
+-- 命令批量执行策略
+ALTER TABLE COMMAND_INFO
+    ADD IF NOT EXISTS timeout int comment '单台 ssh 执行超时时间 单位秒';
+
+ALTER TABLE COMMAND_INFO
+    ADD IF NOT EXISTS minSuccessRate int DEFAULT 0 comment '批量执行的最低成功率';
+
+-- 命令执行结果
+ALTER TABLE COMMAND_EXEC_LOG
+    ADD IF NOT EXISTS exitCode int comment '命令退出码';
+
+ALTER TABLE COMMAND_EXEC_LOG
+    ADD IF NOT EXISTS duration BIGINT comment '执行耗时';
+
+ALTER TABLE COMMAND_EXEC_LOG
+    ADD IF NOT EXISTS outputTail VARCHAR(2000) comment '最后几行输出';
@@ -57,6 +57,18 @@ export function getCommandLogBarchList(params) {
   });
 }
 
+// 命令批次执行结果汇总
+export function getCommandBatchResult(params) {
+  return axios({
+    url: "/node/ssh_command_log/batch_result",
+    method: "get",
+    params: params,
+    headers: {
+      loading: "no",
+    },
+  });
+}
+
 // 删除命令执行记录
 export function deleteCommandLog(id) {
   return axios({
@@ -113,6 +125,8 @@ export const statusMap = {
   1: "执行结束",
   2: "执行错误",
   3: "会话异常",
+  4: "执行超时",
+  5: "取消执行",
 };
 
 export const triggerExecTypeMap = {
@@ -61,13 +61,42 @@ export function getProjectList(params) {
 }
 
 /**
- * 项目运行信息，返回项目占用端口和 pid
+ * 项目运行信息，批量返回项目占用端口、pid、运行时长
  * @param {JSON} params {
  *  nodeId: 节点 ID
  *  ids: 项目 ID 数组字符串格式 ["id1", "id2"]
+ *  getCopy: 是否返回副本状态
  * }
  */
 export function getRuningProjectInfo(params) {
+  return axios({
+    url: "/node/manage/getProjectStatusList",
+    method: "post",
+    data: params,
+    timeout: 0,
+    headers: {
+      loading: "no",
+      tip: "no",
+    },
+  }).then(
+    (res) => {
+      // 未升级的节点没有批量接口（404 或者未知响应），使用旧接口
+      return res && res.code === 200 ? res : getProjectPortInfo(params);
+    },
+    () => {
+      return getProjectPortInfo(params);
+    }
+  );
+}
+
+/**
+ * 项目运行信息，返回项目占用端口和 pid（兼容未升级的节点）
+ * @param {JSON} params {
+ *  nodeId: 节点 ID
+ *  ids: 项目 ID 数组字符串格式 ["id1", "id2"]
+ * }
+ */
+function getProjectPortInfo(params) {
   return axios({
     url: "/node/manage/getProjectPort",
     method: "post",